@@ -17,6 +17,7 @@
 package com.helger.phive.api.execute;
 
 import java.util.Locale;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -71,6 +72,53 @@ public interface IValidationExecutor <SOURCETYPE extends IValidationSource>
      * @since 7.1.1
      */
     void ensureItemIsInCache ();
+
+    /**
+     * Remove the artefact of this executor from a shared cache, so that it can
+     * be reclaimed and that a changed artefact with the same ID is compiled
+     * again on next usage. Implementations may keep an executor local
+     * reference to the compiled artefact, so that running validations are not
+     * affected. This is e.g. used when a validation executor set is evicted or
+     * replaced.
+     *
+     * @since 7.2.2
+     */
+    default void removeItemFromCache ()
+    {}
+  }
+
+  /**
+   * Nested interface for validation executors that can provide a better
+   * suited source for the following executors as a side effect of their own
+   * validation (e.g. an already parsed tree). This is used by
+   * {@link ValidationExecutionManager} if the pipeline mode is enabled.
+   *
+   * @author Philip Helger
+   * @param <SOURCETYPE>
+   *        The validation source type to be used.
+   * @since 7.2.2
+   */
+  public interface IPipelineSupport <SOURCETYPE extends IValidationSource>
+  {
+    /**
+     * Perform validation and optionally provide a new source for all
+     * following executors.
+     *
+     * @param aSource
+     *        Source to be validated. May not be <code>null</code>.
+     * @param aLocale
+     *        The locale to use for error messages if applicable. May be
+     *        <code>null</code> in which case the system default locale is used.
+     * @param aNextSourceConsumer
+     *        The consumer to be invoked with the source that should be used by
+     *        the following executors. It must not be invoked, if the original
+     *        source should be retained. May not be <code>null</code>.
+     * @return Never <code>null</code>.
+     */
+    @Nonnull
+    ValidationResult applyValidationInPipeline (@Nonnull SOURCETYPE aSource,
+                                                @Nullable Locale aLocale,
+                                                @Nonnull Consumer <? super SOURCETYPE> aNextSourceConsumer);
   }
 
   /**
@@ -115,4 +163,23 @@ public interface IValidationExecutor <SOURCETYPE extends IValidationSource>
    */
   @Nonnull
   ValidationResult applyValidation (@Nonnull SOURCETYPE aSource, @Nullable Locale aLocale);
+
+  /**
+   * Perform a fast validation that only determines if the source is valid or
+   * not. Implementations may stop at the first error and should avoid building
+   * error texts and locations. The default implementation performs the full
+   * validation.
+   *
+   * @param aSource
+   *        Source to be validated. May not be <code>null</code>.
+   * @return <code>true</code> if the source is valid or if the validation was
+   *         ignored, <code>false</code> if at least one error was found.
+   * @see #applyValidation(IValidationSource, Locale)
+   * @since 7.2.2
+   */
+  default boolean isValid (@Nonnull final SOURCETYPE aSource)
+  {
+    // Note: locale doesn't matter because we don't use the texts
+    return !applyValidation (aSource, (Locale) null).isFailure ();
+  }
 }
@@ -32,6 +32,7 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsIterable;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.EValidity;
+import com.helger.commons.wrapper.Wrapper;
 import com.helger.phive.api.executorset.IValidationExecutorSet;
 import com.helger.phive.api.result.ValidationResult;
 import com.helger.phive.api.result.ValidationResultList;
@@ -50,9 +51,13 @@ import com.helger.phive.api.source.IValidationSource;
 @NotThreadSafe
 public class ValidationExecutionManager <SOURCETYPE extends IValidationSource> implements IValidationExecutionManager <SOURCETYPE>
 {
+  /** By default the pipeline mode is disabled */
+  public static final boolean DEFAULT_USE_PIPELINE = false;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (ValidationExecutionManager.class);
 
   private final ICommonsList <IValidationExecutor <SOURCETYPE>> m_aExecutors = new CommonsArrayList <> ();
+  private boolean m_bUsePipeline = DEFAULT_USE_PIPELINE;
 
   /**
    * Default constructor without executors.
@@ -137,6 +142,37 @@ public class ValidationExecutionManager <SOURCETYPE extends IValidationSource> i
     return m_aExecutors;
   }
 
+  /**
+   * @return <code>true</code> if the pipeline mode is enabled,
+   *         <code>false</code> if not. Default is
+   *         {@link #DEFAULT_USE_PIPELINE}.
+   * @since 7.2.2
+   */
+  public final boolean isUsePipeline ()
+  {
+    return m_bUsePipeline;
+  }
+
+  /**
+   * Enable or disable the pipeline mode. If enabled, executors implementing
+   * {@link IValidationExecutor.IPipelineSupport} may replace the source for all
+   * following executors. That way e.g. the XML Schema validation can build the
+   * tree for the following Schematron validations while parsing, so that the
+   * document is parsed only once.
+   *
+   * @param bUsePipeline
+   *        <code>true</code> to enable the pipeline mode, <code>false</code> to
+   *        disable it.
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutionManager <SOURCETYPE> setUsePipeline (final boolean bUsePipeline)
+  {
+    m_bUsePipeline = bUsePipeline;
+    return this;
+  }
+
   public void executeValidation (@Nonnull final SOURCETYPE aSource,
                                  @Nonnull final ValidationResultList aValidationResults,
                                  @Nullable final Locale aLocale)
@@ -147,6 +183,8 @@ public class ValidationExecutionManager <SOURCETYPE extends IValidationSource> i
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Executing validation on source " + aSource + (aLocale == null ? "" : " and locale " + aLocale));
 
+    // The source may be replaced in pipeline mode
+    final Wrapper <SOURCETYPE> aCurSource = new Wrapper <> (aSource);
     boolean bIgnoreRest = false;
     for (final IValidationExecutor <SOURCETYPE> aExecutor : getAllExecutors ())
     {
@@ -158,7 +196,15 @@ public class ValidationExecutionManager <SOURCETYPE extends IValidationSource> i
       else
       {
         // Execute validation
-        final ValidationResult aResult = aExecutor.applyValidation (aSource, aLocale);
+        final ValidationResult aResult;
+        if (m_bUsePipeline && aExecutor instanceof IValidationExecutor.IPipelineSupport <?>)
+        {
+          @SuppressWarnings ("unchecked")
+          final IValidationExecutor.IPipelineSupport <SOURCETYPE> aPipelineExecutor = (IValidationExecutor.IPipelineSupport <SOURCETYPE>) aExecutor;
+          aResult = aPipelineExecutor.applyValidationInPipeline (aCurSource.get (), aLocale, aCurSource::set);
+        }
+        else
+          aResult = aExecutor.applyValidation (aCurSource.get (), aLocale);
         assert aResult != null;
         aValidationResults.add (aResult);
 
@@ -178,10 +224,8 @@ public class ValidationExecutionManager <SOURCETYPE extends IValidationSource> i
 
     for (final IValidationExecutor <SOURCETYPE> aExecutor : getAllExecutors ())
     {
-      // Execute validation
-      // Note: locale doesn't matter because we don't use the texts
-      final ValidationResult aResult = aExecutor.applyValidation (aSource, (Locale) null);
-      if (aResult.isFailure ())
+      // Execute the fast validation without creating error details
+      if (!aExecutor.isValid (aSource))
       {
         // Break asap
         return EValidity.INVALID;
@@ -16,14 +16,21 @@
  */
 package com.helger.phive.api.executorset;
 
+import java.util.Comparator;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.version.Version;
+import com.helger.commons.version.VersionRange;
 import com.helger.phive.api.source.IValidationSource;
 
 /**
@@ -118,4 +125,107 @@ public interface IValidationExecutorSetRegistry <SOURCETYPE extends IValidationS
    */
   @Nullable
   IValidationExecutorSet <SOURCETYPE> getOfID (@Nullable VESID aID);
+
+  /**
+   * Get all versions of the validation executor sets with the provided group
+   * ID, artifact ID and classifier, sorted ascending by version. Versions are
+   * compared using {@link Version#parse(String)}.<br>
+   * The default implementation scans all registered validation executor sets.
+   *
+   * @param sGroupID
+   *        The group ID to search. May neither be <code>null</code> nor empty.
+   * @param sArtifactID
+   *        The artifact ID to search. May neither be <code>null</code> nor
+   *        empty.
+   * @param sClassifier
+   *        The classifier to search. May be <code>null</code>.
+   * @return Never <code>null</code> but maybe empty.
+   * @since 7.2.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsList <IValidationExecutorSet <SOURCETYPE>> getAllVersions (@Nonnull @Nonempty final String sGroupID,
+                                                                              @Nonnull @Nonempty final String sArtifactID,
+                                                                              @Nullable final String sClassifier)
+  {
+    ValueEnforcer.notEmpty (sGroupID, "GroupID");
+    ValueEnforcer.notEmpty (sArtifactID, "ArtifactID");
+
+    final String sRealClassifier = StringHelper.hasText (sClassifier) ? sClassifier : null;
+    final ICommonsList <IValidationExecutorSet <SOURCETYPE>> ret = findAll (x -> {
+      final VESID aID = x.getID ();
+      return aID.getGroupID ().equals (sGroupID) &&
+             aID.getArtifactID ().equals (sArtifactID) &&
+             EqualsHelper.equals (aID.getClassifier (), sRealClassifier);
+    });
+    ret.sort (Comparator.comparing ( (final IValidationExecutorSet <SOURCETYPE> x) -> Version.parse (x.getID ().getVersion ()))
+                        .thenComparing (x -> x.getID ().getVersion ()));
+    return ret;
+  }
+
+  /**
+   * Find the validation executor set with the highest version that matches
+   * the provided group ID, artifact ID and classifier.
+   *
+   * @param sGroupID
+   *        The group ID to search. May neither be <code>null</code> nor empty.
+   * @param sArtifactID
+   *        The artifact ID to search. May neither be <code>null</code> nor
+   *        empty.
+   * @param sClassifier
+   *        The classifier to search. May be <code>null</code>.
+   * @param bIncludeDeprecated
+   *        <code>true</code> to consider deprecated validation executor sets as
+   *        well, <code>false</code> to ignore them.
+   * @return <code>null</code> if no such validation executor set is
+   *         registered.
+   * @since 7.2.2
+   */
+  @Nullable
+  default IValidationExecutorSet <SOURCETYPE> getLatestVersion (@Nonnull @Nonempty final String sGroupID,
+                                                                @Nonnull @Nonempty final String sArtifactID,
+                                                                @Nullable final String sClassifier,
+                                                                final boolean bIncludeDeprecated)
+  {
+    return getLatestVersionInRange (sGroupID, sArtifactID, sClassifier, null, bIncludeDeprecated);
+  }
+
+  /**
+   * Find the validation executor set with the highest version that matches
+   * the provided group ID, artifact ID, classifier and version range.
+   *
+   * @param sGroupID
+   *        The group ID to search. May neither be <code>null</code> nor empty.
+   * @param sArtifactID
+   *        The artifact ID to search. May neither be <code>null</code> nor
+   *        empty.
+   * @param sClassifier
+   *        The classifier to search. May be <code>null</code>.
+   * @param aVersionRange
+   *        The version range to match. May be <code>null</code> to match all
+   *        versions.
+   * @param bIncludeDeprecated
+   *        <code>true</code> to consider deprecated validation executor sets as
+   *        well, <code>false</code> to ignore them.
+   * @return <code>null</code> if no such validation executor set is
+   *         registered.
+   * @since 7.2.2
+   */
+  @Nullable
+  default IValidationExecutorSet <SOURCETYPE> getLatestVersionInRange (@Nonnull @Nonempty final String sGroupID,
+                                                                       @Nonnull @Nonempty final String sArtifactID,
+                                                                       @Nullable final String sClassifier,
+                                                                       @Nullable final VersionRange aVersionRange,
+                                                                       final boolean bIncludeDeprecated)
+  {
+    final ICommonsList <IValidationExecutorSet <SOURCETYPE>> aAll = getAllVersions (sGroupID, sArtifactID, sClassifier);
+    for (int i = aAll.size () - 1; i >= 0; --i)
+    {
+      final IValidationExecutorSet <SOURCETYPE> aVES = aAll.get (i);
+      if ((bIncludeDeprecated || !aVES.isDeprecated ()) &&
+          (aVersionRange == null || aVersionRange.versionMatches (Version.parse (aVES.getID ().getVersion ()))))
+        return aVES;
+    }
+    return null;
+  }
 }
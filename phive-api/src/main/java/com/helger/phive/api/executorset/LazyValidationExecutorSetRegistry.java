@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.api.executorset;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.source.IValidationSource;
+
+/**
+ * A special {@link ValidationExecutorSetRegistry} that additionally supports
+ * the registration of lightweight VES descriptors. A descriptor is a supplier
+ * that creates the VES on first usage (e.g. by reading a VOM file). The
+ * created VES is warmed up (see
+ * {@link ValidationExecutorSetRegistry#warmUp(IValidationExecutorSet)}) and
+ * kept in a size-bounded LRU list. If more VES are created than the maximum
+ * size, the least recently used VES is evicted and re-created on the next
+ * usage.<br>
+ * Upon eviction, the artefacts of the evicted VES are removed from the shared
+ * caches (see
+ * {@link ValidationExecutorSetRegistry#removeFromCache(IValidationExecutorSet)}),
+ * so that they can be reclaimed as soon as no running validation uses the VES
+ * anymore.<br>
+ * VES registered via
+ * {@link #registerValidationExecutorSet(IValidationExecutorSet)} are never
+ * evicted. The methods {@link #getAll()}, {@link #findAll(java.util.function.Predicate)},
+ * {@link #findFirst(java.util.function.Predicate)} and the version lookups only
+ * consider those eagerly registered VES, so that no descriptor is created
+ * implicitly.
+ *
+ * @author Philip Helger
+ * @param <SOURCETYPE>
+ *        The validation source type to be used.
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class LazyValidationExecutorSetRegistry <SOURCETYPE extends IValidationSource> extends
+                                               ValidationExecutorSetRegistry <SOURCETYPE>
+{
+  /** The default maximum number of lazily created VES kept in memory */
+  public static final int DEFAULT_MAX_COMPILED = 50;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (LazyValidationExecutorSetRegistry.class);
+
+  private final class LazyEntry
+  {
+    private final VESID m_aID;
+    private final Supplier <? extends IValidationExecutorSet <SOURCETYPE>> m_aSupplier;
+    private volatile IValidationExecutorSet <SOURCETYPE> m_aVES;
+
+    LazyEntry (@Nonnull final VESID aID, @Nonnull final Supplier <? extends IValidationExecutorSet <SOURCETYPE>> aSupplier)
+    {
+      m_aID = aID;
+      m_aSupplier = aSupplier;
+    }
+
+    @Nonnull
+    IValidationExecutorSet <SOURCETYPE> getOrCreate ()
+    {
+      IValidationExecutorSet <SOURCETYPE> ret = m_aVES;
+      if (ret != null)
+      {
+        m_aHitCount.incrementAndGet ();
+        return ret;
+      }
+
+      synchronized (this)
+      {
+        ret = m_aVES;
+        if (ret == null)
+        {
+          final long nStart = System.nanoTime ();
+          ret = m_aSupplier.get ();
+          if (ret == null)
+            throw new IllegalStateException ("The supplier for validation executor set '" +
+                                             m_aID.getAsSingleID () +
+                                             "' returned null");
+          if (!m_aID.equals (ret.getID ()))
+            throw new IllegalStateException ("The supplier for validation executor set '" +
+                                             m_aID.getAsSingleID () +
+                                             "' returned a VES with the ID '" +
+                                             ret.getID ().getAsSingleID () +
+                                             "'");
+          warmUp (ret);
+          m_aVES = ret;
+
+          final long nMillis = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart);
+          m_aCompilationCount.incrementAndGet ();
+          m_aCompilationMillis.addAndGet (nMillis);
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Created validation executor set '" + m_aID.getAsSingleID () + "' in " + nMillis + " ms");
+        }
+        else
+          m_aHitCount.incrementAndGet ();
+      }
+      return ret;
+    }
+
+    @Nullable
+    synchronized IValidationExecutorSet <SOURCETYPE> evict ()
+    {
+      final IValidationExecutorSet <SOURCETYPE> ret = m_aVES;
+      m_aVES = null;
+      return ret;
+    }
+  }
+
+  private final int m_nMaxCompiled;
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <VESID, LazyEntry> m_aDescriptors = new CommonsHashMap <> ();
+  private final SimpleLock m_aLRULock = new SimpleLock ();
+  @GuardedBy ("m_aLRULock")
+  private final LinkedHashMap <VESID, LazyEntry> m_aLRU = new LinkedHashMap <> (16, 0.75f, true);
+  private volatile Consumer <? super IValidationExecutorSet <SOURCETYPE>> m_aEvictionHandler;
+
+  private final AtomicLong m_aHitCount = new AtomicLong ();
+  private final AtomicLong m_aCompilationCount = new AtomicLong ();
+  private final AtomicLong m_aCompilationMillis = new AtomicLong ();
+  private final AtomicLong m_aEvictionCount = new AtomicLong ();
+
+  public LazyValidationExecutorSetRegistry ()
+  {
+    this (DEFAULT_MAX_COMPILED);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxCompiled
+   *        The maximum number of lazily created VES that are kept in memory at
+   *        the same time. Must be &gt; 0.
+   */
+  public LazyValidationExecutorSetRegistry (@Nonnegative final int nMaxCompiled)
+  {
+    ValueEnforcer.isGT0 (nMaxCompiled, "MaxCompiled");
+    m_nMaxCompiled = nMaxCompiled;
+  }
+
+  /**
+   * @return The maximum number of lazily created VES that are kept in memory at
+   *         the same time. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxCompiled ()
+  {
+    return m_nMaxCompiled;
+  }
+
+  /**
+   * @return The handler that is invoked for each evicted VES. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final Consumer <? super IValidationExecutorSet <SOURCETYPE>> getEvictionHandler ()
+  {
+    return m_aEvictionHandler;
+  }
+
+  /**
+   * Set the handler that is invoked for each evicted VES. Note: the evicted
+   * VES may still be used by running validations.
+   *
+   * @param aEvictionHandler
+   *        The handler to be used. May be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final LazyValidationExecutorSetRegistry <SOURCETYPE> setEvictionHandler (@Nullable final Consumer <? super IValidationExecutorSet <SOURCETYPE>> aEvictionHandler)
+  {
+    m_aEvictionHandler = aEvictionHandler;
+    return this;
+  }
+
+  @Override
+  public void registerValidationExecutorSet (@Nonnull final IValidationExecutorSet <SOURCETYPE> aVES)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+
+    m_aRWLock.writeLocked ( () -> {
+      if (m_aDescriptors.containsKey (aVES.getID ()))
+        throw new IllegalStateException ("Another validation executor set with the ID '" +
+                                         aVES.getID ().getAsSingleID () +
+                                         "' is already registered!");
+      super.registerValidationExecutorSet (aVES);
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException
+   *         If a lazy descriptor with the same ID is registered.
+   */
+  @Override
+  @Nullable
+  public IValidationExecutorSet <SOURCETYPE> replaceValidationExecutorSet (@Nonnull final IValidationExecutorSet <SOURCETYPE> aVES)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      if (m_aDescriptors.containsKey (aVES.getID ()))
+        throw new IllegalStateException ("A lazy validation executor set with the ID '" +
+                                         aVES.getID ().getAsSingleID () +
+                                         "' is already registered!");
+      return super.replaceValidationExecutorSet (aVES);
+    });
+  }
+
+  /**
+   * Register a lightweight descriptor for a validation executor set. The VES
+   * is only created when it is first requested via {@link #getOfID(VESID)}.
+   *
+   * @param aID
+   *        The ID of the VES to be created. May not be <code>null</code>.
+   * @param aSupplier
+   *        The supplier that creates the VES. It must return a non-
+   *        <code>null</code> VES with the provided ID. It may be invoked
+   *        multiple times, if the VES was evicted in the meantime. May not be
+   *        <code>null</code>.
+   * @throws IllegalStateException
+   *         If another object with the same ID is already registered in this
+   *         registry.
+   */
+  public void registerLazyValidationExecutorSet (@Nonnull final VESID aID,
+                                                 @Nonnull final Supplier <? extends IValidationExecutorSet <SOURCETYPE>> aSupplier)
+  {
+    ValueEnforcer.notNull (aID, "ID");
+    ValueEnforcer.notNull (aSupplier, "Supplier");
+
+    m_aRWLock.writeLocked ( () -> {
+      if (m_aDescriptors.containsKey (aID) || internalMap ().containsKey (aID))
+        throw new IllegalStateException ("Another validation executor set with the ID '" +
+                                         aID.getAsSingleID () +
+                                         "' is already registered!");
+      m_aDescriptors.put (aID, new LazyEntry (aID, aSupplier));
+    });
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Registered lazy validation executor set '" + aID.getAsSingleID () + "'");
+  }
+
+  /**
+   * @return The IDs of all registered lazy VES descriptors, independent of
+   *         whether the VES was already created or not. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <VESID> getAllLazyIDs ()
+  {
+    return m_aRWLock.readLockedGet ( () -> new CommonsHashSet <> (m_aDescriptors.keySet ()));
+  }
+
+  /**
+   * @return The IDs of all lazy VES that are currently created, ordered from
+   *         the least recently used to the most recently used. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <VESID> getAllCompiledIDs ()
+  {
+    return m_aLRULock.lockedGet ( () -> new CommonsArrayList <> (m_aLRU.keySet ()));
+  }
+
+  private void _evicted (@Nonnull final ICommonsList <LazyEntry> aEntries)
+  {
+    final Consumer <? super IValidationExecutorSet <SOURCETYPE>> aHandler = m_aEvictionHandler;
+    for (final LazyEntry aEntry : aEntries)
+    {
+      final IValidationExecutorSet <SOURCETYPE> aVES = aEntry.evict ();
+      if (aVES != null)
+      {
+        m_aEvictionCount.incrementAndGet ();
+        removeFromCache (aVES);
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Evicted validation executor set '" + aEntry.m_aID.getAsSingleID () + "'");
+        if (aHandler != null)
+          aHandler.accept (aVES);
+      }
+    }
+  }
+
+  @Override
+  @Nullable
+  public IValidationExecutorSet <SOURCETYPE> getOfID (@Nullable final VESID aID)
+  {
+    if (aID == null)
+      return null;
+
+    // Eagerly registered VES first
+    final IValidationExecutorSet <SOURCETYPE> ret = super.getOfID (aID);
+    if (ret != null)
+      return ret;
+
+    final LazyEntry aEntry = m_aRWLock.readLockedGet ( () -> m_aDescriptors.get (aID));
+    if (aEntry == null)
+      return null;
+
+    // Create outside of the registry lock
+    final IValidationExecutorSet <SOURCETYPE> aVES = aEntry.getOrCreate ();
+
+    // Update the LRU list and determine the eldest entries to be evicted
+    final ICommonsList <LazyEntry> aEvicted = m_aLRULock.lockedGet ( () -> {
+      final ICommonsList <LazyEntry> aList = new CommonsArrayList <> ();
+      m_aLRU.put (aID, aEntry);
+      final Iterator <Map.Entry <VESID, LazyEntry>> it = m_aLRU.entrySet ().iterator ();
+      while (m_aLRU.size () > m_nMaxCompiled && it.hasNext ())
+      {
+        aList.add (it.next ().getValue ());
+        it.remove ();
+      }
+      return aList;
+    });
+    _evicted (aEvicted);
+    return aVES;
+  }
+
+  /**
+   * Evict the lazily created VES with the provided ID. The descriptor stays
+   * registered, so that the VES is re-created on the next usage.
+   *
+   * @param aID
+   *        The ID of the VES to evict. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if a created VES was evicted.
+   */
+  @Nonnull
+  public EChange evict (@Nullable final VESID aID)
+  {
+    if (aID == null)
+      return EChange.UNCHANGED;
+
+    final LazyEntry aEntry = m_aLRULock.lockedGet ( () -> m_aLRU.remove (aID));
+    if (aEntry == null)
+      return EChange.UNCHANGED;
+    _evicted (new CommonsArrayList <> (aEntry));
+    return EChange.CHANGED;
+  }
+
+  /**
+   * Evict all lazily created VES. All descriptors stay registered.
+   *
+   * @return {@link EChange#CHANGED} if at least one created VES was evicted.
+   */
+  @Nonnull
+  public EChange evictAll ()
+  {
+    final ICommonsList <LazyEntry> aEntries = m_aLRULock.lockedGet ( () -> {
+      final ICommonsList <LazyEntry> aList = new CommonsArrayList <> (m_aLRU.values ());
+      m_aLRU.clear ();
+      return aList;
+    });
+    _evicted (aEntries);
+    return EChange.valueOf (aEntries.isNotEmpty ());
+  }
+
+  @Override
+  @Nonnull
+  public EChange unregisterValidationExecutorSet (@Nullable final VESID aVESID)
+  {
+    if (aVESID == null)
+      return EChange.UNCHANGED;
+
+    if (m_aRWLock.writeLockedGet ( () -> m_aDescriptors.removeObject (aVESID)).isChanged ())
+    {
+      evict (aVESID);
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Successfully unregistered lazy validation executor set '" + aVESID.getAsSingleID () + "'");
+      return EChange.CHANGED;
+    }
+    return super.unregisterValidationExecutorSet (aVESID);
+  }
+
+  @Override
+  @Nonnull
+  public EChange removeAll (final boolean bCleanVES)
+  {
+    final EChange ret = m_aRWLock.writeLockedGet ( () -> {
+      final EChange eChange = EChange.valueOf (m_aDescriptors.isNotEmpty ());
+      m_aDescriptors.clear ();
+      return eChange.or (super.removeAll (bCleanVES));
+    });
+    evictAll ();
+    return ret;
+  }
+
+  /**
+   * @return The number of requests for lazy VES that were served from an
+   *         already created VES.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHitCount.get ();
+  }
+
+  /**
+   * @return The number of lazy VES that were created (including re-creations
+   *         after eviction).
+   */
+  @Nonnegative
+  public long getCompilationCount ()
+  {
+    return m_aCompilationCount.get ();
+  }
+
+  /**
+   * @return The total number of milliseconds spent for creating and warming
+   *         up lazy VES.
+   */
+  @Nonnegative
+  public long getCompilationMillis ()
+  {
+    return m_aCompilationMillis.get ();
+  }
+
+  /**
+   * @return The number of lazy VES that were evicted.
+   */
+  @Nonnegative
+  public long getEvictionCount ()
+  {
+    return m_aEvictionCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("MaxCompiled", m_nMaxCompiled)
+                            .append ("Descriptors", m_aDescriptors.keySet ())
+                            .append ("HitCount", m_aHitCount.get ())
+                            .append ("CompilationCount", m_aCompilationCount.get ())
+                            .append ("EvictionCount", m_aEvictionCount.get ())
+                            .getToString ();
+  }
+}
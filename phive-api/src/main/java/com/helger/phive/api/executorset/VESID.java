@@ -19,18 +19,19 @@ package com.helger.phive.api.executorset;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.RegEx;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.Immutable;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementComparable;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
 import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.map.LRUMap;
 import com.helger.commons.compare.CompareHelper;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
 import com.helger.commons.hashcode.IHashCodeGenerator;
-import com.helger.commons.regex.RegExHelper;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 
@@ -49,6 +50,17 @@ public final class VESID implements Comparable <VESID>
   public static final String REGEX_PART = "[a-zA-Z0-9_\\-\\.]+";
   /** The separator char between ID elements */
   public static final char ID_SEPARATOR = ':';
+  /**
+   * The maximum number of VESIDs kept by {@link #intern(VESID)}. If more
+   * VESIDs are interned, the least recently used ones are dropped.
+   *
+   * @since 7.2.2
+   */
+  public static final int MAX_INTERNED = 10_000;
+
+  private static final SimpleLock INTERNED_LOCK = new SimpleLock ();
+  @GuardedBy ("INTERNED_LOCK")
+  private static final LRUMap <String, VESID> INTERNED = new LRUMap <> (MAX_INTERNED);
 
   private final String m_sGroupID;
   private final String m_sArtifactID;
@@ -56,6 +68,7 @@ public final class VESID implements Comparable <VESID>
   private final String m_sClassifier;
   // status vars
   private int m_nHashCode = IHashCodeGenerator.ILLEGAL_HASHCODE;
+  private volatile String m_sSingleID;
 
   /**
    * Check if the provided part matches the regular expression
@@ -68,7 +81,33 @@ public final class VESID implements Comparable <VESID>
    */
   public static boolean isValidPart (@Nullable final String sPart)
   {
-    return StringHelper.hasText (sPart) && RegExHelper.stringMatchesPattern (REGEX_PART, sPart);
+    if (sPart == null)
+      return false;
+    return _isValidPart (sPart, 0, sPart.length ());
+  }
+
+  private static boolean _isValidPartChar (final char c)
+  {
+    return (c >= 'a' && c <= 'z') ||
+           (c >= 'A' && c <= 'Z') ||
+           (c >= '0' && c <= '9') ||
+           c == '_' ||
+           c == '-' ||
+           c == '.';
+  }
+
+  /**
+   * Same as {@link #REGEX_PART} but without the overhead of a regular
+   * expression.
+   */
+  private static boolean _isValidPart (@Nonnull final String s, final int nStart, final int nEnd)
+  {
+    if (nStart >= nEnd)
+      return false;
+    for (int i = nStart; i < nEnd; ++i)
+      if (!_isValidPartChar (s.charAt (i)))
+        return false;
+    return true;
   }
 
   /**
@@ -170,13 +209,23 @@ public final class VESID implements Comparable <VESID>
     return new VESID (m_sGroupID, m_sArtifactID, m_sVersion, sNewClassifier);
   }
 
+  /**
+   * @return The single ID in the form
+   *         <code>groupID:artifactID:version[:classifier]</code>. The value is
+   *         created only once per object.
+   */
   @Nonnull
   @Nonempty
   public String getAsSingleID ()
   {
-    String ret = m_sGroupID + ID_SEPARATOR + m_sArtifactID + ID_SEPARATOR + m_sVersion;
-    if (hasClassifier ())
-      ret += ID_SEPARATOR + m_sClassifier;
+    String ret = m_sSingleID;
+    if (ret == null)
+    {
+      ret = m_sGroupID + ID_SEPARATOR + m_sArtifactID + ID_SEPARATOR + m_sVersion;
+      if (hasClassifier ())
+        ret += ID_SEPARATOR + m_sClassifier;
+      m_sSingleID = ret;
+    }
     return ret;
   }
 
@@ -233,27 +282,103 @@ public final class VESID implements Comparable <VESID>
                                        .getToString ();
   }
 
+  @Nullable
+  private static VESID _parseID (@Nullable final String sVESID)
+  {
+    if (sVESID == null)
+      return null;
+
+    // Find the separators without creating a list
+    final int nLen = sVESID.length ();
+    final int nSep1 = sVESID.indexOf (ID_SEPARATOR);
+    if (nSep1 < 0)
+      return null;
+    final int nSep2 = sVESID.indexOf (ID_SEPARATOR, nSep1 + 1);
+    if (nSep2 < 0)
+      return null;
+    int nSep3 = sVESID.indexOf (ID_SEPARATOR, nSep2 + 1);
+    if (nSep3 < 0)
+      nSep3 = nLen;
+    else
+      if (sVESID.indexOf (ID_SEPARATOR, nSep3 + 1) >= 0)
+      {
+        // More than 4 parts
+        return null;
+      }
+
+    // An empty classifier is treated like no classifier
+    if (!_isValidPart (sVESID, 0, nSep1) ||
+        !_isValidPart (sVESID, nSep1 + 1, nSep2) ||
+        !_isValidPart (sVESID, nSep2 + 1, nSep3) ||
+        (nSep3 + 1 < nLen && !_isValidPart (sVESID, nSep3 + 1, nLen)))
+      return null;
+
+    return new VESID (sVESID.substring (0, nSep1),
+                      sVESID.substring (nSep1 + 1, nSep2),
+                      sVESID.substring (nSep2 + 1, nSep3),
+                      nSep3 + 1 < nLen ? sVESID.substring (nSep3 + 1) : null);
+  }
+
   @Nonnull
   public static VESID parseID (@Nullable final String sVESID)
   {
-    final ICommonsList <String> aParts = StringHelper.getExploded (ID_SEPARATOR, sVESID);
-    final int nSize = aParts.size ();
-    if (nSize >= 3 && nSize <= 4)
-      return new VESID (aParts.get (0), aParts.get (1), aParts.get (2), nSize >= 4 ? aParts.get (3) : null);
-
-    throw new IllegalArgumentException ("Invalid VESID '" + sVESID + "' provided!");
+    final VESID ret = _parseID (sVESID);
+    if (ret == null)
+      throw new IllegalArgumentException ("Invalid VESID '" + sVESID + "' provided!");
+    return ret;
   }
 
   @Nullable
   public static VESID parseIDOrNull (@Nullable final String sVESID)
   {
-    try
-    {
-      return parseID (sVESID);
-    }
-    catch (final IllegalArgumentException ex)
-    {
+    return _parseID (sVESID);
+  }
+
+  /**
+   * Get the shared instance of the provided VESID. If no equal VESID was
+   * interned before, the provided object is interned and returned. At most
+   * {@value #MAX_INTERNED} VESIDs are interned - afterwards the least recently
+   * used VESIDs are dropped. A dropped VESID stays valid, only a later call
+   * may return a different (but equal) instance.
+   *
+   * @param aVESID
+   *        The VESID to intern. May not be <code>null</code>.
+   * @return The shared instance. Never <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public static VESID intern (@Nonnull final VESID aVESID)
+  {
+    ValueEnforcer.notNull (aVESID, "VESID");
+
+    final String sKey = aVESID.getAsSingleID ();
+    return INTERNED_LOCK.lockedGet ( () -> INTERNED.computeIfAbsent (sKey, k -> aVESID));
+  }
+
+  /**
+   * Parse the provided single ID and return the shared instance. If the single
+   * ID is in the canonical form (as created by {@link #getAsSingleID()}) and
+   * was interned before, this is a single (locked) hash lookup without
+   * parsing.
+   *
+   * @param sVESID
+   *        The single ID to parse. May be <code>null</code>.
+   * @return <code>null</code> if the single ID is invalid.
+   * @see #intern(VESID)
+   * @since 7.2.2
+   */
+  @Nullable
+  public static VESID parseIDInternedOrNull (@Nullable final String sVESID)
+  {
+    if (sVESID == null)
       return null;
-    }
+
+    // Getting from the LRU map modifies the order
+    final VESID ret = INTERNED_LOCK.lockedGet ( () -> INTERNED.get (sVESID));
+    if (ret != null)
+      return ret;
+
+    final VESID aParsed = _parseID (sVESID);
+    return aParsed == null ? null : intern (aParsed);
   }
 }
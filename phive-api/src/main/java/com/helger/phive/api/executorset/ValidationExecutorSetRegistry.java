@@ -16,6 +16,14 @@
  */
 package com.helger.phive.api.executorset;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -29,13 +37,21 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.compare.CompareHelper;
 import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.version.Version;
+import com.helger.commons.version.VersionRange;
 import com.helger.phive.api.execute.IValidationExecutor;
 import com.helger.phive.api.source.IValidationSource;
 
@@ -48,7 +64,11 @@ import com.helger.phive.api.source.IValidationSource;
  * For applying validation of rules onto an XML document,
  * {@link #getOfID(VESID)} needs to be invoked to find a matching VES
  * (Validation Executor Set - type `IValidationExecutorSet`). If the returned
- * value is non-<code>null</code> than some rules are registered.
+ * value is non-<code>null</code> than some rules are registered.<br>
+ * Since v7.2.2 a secondary index by group ID, artifact ID and classifier to
+ * the sorted versions is maintained, so that e.g.
+ * {@link #getLatestVersion(String, String, String, boolean)} does not need to
+ * scan all registered VES.
  *
  * @author Philip Helger
  * @param <SOURCETYPE>
@@ -62,12 +82,83 @@ public class ValidationExecutorSetRegistry <SOURCETYPE extends IValidationSource
   protected final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <VESID, IValidationExecutorSet <SOURCETYPE>> m_aMap = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, NavigableMap <VersionKey, IValidationExecutorSet <SOURCETYPE>>> m_aVersionIndex = new CommonsHashMap <> ();
+
+  /**
+   * The sort key of the version index. The parsed version is compared first
+   * and the original version string is used to distinguish between version
+   * strings that are parsed to the same version. A <code>null</code> version
+   * string sorts after all other version strings with the same parsed version.
+   *
+   * @author Philip Helger
+   */
+  private static final class VersionKey implements Comparable <VersionKey>
+  {
+    private final Version m_aVersion;
+    private final String m_sVersion;
+
+    VersionKey (@Nonnull final Version aVersion, @Nullable final String sVersion)
+    {
+      m_aVersion = aVersion;
+      m_sVersion = sVersion;
+    }
+
+    public int compareTo (@Nonnull final VersionKey aOther)
+    {
+      int ret = m_aVersion.compareTo (aOther.m_aVersion);
+      if (ret == 0)
+        ret = CompareHelper.compare (m_sVersion, aOther.m_sVersion, false);
+      return ret;
+    }
+  }
 
   public ValidationExecutorSetRegistry ()
   {}
 
+  @Nonnull
+  private static String _getIndexKey (@Nonnull final String sGroupID,
+                                      @Nonnull final String sArtifactID,
+                                      @Nullable final String sClassifier)
+  {
+    String ret = sGroupID + VESID.ID_SEPARATOR + sArtifactID;
+    if (StringHelper.hasText (sClassifier))
+      ret += VESID.ID_SEPARATOR + sClassifier;
+    return ret;
+  }
+
+  @Nonnull
+  private static VersionKey _getVersionKey (@Nonnull final VESID aID)
+  {
+    return new VersionKey (Version.parse (aID.getVersion ()), aID.getVersion ());
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _indexAdd (@Nonnull final IValidationExecutorSet <SOURCETYPE> aVES)
+  {
+    final VESID aID = aVES.getID ();
+    m_aVersionIndex.computeIfAbsent (_getIndexKey (aID.getGroupID (), aID.getArtifactID (), aID.getClassifier ()),
+                                     k -> new TreeMap <> ())
+                   .put (_getVersionKey (aID), aVES);
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _indexRemove (@Nonnull final VESID aID)
+  {
+    final String sKey = _getIndexKey (aID.getGroupID (), aID.getArtifactID (), aID.getClassifier ());
+    final NavigableMap <VersionKey, IValidationExecutorSet <SOURCETYPE>> aVersions = m_aVersionIndex.get (sKey);
+    if (aVersions != null)
+    {
+      aVersions.remove (_getVersionKey (aID));
+      if (aVersions.isEmpty ())
+        m_aVersionIndex.remove (sKey);
+    }
+  }
+
   /**
    * @return the internal map. Never <code>null</code>. Must be locked properly.
+   *         Note: the map must not be modified, as the version index would
+   *         not be updated.
    */
   @Nonnull
   @MustBeLocked (ELockType.DEPENDS)
@@ -87,6 +178,7 @@ public class ValidationExecutorSetRegistry <SOURCETYPE extends IValidationSource
                                          aKey.getAsSingleID () +
                                          "' is already registered!");
       m_aMap.put (aKey, aVES);
+      _indexAdd (aVES);
     });
 
     if (LOGGER.isDebugEnabled ())
@@ -99,13 +191,249 @@ public class ValidationExecutorSetRegistry <SOURCETYPE extends IValidationSource
                     " elements");
   }
 
+  /**
+   * Ensure that all executors of the provided VES that support caching are
+   * compiled and in the cache. This is e.g. used to warm up a VES before it is
+   * swapped into the registry.<br>
+   * Note: the shared caches of the executors are keyed by the resource ID, so
+   * a changed artefact must be provided with a new resource ID (e.g. one
+   * containing a content hash or a generation). Otherwise the already compiled
+   * version of the old artefact is reused.
+   *
+   * @param aVES
+   *        The VES to warm up. May not be <code>null</code>.
+   * @since 7.2.2
+   */
+  public static void warmUp (@Nonnull final IValidationExecutorSet <?> aVES)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+    for (final IValidationExecutor <?> aExecutor : aVES.getAllExecutors ())
+      if (aExecutor instanceof IValidationExecutor.ICacheSupport)
+        ((IValidationExecutor.ICacheSupport) aExecutor).ensureItemIsInCache ();
+  }
+
+  /**
+   * Remove the artefacts of all executors of the provided VES that support
+   * caching from the shared caches, so that they can be reclaimed. This is
+   * e.g. used when a VES is evicted or replaced. Validations currently running
+   * on the VES are not affected.
+   *
+   * @param aVES
+   *        The VES whose artefacts should be removed. May not be
+   *        <code>null</code>.
+   * @see IValidationExecutor.ICacheSupport#removeItemFromCache()
+   * @since 7.2.2
+   */
+  public static void removeFromCache (@Nonnull final IValidationExecutorSet <?> aVES)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+    for (final IValidationExecutor <?> aExecutor : aVES.getAllExecutors ())
+      if (aExecutor instanceof IValidationExecutor.ICacheSupport)
+        ((IValidationExecutor.ICacheSupport) aExecutor).removeItemFromCache ();
+  }
+
+  @Nullable
+  private IValidationExecutorSet <SOURCETYPE> _replace (@Nonnull final IValidationExecutorSet <SOURCETYPE> aVES)
+  {
+    final VESID aKey = aVES.getID ();
+    final IValidationExecutorSet <SOURCETYPE> ret = m_aRWLock.writeLockedGet ( () -> {
+      _indexAdd (aVES);
+      return m_aMap.put (aKey, aVES);
+    });
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ((ret == null ? "Registered" : "Replaced") + " validation executor set '" + aKey.getAsSingleID () + "'");
+    return ret;
+  }
+
+  /**
+   * Register a validation executor set, atomically replacing an existing one
+   * with the same ID. The replaced VES is not modified in any way, so that
+   * validations currently running on it can finish. After the swap, the
+   * artefacts of all executors of the replaced VES that are not shared with
+   * the new VES (i.e. for which the new VES contains no equal executor) are
+   * removed from the shared caches.
+   *
+   * @param aVES
+   *        The object to register. May not be <code>null</code>.
+   * @return The replaced VES or <code>null</code> if no VES with the same ID
+   *         was registered before.
+   * @since 7.2.2
+   */
+  @Nullable
+  public IValidationExecutorSet <SOURCETYPE> replaceValidationExecutorSet (@Nonnull final IValidationExecutorSet <SOURCETYPE> aVES)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+
+    final IValidationExecutorSet <SOURCETYPE> ret = _replace (aVES);
+    if (ret != null)
+      _removeAllFromCache (Collections.singletonList (ret), Collections.singletonList (aVES));
+    return ret;
+  }
+
+  /**
+   * Warm up the provided VES in the background and replace an existing VES
+   * with the same ID afterwards. Until the returned future is completed, the
+   * old VES stays in use. After the swap, the artefacts of the replaced VES
+   * that are not shared with the new VES are removed from the shared caches.
+   * Nothing is removed before, so that validations running on the old VES
+   * cannot refill the cache in between. Changed artefacts must therefore use
+   * new resource IDs (see {@link #warmUp(IValidationExecutorSet)}).
+   *
+   * @param aVES
+   *        The object to register. May not be <code>null</code>.
+   * @param aExecutor
+   *        The executor to be used for warming up. May not be
+   *        <code>null</code>.
+   * @return The future that is completed with the replaced VES (or
+   *         <code>null</code>) after the swap.
+   * @see #warmUp(IValidationExecutorSet)
+   * @see #replaceValidationExecutorSet(IValidationExecutorSet)
+   * @since 7.2.2
+   */
+  @Nonnull
+  public CompletableFuture <IValidationExecutorSet <SOURCETYPE>> replaceValidationExecutorSetAsync (@Nonnull final IValidationExecutorSet <SOURCETYPE> aVES,
+                                                                                                    @Nonnull final Executor aExecutor)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+
+    return CompletableFuture.supplyAsync ( () -> {
+      warmUp (aVES);
+      return replaceValidationExecutorSet (aVES);
+    }, aExecutor);
+  }
+
+  /**
+   * Atomically replace all registered validation executor sets with a new
+   * generation. Readers see either the complete old or the complete new
+   * generation. The old VES objects are not modified in any way, so that
+   * validations currently running on them can finish. After the swap, the
+   * artefacts of all executors of the old generation that are not shared with
+   * the new generation are removed from the shared caches.
+   *
+   * @param aNewGeneration
+   *        The new VES objects. May not be <code>null</code> and may not
+   *        contain two VES with the same ID.
+   * @return The previously registered VES objects. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the new generation contains two VES with the same ID.
+   * @since 7.2.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IValidationExecutorSet <SOURCETYPE>> replaceAllValidationExecutorSets (@Nonnull final Iterable <? extends IValidationExecutorSet <SOURCETYPE>> aNewGeneration)
+  {
+    ValueEnforcer.notNull (aNewGeneration, "NewGeneration");
+
+    final ICommonsList <IValidationExecutorSet <SOURCETYPE>> ret = _replaceAll (aNewGeneration);
+    _removeAllFromCache (ret, aNewGeneration);
+    return ret;
+  }
+
+  private static <T extends IValidationSource> void _removeAllFromCache (@Nonnull final Iterable <? extends IValidationExecutorSet <T>> aOldGeneration,
+                                                                         @Nonnull final Iterable <? extends IValidationExecutorSet <T>> aNewGeneration)
+  {
+    // VES that are part of both generations are kept
+    final Set <IValidationExecutorSet <T>> aNew = Collections.newSetFromMap (new IdentityHashMap <> ());
+    // Equal executors share the same cache entries
+    final ICommonsSet <IValidationExecutor <T>> aNewExecutors = new CommonsHashSet <> ();
+    for (final IValidationExecutorSet <T> aVES : aNewGeneration)
+    {
+      aNew.add (aVES);
+      aNewExecutors.addAll (aVES.getAllExecutors ());
+    }
+    for (final IValidationExecutorSet <T> aOld : aOldGeneration)
+      if (!aNew.contains (aOld))
+        for (final IValidationExecutor <T> aExecutor : aOld.getAllExecutors ())
+          if (aExecutor instanceof IValidationExecutor.ICacheSupport && !aNewExecutors.contains (aExecutor))
+            ((IValidationExecutor.ICacheSupport) aExecutor).removeItemFromCache ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsList <IValidationExecutorSet <SOURCETYPE>> _replaceAll (@Nonnull final Iterable <? extends IValidationExecutorSet <SOURCETYPE>> aNewGeneration)
+  {
+
+    // Build the new map outside of the lock
+    final ICommonsMap <VESID, IValidationExecutorSet <SOURCETYPE>> aNewMap = new CommonsHashMap <> ();
+    for (final IValidationExecutorSet <SOURCETYPE> aVES : aNewGeneration)
+    {
+      ValueEnforcer.notNull (aVES, "VES");
+      final VESID aKey = aVES.getID ();
+      if (aNewMap.containsKey (aKey))
+        throw new IllegalStateException ("The new generation contains the validation executor set ID '" +
+                                         aKey.getAsSingleID () +
+                                         "' more than once!");
+      aNewMap.put (aKey, aVES);
+    }
+
+    final ICommonsList <IValidationExecutorSet <SOURCETYPE>> ret = m_aRWLock.writeLockedGet ( () -> {
+      final ICommonsList <IValidationExecutorSet <SOURCETYPE>> aOld = m_aMap.copyOfValues ();
+      m_aMap.clear ();
+      m_aMap.putAll (aNewMap);
+      m_aVersionIndex.clear ();
+      for (final IValidationExecutorSet <SOURCETYPE> aVES : aNewMap.values ())
+        _indexAdd (aVES);
+      return aOld;
+    });
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Replaced " + ret.size () + " validation executor sets with a new generation of " + aNewMap.size ());
+    return ret;
+  }
+
+  /**
+   * Warm up all VES of the new generation in the background and atomically
+   * replace all registered validation executor sets afterwards. Until the
+   * returned future is completed, the old generation stays in use. After the
+   * swap, the artefacts of the old generation that are not shared with the
+   * new generation are removed from the shared caches. Changed artefacts must
+   * therefore use new resource IDs (see
+   * {@link #warmUp(IValidationExecutorSet)}).
+   *
+   * @param aNewGeneration
+   *        The new VES objects. May not be <code>null</code> and may not
+   *        contain two VES with the same ID.
+   * @param aExecutor
+   *        The executor to be used for warming up. Each VES is warmed up in a
+   *        separate task. May not be <code>null</code>.
+   * @return The future that is completed with the old generation after the
+   *         swap. If warming up fails, the future is completed exceptionally
+   *         and the old generation stays in use.
+   * @see #replaceAllValidationExecutorSets(Iterable)
+   * @since 7.2.2
+   */
+  @Nonnull
+  public CompletableFuture <ICommonsList <IValidationExecutorSet <SOURCETYPE>>> replaceAllValidationExecutorSetsAsync (@Nonnull final Iterable <? extends IValidationExecutorSet <SOURCETYPE>> aNewGeneration,
+                                                                                                                       @Nonnull final Executor aExecutor)
+  {
+    ValueEnforcer.notNull (aNewGeneration, "NewGeneration");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+
+    final ICommonsList <IValidationExecutorSet <SOURCETYPE>> aNewVESs = new CommonsArrayList <> (aNewGeneration);
+
+    final CompletableFuture <?> [] aWarmUps = new CompletableFuture <?> [aNewVESs.size ()];
+    for (int i = 0; i < aWarmUps.length; ++i)
+    {
+      final IValidationExecutorSet <SOURCETYPE> aVES = aNewVESs.get (i);
+      aWarmUps[i] = CompletableFuture.runAsync ( () -> warmUp (aVES), aExecutor);
+    }
+    return CompletableFuture.allOf (aWarmUps).thenApply (x -> replaceAllValidationExecutorSets (aNewVESs));
+  }
+
   @Nonnull
   public EChange unregisterValidationExecutorSet (@Nullable final VESID aVESID)
   {
     if (aVESID == null)
       return EChange.UNCHANGED;
 
-    final EChange ret = m_aRWLock.writeLockedGet ( () -> m_aMap.removeObject (aVESID));
+    final EChange ret = m_aRWLock.writeLockedGet ( () -> {
+      if (m_aMap.remove (aVESID) == null)
+        return EChange.UNCHANGED;
+      _indexRemove (aVESID);
+      return EChange.CHANGED;
+    });
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ((ret.isChanged () ? "Successfully unregistered" : "Failed to unregister") +
                     " validation executor set '" +
@@ -143,6 +471,73 @@ public class ValidationExecutorSetRegistry <SOURCETYPE extends IValidationSource
     return m_aRWLock.readLockedGet ( () -> m_aMap.get (aID));
   }
 
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IValidationExecutorSet <SOURCETYPE>> getAllVersions (@Nonnull @Nonempty final String sGroupID,
+                                                                              @Nonnull @Nonempty final String sArtifactID,
+                                                                              @Nullable final String sClassifier)
+  {
+    ValueEnforcer.notEmpty (sGroupID, "GroupID");
+    ValueEnforcer.notEmpty (sArtifactID, "ArtifactID");
+
+    final String sKey = _getIndexKey (sGroupID, sArtifactID, sClassifier);
+    return m_aRWLock.readLockedGet ( () -> {
+      final NavigableMap <VersionKey, IValidationExecutorSet <SOURCETYPE>> aVersions = m_aVersionIndex.get (sKey);
+      return aVersions == null ? new CommonsArrayList <> () : new CommonsArrayList <> (aVersions.values ());
+    });
+  }
+
+  @Override
+  @Nullable
+  public IValidationExecutorSet <SOURCETYPE> getLatestVersionInRange (@Nonnull @Nonempty final String sGroupID,
+                                                                      @Nonnull @Nonempty final String sArtifactID,
+                                                                      @Nullable final String sClassifier,
+                                                                      @Nullable final VersionRange aVersionRange,
+                                                                      final boolean bIncludeDeprecated)
+  {
+    ValueEnforcer.notEmpty (sGroupID, "GroupID");
+    ValueEnforcer.notEmpty (sArtifactID, "ArtifactID");
+
+    final String sKey = _getIndexKey (sGroupID, sArtifactID, sClassifier);
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      NavigableMap <VersionKey, IValidationExecutorSet <SOURCETYPE>> aVersions = m_aVersionIndex.get (sKey);
+      if (aVersions == null)
+        return null;
+
+      // Skip all versions above the ceiling
+      if (aVersionRange != null && aVersionRange.getCeilVersion () != null)
+        aVersions = aVersions.headMap (new VersionKey (aVersionRange.getCeilVersion (), null), true);
+
+      for (final Map.Entry <VersionKey, IValidationExecutorSet <SOURCETYPE>> aEntry : aVersions.descendingMap ()
+                                                                                               .entrySet ())
+      {
+        final Version aVersion = aEntry.getKey ().m_aVersion;
+        if (aVersionRange != null)
+        {
+          final Version aFloor = aVersionRange.getFloorVersion ();
+          if (aFloor != null && aVersion.compareTo (aFloor) < 0)
+          {
+            // All remaining versions are below the floor
+            break;
+          }
+          if (!aVersionRange.versionMatches (aVersion))
+            continue;
+        }
+        final IValidationExecutorSet <SOURCETYPE> aVES = aEntry.getValue ();
+        if (bIncludeDeprecated || !aVES.isDeprecated ())
+          return aVES;
+      }
+      return null;
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
   /**
    * This is a cleanup method that frees all resources when they are no longer
    * needed. This may be helpful because some {@link IValidationExecutor}
@@ -189,6 +584,7 @@ public class ValidationExecutorSetRegistry <SOURCETYPE extends IValidationSource
             if (aVES instanceof ValidationExecutorSet)
               ((ValidationExecutorSet <?>) aVES).removeAllExecutors ();
         m_aMap.clear ();
+        m_aVersionIndex.clear ();
       }
     }
     finally
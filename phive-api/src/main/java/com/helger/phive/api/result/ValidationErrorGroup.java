@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.api.result;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.error.IError;
+import com.helger.commons.error.level.IErrorLevel;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.artefact.IValidationArtefact;
+
+/**
+ * A group of identical errors of a single validation artefact. Errors are
+ * considered identical if they have the same error ID, error level and error
+ * text. Only the first errors of a group are kept as samples, so that the
+ * locations of the first hits are available.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@NotThreadSafe
+public class ValidationErrorGroup
+{
+  /** The default maximum number of sample errors per group */
+  public static final int DEFAULT_MAX_SAMPLES = 5;
+
+  private static final class Key
+  {
+    private final IValidationArtefact m_aArtefact;
+    private final String m_sErrorID;
+    private final IErrorLevel m_aErrorLevel;
+    private final String m_sErrorText;
+
+    Key (@Nonnull final IValidationArtefact aArtefact,
+         @Nullable final String sErrorID,
+         @Nonnull final IErrorLevel aErrorLevel,
+         @Nullable final String sErrorText)
+    {
+      m_aArtefact = aArtefact;
+      m_sErrorID = sErrorID;
+      m_aErrorLevel = aErrorLevel;
+      m_sErrorText = sErrorText;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_aArtefact.equals (rhs.m_aArtefact) &&
+             EqualsHelper.equals (m_sErrorID, rhs.m_sErrorID) &&
+             m_aErrorLevel.equals (rhs.m_aErrorLevel) &&
+             EqualsHelper.equals (m_sErrorText, rhs.m_sErrorText);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return new HashCodeGenerator (this).append (m_aArtefact)
+                                         .append (m_sErrorID)
+                                         .append (m_aErrorLevel)
+                                         .append (m_sErrorText)
+                                         .getHashCode ();
+    }
+  }
+
+  private final IValidationArtefact m_aArtefact;
+  private final String m_sErrorText;
+  private final int m_nMaxSamples;
+  private final ICommonsList <IError> m_aSamples = new CommonsArrayList <> ();
+  private int m_nHitCount = 0;
+
+  protected ValidationErrorGroup (@Nonnull final IValidationArtefact aArtefact,
+                                  @Nullable final String sErrorText,
+                                  @Nonnegative final int nMaxSamples)
+  {
+    ValueEnforcer.notNull (aArtefact, "Artefact");
+    ValueEnforcer.isGT0 (nMaxSamples, "MaxSamples");
+    m_aArtefact = aArtefact;
+    m_sErrorText = sErrorText;
+    m_nMaxSamples = nMaxSamples;
+  }
+
+  protected final void addHit (@Nonnull final IError aError)
+  {
+    m_nHitCount++;
+    if (m_aSamples.size () < m_nMaxSamples)
+      m_aSamples.add (aError);
+  }
+
+  /**
+   * @return The validation artefact that created the errors of this group.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public final IValidationArtefact getValidationArtefact ()
+  {
+    return m_aArtefact;
+  }
+
+  /**
+   * @return The first error of this group. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IError getFirstError ()
+  {
+    return m_aSamples.getFirst ();
+  }
+
+  /**
+   * @return The common error ID of all errors in this group. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final String getErrorID ()
+  {
+    return getFirstError ().getErrorID ();
+  }
+
+  /**
+   * @return The common error level of all errors in this group. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IErrorLevel getErrorLevel ()
+  {
+    return getFirstError ().getErrorLevel ();
+  }
+
+  /**
+   * @return The common error text of all errors in this group, in the locale
+   *         used for grouping. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getErrorText ()
+  {
+    return m_sErrorText;
+  }
+
+  /**
+   * @return The total number of errors in this group. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getHitCount ()
+  {
+    return m_nHitCount;
+  }
+
+  /**
+   * @return The first errors of this group, but at most the maximum number of
+   *         samples. Never <code>null</code> nor empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <IError> getAllSampleErrors ()
+  {
+    return m_aSamples.getClone ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Artefact", m_aArtefact)
+                                       .append ("ErrorText", m_sErrorText)
+                                       .append ("HitCount", m_nHitCount)
+                                       .append ("Samples", m_aSamples)
+                                       .getToString ();
+  }
+
+  /**
+   * Group all errors of the provided validation results. The order of the
+   * groups is the order of the first occurrence.
+   *
+   * @param aValidationResults
+   *        The validation results to group. May not be <code>null</code>.
+   * @param aDisplayLocale
+   *        The locale used to resolve the error texts. May not be
+   *        <code>null</code>.
+   * @param nMaxSamples
+   *        The maximum number of errors to keep per group. Must be &gt; 0.
+   * @return The list of groups and never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <ValidationErrorGroup> createGroups (@Nonnull final Iterable <? extends ValidationResult> aValidationResults,
+                                                                  @Nonnull final Locale aDisplayLocale,
+                                                                  @Nonnegative final int nMaxSamples)
+  {
+    ValueEnforcer.notNull (aValidationResults, "ValidationResults");
+    ValueEnforcer.notNull (aDisplayLocale, "DisplayLocale");
+    ValueEnforcer.isGT0 (nMaxSamples, "MaxSamples");
+
+    final ICommonsOrderedMap <Key, ValidationErrorGroup> aMap = new CommonsLinkedHashMap <> ();
+    for (final ValidationResult aResult : aValidationResults)
+    {
+      final IValidationArtefact aArtefact = aResult.getValidationArtefact ();
+      for (final IError aError : aResult.getErrorList ())
+      {
+        final String sErrorText = aError.getErrorText (aDisplayLocale);
+        aMap.computeIfAbsent (new Key (aArtefact, aError.getErrorID (), aError.getErrorLevel (), sErrorText),
+                              k -> new ValidationErrorGroup (aArtefact, sErrorText, nMaxSamples))
+            .addHit (aError);
+      }
+    }
+    return aMap.copyOfValues ();
+  }
+}
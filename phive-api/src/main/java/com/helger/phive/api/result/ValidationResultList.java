@@ -16,8 +16,12 @@
  */
 package com.helger.phive.api.result;
 
+import java.util.Collection;
+import java.util.Locale;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -25,26 +29,207 @@ import javax.annotation.Nullable;
 
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.error.IError;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.error.level.IErrorLevel;
 import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.error.list.IErrorList;
+import com.helger.commons.mutable.MutableInt;
 
 /**
- * A managed list of {@link ValidationResult} objects
+ * A managed list of {@link ValidationResult} objects.<br>
+ * Since v7.2.2 the number of errors per error level is maintained incrementally
+ * when results are added or removed, so that the summary queries don't need to
+ * iterate all errors. Note: the error lists of the contained
+ * {@link ValidationResult}s must not be modified after they were added to this
+ * list, and modifications via {@link #subList(int, int)} views are not
+ * reflected in the summary.
  *
  * @author Philip Helger
  */
 public class ValidationResultList extends CommonsArrayList <ValidationResult>
 {
+  // Count per error level
+  private final ICommonsMap <IErrorLevel, MutableInt> m_aLevelCounts = new CommonsHashMap <> ();
+  private int m_nTotalCount = 0;
+  private int m_nFailureCount = 0;
+  private int m_nErrorCount = 0;
+  private IErrorLevel m_aMostSevereLevel = EErrorLevel.LOWEST;
+
   public ValidationResultList ()
   {}
 
+  private void _onAdded (@Nullable final ValidationResult aItem)
+  {
+    if (aItem != null)
+      for (final IError aError : aItem.getErrorList ())
+      {
+        final IErrorLevel aLevel = aError.getErrorLevel ();
+        m_aLevelCounts.computeIfAbsent (aLevel, k -> new MutableInt (0)).inc ();
+        m_nTotalCount++;
+        if (aLevel.isFailure ())
+          m_nFailureCount++;
+        if (aLevel.isError ())
+          m_nErrorCount++;
+        if (aLevel.isGT (m_aMostSevereLevel))
+          m_aMostSevereLevel = aLevel;
+      }
+  }
+
+  private void _onRemoved (@Nullable final ValidationResult aItem)
+  {
+    if (aItem != null && aItem.getErrorList ().isNotEmpty ())
+    {
+      for (final IError aError : aItem.getErrorList ())
+      {
+        final IErrorLevel aLevel = aError.getErrorLevel ();
+        final MutableInt aCount = m_aLevelCounts.get (aLevel);
+        if (aCount != null && aCount.dec () <= 0)
+          m_aLevelCounts.remove (aLevel);
+        m_nTotalCount--;
+        if (aLevel.isFailure ())
+          m_nFailureCount--;
+        if (aLevel.isError ())
+          m_nErrorCount--;
+      }
+
+      // The most severe level may have been removed
+      m_aMostSevereLevel = EErrorLevel.LOWEST;
+      for (final IErrorLevel aLevel : m_aLevelCounts.keySet ())
+        if (aLevel.isGT (m_aMostSevereLevel))
+          m_aMostSevereLevel = aLevel;
+    }
+  }
+
+  private void _recalculate ()
+  {
+    m_aLevelCounts.clear ();
+    m_nTotalCount = 0;
+    m_nFailureCount = 0;
+    m_nErrorCount = 0;
+    m_aMostSevereLevel = EErrorLevel.LOWEST;
+    for (final ValidationResult aItem : this)
+      _onAdded (aItem);
+  }
+
+  @Override
+  public boolean add (@Nullable final ValidationResult aItem)
+  {
+    final boolean ret = super.add (aItem);
+    _onAdded (aItem);
+    return ret;
+  }
+
+  @Override
+  public void add (final int nIndex, @Nullable final ValidationResult aItem)
+  {
+    super.add (nIndex, aItem);
+    _onAdded (aItem);
+  }
+
+  @Override
+  public boolean addAll (@Nonnull final Collection <? extends ValidationResult> aItems)
+  {
+    final boolean ret = super.addAll (aItems);
+    for (final ValidationResult aItem : aItems)
+      _onAdded (aItem);
+    return ret;
+  }
+
+  @Override
+  public boolean addAll (final int nIndex, @Nonnull final Collection <? extends ValidationResult> aItems)
+  {
+    final boolean ret = super.addAll (nIndex, aItems);
+    for (final ValidationResult aItem : aItems)
+      _onAdded (aItem);
+    return ret;
+  }
+
+  @Override
+  public ValidationResult set (final int nIndex, @Nullable final ValidationResult aItem)
+  {
+    final ValidationResult ret = super.set (nIndex, aItem);
+    _onRemoved (ret);
+    _onAdded (aItem);
+    return ret;
+  }
+
+  @Override
+  public ValidationResult remove (final int nIndex)
+  {
+    final ValidationResult ret = super.remove (nIndex);
+    _onRemoved (ret);
+    return ret;
+  }
+
+  @Override
+  public boolean remove (@Nullable final Object aItem)
+  {
+    final int nIndex = indexOf (aItem);
+    if (nIndex < 0)
+      return false;
+    remove (nIndex);
+    return true;
+  }
+
+  @Override
+  public void clear ()
+  {
+    super.clear ();
+    _recalculate ();
+  }
+
+  @Override
+  public boolean removeIf (@Nonnull final Predicate <? super ValidationResult> aFilter)
+  {
+    final boolean ret = super.removeIf (aFilter);
+    if (ret)
+      _recalculate ();
+    return ret;
+  }
+
+  @Override
+  public boolean removeAll (@Nonnull final Collection <?> aItems)
+  {
+    final boolean ret = super.removeAll (aItems);
+    if (ret)
+      _recalculate ();
+    return ret;
+  }
+
+  @Override
+  public boolean retainAll (@Nonnull final Collection <?> aItems)
+  {
+    final boolean ret = super.retainAll (aItems);
+    if (ret)
+      _recalculate ();
+    return ret;
+  }
+
+  @Override
+  public void replaceAll (@Nonnull final UnaryOperator <ValidationResult> aOperator)
+  {
+    super.replaceAll (aOperator);
+    _recalculate ();
+  }
+
+  @Override
+  protected void removeRange (final int nFromIndex, final int nToIndex)
+  {
+    super.removeRange (nFromIndex, nToIndex);
+    _recalculate ();
+  }
+
   /**
    * @return <code>true</code> if this list contains no failure,
    *         <code>false</code> otherwise.
    */
   public boolean containsNoFailure ()
   {
-    return containsOnly (x -> x.getErrorList ().containsNoFailure ());
+    return m_nFailureCount == 0;
   }
 
   /**
@@ -53,7 +238,7 @@ public class ValidationResultList extends CommonsArrayList <ValidationResult>
    */
   public boolean containsNoError ()
   {
-    return containsOnly (x -> x.getErrorList ().containsNoError ());
+    return m_nErrorCount == 0;
   }
 
   /**
@@ -62,7 +247,7 @@ public class ValidationResultList extends CommonsArrayList <ValidationResult>
    */
   public boolean containsAtLeastOneFailure ()
   {
-    return containsAny (x -> x.getErrorList ().containsAtLeastOneFailure ());
+    return m_nFailureCount > 0;
   }
 
   /**
@@ -71,7 +256,55 @@ public class ValidationResultList extends CommonsArrayList <ValidationResult>
    */
   public boolean containsAtLeastOneError ()
   {
-    return containsAny (x -> x.getErrorList ().containsAtLeastOneError ());
+    return m_nErrorCount > 0;
+  }
+
+  /**
+   * @return The number of failures in all layers. Always &ge; 0.
+   * @since 7.2.2
+   */
+  @Nonnegative
+  public int getAllFailureCount ()
+  {
+    return m_nFailureCount;
+  }
+
+  /**
+   * @return The number of errors in all layers. Always &ge; 0.
+   * @since 7.2.2
+   */
+  @Nonnegative
+  public int getAllErrorCount ()
+  {
+    return m_nErrorCount;
+  }
+
+  /**
+   * Get the number of entries with exactly the provided error level.
+   *
+   * @param aErrorLevel
+   *        The error level to check. May be <code>null</code>.
+   * @return The number of entries with the provided error level in all layers.
+   *         Always &ge; 0.
+   * @since 7.2.2
+   */
+  @Nonnegative
+  public int getAllCountOfErrorLevel (@Nullable final IErrorLevel aErrorLevel)
+  {
+    final MutableInt aCount = m_aLevelCounts.get (aErrorLevel);
+    return aCount == null ? 0 : aCount.intValue ();
+  }
+
+  /**
+   * @return The most severe error level of all entries in all layers or
+   *         {@link EErrorLevel#LOWEST} if there are no entries. Never
+   *         <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public IErrorLevel getMostSevereErrorLevel ()
+  {
+    return m_aMostSevereLevel;
   }
 
   /**
@@ -80,14 +313,16 @@ public class ValidationResultList extends CommonsArrayList <ValidationResult>
    *         empty. All error levels except
    *         {@link com.helger.commons.error.level.EErrorLevel#SUCCESS} are
    *         considered to be a failure!
+   * @see #getAllFlattened(Predicate)
    */
   @Nonnull
   @ReturnsMutableCopy
   public ErrorList getAllFailures ()
   {
     final ErrorList ret = new ErrorList ();
-    for (final ValidationResult aItem : this)
-      ret.addAll (aItem.getErrorList ().getAllFailures ());
+    if (m_nFailureCount > 0)
+      for (final ValidationResult aItem : this)
+        ret.addAll (aItem.getErrorList ().getAllFailures ());
     return ret;
   }
 
@@ -97,17 +332,63 @@ public class ValidationResultList extends CommonsArrayList <ValidationResult>
    *         All error levels &ge; to
    *         {@link com.helger.commons.error.level.EErrorLevel#ERROR} are
    *         considered to be an error!
+   * @see #getAllFlattened(Predicate)
    */
   @Nonnull
   @ReturnsMutableCopy
   public ErrorList getAllErrors ()
   {
     final ErrorList ret = new ErrorList ();
-    for (final ValidationResult aItem : this)
-      ret.addAll (aItem.getErrorList ().getAllErrors ());
+    if (m_nErrorCount > 0)
+      for (final ValidationResult aItem : this)
+        ret.addAll (aItem.getErrorList ().getAllErrors ());
     return ret;
   }
 
+  /**
+   * Get a flattened view on all items of all layers without copying them. The
+   * view is evaluated lazily on each iteration.
+   *
+   * @param aFilter
+   *        Optional filter to use. May be <code>null</code>. Use e.g.
+   *        <code>IError::isError</code> to iterate only the errors.
+   * @return The flattened view. Never <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public Iterable <IError> getAllFlattened (@Nullable final Predicate <? super IError> aFilter)
+  {
+    return () -> {
+      Stream <IError> aStream = stream ().map (ValidationResult::getErrorList).flatMap (IErrorList::stream);
+      if (aFilter != null)
+        aStream = aStream.filter (aFilter);
+      return aStream.iterator ();
+    };
+  }
+
+  /**
+   * Group all identical errors of all layers. Errors are identical if they
+   * stem from the same validation artefact and have the same error ID, error
+   * level and error text.
+   *
+   * @param aDisplayLocale
+   *        The locale used to resolve the error texts. May not be
+   *        <code>null</code>.
+   * @param nMaxSamples
+   *        The maximum number of errors (and therefore locations) to keep per
+   *        group. Must be &gt; 0.
+   * @return The error groups in the order of their first occurrence. Never
+   *         <code>null</code> but maybe empty.
+   * @since 7.2.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <ValidationErrorGroup> getAllErrorGroups (@Nonnull final Locale aDisplayLocale,
+                                                               @Nonnegative final int nMaxSamples)
+  {
+    return ValidationErrorGroup.createGroups (this, aDisplayLocale, nMaxSamples);
+  }
+
   /**
    * Count all items according to the provided filter.
    *
@@ -118,6 +399,9 @@ public class ValidationResultList extends CommonsArrayList <ValidationResult>
   @Nonnegative
   public int getAllCount (@Nullable final Predicate <? super IError> aFilter)
   {
+    if (aFilter == null)
+      return m_nTotalCount;
+
     int ret = 0;
     for (final ValidationResult aItem : this)
       ret += aItem.getErrorList ().getCount (aFilter);
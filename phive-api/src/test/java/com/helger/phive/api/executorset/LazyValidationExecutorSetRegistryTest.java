@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.api.executorset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phive.api.source.IValidationSource;
+
+/**
+ * Test class for class {@link LazyValidationExecutorSetRegistry}.
+ *
+ * @author Philip Helger
+ */
+public final class LazyValidationExecutorSetRegistryTest
+{
+  private static final VESID ID1 = new VESID ("group", "art", "1");
+  private static final VESID ID2 = new VESID ("group", "art", "2");
+  private static final VESID ID3 = new VESID ("group", "art", "3");
+
+  @Test
+  public void testBasic ()
+  {
+    final AtomicInteger aCreated = new AtomicInteger (0);
+    final ICommonsList <IValidationExecutorSet <IValidationSource>> aEvicted = new CommonsArrayList <> ();
+    final LazyValidationExecutorSetRegistry <IValidationSource> aRegistry = new LazyValidationExecutorSetRegistry <> (2);
+    aRegistry.setEvictionHandler (aEvicted::add);
+    for (final VESID aID : new VESID [] { ID1, ID2, ID3 })
+      aRegistry.registerLazyValidationExecutorSet (aID, () -> {
+        aCreated.incrementAndGet ();
+        return new ValidationExecutorSet <> (aID, "VES " + aID.getVersion (), false);
+      });
+    assertEquals (3, aRegistry.getAllLazyIDs ().size ());
+    assertEquals (0, aCreated.get ());
+    assertTrue (aRegistry.getAll ().isEmpty ());
+
+    // Create on first usage
+    final IValidationExecutorSet <IValidationSource> aVES1 = aRegistry.getOfID (ID1);
+    assertEquals (ID1, aVES1.getID ());
+    assertSame (aVES1, aRegistry.getOfID (ID1));
+    assertEquals (1, aRegistry.getCompilationCount ());
+    assertEquals (1, aRegistry.getHitCount ());
+
+    aRegistry.getOfID (ID2);
+    // ID1 is now the most recently used one
+    aRegistry.getOfID (ID1);
+    assertEquals (new CommonsArrayList <> (ID2, ID1), aRegistry.getAllCompiledIDs ());
+
+    // Evicts ID2
+    aRegistry.getOfID (ID3);
+    assertEquals (3, aCreated.get ());
+    assertEquals (1, aRegistry.getEvictionCount ());
+    assertEquals (1, aEvicted.size ());
+    assertEquals (ID2, aEvicted.getFirst ().getID ());
+    assertEquals (new CommonsArrayList <> (ID1, ID3), aRegistry.getAllCompiledIDs ());
+    assertSame (aVES1, aRegistry.getOfID (ID1));
+
+    // Re-created after eviction
+    final IValidationExecutorSet <IValidationSource> aVES2 = aRegistry.getOfID (ID2);
+    assertNotSame (aEvicted.getFirst (), aVES2);
+    assertEquals (4, aRegistry.getCompilationCount ());
+
+    assertTrue (aRegistry.evictAll ().isChanged ());
+    assertTrue (aRegistry.getAllCompiledIDs ().isEmpty ());
+    assertTrue (aRegistry.unregisterValidationExecutorSet (ID1).isChanged ());
+    assertNull (aRegistry.getOfID (ID1));
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testDuplicateID ()
+  {
+    final LazyValidationExecutorSetRegistry <IValidationSource> aRegistry = new LazyValidationExecutorSetRegistry <> ();
+    aRegistry.registerValidationExecutorSet (new ValidationExecutorSet <> (ID1, "VES", false));
+    aRegistry.registerLazyValidationExecutorSet (ID1, () -> new ValidationExecutorSet <> (ID1, "VES", false));
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testReplaceLazyID ()
+  {
+    final LazyValidationExecutorSetRegistry <IValidationSource> aRegistry = new LazyValidationExecutorSetRegistry <> ();
+    aRegistry.registerLazyValidationExecutorSet (ID1, () -> new ValidationExecutorSet <> (ID1, "VES", false));
+    aRegistry.replaceValidationExecutorSet (new ValidationExecutorSet <> (ID1, "VES", false));
+  }
+}
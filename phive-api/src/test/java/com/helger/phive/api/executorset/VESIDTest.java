@@ -19,6 +19,7 @@ package com.helger.phive.api.executorset;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -81,4 +82,39 @@ public final class VESIDTest
     assertNull (VESID.parseIDOrNull (":::"));
     assertNull (VESID.parseIDOrNull ("a:b:"));
   }
+
+  @Test
+  public void testIntern ()
+  {
+    final VESID aID1 = VESID.intern (new VESID ("com.helger", "phive-intern", "1.0.0"));
+    assertSame (aID1.getAsSingleID (), aID1.getAsSingleID ());
+    assertSame (aID1, VESID.intern (new VESID ("com.helger", "phive-intern", "1.0.0")));
+    assertSame (aID1, VESID.parseIDInternedOrNull ("com.helger:phive-intern:1.0.0"));
+    assertEquals (aID1, VESID.parseIDInternedOrNull ("com.helger:phive-intern:1.0.0:"));
+    assertNull (VESID.parseIDInternedOrNull ("com.helger:phive-intern"));
+    assertNull (VESID.parseIDInternedOrNull ("com.helger:phive-intern:ä"));
+  }
+
+  @Test
+  public void testInternLRU ()
+  {
+    final VESID aID1 = VESID.intern (new VESID ("com.helger", "phive-intern-lru", "1.0.0"));
+    for (int i = 0; i < VESID.MAX_INTERNED; ++i)
+    {
+      // Keep the first one in use
+      if (i % 100 == 0)
+        assertSame (aID1, VESID.intern (new VESID ("com.helger", "phive-intern-lru", "1.0.0")));
+      VESID.intern (new VESID ("com.helger", "phive-intern-lru", "2." + i));
+    }
+    // Still interned, as it was recently used
+    assertSame (aID1, VESID.parseIDInternedOrNull ("com.helger:phive-intern-lru:1.0.0"));
+
+    // Interning still works after the limit was reached
+    final VESID aID2 = VESID.intern (new VESID ("com.helger", "phive-intern-lru", "3.0.0"));
+    assertSame (aID2, VESID.intern (new VESID ("com.helger", "phive-intern-lru", "3.0.0")));
+
+    // The least recently used one was dropped
+    final VESID aOld = new VESID ("com.helger", "phive-intern-lru", "2.0");
+    assertSame (aOld, VESID.intern (aOld));
+  }
 }
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.api.executorset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.version.VersionRange;
+import com.helger.phive.api.EValidationType;
+import com.helger.phive.api.artefact.ValidationArtefact;
+import com.helger.phive.api.execute.AbstractValidationExecutor;
+import com.helger.phive.api.execute.IValidationExecutor;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.api.source.IValidationSource;
+
+/**
+ * Test class for class {@link ValidationExecutorSetRegistry}.
+ *
+ * @author Philip Helger
+ */
+public final class ValidationExecutorSetRegistryTest
+{
+  private static final class MockExecutor extends AbstractValidationExecutor <IValidationSource, MockExecutor> implements
+                                          IValidationExecutor.ICacheSupport
+  {
+    private static final AtomicInteger SEQ = new AtomicInteger (0);
+    private boolean m_bInCache = false;
+    private int m_nInCacheSeq = 0;
+    private int m_nRemovedSeq = 0;
+
+    MockExecutor (@Nonnull final String sPath)
+    {
+      super (new ValidationArtefact (EValidationType.XSD, new ClassPathResource (sPath)));
+    }
+
+    public boolean isCacheArtefact ()
+    {
+      return true;
+    }
+
+    public MockExecutor setCacheArtefact (final boolean bCacheArtefact)
+    {
+      return this;
+    }
+
+    public void ensureItemIsInCache ()
+    {
+      m_bInCache = true;
+      m_nInCacheSeq = SEQ.incrementAndGet ();
+    }
+
+    @Override
+    public void removeItemFromCache ()
+    {
+      m_nRemovedSeq = SEQ.incrementAndGet ();
+    }
+
+    public ValidationResult applyValidation (@Nonnull final IValidationSource aSource, final Locale aLocale)
+    {
+      return new ValidationResult (getValidationArtefact (), new ErrorList ());
+    }
+  }
+
+  @Nonnull
+  private static ValidationExecutorSet <IValidationSource> _createVES (final String sVersion, final MockExecutor... aExecutors)
+  {
+    final ValidationExecutorSet <IValidationSource> ret = new ValidationExecutorSet <> (new VESID ("group", "art", sVersion),
+                                                                                        "VES " + sVersion,
+                                                                                        false);
+    for (final MockExecutor aExecutor : aExecutors)
+      ret.addExecutor (aExecutor);
+    return ret;
+  }
+
+  @Test
+  public void testReplace () throws Exception
+  {
+    final ValidationExecutorSetRegistry <IValidationSource> aRegistry = new ValidationExecutorSetRegistry <> ();
+    final MockExecutor aExecutor1 = new MockExecutor ("a.xsd");
+    final MockExecutor aShared1 = new MockExecutor ("shared.xsd");
+    final ValidationExecutorSet <IValidationSource> aVES1 = _createVES ("1", aExecutor1, aShared1);
+    assertNull (aRegistry.replaceValidationExecutorSet (aVES1));
+    assertSame (aVES1, aRegistry.getOfID (aVES1.getID ()));
+
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try
+    {
+      // Replace a single VES
+      final MockExecutor aExecutor = new MockExecutor ("b.xsd");
+      final MockExecutor aShared2 = new MockExecutor ("shared.xsd");
+      final ValidationExecutorSet <IValidationSource> aVES1b = _createVES ("1", aExecutor, aShared2);
+      assertSame (aVES1, aRegistry.replaceValidationExecutorSetAsync (aVES1b, aES).get ());
+      assertTrue (aExecutor.m_bInCache);
+      assertTrue (aShared2.m_bInCache);
+      // The old artefacts are removed from the cache after warming up
+      assertTrue (aExecutor1.m_nRemovedSeq > aExecutor.m_nInCacheSeq);
+      // Shared artefacts are kept
+      assertEquals (0, aShared1.m_nRemovedSeq);
+      assertEquals (0, aExecutor.m_nRemovedSeq);
+      assertSame (aVES1b, aRegistry.getOfID (aVES1.getID ()));
+      // The old one is untouched
+      assertEquals (2, aVES1.getCount ());
+
+      // Replace the whole generation
+      final MockExecutor aExecutor2 = new MockExecutor ("c.xsd");
+      final MockExecutor aExecutor3 = new MockExecutor ("d.xsd");
+      final ICommonsList <ValidationExecutorSet <IValidationSource>> aNewGeneration = new CommonsArrayList <> (_createVES ("2",
+                                                                                                                          aExecutor2),
+                                                                                                               _createVES ("3",
+                                                                                                                           aExecutor3));
+      final ICommonsList <IValidationExecutorSet <IValidationSource>> aOld = aRegistry.replaceAllValidationExecutorSetsAsync (aNewGeneration,
+                                                                                                                              aES)
+                                                                                      .get ();
+      assertEquals (1, aOld.size ());
+      assertSame (aVES1b, aOld.getFirst ());
+      assertTrue (aExecutor2.m_bInCache);
+      assertTrue (aExecutor3.m_bInCache);
+      assertTrue (aExecutor.m_nRemovedSeq > aExecutor2.m_nInCacheSeq);
+      assertTrue (aExecutor.m_nRemovedSeq > aExecutor3.m_nInCacheSeq);
+      assertTrue (aShared2.m_nRemovedSeq > 0);
+      assertEquals (0, aExecutor2.m_nRemovedSeq);
+      assertEquals (2, aRegistry.getAll ().size ());
+      assertNull (aRegistry.getOfID (aVES1.getID ()));
+    }
+    finally
+    {
+      aES.shutdown ();
+    }
+  }
+
+  @Test
+  public void testVersionIndex ()
+  {
+    final ValidationExecutorSetRegistry <IValidationSource> aRegistry = new ValidationExecutorSetRegistry <> ();
+    for (final String sVersion : new String [] { "1.0.0", "1.2.0", "1.10.0", "2.0.0", "2.1.0" })
+      aRegistry.registerValidationExecutorSet (new ValidationExecutorSet <> (new VESID ("group", "art", sVersion),
+                                                                             "VES " + sVersion,
+                                                                             sVersion.equals ("2.1.0")));
+    aRegistry.registerValidationExecutorSet (new ValidationExecutorSet <> (new VESID ("group", "art", "3.0.0", "cl"),
+                                                                           "VES with classifier",
+                                                                           false));
+
+    final ICommonsList <IValidationExecutorSet <IValidationSource>> aAll = aRegistry.getAllVersions ("group", "art", null);
+    assertEquals (5, aAll.size ());
+    assertEquals ("1.10.0", aAll.get (2).getID ().getVersion ());
+
+    assertEquals ("2.1.0", aRegistry.getLatestVersion ("group", "art", null, true).getID ().getVersion ());
+    assertEquals ("2.0.0", aRegistry.getLatestVersion ("group", "art", null, false).getID ().getVersion ());
+    assertEquals ("3.0.0", aRegistry.getLatestVersion ("group", "art", "cl", false).getID ().getVersion ());
+    assertNull (aRegistry.getLatestVersion ("group", "other", null, true));
+
+    assertEquals ("1.10.0",
+                  aRegistry.getLatestVersionInRange ("group", "art", null, VersionRange.parse ("[1.0,2.0)"), true)
+                           .getID ()
+                           .getVersion ());
+    assertEquals ("2.0.0",
+                  aRegistry.getLatestVersionInRange ("group", "art", null, VersionRange.parse ("[1.0,2.0]"), true)
+                           .getID ()
+                           .getVersion ());
+    assertNull (aRegistry.getLatestVersionInRange ("group", "art", null, VersionRange.parse ("(2.1,3.0]"), true));
+
+    // Index is updated
+    aRegistry.unregisterValidationExecutorSet (new VESID ("group", "art", "2.0.0"));
+    assertEquals ("1.10.0", aRegistry.getLatestVersion ("group", "art", null, false).getID ().getVersion ());
+    aRegistry.removeAll ();
+    assertTrue (aRegistry.getAllVersions ("group", "art", null).isEmpty ());
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testReplaceAllDuplicateID ()
+  {
+    new ValidationExecutorSetRegistry <> ().replaceAllValidationExecutorSets (new CommonsArrayList <> (_createVES ("1",
+                                                                                                                   new MockExecutor ("a.xsd")),
+                                                                                                       _createVES ("1",
+                                                                                                                   new MockExecutor ("a.xsd"))));
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.api.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.error.IError;
+import com.helger.commons.error.SingleError;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.phive.api.EValidationType;
+import com.helger.phive.api.artefact.ValidationArtefact;
+
+/**
+ * Test class for class {@link ValidationResultList}.
+ *
+ * @author Philip Helger
+ */
+public final class ValidationResultListTest
+{
+  private static final ValidationArtefact VA = new ValidationArtefact (EValidationType.XSD,
+                                                                       new ClassPathResource ("test.xsd"));
+
+  private static void _assertConsistent (final ValidationResultList aList)
+  {
+    assertEquals (aList.getAllFailures ().size (), aList.getAllFailureCount ());
+    assertEquals (aList.getAllErrors ().size (), aList.getAllErrorCount ());
+    assertEquals (aList.containsNoError (), aList.getAllErrors ().isEmpty ());
+    int nCount = 0;
+    for (final IError aError : aList.getAllFlattened (null))
+    {
+      assertTrue (aList.getMostSevereErrorLevel ().isGE (aError.getErrorLevel ()));
+      nCount++;
+    }
+    assertEquals (nCount, aList.getAllCount (null));
+  }
+
+  @Test
+  public void testSummary ()
+  {
+    final ValidationResultList aList = new ValidationResultList ();
+    assertTrue (aList.containsNoFailure ());
+    assertSame (EErrorLevel.LOWEST, aList.getMostSevereErrorLevel ());
+    _assertConsistent (aList);
+
+    final ValidationResult aWarn = new ValidationResult (VA,
+                                                         new ErrorList (SingleError.builderWarn ().errorText ("w1").build (),
+                                                                        SingleError.builderWarn ().errorText ("w2").build ()));
+    final ValidationResult aError = new ValidationResult (VA,
+                                                          new ErrorList (SingleError.builderError ().errorText ("e").build ()));
+    aList.add (aWarn);
+    assertTrue (aList.containsAtLeastOneFailure ());
+    assertTrue (aList.containsNoError ());
+    assertSame (EErrorLevel.WARN, aList.getMostSevereErrorLevel ());
+    assertEquals (2, aList.getAllCountOfErrorLevel (EErrorLevel.WARN));
+    _assertConsistent (aList);
+
+    aList.addAll (new CommonsArrayList <> (aError, ValidationResult.createIgnoredResult (VA)));
+    assertTrue (aList.containsAtLeastOneError ());
+    assertSame (EErrorLevel.ERROR, aList.getMostSevereErrorLevel ());
+    assertEquals (3, aList.getAllCount (null));
+    assertEquals (1, aList.getAllCount (IError::isError));
+    _assertConsistent (aList);
+
+    aList.remove (aError);
+    assertFalse (aList.containsAtLeastOneError ());
+    assertSame (EErrorLevel.WARN, aList.getMostSevereErrorLevel ());
+    _assertConsistent (aList);
+
+    aList.set (0, aError);
+    assertEquals (0, aList.getAllCountOfErrorLevel (EErrorLevel.WARN));
+    assertEquals (1, aList.getAllErrorCount ());
+    _assertConsistent (aList);
+
+    aList.removeIf (x -> x.isFailure ());
+    assertTrue (aList.containsNoFailure ());
+    _assertConsistent (aList);
+
+    aList.add (aWarn);
+    aList.clear ();
+    assertEquals (0, aList.getAllCount (null));
+    assertSame (EErrorLevel.LOWEST, aList.getMostSevereErrorLevel ());
+  }
+}
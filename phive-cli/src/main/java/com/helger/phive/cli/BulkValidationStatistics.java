@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.cli;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Statistics of a bulk validation run as performed by {@link BulkValidator}.
+ * The counters are updated concurrently by the worker threads. Per document
+ * latencies are recorded to compute percentiles at the end.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class BulkValidationStatistics
+{
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final AtomicLong m_aValidCount = new AtomicLong (0);
+  private final AtomicLong m_aInvalidCount = new AtomicLong (0);
+  private final AtomicLong m_aFailedCount = new AtomicLong (0);
+  private final AtomicLong m_aTotalBytes = new AtomicLong (0);
+  private long [] m_aLatencies = new long [1024];
+  private int m_nLatencyCount = 0;
+  private long m_nWallMillis = 0;
+
+  public BulkValidationStatistics ()
+  {}
+
+  private void _addLatency (final long nMillis)
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (m_nLatencyCount == m_aLatencies.length)
+        m_aLatencies = Arrays.copyOf (m_aLatencies, m_aLatencies.length * 2);
+      m_aLatencies[m_nLatencyCount++] = nMillis;
+    });
+  }
+
+  /**
+   * Record a validated document.
+   *
+   * @param bValid
+   *        <code>true</code> if the document is valid, <code>false</code> if it
+   *        contains errors.
+   * @param nBytes
+   *        The size of the document in bytes. Must be &ge; 0.
+   * @param nMillis
+   *        The validation duration in milliseconds. Must be &ge; 0.
+   */
+  void onValidated (final boolean bValid, @Nonnegative final long nBytes, @Nonnegative final long nMillis)
+  {
+    (bValid ? m_aValidCount : m_aInvalidCount).incrementAndGet ();
+    m_aTotalBytes.addAndGet (nBytes);
+    _addLatency (nMillis);
+  }
+
+  /**
+   * Record a document that could not be validated at all, e.g. because it is
+   * not readable or no VES was found.
+   *
+   * @param nBytes
+   *        The size of the document in bytes, as far as known. Must be &ge; 0.
+   */
+  void onFailed (@Nonnegative final long nBytes)
+  {
+    m_aFailedCount.incrementAndGet ();
+    m_aTotalBytes.addAndGet (nBytes);
+  }
+
+  void setWallMillis (@Nonnegative final long nWallMillis)
+  {
+    ValueEnforcer.isGE0 (nWallMillis, "WallMillis");
+    m_aRWLock.writeLocked ( () -> m_nWallMillis = nWallMillis);
+  }
+
+  /**
+   * @return The number of documents that were handled, including the failed
+   *         ones.
+   */
+  @Nonnegative
+  public long getDocumentCount ()
+  {
+    return m_aValidCount.get () + m_aInvalidCount.get () + m_aFailedCount.get ();
+  }
+
+  /**
+   * @return The number of documents without validation errors.
+   */
+  @Nonnegative
+  public long getValidCount ()
+  {
+    return m_aValidCount.get ();
+  }
+
+  /**
+   * @return The number of documents with at least one validation error.
+   */
+  @Nonnegative
+  public long getInvalidCount ()
+  {
+    return m_aInvalidCount.get ();
+  }
+
+  /**
+   * @return The number of documents that could not be validated.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  /**
+   * @return The total number of bytes of all handled documents.
+   */
+  @Nonnegative
+  public long getTotalBytes ()
+  {
+    return m_aTotalBytes.get ();
+  }
+
+  /**
+   * @return The wall clock duration of the whole run in milliseconds.
+   */
+  @Nonnegative
+  public long getWallMillis ()
+  {
+    return m_aRWLock.readLockedLong ( () -> m_nWallMillis);
+  }
+
+  /**
+   * @return The number of handled documents per second, based on the wall
+   *         clock duration.
+   */
+  public double getDocumentsPerSecond ()
+  {
+    final long nMillis = getWallMillis ();
+    return nMillis == 0 ? 0 : getDocumentCount () * 1000d / nMillis;
+  }
+
+  /**
+   * @return The number of handled mega bytes per second, based on the wall
+   *         clock duration.
+   */
+  public double getMegaBytesPerSecond ()
+  {
+    final long nMillis = getWallMillis ();
+    return nMillis == 0 ? 0 : getTotalBytes () * 1000d / CGlobal.BYTES_PER_MEGABYTE / nMillis;
+  }
+
+  /**
+   * Get the validation latency percentile, using the nearest rank method.
+   *
+   * @param dPercentile
+   *        The percentile to retrieve. Must be &gt; 0 and &le; 100.
+   * @return The latency in milliseconds or 0 if no document was validated.
+   */
+  @Nonnegative
+  public long getLatencyPercentile (final double dPercentile)
+  {
+    ValueEnforcer.isTrue (dPercentile > 0 && dPercentile <= 100, "Percentile must be > 0 and <= 100");
+    final long [] aSorted = m_aRWLock.readLockedGet ( () -> Arrays.copyOf (m_aLatencies, m_nLatencyCount));
+    if (aSorted.length == 0)
+      return 0;
+    Arrays.sort (aSorted);
+    final int nRank = (int) Math.ceil (dPercentile / 100 * aSorted.length);
+    return aSorted[Math.max (nRank, 1) - 1];
+  }
+
+  /**
+   * @return A human readable multi-line summary of the statistics. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public String getAsSummary ()
+  {
+    return String.format (Locale.US,
+                          "Documents: %d (%d valid, %d invalid, %d failed)%n" +
+                                     "Duration: %d ms%n" +
+                                     "Throughput: %.1f documents/s, %.2f MB/s%n" +
+                                     "Latency: p50=%d ms, p90=%d ms, p99=%d ms, max=%d ms%n",
+                          Long.valueOf (getDocumentCount ()),
+                          Long.valueOf (getValidCount ()),
+                          Long.valueOf (getInvalidCount ()),
+                          Long.valueOf (getFailedCount ()),
+                          Long.valueOf (getWallMillis ()),
+                          Double.valueOf (getDocumentsPerSecond ()),
+                          Double.valueOf (getMegaBytesPerSecond ()),
+                          Long.valueOf (getLatencyPercentile (50)),
+                          Long.valueOf (getLatencyPercentile (90)),
+                          Long.valueOf (getLatencyPercentile (99)),
+                          Long.valueOf (getLatencyPercentile (100)));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("ValidCount", m_aValidCount)
+                                       .append ("InvalidCount", m_aInvalidCount)
+                                       .append ("FailedCount", m_aFailedCount)
+                                       .append ("TotalBytes", m_aTotalBytes)
+                                       .append ("WallMillis", getWallMillis ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.stream.NonClosingInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EValidity;
+import com.helger.commons.timing.StopWatch;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.json.serialize.JsonWriter;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+import com.helger.phive.json.PhiveJsonHelper;
+
+/**
+ * Validate all documents of directory trees, ZIP and TAR archives in parallel.
+ * For every document one JSON object (see
+ * {@link PhiveJsonHelper#applyValidationResultList(IJsonObject, IValidationExecutorSet, java.util.List, Locale, long, com.helger.commons.mutable.MutableInt, com.helger.commons.mutable.MutableInt)})
+ * extended by the field <code>id</code> is written as a single line to the
+ * output (NDJSON). The lines are written in the order the validations finish.
+ * <br>
+ * The inputs are enumerated on the calling thread and validated by a fixed
+ * number of worker threads. The work queue is bounded, so that the
+ * enumeration blocks (by validating on the calling thread) if the workers are
+ * saturated. Archive entries are read into memory, plain files are spooled by
+ * the workers.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@NotThreadSafe
+public class BulkValidator
+{
+  public static final int DEFAULT_THREADS = Runtime.getRuntime ().availableProcessors ();
+  public static final Locale DEFAULT_DISPLAY_LOCALE = Locale.US;
+  public static final String DEFAULT_EXTENSION = "xml";
+
+  public static final String JSON_ID = "id";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (BulkValidator.class);
+
+  private final Function <? super IValidationSourceXML, ? extends IValidationExecutorSet <IValidationSourceXML>> m_aVESResolver;
+  private int m_nThreads = DEFAULT_THREADS;
+  private Locale m_aDisplayLocale = DEFAULT_DISPLAY_LOCALE;
+  private boolean m_bFastValidation = false;
+  private boolean m_bUsePipeline = ValidationExecutionManager.DEFAULT_USE_PIPELINE;
+  private final ICommonsSet <String> m_aExtensions = new CommonsHashSet <> (DEFAULT_EXTENSION);
+
+  /**
+   * Constructor
+   *
+   * @param aVESResolver
+   *        The function that determines the VES to validate a document with.
+   *        It is invoked on the worker threads and must therefore be thread
+   *        safe. It may return <code>null</code> if no VES could be determined,
+   *        in which case the document is reported as failed. May not be
+   *        <code>null</code>.
+   */
+  public BulkValidator (@Nonnull final Function <? super IValidationSourceXML, ? extends IValidationExecutorSet <IValidationSourceXML>> aVESResolver)
+  {
+    ValueEnforcer.notNull (aVESResolver, "VESResolver");
+    m_aVESResolver = aVESResolver;
+  }
+
+  /**
+   * Constructor for validating all documents with the same VES.
+   *
+   * @param aVES
+   *        The VES to use. May not be <code>null</code>.
+   */
+  public BulkValidator (@Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES)
+  {
+    this (x -> aVES);
+    ValueEnforcer.notNull (aVES, "VES");
+  }
+
+  /**
+   * @param n
+   *        The number of worker threads. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public BulkValidator threads (@Nonnegative final int n)
+  {
+    ValueEnforcer.isGT0 (n, "Threads");
+    m_nThreads = n;
+    return this;
+  }
+
+  /**
+   * @param a
+   *        The locale in which the error texts should be reported. May not be
+   *        <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public BulkValidator displayLocale (@Nonnull final Locale a)
+  {
+    ValueEnforcer.notNull (a, "DisplayLocale");
+    m_aDisplayLocale = a;
+    return this;
+  }
+
+  /**
+   * @param b
+   *        <code>true</code> to only determine whether each document is valid,
+   *        stopping at the first error (see
+   *        {@link ValidationExecutionManager#executeFastValidation(IValidationExecutorSet, com.helger.phive.api.source.IValidationSource)}),
+   *        <code>false</code> to collect all errors.
+   * @return this for chaining
+   */
+  @Nonnull
+  public BulkValidator fastValidation (final boolean b)
+  {
+    m_bFastValidation = b;
+    return this;
+  }
+
+  /**
+   * @param b
+   *        <code>true</code> to use the pipelined execution of the
+   *        {@link ValidationExecutionManager} for full validations.
+   * @return this for chaining
+   */
+  @Nonnull
+  public BulkValidator usePipeline (final boolean b)
+  {
+    m_bUsePipeline = b;
+    return this;
+  }
+
+  /**
+   * @param aExtensions
+   *        The file extensions (without the dot, case insensitive) of the files
+   *        to be validated. Must contain at least one extension.
+   * @return this for chaining
+   */
+  @Nonnull
+  public BulkValidator extensions (@Nonnull final String... aExtensions)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aExtensions, "Extensions");
+    m_aExtensions.clear ();
+    for (final String s : aExtensions)
+      m_aExtensions.add (s.toLowerCase (Locale.ROOT));
+    return this;
+  }
+
+  /**
+   * Check if the provided filename denotes a supported archive (ZIP or TAR,
+   * optionally gzip compressed).
+   *
+   * @param sFilename
+   *        The filename to check. May be <code>null</code>.
+   * @return <code>true</code> if it is an archive.
+   */
+  public static boolean isArchive (@Nullable final String sFilename)
+  {
+    return isZip (sFilename) || isTar (sFilename);
+  }
+
+  static boolean isZip (@Nullable final String sFilename)
+  {
+    return sFilename != null && sFilename.toLowerCase (Locale.ROOT).endsWith (".zip");
+  }
+
+  static boolean isTar (@Nullable final String sFilename)
+  {
+    if (sFilename == null)
+      return false;
+    final String s = sFilename.toLowerCase (Locale.ROOT);
+    return s.endsWith (".tar") || s.endsWith (".tar.gz") || s.endsWith (".tgz");
+  }
+
+  private boolean _isDocument (@Nonnull final String sFilename)
+  {
+    final String sExt = FilenameHelper.getExtension (sFilename);
+    return sExt != null && m_aExtensions.contains (sExt.toLowerCase (Locale.ROOT));
+  }
+
+  /**
+   * The state of a single run.
+   *
+   * @author Philip Helger
+   */
+  private final class Run
+  {
+    private final Writer m_aWriter;
+    private final JsonWriter m_aJsonWriter = new JsonWriter ();
+    private final BulkValidationStatistics m_aStats = new BulkValidationStatistics ();
+    private final AtomicReference <IOException> m_aWriteException = new AtomicReference <> ();
+    private final ThreadPoolExecutor m_aPool;
+
+    Run (@Nonnull final Writer aWriter)
+    {
+      m_aWriter = aWriter;
+      m_aPool = new ThreadPoolExecutor (m_nThreads,
+                                        m_nThreads,
+                                        60,
+                                        TimeUnit.SECONDS,
+                                        new ArrayBlockingQueue <> (m_nThreads * 4),
+                                        new BasicThreadFactory.Builder ().namingPattern ("phive-cli-%d").daemon (true).build (),
+                                        new ThreadPoolExecutor.CallerRunsPolicy ());
+    }
+
+    private void _write (@Nonnull final IJsonObject aJson)
+    {
+      synchronized (m_aWriter)
+      {
+        try
+        {
+          m_aJsonWriter.writeToWriter (aJson, m_aWriter);
+          m_aWriter.write ('\n');
+        }
+        catch (final IOException ex)
+        {
+          m_aWriteException.compareAndSet (null, ex);
+        }
+      }
+    }
+
+    private void _failed (@Nonnull final IJsonObject aJson,
+                          @Nonnull final String sMsg,
+                          @Nonnegative final long nBytes,
+                          @Nonnegative final long nMillis)
+    {
+      PhiveJsonHelper.applyGlobalError (aJson, sMsg, nMillis);
+      m_aStats.onFailed (nBytes);
+      _write (aJson);
+    }
+
+    private void _validate (@Nonnull final String sID, @Nonnull final Supplier <ValidationSourceXMLSpooled> aSourceSupplier)
+    {
+      final IJsonObject aJson = new JsonObject ().add (JSON_ID, sID);
+      final StopWatch aSW = StopWatch.createdStarted ();
+      ValidationSourceXMLSpooled aSource = null;
+      try
+      {
+        aSource = aSourceSupplier.get ();
+        final IValidationExecutorSet <IValidationSourceXML> aVES = m_aVESResolver.apply (aSource);
+        if (aVES == null)
+        {
+          _failed (aJson, "No matching VES found", aSource.getSize (), aSW.stopAndGetMillis ());
+          return;
+        }
+
+        if (m_bFastValidation)
+        {
+          final EValidity eValidity = ValidationExecutionManager.executeFastValidation (aVES, aSource);
+          final long nMillis = aSW.stopAndGetMillis ();
+          aJson.add (PhiveJsonHelper.JSON_SUCCESS, eValidity.isValid ())
+               .add (PhiveJsonHelper.JSON_VESID, aVES.getID ().getAsSingleID ())
+               .add (PhiveJsonHelper.JSON_DURATION_MS, nMillis);
+          m_aStats.onValidated (eValidity.isValid (), aSource.getSize (), nMillis);
+        }
+        else
+        {
+          final ValidationResultList aResults = new ValidationResultList ();
+          new ValidationExecutionManager <> (aVES).setUsePipeline (m_bUsePipeline)
+                                                  .executeValidation (aSource, aResults, m_aDisplayLocale);
+          final long nMillis = aSW.stopAndGetMillis ();
+          PhiveJsonHelper.applyValidationResultList (aJson, aVES, aResults, m_aDisplayLocale, nMillis, null, null);
+          m_aStats.onValidated (aResults.containsNoError (), aSource.getSize (), nMillis);
+        }
+        _write (aJson);
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.warn ("Failed to validate '" + sID + "': " + ex.getMessage ());
+        _failed (aJson,
+                 "Failed to validate document: " + ex.getMessage (),
+                 aSource == null ? 0 : aSource.getSize (),
+                 aSW.stopAndGetMillis ());
+      }
+    }
+
+    private void _submit (@Nonnull final String sID, @Nonnull final Supplier <ValidationSourceXMLSpooled> aSourceSupplier)
+    {
+      m_aPool.execute ( () -> _validate (sID, aSourceSupplier));
+    }
+
+    private void _submitFailed (@Nonnull final String sID, @Nonnull final String sMsg)
+    {
+      LOGGER.warn ("Failed to read '" + sID + "': " + sMsg);
+      _failed (new JsonObject ().add (JSON_ID, sID), sMsg, 0, 0);
+    }
+
+    private void _readZip (@Nonnull final String sArchiveID, @Nonnull @WillNotClose final InputStream aIS) throws IOException
+    {
+      final ZipInputStream aZIS = new ZipInputStream (aIS);
+      ZipEntry aEntry;
+      while ((aEntry = aZIS.getNextEntry ()) != null)
+        if (!aEntry.isDirectory () && _isDocument (aEntry.getName ()))
+        {
+          final String sID = sArchiveID + "!/" + aEntry.getName ();
+          final byte [] aContent = StreamHelper.getAllBytes (new NonClosingInputStream (aZIS));
+          _submit (sID, () -> new ValidationSourceXMLSpooled (sID, ByteBuffer.wrap (aContent)));
+        }
+    }
+
+    private void _readTar (@Nonnull final String sArchiveID, @Nonnull @WillNotClose final InputStream aIS) throws IOException
+    {
+      final TarReader aReader = new TarReader (aIS);
+      TarReader.Entry aEntry;
+      while ((aEntry = aReader.getNextEntry ()) != null)
+        if (_isDocument (aEntry.getName ()))
+        {
+          final String sID = sArchiveID + "!/" + aEntry.getName ();
+          final byte [] aContent = aEntry.getContent ();
+          _submit (sID, () -> new ValidationSourceXMLSpooled (sID, ByteBuffer.wrap (aContent)));
+        }
+    }
+
+    private void _readFile (@Nonnull final Path aPath)
+    {
+      final String sID = aPath.toString ();
+      final String sFilename = aPath.getFileName () == null ? sID : aPath.getFileName ().toString ();
+      if (isArchive (sFilename))
+      {
+        try (final InputStream aIS = Files.newInputStream (aPath))
+        {
+          if (isZip (sFilename))
+            _readZip (sID, aIS);
+          else
+            _readTar (sID, aIS);
+        }
+        catch (final IOException ex)
+        {
+          _submitFailed (sID, "Failed to read archive: " + ex.getMessage ());
+        }
+      }
+      else
+        if (_isDocument (sFilename))
+          _submit (sID, () -> ValidationSourceXMLSpooled.create (sID, aPath));
+    }
+
+    private void _read (@Nonnull final Path aInput)
+    {
+      if (Files.isDirectory (aInput))
+      {
+        final Iterable <Path> aFiles;
+        try (final Stream <Path> aStream = Files.walk (aInput))
+        {
+          aFiles = aStream.filter (Files::isRegularFile).sorted ().collect (Collectors.toList ());
+        }
+        catch (final IOException | UncheckedIOException ex)
+        {
+          _submitFailed (aInput.toString (), "Failed to list directory: " + ex.getMessage ());
+          return;
+        }
+        for (final Path aFile : aFiles)
+          _readFile (aFile);
+      }
+      else
+        if (Files.isRegularFile (aInput))
+        {
+          // Explicitly provided files are always validated
+          final String sFilename = aInput.getFileName ().toString ();
+          if (isArchive (sFilename) || _isDocument (sFilename))
+            _readFile (aInput);
+          else
+            _submit (aInput.toString (), () -> ValidationSourceXMLSpooled.create (aInput.toString (), aInput));
+        }
+        else
+          _submitFailed (aInput.toString (), "No such file or directory");
+    }
+
+    @Nonnull
+    BulkValidationStatistics run (@Nonnull final Iterable <? extends Path> aInputs) throws IOException
+    {
+      final StopWatch aSW = StopWatch.createdStarted ();
+      try
+      {
+        for (final Path aInput : aInputs)
+          _read (aInput);
+      }
+      finally
+      {
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aPool);
+      }
+      m_aStats.setWallMillis (aSW.stopAndGetMillis ());
+
+      final IOException ex = m_aWriteException.get ();
+      if (ex != null)
+        throw ex;
+      m_aWriter.flush ();
+      return m_aStats;
+    }
+  }
+
+  /**
+   * Validate all documents of the provided inputs. Directories are traversed
+   * recursively, considering all files with a matching extension as well as
+   * all ZIP and TAR archives. In archives all entries with a matching
+   * extension are validated. Explicitly provided files are always validated.
+   * This method blocks until all documents are validated.
+   *
+   * @param aInputs
+   *        The files, directories and archives to validate. May not be
+   *        <code>null</code>.
+   * @param aWriter
+   *        The writer to write the NDJSON results to. It is flushed but not
+   *        closed. May not be <code>null</code>.
+   * @return The statistics of the run. Never <code>null</code>.
+   * @throws IOException
+   *         If writing the results failed
+   */
+  @Nonnull
+  public BulkValidationStatistics validate (@Nonnull final Iterable <? extends Path> aInputs,
+                                            @Nonnull @WillNotClose final Writer aWriter) throws IOException
+  {
+    ValueEnforcer.notNull (aInputs, "Inputs");
+    ValueEnforcer.notNull (aWriter, "Writer");
+
+    return new Run (aWriter).run (aInputs);
+  }
+}
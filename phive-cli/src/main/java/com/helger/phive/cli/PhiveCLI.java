@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.cli;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.stream.NonClosingOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.lang.NonBlockingProperties;
+import com.helger.commons.lang.PropertiesHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.engine.detect.VESDetectionIndex;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.vom.ConcurrentVOMNamespaceContextResolver;
+import com.helger.phive.engine.vom.ConcurrentVOMResourceResolver;
+import com.helger.phive.engine.vom.ConcurrentVOMXmlSchemaResolver;
+import com.helger.phive.engine.vom.MavenLayoutVOMArtifactResolver;
+import com.helger.phive.engine.vom.VOM1Bundle;
+import com.helger.phive.engine.vom.VOM1Converter;
+import com.helger.phive.engine.vom.VOM1Marshaller;
+import com.helger.phive.engine.vom.v10.VOMType;
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+
+/**
+ * Command line bulk validator. Usage:
+ *
+ * <pre>
+ * java -jar phive-cli-&lt;version&gt;.jar [options] &lt;file|directory|archive&gt;...
+ * </pre>
+ *
+ * The jar references its dependencies in the <code>lib</code> directory next
+ * to it (as created by the Maven build in <code>target/lib</code>).<br>
+ * Built-in XML Schemas, Schematron resources and namespace contexts referenced
+ * by the VOMs are registered with the <code>--builtin-*</code> options. XML
+ * Schemas and namespace contexts are only loaded when they are referenced.
+ *
+ * The VESs are loaded from VOM files (<code>--vom</code>) and VOM bundles
+ * (<code>--bundle</code>). If no VESID is provided and more than one VES is
+ * loaded, the VES is detected per document with a {@link VESDetectionIndex}
+ * built from the loaded VESs. The NDJSON results are written to stdout or to the
+ * file provided with <code>--output</code>, the statistics are written to
+ * stderr. The exit code is 0 if all documents are valid, 1 if at least one
+ * document is invalid or could not be validated and 2 in case of a usage or
+ * setup error.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+public final class PhiveCLI
+{
+  public static final int EXIT_VALID = 0;
+  public static final int EXIT_INVALID = 1;
+  public static final int EXIT_ERROR = 2;
+
+  private static final String OPTION_BUILTIN_XSD = "--builtin-xsd";
+  private static final String OPTION_BUILTIN_RESOURCE = "--builtin-resource";
+  private static final String OPTION_BUILTIN_NAMESPACES = "--builtin-namespaces";
+
+  private static final String USAGE = "Usage: phive-cli [options] <file|directory|archive>...\n" +
+                                      "Validates all documents of files, directory trees, ZIP and TAR archives\n" +
+                                      "and writes one JSON result per document (NDJSON).\n" +
+                                      "Options:\n" +
+                                      "  -v, --vesid <vesid>      The VESID to validate against. If missing, the VES\n" +
+                                      "                           is detected per document.\n" +
+                                      "  -m, --vom <file>         A VOM file to load. May be repeated.\n" +
+                                      "  -b, --bundle <file>      A VOM bundle to load. May be repeated.\n" +
+                                      "  -a, --artifacts <dir>    The Maven layout directory to resolve the VOM\n" +
+                                      "                           artifacts from.\n" +
+                                      "      --builtin-xsd <id>=<file>[,<file>...]\n" +
+                                      "                           Register a built-in XML Schema. May be repeated.\n" +
+                                      "      --builtin-resource <id>=<file>\n" +
+                                      "                           Register a built-in Schematron resource. May be\n" +
+                                      "                           repeated.\n" +
+                                      "      --builtin-namespaces <id>=<file>\n" +
+                                      "                           Register a built-in namespace context from a\n" +
+                                      "                           properties file with prefix=namespaceURI lines.\n" +
+                                      "                           May be repeated.\n" +
+                                      "  -t, --threads <n>        The number of worker threads. Default: " +
+                                      BulkValidator.DEFAULT_THREADS +
+                                      "\n" +
+                                      "  -o, --output <file>      The NDJSON output file. Default: stdout\n" +
+                                      "  -e, --extension <ext>    The extension of the files to validate. May be\n" +
+                                      "                           repeated. Default: " +
+                                      BulkValidator.DEFAULT_EXTENSION +
+                                      "\n" +
+                                      "      --fast               Only determine validity, stop at the first error.\n" +
+                                      "  -h, --help               Show this help.\n";
+
+  /**
+   * Thrown on invalid command line arguments.
+   *
+   * @author Philip Helger
+   */
+  private static final class UsageException extends Exception
+  {
+    UsageException (@Nonnull final String sMsg)
+    {
+      super (sMsg);
+    }
+  }
+
+  private PhiveCLI ()
+  {}
+
+  @Nonnull
+  private static String _getValue (@Nonnull final String [] aArgs, final int nIndex) throws UsageException
+  {
+    if (nIndex >= aArgs.length)
+      throw new UsageException ("Option '" + aArgs[nIndex - 1] + "' requires a value");
+    return aArgs[nIndex];
+  }
+
+  /**
+   * Split an option value of the form <code>id=value</code>.
+   *
+   * @param sOption
+   *        The option name for error messages.
+   * @param sValue
+   *        The option value.
+   * @return An array with the ID and the value
+   * @throws UsageException
+   *         if the value is not in the expected format
+   */
+  @Nonnull
+  private static String [] _getIDAndValue (@Nonnull final String sOption, @Nonnull final String sValue) throws UsageException
+  {
+    final int nIndex = sValue.indexOf ('=');
+    if (nIndex <= 0 || nIndex == sValue.length () - 1)
+      throw new UsageException ("Option '" + sOption + "' requires a value in the form <id>=<file>");
+    return new String [] { sValue.substring (0, nIndex), sValue.substring (nIndex + 1) };
+  }
+
+  @Nonnull
+  private static File _getExistingFile (@Nonnull final String sOption, @Nonnull final String sFilename) throws UsageException
+  {
+    final File ret = new File (sFilename);
+    if (!ret.isFile ())
+      throw new UsageException ("The file '" + sFilename + "' of option '" + sOption + "' does not exist");
+    return ret;
+  }
+
+  @Nonnull
+  private static MapBasedNamespaceContext _loadNamespaceContext (@Nonnull final File aFile)
+  {
+    final NonBlockingProperties aProps = PropertiesHelper.loadProperties (aFile, StandardCharsets.UTF_8);
+    if (aProps == null)
+      throw new IllegalStateException ("Failed to read namespace context file '" + aFile + "'");
+    final MapBasedNamespaceContext ret = new MapBasedNamespaceContext ();
+    for (final Map.Entry <String, String> aEntry : aProps.entrySet ())
+      ret.addMapping (aEntry.getKey (), aEntry.getValue ());
+    return ret;
+  }
+
+  @Nonnull
+  private static VOM1Converter _createConverter (@Nullable final String sArtifactDir,
+                                                 @Nonnull final ICommonsList <String> aBuiltInXSDs,
+                                                 @Nonnull final ICommonsList <String> aBuiltInResources,
+                                                 @Nonnull final ICommonsList <String> aBuiltInNamespaces) throws UsageException
+  {
+    // Always use the thread-safe resolvers, so that VOMs referencing unknown
+    // built-ins fail with a proper error message
+    final ConcurrentVOMXmlSchemaResolver aXmlSchemaResolver = new ConcurrentVOMXmlSchemaResolver ();
+    for (final String sValue : aBuiltInXSDs)
+    {
+      final String [] aParts = _getIDAndValue (OPTION_BUILTIN_XSD, sValue);
+      final ICommonsList <IReadableResource> aResources = new CommonsArrayList <> ();
+      for (final String sFilename : StringHelper.getExploded (',', aParts[1]))
+        aResources.add (new FileSystemResource (_getExistingFile (OPTION_BUILTIN_XSD, sFilename)));
+      aXmlSchemaResolver.addXSDLoader (aParts[0], aResources.toArray (new IReadableResource [0]));
+    }
+    final ConcurrentVOMResourceResolver aResourceResolver = new ConcurrentVOMResourceResolver ();
+    for (final String sValue : aBuiltInResources)
+    {
+      final String [] aParts = _getIDAndValue (OPTION_BUILTIN_RESOURCE, sValue);
+      aResourceResolver.addMapping (aParts[0], new FileSystemResource (_getExistingFile (OPTION_BUILTIN_RESOURCE, aParts[1])));
+    }
+    final ConcurrentVOMNamespaceContextResolver aNamespaceContextResolver = new ConcurrentVOMNamespaceContextResolver ();
+    for (final String sValue : aBuiltInNamespaces)
+    {
+      final String [] aParts = _getIDAndValue (OPTION_BUILTIN_NAMESPACES, sValue);
+      final File aFile = _getExistingFile (OPTION_BUILTIN_NAMESPACES, aParts[1]);
+      aNamespaceContextResolver.addLoader (aParts[0], () -> _loadNamespaceContext (aFile));
+    }
+
+    final VOM1Converter ret = new VOM1Converter ().xmlSchemaResolver (aXmlSchemaResolver)
+                                                  .resourceResolver (aResourceResolver)
+                                                  .namespaceContextResolver (aNamespaceContextResolver);
+    if (sArtifactDir != null)
+    {
+      final File aDir = new File (sArtifactDir);
+      if (!aDir.isDirectory ())
+        throw new UsageException ("The artifact directory '" + sArtifactDir + "' does not exist");
+      ret.artifactResolver (new MavenLayoutVOMArtifactResolver (aDir));
+    }
+    return ret;
+  }
+
+  /**
+   * Run the command line validator.
+   *
+   * @param aArgs
+   *        The command line arguments. May not be <code>null</code>.
+   * @param aOut
+   *        The stream to write the NDJSON results to, unless an output file is
+   *        provided. May not be <code>null</code>.
+   * @param aErr
+   *        The stream to write the statistics and error messages to. May not
+   *        be <code>null</code>.
+   * @return The exit code.
+   */
+  public static int run (@Nonnull final String [] aArgs, @Nonnull final PrintStream aOut, @Nonnull final PrintStream aErr)
+  {
+    String sVESID = null;
+    final ICommonsList <String> aVOMFiles = new CommonsArrayList <> ();
+    final ICommonsList <String> aBundleFiles = new CommonsArrayList <> ();
+    String sArtifactDir = null;
+    final ICommonsList <String> aBuiltInXSDs = new CommonsArrayList <> ();
+    final ICommonsList <String> aBuiltInResources = new CommonsArrayList <> ();
+    final ICommonsList <String> aBuiltInNamespaces = new CommonsArrayList <> ();
+    int nThreads = BulkValidator.DEFAULT_THREADS;
+    String sOutputFile = null;
+    final ICommonsList <String> aExtensions = new CommonsArrayList <> ();
+    boolean bFast = false;
+    final ICommonsList <Path> aInputs = new CommonsArrayList <> ();
+
+    final ICommonsList <VOM1Bundle> aBundles = new CommonsArrayList <> ();
+    try
+    {
+      // Parse arguments
+      for (int i = 0; i < aArgs.length; ++i)
+      {
+        final String sArg = aArgs[i];
+        switch (sArg)
+        {
+          case "-v":
+          case "--vesid":
+            sVESID = _getValue (aArgs, ++i);
+            break;
+          case "-m":
+          case "--vom":
+            aVOMFiles.add (_getValue (aArgs, ++i));
+            break;
+          case "-b":
+          case "--bundle":
+            aBundleFiles.add (_getValue (aArgs, ++i));
+            break;
+          case "-a":
+          case "--artifacts":
+            sArtifactDir = _getValue (aArgs, ++i);
+            break;
+          case "-t":
+          case "--threads":
+            nThreads = StringParser.parseInt (_getValue (aArgs, ++i), -1);
+            if (nThreads <= 0)
+              throw new UsageException ("The number of threads must be > 0");
+            break;
+          case "-o":
+          case "--output":
+            sOutputFile = _getValue (aArgs, ++i);
+            break;
+          case "-e":
+          case "--extension":
+            aExtensions.add (StringHelper.trimStart (_getValue (aArgs, ++i), "."));
+            break;
+          case OPTION_BUILTIN_XSD:
+            aBuiltInXSDs.add (_getValue (aArgs, ++i));
+            break;
+          case OPTION_BUILTIN_RESOURCE:
+            aBuiltInResources.add (_getValue (aArgs, ++i));
+            break;
+          case OPTION_BUILTIN_NAMESPACES:
+            aBuiltInNamespaces.add (_getValue (aArgs, ++i));
+            break;
+          case "--fast":
+            bFast = true;
+            break;
+          case "-h":
+          case "--help":
+            aErr.print (USAGE);
+            return EXIT_VALID;
+          default:
+            if (sArg.startsWith ("-") && sArg.length () > 1)
+              throw new UsageException ("Unknown option '" + sArg + "'");
+            aInputs.add (Paths.get (sArg));
+        }
+      }
+      if (aInputs.isEmpty ())
+        throw new UsageException ("No input file, directory or archive provided");
+      if (aVOMFiles.isEmpty () && aBundleFiles.isEmpty ())
+        throw new UsageException ("At least one VOM file or bundle must be provided");
+
+      // Load the VESs
+      final VOM1Converter aConverter = _createConverter (sArtifactDir, aBuiltInXSDs, aBuiltInResources, aBuiltInNamespaces);
+      final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+      final VOM1Marshaller aMarshaller = new VOM1Marshaller ();
+      for (final String sVOMFile : aVOMFiles)
+      {
+        final File aVOMFile = new File (sVOMFile);
+        if (!aVOMFile.isFile ())
+          throw new UsageException ("The VOM file '" + sVOMFile + "' does not exist");
+        final VOMType aVOM = aMarshaller.read (aVOMFile);
+        if (aVOM == null)
+          throw new UsageException ("Failed to read VOM file '" + sVOMFile + "'");
+        final ErrorList aErrorList = new ErrorList ();
+        final ValidationExecutorSet <IValidationSourceXML> aVES = aConverter.convertToVES_XML (aVOM, aErrorList);
+        if (aVES == null)
+          throw new UsageException ("Failed to convert VOM file '" + sVOMFile + "': " + aErrorList.getAllErrors ());
+        aRegistry.registerValidationExecutorSet (aVES);
+      }
+      for (final String sBundleFile : aBundleFiles)
+      {
+        final VOM1Bundle aBundle = VOM1Bundle.open (new File (sBundleFile));
+        aBundles.add (aBundle);
+        aBundle.registerAll (aConverter, aRegistry);
+      }
+
+      // Determine the VES
+      final BulkValidator aValidator;
+      if (sVESID != null)
+      {
+        final VESID aVESID = VESID.parseIDOrNull (sVESID);
+        final IValidationExecutorSet <IValidationSourceXML> aVES = aVESID == null ? null : aRegistry.getOfID (aVESID);
+        if (aVES == null)
+          throw new UsageException ("No VES with ID '" + sVESID + "' was loaded");
+        aValidator = new BulkValidator (aVES);
+      }
+      else
+      {
+        final ICommonsList <IValidationExecutorSet <IValidationSourceXML>> aAll = aRegistry.getAll ();
+        if (aAll.size () == 1)
+          aValidator = new BulkValidator (aAll.getFirst ());
+        else
+        {
+          // Detect the VES per document
+          final VESDetectionIndex aIndex = new VESDetectionIndex ();
+          if (aIndex.addAllFromRegistry (aRegistry) == 0)
+            throw new UsageException (aAll.size () + " VESs were loaded but none can be detected - please provide the VESID to use");
+          aValidator = new BulkValidator (x -> aIndex.detectVES (x, aRegistry));
+        }
+      }
+      aValidator.threads (nThreads).fastValidation (bFast);
+      if (aExtensions.isNotEmpty ())
+        aValidator.extensions (aExtensions.toArray (new String [0]));
+
+      // Validate
+      final BulkValidationStatistics aStats;
+      try (final Writer aWriter = new BufferedWriter (new OutputStreamWriter (sOutputFile != null ? Files.newOutputStream (Paths.get (sOutputFile))
+                                                                                                  : new NonClosingOutputStream (aOut),
+                                                                              StandardCharsets.UTF_8)))
+      {
+        aStats = aValidator.validate (aInputs, aWriter);
+      }
+      aErr.print (aStats.getAsSummary ());
+      return aStats.getInvalidCount () == 0 && aStats.getFailedCount () == 0 ? EXIT_VALID : EXIT_INVALID;
+    }
+    catch (final UsageException ex)
+    {
+      aErr.println ("Error: " + ex.getMessage ());
+      aErr.print (USAGE);
+      return EXIT_ERROR;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      aErr.println ("Error: " + ex.getMessage ());
+      return EXIT_ERROR;
+    }
+    finally
+    {
+      for (final VOM1Bundle aBundle : aBundles)
+        StreamHelper.close (aBundle);
+    }
+  }
+
+  public static void main (final String [] aArgs)
+  {
+    System.exit (run (aArgs, System.out, System.err));
+  }
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.cli;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+
+/**
+ * A minimal sequential reader for TAR archives (ustar, GNU long names and PAX
+ * path headers), optionally gzip compressed. Only regular files are returned,
+ * all other entry types are skipped.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@NotThreadSafe
+final class TarReader
+{
+  private static final int BLOCK_SIZE = 512;
+
+  private static final char TYPE_FILE = '0';
+  private static final char TYPE_FILE_OLD = '\0';
+  private static final char TYPE_GNU_LONG_NAME = 'L';
+  private static final char TYPE_PAX_HEADER = 'x';
+
+  /**
+   * A single regular file from the archive.
+   *
+   * @author Philip Helger
+   */
+  static final class Entry
+  {
+    private final String m_sName;
+    private final byte [] m_aContent;
+
+    Entry (@Nonnull final String sName, @Nonnull final byte [] aContent)
+    {
+      m_sName = sName;
+      m_aContent = aContent;
+    }
+
+    @Nonnull
+    String getName ()
+    {
+      return m_sName;
+    }
+
+    @Nonnull
+    byte [] getContent ()
+    {
+      return m_aContent;
+    }
+  }
+
+  private final InputStream m_aIS;
+  private final byte [] m_aHeader = new byte [BLOCK_SIZE];
+  private boolean m_bEOF = false;
+
+  /**
+   * Constructor. Gzip compressed input is detected automatically.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a read error
+   */
+  TarReader (@Nonnull @WillNotClose final InputStream aIS) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    final BufferedInputStream aBIS = new BufferedInputStream (aIS);
+    aBIS.mark (2);
+    final int n1 = aBIS.read ();
+    final int n2 = aBIS.read ();
+    aBIS.reset ();
+    m_aIS = n1 == 0x1f && n2 == 0x8b ? new GZIPInputStream (aBIS) : aBIS;
+  }
+
+  private boolean _readBlock (@Nonnull final byte [] aBuf) throws IOException
+  {
+    // Read manually to distinguish a clean end of stream from a truncation
+    int nRead = 0;
+    int n;
+    while (nRead < aBuf.length && (n = m_aIS.read (aBuf, nRead, aBuf.length - nRead)) >= 0)
+      nRead += n;
+    if (nRead < aBuf.length)
+    {
+      if (nRead > 0)
+        throw new IOException ("Truncated TAR archive");
+      return false;
+    }
+    return true;
+  }
+
+  @Nonnull
+  private byte [] _readContent (final long nSize) throws IOException
+  {
+    if (nSize > Integer.MAX_VALUE - BLOCK_SIZE)
+      throw new IOException ("TAR entry is too large: " + nSize + " bytes");
+    final int nPadded = (int) ((nSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE);
+    final byte [] aPadded = new byte [nPadded];
+    try
+    {
+      StreamHelper.readFully (m_aIS, aPadded, 0, nPadded);
+    }
+    catch (final EOFException ex)
+    {
+      throw new IOException ("Truncated TAR archive", ex);
+    }
+    final byte [] ret = new byte [(int) nSize];
+    System.arraycopy (aPadded, 0, ret, 0, ret.length);
+    return ret;
+  }
+
+  @Nonnull
+  private static String _getString (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+  {
+    int nEnd = nOfs;
+    while (nEnd < nOfs + nLen && aBuf[nEnd] != 0)
+      nEnd++;
+    return new String (aBuf, nOfs, nEnd - nOfs, StandardCharsets.UTF_8);
+  }
+
+  private static long _getSize (@Nonnull final byte [] aBuf) throws IOException
+  {
+    // Base-256 encoding (GNU) for very large entries
+    if ((aBuf[124] & 0x80) != 0)
+    {
+      long ret = aBuf[124] & 0x7f;
+      for (int i = 125; i < 136; ++i)
+        ret = (ret << 8) | (aBuf[i] & 0xff);
+      return ret;
+    }
+    final String sSize = _getString (aBuf, 124, 12).trim ();
+    if (sSize.isEmpty ())
+      return 0;
+    try
+    {
+      return Long.parseLong (sSize, 8);
+    }
+    catch (final NumberFormatException ex)
+    {
+      throw new IOException ("Invalid TAR entry size '" + sSize + "'");
+    }
+  }
+
+  @Nullable
+  private static String _getPaxPath (@Nonnull final byte [] aContent)
+  {
+    // Records are "<length> <key>=<value>\n"
+    String ret = null;
+    int nPos = 0;
+    while (nPos < aContent.length)
+    {
+      int nSpace = nPos;
+      while (nSpace < aContent.length && aContent[nSpace] != ' ')
+        nSpace++;
+      if (nSpace >= aContent.length)
+        break;
+      final int nLen = StringParser.parseInt (new String (aContent, nPos, nSpace - nPos, StandardCharsets.US_ASCII), -1);
+      if (nLen <= 0 || nPos + nLen > aContent.length)
+        break;
+      final String sRecord = new String (aContent, nSpace + 1, nPos + nLen - nSpace - 2, StandardCharsets.UTF_8);
+      if (sRecord.startsWith ("path="))
+        ret = sRecord.substring (5);
+      nPos += nLen;
+    }
+    return ret;
+  }
+
+  /**
+   * Read the next regular file from the archive.
+   *
+   * @return <code>null</code> if the end of the archive was reached.
+   * @throws IOException
+   *         In case of a read error or a malformed archive
+   */
+  @Nullable
+  Entry getNextEntry () throws IOException
+  {
+    String sLongName = null;
+    while (!m_bEOF)
+    {
+      if (!_readBlock (m_aHeader) || m_aHeader[0] == 0)
+      {
+        // End of archive (one or two zero blocks)
+        m_bEOF = true;
+        break;
+      }
+
+      final long nSize = _getSize (m_aHeader);
+      final char cType = (char) m_aHeader[156];
+      if (cType == TYPE_GNU_LONG_NAME)
+      {
+        sLongName = _getString (_readContent (nSize), 0, (int) nSize);
+        continue;
+      }
+      if (cType == TYPE_PAX_HEADER)
+      {
+        final String sPath = _getPaxPath (_readContent (nSize));
+        if (sPath != null)
+          sLongName = sPath;
+        continue;
+      }
+
+      final byte [] aContent = _readContent (nSize);
+      if (cType != TYPE_FILE && cType != TYPE_FILE_OLD)
+      {
+        // Directories, links etc.
+        sLongName = null;
+        continue;
+      }
+
+      String sName = sLongName;
+      if (sName == null)
+      {
+        sName = _getString (m_aHeader, 0, 100);
+        // ustar prefix
+        if ("ustar".equals (_getString (m_aHeader, 257, 6)))
+        {
+          final String sPrefix = _getString (m_aHeader, 345, 155);
+          if (sPrefix.length () > 0)
+            sName = sPrefix + "/" + sName;
+        }
+      }
+      return new Entry (sName, aContent);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.string.StringHelper;
+import com.helger.json.IJsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.engine.detect.VESDetectionIndex;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.xsd.ValidationExecutorXSD;
+import com.helger.phive.json.PhiveJsonHelper;
+
+/**
+ * Test class for class {@link BulkValidator}.
+ *
+ * @author Philip Helger
+ */
+public final class BulkValidatorTest
+{
+  private static final VESID VESID_XSD = new VESID ("com.helger", "phive-cli-test", "1.0");
+  private static final String XML_VALID = "<Root xmlns='urn:com.helger/xml/ns/phive-json/1.0'><A1>a</A1></Root>";
+  private static final String XML_INVALID = "<Root xmlns='urn:com.helger/xml/ns/phive-json/1.0'><bla/></Root>";
+
+  @Rule
+  public final TemporaryFolder m_aTempDir = new TemporaryFolder ();
+
+  private static void _write (@Nonnull final File aFile, @Nonnull final String sContent) throws IOException
+  {
+    aFile.getParentFile ().mkdirs ();
+    Files.write (aFile.toPath (), sContent.getBytes (StandardCharsets.UTF_8));
+  }
+
+  private static void _writeTarHeader (@Nonnull final OutputStream aOS,
+                                       @Nonnull final String sName,
+                                       final char cType,
+                                       final int nSize) throws IOException
+  {
+    final byte [] aHeader = new byte [512];
+    final byte [] aName = sName.getBytes (StandardCharsets.UTF_8);
+    System.arraycopy (aName, 0, aHeader, 0, Math.min (aName.length, 100));
+    final byte [] aSize = (StringHelper.getLeadingZero (Integer.toOctalString (nSize), 11) + " ").getBytes (StandardCharsets.US_ASCII);
+    System.arraycopy (aSize, 0, aHeader, 124, aSize.length);
+    aHeader[156] = (byte) cType;
+    System.arraycopy ("ustar".getBytes (StandardCharsets.US_ASCII), 0, aHeader, 257, 5);
+    aOS.write (aHeader);
+  }
+
+  private static void _writeTarEntry (@Nonnull final OutputStream aOS,
+                                      @Nonnull final String sName,
+                                      final char cType,
+                                      @Nonnull final byte [] aContent) throws IOException
+  {
+    _writeTarHeader (aOS, sName, cType, aContent.length);
+    aOS.write (aContent);
+    aOS.write (new byte [(512 - aContent.length % 512) % 512]);
+  }
+
+  @Test
+  public void testDirectoryAndArchives () throws IOException
+  {
+    final File aDir = m_aTempDir.newFolder ("docs");
+    _write (new File (aDir, "a.xml"), XML_VALID);
+    _write (new File (aDir, "sub/b.xml"), XML_INVALID);
+    _write (new File (aDir, "ignored.txt"), "not validated");
+
+    try (final ZipOutputStream aZOS = new ZipOutputStream (Files.newOutputStream (new File (aDir, "c.zip").toPath ())))
+    {
+      aZOS.putNextEntry (new ZipEntry ("zip-valid.xml"));
+      aZOS.write (XML_VALID.getBytes (StandardCharsets.UTF_8));
+      aZOS.putNextEntry (new ZipEntry ("dir/zip-invalid.xml"));
+      aZOS.write (XML_INVALID.getBytes (StandardCharsets.UTF_8));
+      aZOS.putNextEntry (new ZipEntry ("readme.txt"));
+      aZOS.write ("ignored".getBytes (StandardCharsets.UTF_8));
+    }
+
+    final String sLongName = StringHelper.getRepeated ('x', 120) + ".xml";
+    final File aTar = m_aTempDir.newFile ("d.tar.gz");
+    try (final OutputStream aOS = new GZIPOutputStream (Files.newOutputStream (aTar.toPath ())))
+    {
+      _writeTarEntry (aOS, "dir/", '5', new byte [0]);
+      _writeTarEntry (aOS, "dir/tar-valid.xml", '0', XML_VALID.getBytes (StandardCharsets.UTF_8));
+      // GNU long name
+      _writeTarEntry (aOS, "././@LongLink", 'L', sLongName.getBytes (StandardCharsets.UTF_8));
+      _writeTarEntry (aOS, sLongName.substring (0, 100), '0', XML_INVALID.getBytes (StandardCharsets.UTF_8));
+      aOS.write (new byte [1024]);
+    }
+
+    final ValidationExecutorSet <IValidationSourceXML> aVES = ValidationExecutorSet.create (VESID_XSD,
+                                                                                            "Test XSD",
+                                                                                            false,
+                                                                                            ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd")));
+    final StringWriter aSW = new StringWriter ();
+    final BulkValidationStatistics aStats = new BulkValidator (aVES).threads (3)
+                                                                    .validate (new CommonsArrayList <> (aDir.toPath (),
+                                                                                                                                          aTar.toPath ()),
+                                                                               aSW);
+    assertEquals (6, aStats.getDocumentCount ());
+    assertEquals (3, aStats.getValidCount ());
+    assertEquals (3, aStats.getInvalidCount ());
+    assertEquals (0, aStats.getFailedCount ());
+    assertTrue (aStats.getTotalBytes () > 0);
+    assertTrue (aStats.getLatencyPercentile (50) <= aStats.getLatencyPercentile (100));
+    assertNotNull (aStats.getAsSummary ());
+
+    // One line per document
+    final ICommonsMap <String, Boolean> aResults = new CommonsHashMap <> ();
+    for (final String sLine : StringHelper.getExploded ('\n', aSW.toString ().trim ()))
+    {
+      final IJsonObject aObj = (IJsonObject) JsonReader.readFromString (sLine);
+      assertNotNull (sLine, aObj);
+      aResults.put (aObj.getAsString (BulkValidator.JSON_ID),
+                    Boolean.valueOf (aObj.getAsBoolean (PhiveJsonHelper.JSON_SUCCESS)));
+    }
+    assertEquals (6, aResults.size ());
+    assertEquals (Boolean.TRUE, aResults.get (new File (aDir, "a.xml").toString ()));
+    assertEquals (Boolean.FALSE, aResults.get (new File (aDir, "sub/b.xml").toString ()));
+    assertEquals (Boolean.TRUE, aResults.get (new File (aDir, "c.zip") + "!/zip-valid.xml"));
+    assertEquals (Boolean.FALSE, aResults.get (new File (aDir, "c.zip") + "!/dir/zip-invalid.xml"));
+    assertEquals (Boolean.TRUE, aResults.get (aTar + "!/dir/tar-valid.xml"));
+    assertEquals (Boolean.FALSE, aResults.get (aTar + "!/" + sLongName));
+  }
+
+  @Test
+  public void testMissingInput () throws IOException
+  {
+    final ValidationExecutorSet <IValidationSourceXML> aVES = ValidationExecutorSet.create (VESID_XSD,
+                                                                                            "Test XSD",
+                                                                                            false,
+                                                                                            ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd")));
+    final StringWriter aSW = new StringWriter ();
+    // Note: Path itself is Iterable
+    final Path aMissing = new File (m_aTempDir.getRoot (), "missing.xml").toPath ();
+    final BulkValidationStatistics aStats = new BulkValidator (aVES).validate (Collections.singletonList (aMissing), aSW);
+    assertEquals (1, aStats.getFailedCount ());
+    assertTrue (aSW.toString ().contains ("missing.xml"));
+  }
+
+  @Test
+  public void testDetection () throws IOException
+  {
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_XSD,
+                                                                           "Test XSD",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd"))));
+    final VESID aOtherVESID = new VESID ("com.helger", "phive-cli-other", "1.0");
+    final String sOtherXSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:other'><xs:element name='Other' type='xs:string' /></xs:schema>";
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (aOtherVESID,
+                                                                           "Other XSD",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ReadableResourceByteArray (sOtherXSD.getBytes (StandardCharsets.UTF_8)))));
+    final VESDetectionIndex aIndex = new VESDetectionIndex ();
+    assertEquals (2, aIndex.addAllFromRegistry (aRegistry));
+
+    final File aDir = m_aTempDir.newFolder ("detect");
+    _write (new File (aDir, "a.xml"), XML_VALID);
+    _write (new File (aDir, "b.xml"), "<Other xmlns='urn:other'>x</Other>");
+    _write (new File (aDir, "c.xml"), "<Unknown/>");
+
+    final StringWriter aSW = new StringWriter ();
+    final BulkValidationStatistics aStats = new BulkValidator (x -> aIndex.detectVES (x, aRegistry)).validate (Collections.singletonList (aDir.toPath ()),
+                                                                                                                aSW);
+    assertEquals (2, aStats.getValidCount ());
+    assertEquals (1, aStats.getFailedCount ());
+    for (final String sLine : StringHelper.getExploded ('\n', aSW.toString ().trim ()))
+    {
+      final IJsonObject aObj = (IJsonObject) JsonReader.readFromString (sLine);
+      final String sID = aObj.getAsString (BulkValidator.JSON_ID);
+      if (sID.endsWith ("b.xml"))
+        assertEquals (aOtherVESID.getAsSingleID (), aObj.getAsObject (PhiveJsonHelper.JSON_VES).getAsString (PhiveJsonHelper.JSON_VESID));
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link PhiveCLI}.
+ *
+ * @author Philip Helger
+ */
+public final class PhiveCLITest
+{
+  private static final String VOM = "<ves xmlns='urn:com:helger:phive:vom:v1.0'>" +
+                                    "<id><groupId>com.helger</groupId><artifactId>phive-cli-test</artifactId><version>1.0</version></id>" +
+                                    "<name>CLI test</name>" +
+                                    "<validation><xsd><builtIn>test-xsd</builtIn></xsd></validation>" +
+                                    "</ves>";
+  private static final String XML_VALID = "<Root xmlns='urn:com.helger/xml/ns/phive-json/1.0'><A1>a</A1></Root>";
+  private static final String XML_INVALID = "<Root xmlns='urn:com.helger/xml/ns/phive-json/1.0'><bla/></Root>";
+
+  @Rule
+  public final TemporaryFolder m_aTempDir = new TemporaryFolder ();
+
+  private static void _write (@Nonnull final File aFile, @Nonnull final byte [] aContent) throws IOException
+  {
+    aFile.getParentFile ().mkdirs ();
+    Files.write (aFile.toPath (), aContent);
+  }
+
+  @Test
+  public void testBuiltInXSD () throws IOException
+  {
+    final File aRoot = m_aTempDir.getRoot ();
+    final File aVOM = new File (aRoot, "vom.xml");
+    _write (aVOM, VOM.getBytes (StandardCharsets.UTF_8));
+    final File aXSD = new File (aRoot, "schema1.xsd");
+    _write (aXSD, StreamHelper.getAllBytes (new ClassPathResource ("test/schema1.xsd")));
+    final File aDocs = new File (aRoot, "docs");
+    _write (new File (aDocs, "a.xml"), XML_VALID.getBytes (StandardCharsets.UTF_8));
+    _write (new File (aDocs, "b.xml"), XML_INVALID.getBytes (StandardCharsets.UTF_8));
+
+    // Without the built-in XSD the VOM cannot be converted
+    ByteArrayOutputStream aOut = new ByteArrayOutputStream ();
+    ByteArrayOutputStream aErr = new ByteArrayOutputStream ();
+    int nExitCode = PhiveCLI.run (new String [] { "--vom", aVOM.getAbsolutePath (), aDocs.getAbsolutePath () },
+                                  new PrintStream (aOut, true, "UTF-8"),
+                                  new PrintStream (aErr, true, "UTF-8"));
+    assertEquals (PhiveCLI.EXIT_ERROR, nExitCode);
+
+    aOut = new ByteArrayOutputStream ();
+    aErr = new ByteArrayOutputStream ();
+    nExitCode = PhiveCLI.run (new String [] { "--vom",
+                                              aVOM.getAbsolutePath (),
+                                              "--builtin-xsd",
+                                              "test-xsd=" + aXSD.getAbsolutePath (),
+                                              aDocs.getAbsolutePath () },
+                              new PrintStream (aOut, true, "UTF-8"),
+                              new PrintStream (aErr, true, "UTF-8"));
+    assertEquals (new String (aErr.toByteArray (), StandardCharsets.UTF_8), PhiveCLI.EXIT_INVALID, nExitCode);
+    final String sOut = new String (aOut.toByteArray (), StandardCharsets.UTF_8);
+    assertEquals (2, StringHelper.getExploded ('\n', sOut.trim ()).size ());
+    assertTrue (sOut.contains ("a.xml"));
+    assertTrue (sOut.contains ("b.xml"));
+  }
+
+  @Test
+  public void testInvalidBuiltInOption ()
+  {
+    final ByteArrayOutputStream aErr = new ByteArrayOutputStream ();
+    final int nExitCode = PhiveCLI.run (new String [] { "--vom", "vom.xml", "--builtin-resource", "no-file", "." },
+                                        System.out,
+                                        new PrintStream (aErr, true));
+    assertEquals (PhiveCLI.EXIT_ERROR, nExitCode);
+  }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.detect;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.QName;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.version.Version;
+import com.helger.phive.api.execute.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.IValidationExecutorSetRegistry;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.engine.schematron.ValidationExecutorSchematron;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.xsd.ValidationExecutorXSD;
+
+/**
+ * An index to determine the VES of a document without a provided VESID. The
+ * index maps {@link VESDetectionKey}s (root element plus optional
+ * customization ID and profile ID) to VESIDs. A document is inspected by
+ * parsing only its beginning (see {@link #setPeekBytes(int)}) and the lookup
+ * is a constant number of hash map accesses:
+ * <ol>
+ * <li>root element, customization ID and profile ID</li>
+ * <li>root element and customization ID</li>
+ * <li>root element only</li>
+ * </ol>
+ * The first level with candidates wins. If a level contains multiple VESIDs
+ * that only differ in the version, the latest version is used. Otherwise the
+ * detection is ambiguous and no VESID is returned.<br>
+ * Mappings can be added explicitly or derived from the VES of a registry (see
+ * {@link #addAllFromRegistry(IValidationExecutorSetRegistry)}). Note: a VES
+ * carries no customization ID or profile ID in its metadata, so the derived
+ * keys depend on the Schematron prerequisite XPaths. VES of the same document
+ * type without such prerequisites (e.g. all UBL Invoice based VES) only
+ * produce root element keys and are therefore ambiguous - use
+ * {@link #addMapping(VESDetectionKey, VESID)} for them.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class VESDetectionIndex
+{
+  /**
+   * The default number of bytes after which parsing stops at the next child
+   * element of the root that cannot contain the customization ID or profile
+   * ID.
+   */
+  public static final int DEFAULT_PEEK_BYTES = 8 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final String REGEX_VALUE = "\\s*(?:=|eq)\\s*(['\"])(.*?)\\1";
+  private static final Pattern PATTERN_CUSTOMIZATION_ID = Pattern.compile ("(?:\\bCustomizationID|GuidelineSpecifiedDocumentContextParameter/(?:[\\w.\\-]+:)?ID)" +
+                                                                           REGEX_VALUE);
+  private static final Pattern PATTERN_PROFILE_ID = Pattern.compile ("(?:\\bProfileID|BusinessProcessSpecifiedDocumentContextParameter/(?:[\\w.\\-]+:)?ID)" +
+                                                                     REGEX_VALUE);
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <VESDetectionKey, ICommonsOrderedSet <VESID>> m_aMap = new CommonsHashMap <> ();
+  private volatile int m_nPeekBytes = DEFAULT_PEEK_BYTES;
+
+  public VESDetectionIndex ()
+  {}
+
+  /**
+   * @return The number of bytes of a document after which parsing for
+   *         detection stops at the next child element of the root that cannot
+   *         contain the customization ID or profile ID. Elements that are open
+   *         when the limit is reached (e.g. a large
+   *         <code>ext:UBLExtensions</code>) are read completely. Always &gt;
+   *         0.
+   */
+  @Nonnegative
+  public final int getPeekBytes ()
+  {
+    return m_nPeekBytes;
+  }
+
+  /**
+   * @param nPeekBytes
+   *        The number of bytes of a document after which parsing for detection
+   *        stops at the next child element of the root that cannot contain
+   *        the customization ID or profile ID. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final VESDetectionIndex setPeekBytes (@Nonnegative final int nPeekBytes)
+  {
+    ValueEnforcer.isGT0 (nPeekBytes, "PeekBytes");
+    m_nPeekBytes = nPeekBytes;
+    return this;
+  }
+
+  /**
+   * Add a single mapping.
+   *
+   * @param aKey
+   *        The detection key. May not be <code>null</code>.
+   * @param aVESID
+   *        The VESID to be used for documents matching the key. May not be
+   *        <code>null</code>.
+   * @return {@link EChange#CHANGED} if the mapping was added,
+   *         {@link EChange#UNCHANGED} if it was already present.
+   */
+  @Nonnull
+  public EChange addMapping (@Nonnull final VESDetectionKey aKey, @Nonnull final VESID aVESID)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    ValueEnforcer.notNull (aVESID, "VESID");
+
+    return m_aRWLock.writeLockedGet ( () -> EChange.valueOf (m_aMap.computeIfAbsent (aKey, k -> new CommonsLinkedHashSet <> ())
+                                                                   .add (aVESID)));
+  }
+
+  /**
+   * Remove all mappings to the provided VESID.
+   *
+   * @param aVESID
+   *        The VESID to remove. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if at least one mapping was removed.
+   */
+  @Nonnull
+  public EChange removeAllMappings (@Nullable final VESID aVESID)
+  {
+    if (aVESID == null)
+      return EChange.UNCHANGED;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      EChange ret = EChange.UNCHANGED;
+      for (final ICommonsOrderedSet <VESID> aSet : m_aMap.values ())
+        ret = ret.or (aSet.remove (aVESID));
+      m_aMap.removeIf (x -> x.getValue ().isEmpty ());
+      return ret;
+    });
+  }
+
+  /**
+   * @return The number of distinct keys in the index.
+   */
+  @Nonnegative
+  public int getKeyCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aMap::size);
+  }
+
+  @Nonnull
+  private static ICommonsList <String> _getAllMatches (@Nonnull final Pattern aPattern, @Nonnull final String sXPath)
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    final Matcher aMatcher = aPattern.matcher (sXPath);
+    while (aMatcher.find ())
+      ret.add (aMatcher.group (2));
+    return ret;
+  }
+
+  /**
+   * Derive the detection keys of a VES. The root elements are the global
+   * elements of all XML Schemas of the VES. The customization IDs and profile
+   * IDs are extracted from equality comparisons in the prerequisite XPath
+   * expressions of the Schematrons (e.g.
+   * <code>/ubl:Invoice/cbc:CustomizationID = '...'</code>), because the VES
+   * itself does not provide them. If no customization ID is found, only the
+   * root elements are used. Multiple VES with the same root element and no
+   * such prerequisite cannot be distinguished by the derived keys.
+   *
+   * @param aVES
+   *        The VES to inspect. May not be <code>null</code>.
+   * @return The derived keys. Never <code>null</code> but maybe empty, if the
+   *         VES contains no XML Schema.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsOrderedSet <VESDetectionKey> getAllDerivedKeys (@Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES)
+  {
+    ValueEnforcer.notNull (aVES, "VES");
+
+    final ICommonsOrderedSet <QName> aRoots = new CommonsLinkedHashSet <> ();
+    final ICommonsOrderedSet <String> aCustomizationIDs = new CommonsLinkedHashSet <> ();
+    final ICommonsOrderedSet <String> aProfileIDs = new CommonsLinkedHashSet <> ();
+    for (final IValidationExecutor <IValidationSourceXML> aExecutor : aVES)
+      if (aExecutor instanceof ValidationExecutorXSD)
+        aRoots.addAll (VESDetectionPeeker.getAllGlobalElements (aExecutor.getValidationArtefact ().getRuleResource ()));
+      else
+        if (aExecutor instanceof ValidationExecutorSchematron)
+        {
+          final String sXPath = ((ValidationExecutorSchematron) aExecutor).getPrerequisiteXPath ();
+          if (sXPath != null)
+          {
+            aCustomizationIDs.addAll (_getAllMatches (PATTERN_CUSTOMIZATION_ID, sXPath));
+            aProfileIDs.addAll (_getAllMatches (PATTERN_PROFILE_ID, sXPath));
+          }
+        }
+
+    final ICommonsOrderedSet <VESDetectionKey> ret = new CommonsLinkedHashSet <> ();
+    for (final QName aRoot : aRoots)
+      if (aCustomizationIDs.isEmpty ())
+        ret.add (new VESDetectionKey (aRoot.getNamespaceURI (), aRoot.getLocalPart (), null, null));
+      else
+        for (final String sCustomizationID : aCustomizationIDs)
+          if (aProfileIDs.isEmpty ())
+            ret.add (new VESDetectionKey (aRoot.getNamespaceURI (), aRoot.getLocalPart (), sCustomizationID, null));
+          else
+            for (final String sProfileID : aProfileIDs)
+              ret.add (new VESDetectionKey (aRoot.getNamespaceURI (), aRoot.getLocalPart (), sCustomizationID, sProfileID));
+    return ret;
+  }
+
+  /**
+   * Add the derived keys (see {@link #getAllDerivedKeys(IValidationExecutorSet)})
+   * of all non-deprecated VES of the provided registry.
+   *
+   * @param aRegistry
+   *        The registry to index. May not be <code>null</code>.
+   * @return The number of added mappings. Always &ge; 0.
+   */
+  @Nonnegative
+  public int addAllFromRegistry (@Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aRegistry)
+  {
+    ValueEnforcer.notNull (aRegistry, "Registry");
+
+    int ret = 0;
+    for (final IValidationExecutorSet <IValidationSourceXML> aVES : aRegistry.getAll ())
+      if (!aVES.isDeprecated ())
+        for (final VESDetectionKey aKey : getAllDerivedKeys (aVES))
+          if (addMapping (aKey, aVES.getID ()).isChanged ())
+            ret++;
+    return ret;
+  }
+
+  /**
+   * Get all candidate VESIDs of the most specific matching level.
+   *
+   * @param aKey
+   *        The key of the document. May be <code>null</code>.
+   * @return The candidates. Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <VESID> getAllCandidateVESIDs (@Nullable final VESDetectionKey aKey)
+  {
+    if (aKey == null)
+      return new CommonsLinkedHashSet <> ();
+
+    return m_aRWLock.readLockedGet ( () -> {
+      ICommonsOrderedSet <VESID> aSet = m_aMap.get (aKey);
+      if (aSet == null && aKey.getProfileID () != null)
+        aSet = m_aMap.get (aKey.getWithoutProfileID ());
+      if (aSet == null && aKey.getCustomizationID () != null)
+        aSet = m_aMap.get (aKey.getRootOnly ());
+      return aSet == null ? new CommonsLinkedHashSet <> () : aSet.getClone ();
+    });
+  }
+
+  /**
+   * Find the VESID for the provided key.
+   *
+   * @param aKey
+   *        The key of the document. May be <code>null</code>.
+   * @return <code>null</code> if no or no unambiguous VESID was found.
+   */
+  @Nullable
+  public VESID findVESID (@Nullable final VESDetectionKey aKey)
+  {
+    final ICommonsOrderedSet <VESID> aCandidates = getAllCandidateVESIDs (aKey);
+    if (aCandidates.isEmpty ())
+      return null;
+
+    final VESID aFirst = aCandidates.getFirst ();
+    for (final VESID aCandidate : aCandidates)
+      if (!aFirst.getGroupID ().equals (aCandidate.getGroupID ()) ||
+          !aFirst.getArtifactID ().equals (aCandidate.getArtifactID ()) ||
+          !EqualsHelper.equals (aFirst.getClassifier (), aCandidate.getClassifier ()))
+      {
+        // Ambiguous
+        return null;
+      }
+
+    // Only different versions of the same VES - use the latest one
+    return Collections.max (aCandidates,
+                            Comparator.comparing ( (final VESID x) -> Version.parse (x.getVersion ()))
+                                      .thenComparing (VESID::getVersion));
+  }
+
+  /**
+   * Determine the detection key of a document. Sources that can be read
+   * multiple times as a stream are parsed partially (see
+   * {@link #setPeekBytes(int)}), all others are inspected via their DOM node.
+   *
+   * @param aSource
+   *        The source to inspect. May not be <code>null</code>.
+   * @return <code>null</code> if the source contains no root element.
+   */
+  @Nullable
+  public VESDetectionKey getDocumentKey (@Nonnull final IValidationSourceXML aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+
+    if (aSource instanceof IHasInputStream && ((IHasInputStream) aSource).isReadMultiple ())
+      return VESDetectionPeeker.peekDocument (((IHasInputStream) aSource).getInputStream (), m_nPeekBytes);
+    return VESDetectionPeeker.getDocumentKey (aSource.getNode ());
+  }
+
+  /**
+   * Detect the VESID of a document.
+   *
+   * @param aSource
+   *        The source to inspect. May not be <code>null</code>.
+   * @return <code>null</code> if no or no unambiguous VESID was found.
+   */
+  @Nullable
+  public VESID detectVESID (@Nonnull final IValidationSourceXML aSource)
+  {
+    return findVESID (getDocumentKey (aSource));
+  }
+
+  /**
+   * Detect the VES of a document.
+   *
+   * @param aSource
+   *        The source to inspect. May not be <code>null</code>.
+   * @param aRegistry
+   *        The registry to resolve the detected VESID. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> if no or no unambiguous VESID was found or if it
+   *         is not contained in the registry.
+   */
+  @Nullable
+  public IValidationExecutorSet <IValidationSourceXML> detectVES (@Nonnull final IValidationSourceXML aSource,
+                                                                  @Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aRegistry)
+  {
+    ValueEnforcer.notNull (aRegistry, "Registry");
+
+    final VESID aVESID = detectVESID (aSource);
+    return aVESID == null ? null : aRegistry.getOfID (aVESID);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("KeyCount", getKeyCount ()).append ("PeekBytes", m_nPeekBytes).getToString ();
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.detect;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.hashcode.IHashCodeGenerator;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The key used by the {@link VESDetectionIndex}: the namespace URI and local
+ * name of the root element plus the optional customization ID and profile ID
+ * of a document (e.g. <code>cbc:CustomizationID</code> and
+ * <code>cbc:ProfileID</code> in UBL).
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+@MustImplementEqualsAndHashcode
+public final class VESDetectionKey
+{
+  private final String m_sNamespaceURI;
+  private final String m_sLocalName;
+  private final String m_sCustomizationID;
+  private final String m_sProfileID;
+  // status vars
+  private int m_nHashCode = IHashCodeGenerator.ILLEGAL_HASHCODE;
+
+  /**
+   * Constructor
+   *
+   * @param sNamespaceURI
+   *        The namespace URI of the root element. May be <code>null</code> or
+   *        empty for no namespace.
+   * @param sLocalName
+   *        The local name of the root element. May neither be
+   *        <code>null</code> nor empty.
+   * @param sCustomizationID
+   *        The customization ID. May be <code>null</code>.
+   * @param sProfileID
+   *        The profile ID. May be <code>null</code>. Only considered if a
+   *        customization ID is present.
+   */
+  public VESDetectionKey (@Nullable final String sNamespaceURI,
+                          @Nonnull @Nonempty final String sLocalName,
+                          @Nullable final String sCustomizationID,
+                          @Nullable final String sProfileID)
+  {
+    ValueEnforcer.notEmpty (sLocalName, "LocalName");
+    m_sNamespaceURI = StringHelper.getNotNull (sNamespaceURI);
+    m_sLocalName = sLocalName;
+    m_sCustomizationID = StringHelper.hasText (sCustomizationID) ? sCustomizationID.trim () : null;
+    m_sProfileID = m_sCustomizationID != null && StringHelper.hasText (sProfileID) ? sProfileID.trim () : null;
+  }
+
+  /**
+   * @return The namespace URI of the root element. Never <code>null</code> but
+   *         maybe empty.
+   */
+  @Nonnull
+  public String getNamespaceURI ()
+  {
+    return m_sNamespaceURI;
+  }
+
+  /**
+   * @return The local name of the root element. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getLocalName ()
+  {
+    return m_sLocalName;
+  }
+
+  /**
+   * @return The customization ID. May be <code>null</code>.
+   */
+  @Nullable
+  public String getCustomizationID ()
+  {
+    return m_sCustomizationID;
+  }
+
+  /**
+   * @return The profile ID. May be <code>null</code>. Is always
+   *         <code>null</code> if no customization ID is present.
+   */
+  @Nullable
+  public String getProfileID ()
+  {
+    return m_sProfileID;
+  }
+
+  /**
+   * @return A key with the same root element and customization ID but without
+   *         a profile ID. Never <code>null</code>.
+   */
+  @Nonnull
+  public VESDetectionKey getWithoutProfileID ()
+  {
+    return m_sProfileID == null ? this : new VESDetectionKey (m_sNamespaceURI, m_sLocalName, m_sCustomizationID, null);
+  }
+
+  /**
+   * @return A key with the same root element but without customization ID and
+   *         profile ID. Never <code>null</code>.
+   */
+  @Nonnull
+  public VESDetectionKey getRootOnly ()
+  {
+    return m_sCustomizationID == null ? this : new VESDetectionKey (m_sNamespaceURI, m_sLocalName, null, null);
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final VESDetectionKey rhs = (VESDetectionKey) o;
+    return m_sNamespaceURI.equals (rhs.m_sNamespaceURI) &&
+           m_sLocalName.equals (rhs.m_sLocalName) &&
+           EqualsHelper.equals (m_sCustomizationID, rhs.m_sCustomizationID) &&
+           EqualsHelper.equals (m_sProfileID, rhs.m_sProfileID);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    int ret = m_nHashCode;
+    if (ret == IHashCodeGenerator.ILLEGAL_HASHCODE)
+      ret = m_nHashCode = new HashCodeGenerator (this).append (m_sNamespaceURI)
+                                                      .append (m_sLocalName)
+                                                      .append (m_sCustomizationID)
+                                                      .append (m_sProfileID)
+                                                      .getHashCode ();
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("NamespaceURI", m_sNamespaceURI)
+                                       .append ("LocalName", m_sLocalName)
+                                       .appendIfNotNull ("CustomizationID", m_sCustomizationID)
+                                       .appendIfNotNull ("ProfileID", m_sProfileID)
+                                       .getToString ();
+  }
+}
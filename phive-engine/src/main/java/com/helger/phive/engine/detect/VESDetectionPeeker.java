@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.detect;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.stream.CountingInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Streaming extraction of the {@link VESDetectionKey} of a document and of the
+ * global elements of an XML Schema.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+final class VESDetectionPeeker
+{
+  /** UBL: direct children of the root element */
+  private static final String UBL_CUSTOMIZATION_ID = "CustomizationID";
+  private static final String UBL_PROFILE_ID = "ProfileID";
+  /** CII: direct child of the root element containing the IDs */
+  private static final String CII_CONTEXT = "ExchangedDocumentContext";
+  /** CII: ID elements below the ExchangedDocumentContext */
+  private static final String CII_CUSTOMIZATION_PARENT = "GuidelineSpecifiedDocumentContextParameter";
+  private static final String CII_PROFILE_PARENT = "BusinessProcessSpecifiedDocumentContextParameter";
+  private static final String CII_ID = "ID";
+
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+  static
+  {
+    XML_INPUT_FACTORY = XMLInputFactory.newFactory ();
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private VESDetectionPeeker ()
+  {}
+
+  @Nonnull
+  private static XMLStreamReader _createReader (@Nonnull final InputStream aIS) throws XMLStreamException
+  {
+    // The factory itself is not guaranteed to be thread-safe
+    synchronized (XML_INPUT_FACTORY)
+    {
+      return XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+    }
+  }
+
+  private static long _getPosition (@Nonnull final XMLStreamReader aReader, @Nonnull final CountingInputStream aCIS)
+  {
+    // The reader reads ahead, so the stream position is only a fallback
+    final int nOffset = aReader.getLocation ().getCharacterOffset ();
+    return nOffset >= 0 ? nOffset : aCIS.getBytesRead ();
+  }
+
+  /**
+   * Determine the detection key of an XML document by parsing it as a stream.
+   * Parsing stops as soon as the customization ID and the profile ID were
+   * found. After the provided number of bytes was read, parsing continues only
+   * while the IDs may still follow: the child element of the root that was
+   * open when the limit was reached is finished (e.g. a large
+   * <code>ext:UBLExtensions</code> element) and further children of the root
+   * are inspected until the first one with element content that is not the CII
+   * document context. A document that is not well-formed after the root
+   * element still delivers the information found so far.
+   *
+   * @param aIS
+   *        The input stream to read from. It is closed afterwards. May not be
+   *        <code>null</code>.
+   * @param nMaxBytes
+   *        The number of bytes after which parsing stops at the next root child
+   *        element that cannot contain the IDs. Must be &gt; 0.
+   * @return <code>null</code> if no root element could be read.
+   */
+  @Nullable
+  static VESDetectionKey peekDocument (@Nonnull @WillClose final InputStream aIS, @Nonnegative final int nMaxBytes)
+  {
+    final CountingInputStream aCIS = new CountingInputStream (aIS);
+    String sNamespaceURI = null;
+    String sLocalName = null;
+    String sCustomizationID = null;
+    String sProfileID = null;
+    final ICommonsList <String> aStack = new CommonsArrayList <> ();
+    boolean bPastLimit = false;
+    // Is the root child element that was open when the limit was reached still
+    // open?
+    boolean bInLimitChild = false;
+    XMLStreamReader aReader = null;
+    try
+    {
+      aReader = _createReader (aCIS);
+      while (aReader.hasNext ())
+      {
+        final int nEvent = aReader.next ();
+        if (nEvent == XMLStreamConstants.START_ELEMENT)
+        {
+          final String sName = aReader.getLocalName ();
+          final int nDepth = aStack.size () + 1;
+          if (!bPastLimit && _getPosition (aReader, aCIS) > nMaxBytes)
+          {
+            bPastLimit = true;
+            bInLimitChild = nDepth > 2;
+          }
+          if (bPastLimit && nDepth > 2 && !bInLimitChild && !CII_CONTEXT.equals (aStack.get (1)))
+          {
+            // A root child with element content that cannot contain the IDs
+            break;
+          }
+
+          if (nDepth == 1)
+          {
+            sNamespaceURI = aReader.getNamespaceURI ();
+            sLocalName = sName;
+          }
+          else
+          {
+            String sText = null;
+            if (nDepth == 2 && (UBL_CUSTOMIZATION_ID.equals (sName) || UBL_PROFILE_ID.equals (sName)))
+            {
+              sText = aReader.getElementText ();
+              if (UBL_CUSTOMIZATION_ID.equals (sName))
+                sCustomizationID = sText;
+              else
+                sProfileID = sText;
+            }
+            else
+              if (nDepth == 4 && CII_ID.equals (sName))
+              {
+                final String sParent = aStack.getLast ();
+                if (CII_CUSTOMIZATION_PARENT.equals (sParent))
+                  sCustomizationID = sText = aReader.getElementText ();
+                else
+                  if (CII_PROFILE_PARENT.equals (sParent))
+                    sProfileID = sText = aReader.getElementText ();
+              }
+            if (sCustomizationID != null && sProfileID != null)
+              break;
+            if (sText != null)
+            {
+              // getElementText consumed the end element
+              continue;
+            }
+          }
+          aStack.add (sName);
+        }
+        else
+          if (nEvent == XMLStreamConstants.END_ELEMENT)
+          {
+            aStack.removeLast ();
+            if (aStack.size () == 1)
+              bInLimitChild = false;
+          }
+      }
+    }
+    catch (final XMLStreamException ex)
+    {
+      // Not readable or not well-formed - use what was found so far
+    }
+    finally
+    {
+      if (aReader != null)
+        try
+        {
+          aReader.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // ignore
+        }
+      StreamHelper.close (aCIS);
+    }
+    return sLocalName == null ? null : new VESDetectionKey (sNamespaceURI, sLocalName, sCustomizationID, sProfileID);
+  }
+
+  @Nullable
+  private static String _getChildText (@Nonnull final Element aParent, @Nonnull final String sLocalName)
+  {
+    for (Node aChild = aParent.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+      if (aChild.getNodeType () == Node.ELEMENT_NODE && sLocalName.equals (aChild.getLocalName ()))
+        return aChild.getTextContent ();
+    return null;
+  }
+
+  /**
+   * Determine the detection key of an already parsed XML document.
+   *
+   * @param aNode
+   *        The document or element node. May be <code>null</code>.
+   * @return <code>null</code> if no element is present.
+   */
+  @Nullable
+  static VESDetectionKey getDocumentKey (@Nullable final Node aNode)
+  {
+    final Element aRoot = aNode instanceof Document ? ((Document) aNode).getDocumentElement ()
+                                                    : aNode instanceof Element ? (Element) aNode : null;
+    if (aRoot == null)
+      return null;
+
+    final String sLocalName = aRoot.getLocalName () != null ? aRoot.getLocalName () : aRoot.getTagName ();
+    String sCustomizationID = _getChildText (aRoot, UBL_CUSTOMIZATION_ID);
+    String sProfileID = _getChildText (aRoot, UBL_PROFILE_ID);
+    if (sCustomizationID == null)
+    {
+      // CII
+      for (Node aChild = aRoot.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+        if (aChild.getNodeType () == Node.ELEMENT_NODE)
+          for (Node aGrandChild = aChild.getFirstChild (); aGrandChild != null; aGrandChild = aGrandChild.getNextSibling ())
+            if (aGrandChild.getNodeType () == Node.ELEMENT_NODE)
+            {
+              final String sName = aGrandChild.getLocalName ();
+              if (sCustomizationID == null && CII_CUSTOMIZATION_PARENT.equals (sName))
+                sCustomizationID = _getChildText ((Element) aGrandChild, CII_ID);
+              else
+                if (sProfileID == null && CII_PROFILE_PARENT.equals (sName))
+                  sProfileID = _getChildText ((Element) aGrandChild, CII_ID);
+            }
+    }
+    return new VESDetectionKey (aRoot.getNamespaceURI (), sLocalName, sCustomizationID, sProfileID);
+  }
+
+  /**
+   * Get all global elements declared by an XML Schema. Imported and included
+   * XML Schemas are not considered.
+   *
+   * @param aXSD
+   *        The XML Schema resource. May not be <code>null</code>.
+   * @return The qualified names of all global elements. Never
+   *         <code>null</code> but maybe empty if the resource cannot be read
+   *         or is not an XML Schema.
+   */
+  @Nonnull
+  static ICommonsList <QName> getAllGlobalElements (@Nonnull final IReadableResource aXSD)
+  {
+    final ICommonsList <QName> ret = new CommonsArrayList <> ();
+    final InputStream aIS = aXSD.getInputStream ();
+    if (aIS == null)
+      return ret;
+
+    XMLStreamReader aReader = null;
+    try
+    {
+      aReader = _createReader (aIS);
+      String sTargetNamespace = null;
+      int nDepth = 0;
+      while (aReader.hasNext ())
+      {
+        final int nEvent = aReader.next ();
+        if (nEvent == XMLStreamConstants.START_ELEMENT)
+        {
+          nDepth++;
+          final boolean bXS = XMLConstants.W3C_XML_SCHEMA_NS_URI.equals (aReader.getNamespaceURI ());
+          if (nDepth == 1)
+          {
+            if (!bXS || !"schema".equals (aReader.getLocalName ()))
+              break;
+            sTargetNamespace = aReader.getAttributeValue (null, "targetNamespace");
+          }
+          else
+            if (nDepth == 2 && bXS && "element".equals (aReader.getLocalName ()))
+            {
+              final String sName = aReader.getAttributeValue (null, "name");
+              if (sName != null)
+                ret.add (new QName (sTargetNamespace == null ? XMLConstants.NULL_NS_URI : sTargetNamespace, sName));
+            }
+        }
+        else
+          if (nEvent == XMLStreamConstants.END_ELEMENT)
+            nDepth--;
+      }
+    }
+    catch (final XMLStreamException ex)
+    {
+      // Use what was found so far
+    }
+    finally
+    {
+      if (aReader != null)
+        try
+        {
+          aReader.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // ignore
+        }
+      StreamHelper.close (aIS);
+    }
+    return ret;
+  }
+}
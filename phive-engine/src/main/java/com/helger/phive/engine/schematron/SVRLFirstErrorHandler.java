@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.error.IError;
+import com.helger.commons.error.level.IErrorLevel;
+import com.helger.commons.string.StringHelper;
+import com.helger.schematron.svrl.CSVRL;
+import com.helger.schematron.svrl.SVRLHelper;
+import com.helger.schematron.svrl.SVRLResourceError.SVRLErrorBuilder;
+
+/**
+ * A SAX content handler that receives the SVRL output of an XSLT based
+ * Schematron and aborts the transformation as soon as the first failed assert
+ * or successful report with an error level is encountered. No SVRL tree is
+ * built and the error level is determined directly from the <code>flag</code>
+ * and <code>role</code> attributes, without creating JAXB objects.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@NotThreadSafe
+final class SVRLFirstErrorHandler extends DefaultHandler
+{
+  private static final String ELEMENT_FAILED_ASSERT = "failed-assert";
+  private static final String ELEMENT_SUCCESSFUL_REPORT = "successful-report";
+  private static final String ATTR_ID = "id";
+  private static final String ATTR_FLAG = "flag";
+  private static final String ATTR_ROLE = "role";
+  private static final String ATTR_TEST = "test";
+  private static final String ATTR_LOCATION = "location";
+
+  private final String m_sResourceName;
+  private final BiFunction <String, IErrorLevel, IErrorLevel> m_aErrorLevelMapper;
+  private IError m_aFirstError;
+
+  /**
+   * Constructor
+   *
+   * @param sResourceName
+   *        The name of the validated resource to be used as the error location.
+   *        May be <code>null</code>.
+   * @param aErrorLevelMapper
+   *        The function that determines the effective error level based on the
+   *        error ID and the error level from the SVRL. It may return
+   *        <code>null</code> to indicate that the error should be dropped. May
+   *        not be <code>null</code>.
+   */
+  SVRLFirstErrorHandler (@Nullable final String sResourceName,
+                         @Nonnull final BiFunction <String, IErrorLevel, IErrorLevel> aErrorLevelMapper)
+  {
+    ValueEnforcer.notNull (aErrorLevelMapper, "ErrorLevelMapper");
+    m_sResourceName = sResourceName;
+    m_aErrorLevelMapper = aErrorLevelMapper;
+  }
+
+  /**
+   * @return The first error found or <code>null</code> if no error was found.
+   *         The error text is not filled.
+   */
+  @Nullable
+  public IError getFirstError ()
+  {
+    return m_aFirstError;
+  }
+
+  @Override
+  public void startElement (final String sURI,
+                            final String sLocalName,
+                            final String sQName,
+                            final Attributes aAttrs) throws SAXException
+  {
+    if (!CSVRL.SVRL_NAMESPACE_URI.equals (sURI))
+      return;
+
+    if (!ELEMENT_FAILED_ASSERT.equals (sLocalName) && !ELEMENT_SUCCESSFUL_REPORT.equals (sLocalName))
+      return;
+
+    // Same as the error level determinator does for failed asserts and
+    // successful reports: use the flag and fall back to the role
+    String sLevel = aAttrs.getValue (ATTR_FLAG);
+    if (StringHelper.hasNoText (sLevel))
+      sLevel = aAttrs.getValue (ATTR_ROLE);
+    final IErrorLevel aLevel = SVRLHelper.getErrorLevelDeterminator ().getErrorLevelFromString (sLevel);
+
+    final String sID = aAttrs.getValue (ATTR_ID);
+    final IErrorLevel aEffectiveLevel = m_aErrorLevelMapper.apply (sID, aLevel);
+    if (aEffectiveLevel != null && aEffectiveLevel.isError ())
+    {
+      final String sTest = aAttrs.getValue (ATTR_TEST);
+      final String sLocation = aAttrs.getValue (ATTR_LOCATION);
+      m_aFirstError = new SVRLErrorBuilder (sTest).errorLevel (aEffectiveLevel)
+                                                  .errorID (sID)
+                                                  .errorFieldName (sLocation)
+                                                  .errorLocation (m_sResourceName)
+                                                  .build ();
+      // Terminate the transformation
+      throw new SAXException ("Stopping Schematron validation at the first error");
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.phive.engine.source.ValidationSourceHelper;
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.jaxp.TransformerImpl;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Helper class to use the compact Saxon TinyTree instead of a W3C DOM as the
+ * input for XSLT based Schematron validation. The TinyTree is array based and
+ * needs only a fraction of the memory of a DOM.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+public final class SaxonTinyTreeHelper
+{
+  private SaxonTinyTreeHelper ()
+  {}
+
+  /**
+   * Get the Saxon configuration of the provided transformer.
+   *
+   * @param aTransformer
+   *        The transformer to check. May be <code>null</code>.
+   * @return <code>null</code> if the transformer is not a Saxon transformer.
+   */
+  @Nullable
+  public static Configuration getSaxonConfiguration (@Nullable final Transformer aTransformer)
+  {
+    if (aTransformer instanceof TransformerImpl)
+      return ((TransformerImpl) aTransformer).getUnderlyingController ().getConfiguration ();
+    return null;
+  }
+
+  /**
+   * Check if building a TinyTree from the provided source makes sense. DOM
+   * sources are already materialized so copying them has no benefit.
+   *
+   * @param aSource
+   *        The source to check. May not be <code>null</code>.
+   * @return <code>true</code> if the source is a stream or SAX source.
+   */
+  public static boolean isSupportedSource (@Nonnull final Source aSource)
+  {
+    return aSource instanceof StreamSource || aSource instanceof SAXSource;
+  }
+
+  /**
+   * Build a TinyTree from the provided source. Stream sources are parsed with
+   * an XML reader that is secured against XML attacks.
+   *
+   * @param aConfig
+   *        The Saxon configuration to use. Must be the one of the transformer
+   *        that is later used. May not be <code>null</code>.
+   * @param aSource
+   *        The source to be parsed. May not be <code>null</code>.
+   * @return The document node of the TinyTree. Never <code>null</code>.
+   * @throws XPathException
+   *         In case parsing fails
+   */
+  @Nonnull
+  public static NodeInfo buildTinyTree (@Nonnull final Configuration aConfig,
+                                        @Nonnull final Source aSource) throws XPathException
+  {
+    ValueEnforcer.notNull (aConfig, "Config");
+    ValueEnforcer.notNull (aSource, "Source");
+    ValueEnforcer.isFalse (aSource instanceof DOMSource, "DOMSource is not supported");
+
+    // TinyTree is the default tree model of Saxon
+    return aConfig.buildDocumentTree (ValidationSourceHelper.getAsSecureSAXSource (aSource)).getRootNode ();
+  }
+
+  /**
+   * Compile an XPath expression for the provided Saxon configuration. The
+   * result is thread-safe and can be evaluated as often as needed with
+   * {@link #evalXPathToBoolean(XPathExecutable, NodeInfo)}.
+   *
+   * @param aConfig
+   *        The Saxon configuration that builds the trees. May not be
+   *        <code>null</code>.
+   * @param sXPath
+   *        The XPath expression to compile. May not be <code>null</code>.
+   * @param aNamespaceContext
+   *        The namespace context to use. May be <code>null</code>.
+   * @return The compiled XPath expression. Never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If the XPath expression cannot be compiled
+   */
+  @Nonnull
+  public static XPathExecutable compileXPath (@Nonnull final Configuration aConfig,
+                                              @Nonnull final String sXPath,
+                                              @Nullable final MapBasedNamespaceContext aNamespaceContext)
+  {
+    final XPathCompiler aCompiler = new Processor (aConfig).newXPathCompiler ();
+    if (aNamespaceContext != null)
+      for (final Map.Entry <String, String> aEntry : aNamespaceContext.getPrefixToNamespaceURIMap ().entrySet ())
+        aCompiler.declareNamespace (aEntry.getKey (), aEntry.getValue ());
+    try
+    {
+      return aCompiler.compile (sXPath);
+    }
+    catch (final SaxonApiException ex)
+    {
+      throw new IllegalArgumentException ("Failed to compile XPath expression '" + sXPath + "'", ex);
+    }
+  }
+
+  /**
+   * Evaluate a compiled XPath expression on a TinyTree and get the effective
+   * boolean value.
+   *
+   * @param aXPath
+   *        The compiled XPath expression. Must be compiled with the Saxon
+   *        configuration that built the tree. May not be <code>null</code>.
+   * @param aContextNode
+   *        The context node. May not be <code>null</code>.
+   * @return The effective boolean value of the expression.
+   * @throws IllegalArgumentException
+   *         If the XPath expression cannot be evaluated
+   */
+  public static boolean evalXPathToBoolean (@Nonnull final XPathExecutable aXPath, @Nonnull final NodeInfo aContextNode)
+  {
+    try
+    {
+      final XPathSelector aSelector = aXPath.load ();
+      aSelector.setContextItem (new XdmNode (aContextNode));
+      return aSelector.effectiveBooleanValue ();
+    }
+    catch (final SaxonApiException ex)
+    {
+      throw new IllegalArgumentException ("Failed to evaluate XPath expression", ex);
+    }
+  }
+
+  /**
+   * Evaluate an XPath expression on a TinyTree and get the effective boolean
+   * value. The expression is compiled on every call - use
+   * {@link #compileXPath(Configuration, String, MapBasedNamespaceContext)} to
+   * evaluate the same expression more than once.
+   *
+   * @param aConfig
+   *        The Saxon configuration that built the tree. May not be
+   *        <code>null</code>.
+   * @param sXPath
+   *        The XPath expression to evaluate. May not be <code>null</code>.
+   * @param aNamespaceContext
+   *        The namespace context to use. May be <code>null</code>.
+   * @param aContextNode
+   *        The context node. May not be <code>null</code>.
+   * @return The effective boolean value of the expression.
+   * @throws IllegalArgumentException
+   *         If the XPath expression cannot be compiled or evaluated
+   */
+  public static boolean evalXPathToBoolean (@Nonnull final Configuration aConfig,
+                                            @Nonnull final String sXPath,
+                                            @Nullable final MapBasedNamespaceContext aNamespaceContext,
+                                            @Nonnull final NodeInfo aContextNode)
+  {
+    return evalXPathToBoolean (compileXPath (aConfig, sXPath, aNamespaceContext), aContextNode);
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.error.IError;
+import com.helger.commons.error.level.IErrorLevel;
+import com.helger.commons.error.text.IHasErrorText;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.location.ILocation;
+import com.helger.commons.location.SimpleLocation;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A memory efficient {@link IError} implementation for Schematron results. The
+ * rule-static parts (error ID, level, test and text) are shared via
+ * {@link SchematronRuleInfo} and only the location of the hit is stored per
+ * object.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ * @see SchematronRuleTable
+ */
+@Immutable
+public class SchematronCompactError implements IError
+{
+  private final SchematronRuleInfo m_aRule;
+  private final String m_sResourceID;
+  private final String m_sFieldName;
+
+  /**
+   * Constructor
+   *
+   * @param aRule
+   *        The shared rule information. May not be <code>null</code>.
+   * @param sResourceID
+   *        The ID of the validated resource. Should be the same object for all
+   *        errors of a single validation. May be <code>null</code>.
+   * @param sFieldName
+   *        The location of the hit inside the validated document (usually an
+   *        XPath expression). May be <code>null</code>.
+   */
+  public SchematronCompactError (@Nonnull final SchematronRuleInfo aRule,
+                                 @Nullable final String sResourceID,
+                                 @Nullable final String sFieldName)
+  {
+    ValueEnforcer.notNull (aRule, "Rule");
+    m_aRule = aRule;
+    m_sResourceID = sResourceID;
+    m_sFieldName = sFieldName;
+  }
+
+  /**
+   * @return The shared rule information. Never <code>null</code>.
+   */
+  @Nonnull
+  public final SchematronRuleInfo getRule ()
+  {
+    return m_aRule;
+  }
+
+  @Nonnull
+  public IErrorLevel getErrorLevel ()
+  {
+    return m_aRule.getErrorLevel ();
+  }
+
+  @Nullable
+  public String getErrorID ()
+  {
+    return m_aRule.getErrorID ();
+  }
+
+  @Nullable
+  public String getErrorFieldName ()
+  {
+    return m_sFieldName;
+  }
+
+  @Nonnull
+  public ILocation getErrorLocation ()
+  {
+    // Created on demand
+    return StringHelper.hasText (m_sResourceID) ? new SimpleLocation (m_sResourceID) : SimpleLocation.NO_LOCATION;
+  }
+
+  @Nullable
+  public IHasErrorText getErrorTexts ()
+  {
+    return m_aRule.getErrorTexts ();
+  }
+
+  /**
+   * @return The Schematron test of the rule. May be <code>null</code>.
+   */
+  @Nullable
+  public String getTest ()
+  {
+    return m_aRule.getTest ();
+  }
+
+  @Override
+  public String getAsString (@Nonnull final Locale aContentLocale)
+  {
+    return IError.super.getAsString (aContentLocale) + " Test=" + m_aRule.getTest ();
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final SchematronCompactError rhs = (SchematronCompactError) o;
+    return m_aRule.equals (rhs.m_aRule) &&
+           EqualsHelper.equals (m_sResourceID, rhs.m_sResourceID) &&
+           EqualsHelper.equals (m_sFieldName, rhs.m_sFieldName);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_aRule).append (m_sResourceID).append (m_sFieldName).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Rule", m_aRule)
+                                       .append ("ResourceID", m_sResourceID)
+                                       .append ("FieldName", m_sFieldName)
+                                       .getToString ();
+  }
+}
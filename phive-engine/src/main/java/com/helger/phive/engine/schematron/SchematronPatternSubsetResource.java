@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.wrapped.AbstractWrappedReadableResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.schematron.CSchematron;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xml.serialize.write.XMLWriter;
+
+/**
+ * A wrapped Schematron (SCH) resource that only contains the patterns with the
+ * selected IDs. Abstract patterns are always retained, and references to
+ * removed patterns are also removed from all phases. The resource ID contains
+ * the selected pattern IDs, so that compiled versions of different subsets can
+ * be cached independently. Two instances are equal if they wrap equal
+ * resources and select the same patterns, so that they can be used as cache
+ * keys. Note: only patterns directly contained in the
+ * Schematron are filtered, not patterns from included files.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class SchematronPatternSubsetResource extends AbstractWrappedReadableResource
+{
+  private final ICommonsSortedSet <String> m_aPatternIDs;
+  // Status vars
+  private volatile byte [] m_aFilteredBytes;
+
+  /**
+   * Constructor
+   *
+   * @param aBaseResource
+   *        The Schematron resource to be filtered. May not be
+   *        <code>null</code>.
+   * @param aPatternIDs
+   *        The IDs of the patterns to retain. May neither be <code>null</code>
+   *        nor empty.
+   */
+  public SchematronPatternSubsetResource (@Nonnull final IReadableResource aBaseResource,
+                                          @Nonnull @Nonempty final Iterable <String> aPatternIDs)
+  {
+    super (aBaseResource);
+    ValueEnforcer.notNull (aPatternIDs, "PatternIDs");
+    m_aPatternIDs = new CommonsTreeSet <> (aPatternIDs);
+    ValueEnforcer.notEmptyNoNullValue (m_aPatternIDs, "PatternIDs");
+  }
+
+  /**
+   * @return A copy of all pattern IDs to retain. Never <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  @ReturnsMutableCopy
+  public final ICommonsSortedSet <String> getAllPatternIDs ()
+  {
+    return m_aPatternIDs.getClone ();
+  }
+
+  @Override
+  @Nonnull
+  public String getResourceID ()
+  {
+    // Make sure each subset is cached on its own
+    return super.getResourceID () + "#patterns=" + StringHelper.getImploded (',', m_aPatternIDs);
+  }
+
+  private static boolean _isSchematronElement (@Nonnull final Element aElement, @Nonnull final String sLocalName)
+  {
+    return CSchematron.NAMESPACE_SCHEMATRON.equals (aElement.getNamespaceURI ()) &&
+           sLocalName.equals (aElement.getLocalName ());
+  }
+
+  @Nullable
+  private byte [] _createFilteredBytes ()
+  {
+    final Document aDoc = DOMReader.readXMLDOM (getWrappedReadableResource ());
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+      return null;
+
+    final ICommonsList <Element> aToBeRemoved = new CommonsArrayList <> ();
+    for (final Element aChild : XMLHelper.getChildElementIterator (aDoc.getDocumentElement ()))
+    {
+      if (_isSchematronElement (aChild, "pattern"))
+      {
+        if (!"true".equals (aChild.getAttribute ("abstract")) && !m_aPatternIDs.contains (aChild.getAttribute ("id")))
+          aToBeRemoved.add (aChild);
+      }
+      else
+        if (_isSchematronElement (aChild, "phase"))
+        {
+          for (final Element aActive : XMLHelper.getChildElementIterator (aChild))
+            if (_isSchematronElement (aActive, "active") && !m_aPatternIDs.contains (aActive.getAttribute ("pattern")))
+              aToBeRemoved.add (aActive);
+        }
+    }
+    for (final Element aElement : aToBeRemoved)
+      aElement.getParentNode ().removeChild (aElement);
+
+    return XMLWriter.getNodeAsBytes (aDoc);
+  }
+
+  @Nullable
+  public InputStream getInputStream ()
+  {
+    byte [] aBytes = m_aFilteredBytes;
+    if (aBytes == null)
+    {
+      // Filtering is idempotent, so a concurrent double creation is harmless
+      aBytes = _createFilteredBytes ();
+      if (aBytes == null)
+        return null;
+      m_aFilteredBytes = aBytes;
+    }
+    return new NonBlockingByteArrayInputStream (aBytes);
+  }
+
+  public final boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Nonnull
+  public SchematronPatternSubsetResource getReadableCloneForPath (@Nonnull final String sPath)
+  {
+    return new SchematronPatternSubsetResource (getWrappedReadableResource ().getReadableCloneForPath (sPath),
+                                                m_aPatternIDs);
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final SchematronPatternSubsetResource rhs = (SchematronPatternSubsetResource) o;
+    return getWrappedReadableResource ().equals (rhs.getWrappedReadableResource ()) &&
+           m_aPatternIDs.equals (rhs.m_aPatternIDs);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (getWrappedReadableResource ()).append (m_aPatternIDs).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ()).append ("PatternIDs", m_aPatternIDs).getToString ();
+  }
+}
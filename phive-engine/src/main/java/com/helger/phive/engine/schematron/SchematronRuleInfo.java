@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.error.level.IErrorLevel;
+import com.helger.commons.error.text.ConstantHasErrorText;
+import com.helger.commons.error.text.IHasErrorText;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.hashcode.IHashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The parts of a Schematron error that are identical for all hits of the same
+ * rule: error ID, error level, test and text. Instances are shared between all
+ * {@link SchematronCompactError} objects of the same rule via
+ * {@link SchematronRuleTable}.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+public final class SchematronRuleInfo
+{
+  private final String m_sErrorID;
+  private final IErrorLevel m_aErrorLevel;
+  private final String m_sTest;
+  private final IHasErrorText m_aErrorText;
+  // Status vars
+  private int m_nHashCode = IHashCodeGenerator.ILLEGAL_HASHCODE;
+
+  public SchematronRuleInfo (@Nullable final String sErrorID,
+                             @Nonnull final IErrorLevel aErrorLevel,
+                             @Nullable final String sTest,
+                             @Nullable final String sErrorText)
+  {
+    ValueEnforcer.notNull (aErrorLevel, "ErrorLevel");
+    m_sErrorID = sErrorID;
+    m_aErrorLevel = aErrorLevel;
+    m_sTest = sTest;
+    m_aErrorText = ConstantHasErrorText.createOnDemand (sErrorText);
+  }
+
+  @Nullable
+  public String getErrorID ()
+  {
+    return m_sErrorID;
+  }
+
+  @Nonnull
+  public IErrorLevel getErrorLevel ()
+  {
+    return m_aErrorLevel;
+  }
+
+  @Nullable
+  public String getTest ()
+  {
+    return m_sTest;
+  }
+
+  @Nullable
+  public IHasErrorText getErrorTexts ()
+  {
+    return m_aErrorText;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final SchematronRuleInfo rhs = (SchematronRuleInfo) o;
+    return EqualsHelper.equals (m_sErrorID, rhs.m_sErrorID) &&
+           m_aErrorLevel.equals (rhs.m_aErrorLevel) &&
+           EqualsHelper.equals (m_sTest, rhs.m_sTest) &&
+           EqualsHelper.equals (m_aErrorText, rhs.m_aErrorText);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    int ret = m_nHashCode;
+    if (ret == IHashCodeGenerator.ILLEGAL_HASHCODE)
+      ret = m_nHashCode = new HashCodeGenerator (this).append (m_sErrorID)
+                                                      .append (m_aErrorLevel)
+                                                      .append (m_sTest)
+                                                      .append (m_aErrorText)
+                                                      .getHashCode ();
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("ErrorID", m_sErrorID)
+                                       .append ("ErrorLevel", m_aErrorLevel)
+                                       .append ("Test", m_sTest)
+                                       .append ("ErrorText", m_aErrorText)
+                                       .getToString ();
+  }
+}
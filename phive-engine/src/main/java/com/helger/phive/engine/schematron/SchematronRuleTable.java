@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.error.level.IErrorLevel;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A table that interns the {@link SchematronRuleInfo} objects of a single
+ * validation artefact, so that the rule-static parts of Schematron errors are
+ * stored only once, no matter how often a rule fires. The table is a bounded
+ * LRU: if it is full, the least recently used entry is dropped. This prevents
+ * unbounded growth, if rule texts contain dynamic values of the validated
+ * documents, while the frequently firing rules stay interned.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class SchematronRuleTable
+{
+  /** The default maximum number of entries */
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <SchematronRuleInfo, SchematronRuleInfo> m_aMap;
+
+  public SchematronRuleTable ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  public SchematronRuleTable (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGE0 (nMaxSize, "MaxSize");
+    m_nMaxSize = nMaxSize;
+    m_aMap = nMaxSize > 0 ? new LRUMap <> (nMaxSize) : null;
+  }
+
+  /**
+   * @return The maximum number of interned entries. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The number of interned entries. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSize ()
+  {
+    return m_aMap == null ? 0 : m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * Get the shared rule information for the provided values.
+   *
+   * @param sErrorID
+   *        Error ID. May be <code>null</code>.
+   * @param aErrorLevel
+   *        Error level. May not be <code>null</code>.
+   * @param sTest
+   *        The Schematron test. May be <code>null</code>.
+   * @param sErrorText
+   *        The error text. May be <code>null</code>.
+   * @return The interned rule information. Only if the maximum size is 0, a
+   *         new object is returned. Never <code>null</code>.
+   */
+  @Nonnull
+  public SchematronRuleInfo getInterned (@Nullable final String sErrorID,
+                                         @Nonnull final IErrorLevel aErrorLevel,
+                                         @Nullable final String sTest,
+                                         @Nullable final String sErrorText)
+  {
+    final SchematronRuleInfo aNew = new SchematronRuleInfo (sErrorID, aErrorLevel, sTest, sErrorText);
+    if (m_aMap == null)
+      return aNew;
+    // Getting from the LRU map modifies the order
+    return m_aLock.lockedGet ( () -> m_aMap.computeIfAbsent (aNew, k -> aNew));
+  }
+
+  /**
+   * Remove all interned entries.
+   */
+  public void clear ()
+  {
+    if (m_aMap != null)
+      m_aLock.locked (m_aMap::clear);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize).append ("Size", getSize ()).getToString ();
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.state.EChange;
+import com.helger.schematron.api.xslt.ISchematronXSLTBasedProvider;
+
+/**
+ * A global cache for compiled XSLT based Schematron providers that is used by
+ * {@link ValidationExecutorSchematron} instead of the global caches of
+ * ph-schematron. In contrast to them, single entries can be removed, so that
+ * the compiled artefacts of evicted or replaced validation executor sets can
+ * be reclaimed.<br>
+ * Only valid providers are cached, so that errors in a Schematron are reported
+ * on every usage.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public final class SchematronXSLTProviderCache
+{
+  private static final Map <String, ISchematronXSLTBasedProvider> CACHE = new ConcurrentHashMap <> ();
+
+  private SchematronXSLTProviderCache ()
+  {}
+
+  /**
+   * Get the cached provider or create a new one. The creation happens outside
+   * of any lock, so if two threads request the same missing key concurrently,
+   * both compile it but only the first result is kept.
+   *
+   * @param sCacheKey
+   *        The cache key. May neither be <code>null</code> nor empty.
+   * @param aFactory
+   *        The factory to create the provider if it is not in the cache. May
+   *        not be <code>null</code>.
+   * @return <code>null</code> if the factory returned <code>null</code>.
+   */
+  @Nullable
+  public static ISchematronXSLTBasedProvider getSchematronXSLTProvider (@Nonnull @Nonempty final String sCacheKey,
+                                                                       @Nonnull final Supplier <? extends ISchematronXSLTBasedProvider> aFactory)
+  {
+    ValueEnforcer.notEmpty (sCacheKey, "CacheKey");
+    ValueEnforcer.notNull (aFactory, "Factory");
+
+    final ISchematronXSLTBasedProvider aCached = CACHE.get (sCacheKey);
+    if (aCached != null)
+      return aCached;
+
+    final ISchematronXSLTBasedProvider aNew = aFactory.get ();
+    if (aNew == null || !aNew.isValidSchematron ())
+      return aNew;
+
+    final ISchematronXSLTBasedProvider aOld = CACHE.putIfAbsent (sCacheKey, aNew);
+    return aOld != null ? aOld : aNew;
+  }
+
+  /**
+   * Remove a single entry from the cache.
+   *
+   * @param sCacheKey
+   *        The cache key to remove. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if an entry was removed.
+   */
+  @Nonnull
+  public static EChange removeFromCache (@Nullable final String sCacheKey)
+  {
+    return EChange.valueOf (sCacheKey != null && CACHE.remove (sCacheKey) != null);
+  }
+
+  /**
+   * @return The number of cached providers. Always &ge; 0.
+   */
+  @Nonnegative
+  public static int getSize ()
+  {
+    return CACHE.size ();
+  }
+
+  /**
+   * @return A copy of all cache keys. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsSet <String> getAllCacheKeys ()
+  {
+    return new CommonsHashSet <> (CACHE.keySet ());
+  }
+
+  /**
+   * Remove all cached providers.
+   */
+  public static void clearCache ()
+  {
+    CACHE.clear ();
+  }
+}
@@ -18,11 +18,21 @@ package com.helger.phive.engine.schematron;
 
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.xpath.XPath;
 
 import org.slf4j.Logger;
@@ -33,9 +43,14 @@ import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsTreeSet;
 import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.SingleError;
@@ -45,6 +60,7 @@ import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.hashcode.HashCodeGenerator;
 import com.helger.commons.io.resource.IReadableResource;
 import com.helger.commons.location.SimpleLocation;
+import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.wrapper.Wrapper;
@@ -58,27 +74,40 @@ import com.helger.phive.api.result.ValidationResult;
 import com.helger.phive.engine.source.IValidationSourceXML;
 import com.helger.schematron.AbstractSchematronResource;
 import com.helger.schematron.SchematronResourceHelper;
+import com.helger.schematron.api.xslt.AbstractSchematronXSLTBasedResource;
+import com.helger.schematron.api.xslt.ISchematronXSLTBasedProvider;
 import com.helger.schematron.pure.SchematronResourcePure;
+import com.helger.schematron.pure.bound.PSBoundSchemaCache;
+import com.helger.schematron.pure.bound.PSBoundSchemaCacheKey;
 import com.helger.schematron.pure.errorhandler.WrappedCollectingPSErrorHandler;
+import com.helger.schematron.pure.xpath.XPathConfigBuilder;
 import com.helger.schematron.sch.SchematronResourceSCH;
 import com.helger.schematron.schxslt.xslt2.SchematronResourceSchXslt_XSLT2;
+import com.helger.schematron.svrl.AbstractSVRLMessage;
 import com.helger.schematron.svrl.SVRLFailedAssert;
 import com.helger.schematron.svrl.SVRLHelper;
 import com.helger.schematron.svrl.SVRLMarshaller;
+import com.helger.schematron.svrl.SVRLResourceError;
 import com.helger.schematron.svrl.SVRLResourceError.SVRLErrorBuilder;
 import com.helger.schematron.svrl.SVRLSuccessfulReport;
 import com.helger.schematron.svrl.jaxb.SchematronOutputType;
 import com.helger.schematron.xslt.SchematronResourceXSLT;
 import com.helger.xml.EXMLParserFeature;
+import com.helger.xml.XMLFactory;
 import com.helger.xml.XMLHelper;
 import com.helger.xml.namespace.IIterableNamespaceContext;
 import com.helger.xml.namespace.MapBasedNamespaceContext;
 import com.helger.xml.serialize.read.DOMReaderSettings;
 import com.helger.xml.serialize.write.XMLWriter;
+import com.helger.xml.transform.LoggingTransformErrorListener;
 import com.helger.xml.transform.WrappedCollectingTransformErrorListener;
 import com.helger.xml.xpath.XPathExpressionHelper;
 import com.helger.xml.xpath.XPathHelper;
 
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.XPathExecutable;
+
 /**
  * Implementation of {@link IValidationExecutor} for Schematron validation.
  *
@@ -96,13 +125,48 @@ public class ValidationExecutorSchematron extends
   }
 
   public static final String IN_MEMORY_RESOURCE_NAME = "in-memory-data";
+  /** By default the W3C DOM is used as the Schematron input */
+  public static final boolean DEFAULT_USE_COMPACT_TREE = false;
+  /** By default the Schematron errors are {@link SVRLResourceError} objects */
+  public static final boolean DEFAULT_USE_COMPACT_ERRORS = false;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (ValidationExecutorSchematron.class);
 
   private final String m_sPrerequisiteXPath;
   private final MapBasedNamespaceContext m_aNamespaceContext;
   private boolean m_bCacheSchematron = ICacheSupport.DEFAULT_CACHE;
+  private boolean m_bUseCompactTree = DEFAULT_USE_COMPACT_TREE;
+  private String m_sPhase;
+  private ICommonsSortedSet <String> m_aPatternIDs;
+  // Created once, so that the filtered SCH and the compiled subsets are cached
+  private SchematronPatternSubsetResource m_aPatternSubsetResource;
   private ICommonsMap <String, IErrorLevel> m_aCustomErrorLevels;
+  private ICommonsSet <String> m_aDroppedErrorIDs;
+  private boolean m_bUseCompactErrors = DEFAULT_USE_COMPACT_ERRORS;
+  private final SchematronRuleTable m_aRuleTable = new SchematronRuleTable ();
+  // The providers used by this executor - kept here as well, so that they stay
+  // available for this executor if they are removed from the shared cache
+  private final Map <String, ISchematronXSLTBasedProvider> m_aXSLTProviders = new ConcurrentHashMap <> ();
+  // The prerequisite XPath compiled for the Saxon configuration of the
+  // compact tree
+  private volatile CompiledPrerequisite m_aCompiledPrerequisite;
+
+  /**
+   * The prerequisite XPath compiled for a specific Saxon configuration.
+   *
+   * @author Philip Helger
+   */
+  private static final class CompiledPrerequisite
+  {
+    private final Configuration m_aConfig;
+    private final XPathExecutable m_aXPath;
+
+    CompiledPrerequisite (@Nonnull final Configuration aConfig, @Nonnull final XPathExecutable aXPath)
+    {
+      m_aConfig = aConfig;
+      m_aXPath = aXPath;
+    }
+  }
 
   public ValidationExecutorSchematron (@Nonnull final IValidationArtefact aValidationArtefact,
                                        @Nullable final String sPrerequisiteXPath,
@@ -140,19 +204,257 @@ public class ValidationExecutorSchematron extends
     return this;
   }
 
+  /**
+   * @return <code>true</code> if the compact Saxon TinyTree should be used as
+   *         the Schematron input instead of a W3C DOM, <code>false</code> if
+   *         not. Default is {@link #DEFAULT_USE_COMPACT_TREE}.
+   * @since 7.2.2
+   */
+  public final boolean isUseCompactTree ()
+  {
+    return m_bUseCompactTree;
+  }
+
+  /**
+   * Enable or disable the usage of the compact Saxon TinyTree as the Schematron
+   * input. This only has an effect for XSLT based Schematron flavours, if Saxon
+   * is the XSLT engine and if the validation source is not a DOM source (e.g.
+   * {@link com.helger.phive.engine.source.ValidationSourceXMLSpooled}). In all
+   * other cases the W3C DOM is used as before.
+   *
+   * @param bUseCompactTree
+   *        <code>true</code> to use the compact tree, <code>false</code> to
+   *        always use a W3C DOM.
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutorSchematron setUseCompactTree (final boolean bUseCompactTree)
+  {
+    m_bUseCompactTree = bUseCompactTree;
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if the Schematron errors are created as
+   *         {@link SchematronCompactError} objects, <code>false</code> if they
+   *         are created as {@link SVRLResourceError} objects. Default is
+   *         {@link #DEFAULT_USE_COMPACT_ERRORS}.
+   * @since 7.2.2
+   */
+  public final boolean isUseCompactErrors ()
+  {
+    return m_bUseCompactErrors;
+  }
+
+  /**
+   * Enable or disable the creation of compact Schematron errors. Compact errors
+   * share the rule-static parts (ID, level, test and text) of all hits of the
+   * same rule in a table per executor, and only store the location per hit.
+   * This only has an effect for Schematrons creating SVRL.
+   *
+   * @param bUseCompactErrors
+   *        <code>true</code> to create {@link SchematronCompactError} objects,
+   *        <code>false</code> to create {@link SVRLResourceError} objects.
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutorSchematron setUseCompactErrors (final boolean bUseCompactErrors)
+  {
+    m_bUseCompactErrors = bUseCompactErrors;
+    return this;
+  }
+
+  /**
+   * @return The table with the shared rule information used for compact
+   *         errors. Never <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final SchematronRuleTable getRuleTable ()
+  {
+    return m_aRuleTable;
+  }
+
+  private boolean _isCompiledFromSCH ()
+  {
+    final IValidationType aVT = getValidationArtefact ().getValidationArtefactType ();
+    return aVT == EValidationType.SCHEMATRON_PURE ||
+           aVT == EValidationType.SCHEMATRON_SCH ||
+           aVT == EValidationType.SCHEMATRON_SCHXSLT;
+  }
+
+  /**
+   * @return The Schematron phase to be used. <code>null</code> means the
+   *         default phase of the Schematron.
+   * @since 7.2.2
+   */
+  @Nullable
+  public final String getPhase ()
+  {
+    return m_sPhase;
+  }
+
+  /**
+   * Set the Schematron phase to be used. This is only supported for the
+   * validation types that compile the SCH at runtime (pure, SCH and SchXslt).
+   * Each phase is compiled and cached separately.
+   *
+   * @param sPhase
+   *        The phase to use. May be <code>null</code> to use the default phase
+   *        of the Schematron.
+   * @return this for chaining
+   * @throws IllegalArgumentException
+   *         If a phase is set for a precompiled XSLT
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutorSchematron setPhase (@Nullable final String sPhase)
+  {
+    if (StringHelper.hasText (sPhase))
+      ValueEnforcer.isTrue (_isCompiledFromSCH (), "Phases are only supported for Schematrons compiled at runtime");
+    m_sPhase = StringHelper.hasText (sPhase) ? sPhase : null;
+    return this;
+  }
+
+  /**
+   * @return A copy of the IDs of all patterns to be applied. <code>null</code>
+   *         means all patterns.
+   * @since 7.2.2
+   */
+  @Nullable
+  @ReturnsMutableCopy
+  public final ICommonsSortedSet <String> getAllPatternIDs ()
+  {
+    return m_aPatternIDs == null ? null : m_aPatternIDs.getClone ();
+  }
+
+  /**
+   * Restrict the validation to the patterns with the provided IDs. This is
+   * only supported for the validation types that compile the SCH at runtime
+   * (pure, SCH and SchXslt). Each subset is compiled and cached separately.
+   *
+   * @param aPatternIDs
+   *        The IDs of the patterns to be applied. May be <code>null</code> or
+   *        empty to apply all patterns.
+   * @return this for chaining
+   * @throws IllegalArgumentException
+   *         If a pattern subset is set for a precompiled XSLT
+   * @see SchematronPatternSubsetResource
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutorSchematron setPatternIDs (@Nullable final Iterable <String> aPatternIDs)
+  {
+    final ICommonsSortedSet <String> aIDs = new CommonsTreeSet <> ();
+    if (aPatternIDs != null)
+      for (final String sID : aPatternIDs)
+        if (StringHelper.hasText (sID))
+          aIDs.add (sID);
+    if (aIDs.isNotEmpty ())
+      ValueEnforcer.isTrue (_isCompiledFromSCH (), "Pattern subsets are only supported for Schematrons compiled at runtime");
+    if (aIDs.isEmpty ())
+    {
+      m_aPatternIDs = null;
+      m_aPatternSubsetResource = null;
+    }
+    else
+    {
+      m_aPatternIDs = aIDs;
+      m_aPatternSubsetResource = new SchematronPatternSubsetResource (getValidationArtefact ().getRuleResource (), aIDs);
+    }
+    return this;
+  }
+
   public void ensureItemIsInCache ()
   {
     if (m_bCacheSchematron)
     {
-      final AbstractSchematronResource aRes = _createSchematronResource (null, new ErrorList (), x -> {});
-      aRes.setUseCache (true);
-      aRes.isValidSchematron ();
+      compileSchematron (new ErrorList ());
       LOGGER.debug ("ValidationExecutorSchematron " +
                     getValidationArtefact ().getRuleResourcePath () +
                     " is now in the cache");
     }
   }
 
+  /**
+   * Compile the Schematron of this executor. If caching is enabled, the
+   * compiled Schematron is put into the cache. Contrary to
+   * {@link #ensureItemIsInCache()} the result of the compilation is reported.
+   *
+   * @param aErrorList
+   *        The error list to be filled with the compilation errors. May not be
+   *        <code>null</code>.
+   * @return {@link ESuccess#SUCCESS} if the Schematron is valid.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public ESuccess compileSchematron (@Nonnull final ErrorList aErrorList)
+  {
+    ValueEnforcer.notNull (aErrorList, "ErrorList");
+    final AbstractSchematronResource aRes = _createSchematronResource (null, aErrorList, x -> {});
+    return ESuccess.valueOf (aRes.isValidSchematron ());
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * The compiled Schematron is removed from the shared
+   * {@link SchematronXSLTProviderCache}. This executor keeps using the already
+   * compiled version until it is garbage collected, so that running
+   * validations are not affected.
+   *
+   * @since 7.2.2
+   */
+  @Override
+  public void removeItemFromCache ()
+  {
+    for (final String sCacheKey : m_aXSLTProviders.keySet ())
+      SchematronXSLTProviderCache.removeFromCache (sCacheKey);
+
+    if (getValidationArtefact ().getValidationArtefactType () == EValidationType.SCHEMATRON_PURE)
+    {
+      // The bound schema cache key only considers the resource, the phase and
+      // the XPath configuration
+      PSBoundSchemaCache.getInstance ()
+                        .removeFromCache (new PSBoundSchemaCacheKey (_getSchematronResource (),
+                                                                     m_sPhase,
+                                                                     null,
+                                                                     null,
+                                                                     XPathConfigBuilder.DEFAULT,
+                                                                     null,
+                                                                     false));
+    }
+  }
+
+  @Nullable
+  private ISchematronXSLTBasedProvider _getCachedXSLTProvider (@Nonnull final String sCacheKey,
+                                                              @Nonnull final Supplier <? extends ISchematronXSLTBasedProvider> aFactory)
+  {
+    ISchematronXSLTBasedProvider ret = m_aXSLTProviders.get (sCacheKey);
+    if (ret == null)
+    {
+      ret = SchematronXSLTProviderCache.getSchematronXSLTProvider (sCacheKey, aFactory);
+      if (ret != null && ret.isValidSchematron ())
+        m_aXSLTProviders.put (sCacheKey, ret);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private String _getCacheKey (@Nonnull final IValidationType aVT,
+                               @Nonnull final IReadableResource aSCHRes,
+                               @Nullable final String sLanguageCode)
+  {
+    return aVT.getID () +
+           ':' +
+           aSCHRes.getResourceID () +
+           "#phase=" +
+           StringHelper.getNotNull (m_sPhase) +
+           "#lang=" +
+           StringHelper.getNotNull (sLanguageCode);
+  }
+
   @Nonnull
   public final ValidationExecutorSchematron addCustomErrorLevel (@Nonnull @Nonempty final String sErrorID,
                                                                  @Nonnull final EErrorLevel eErrorLevel)
@@ -177,6 +479,128 @@ public class ValidationExecutorSchematron extends
     return this;
   }
 
+  /**
+   * Drop all errors with the provided error ID from the validation results.
+   * This is the strongest form of a custom error level and takes precedence
+   * over a custom error level set for the same ID.
+   *
+   * @param sErrorID
+   *        The error ID (usually the Schematron assert/report ID) to drop. May
+   *        neither be <code>null</code> nor empty.
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutorSchematron addDroppedErrorID (@Nonnull @Nonempty final String sErrorID)
+  {
+    ValueEnforcer.notEmpty (sErrorID, "ErrorID");
+    if (m_aDroppedErrorIDs == null)
+      m_aDroppedErrorIDs = new CommonsHashSet <> ();
+    m_aDroppedErrorIDs.add (sErrorID);
+    return this;
+  }
+
+  /**
+   * Get the error level to be used for an error with the provided ID, taking
+   * custom error levels and dropped error IDs into account.
+   *
+   * @param sErrorID
+   *        The error ID. May be <code>null</code>.
+   * @param aDefaultLevel
+   *        The error level as determined by the Schematron. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> if the error should be dropped.
+   */
+  @Nullable
+  private IErrorLevel _getEffectiveErrorLevel (@Nullable final String sErrorID, @Nonnull final IErrorLevel aDefaultLevel)
+  {
+    if (sErrorID != null)
+    {
+      if (m_aDroppedErrorIDs != null && m_aDroppedErrorIDs.contains (sErrorID))
+        return null;
+      if (m_aCustomErrorLevels != null)
+      {
+        final IErrorLevel aCustomLevel = m_aCustomErrorLevels.get (sErrorID);
+        if (aCustomLevel != null)
+          return aCustomLevel;
+      }
+    }
+    return aDefaultLevel;
+  }
+
+  private void _addSVRLError (@Nonnull final ErrorList aErrorList,
+                              @Nonnull final AbstractSVRLMessage aMessage,
+                              @Nullable final String sResourceName)
+  {
+    // Apply custom levels directly when converting
+    final IErrorLevel aErrorLevel = _getEffectiveErrorLevel (aMessage.getID (), aMessage.getFlag ());
+    if (aErrorLevel != null)
+      if (m_bUseCompactErrors)
+        aErrorList.add (new SchematronCompactError (m_aRuleTable.getInterned (aMessage.getID (),
+                                                                              aErrorLevel,
+                                                                              aMessage.getTest (),
+                                                                              aMessage.getText ()),
+                                                    sResourceName,
+                                                    aMessage.getLocation ()));
+      else
+        aErrorList.add (new SVRLErrorBuilder (aMessage.getTest ()).errorLevel (aErrorLevel)
+                                                                  .errorID (aMessage.getID ())
+                                                                  .errorFieldName (aMessage.getLocation ())
+                                                                  .errorLocation (sResourceName)
+                                                                  .errorText (aMessage.getText ())
+                                                                  .build ());
+  }
+
+  /**
+   * Extract the rule ID from an OIOUBL error description like
+   * <code>[F-LIB001] Invalid UBLVersionID. Must be '2.0'</code>.
+   *
+   * @param sDescription
+   *        The description. May be <code>null</code>.
+   * @return <code>null</code> if the description does not start with a rule
+   *         ID in square brackets.
+   */
+  @Nullable
+  private static String _getOIOUBLErrorID (@Nullable final String sDescription)
+  {
+    if (sDescription == null)
+      return null;
+    final String sTrimmed = sDescription.trim ();
+    if (!sTrimmed.startsWith ("["))
+      return null;
+    final int nEnd = sTrimmed.indexOf (']');
+    return nEnd > 1 ? sTrimmed.substring (1, nEnd).trim () : null;
+  }
+
+  /**
+   * Get the prerequisite XPath compiled for the provided Saxon configuration.
+   * The compiled expression is kept, as long as the configuration does not
+   * change (which is the case for cached Schematrons).
+   *
+   * @param aConfig
+   *        The Saxon configuration that built the compact tree. May not be
+   *        <code>null</code>.
+   * @return The compiled prerequisite XPath. Never <code>null</code>.
+   */
+  @Nonnull
+  private XPathExecutable _getCompiledPrerequisite (@Nonnull final Configuration aConfig)
+  {
+    CompiledPrerequisite ret = m_aCompiledPrerequisite;
+    if (ret == null || ret.m_aConfig != aConfig)
+    {
+      ret = new CompiledPrerequisite (aConfig, SaxonTinyTreeHelper.compileXPath (aConfig, m_sPrerequisiteXPath, m_aNamespaceContext));
+      m_aCompiledPrerequisite = ret;
+    }
+    return ret.m_aXPath;
+  }
+
+  @Nonnull
+  private IReadableResource _getSchematronResource ()
+  {
+    final SchematronPatternSubsetResource aSubsetRes = m_aPatternSubsetResource;
+    return aSubsetRes != null ? aSubsetRes : getValidationArtefact ().getRuleResource ();
+  }
+
   @Nonnull
   private AbstractSchematronResource _createSchematronResource (@Nullable final Locale aLocale,
                                                                 @Nonnull final ErrorList aErrorList,
@@ -185,68 +609,181 @@ public class ValidationExecutorSchematron extends
     final IValidationArtefact aArtefact = getValidationArtefact ();
 
     // get the Schematron resource to be used for this validation artefact
-    final IReadableResource aSCHRes = aArtefact.getRuleResource ();
+    final IReadableResource aSCHRes = _getSchematronResource ();
 
     final IValidationType aVT = aArtefact.getValidationArtefactType ();
     if (aVT == EValidationType.SCHEMATRON_PURE)
     {
       final SchematronResourcePure aPureSCH = new SchematronResourcePure (aSCHRes);
+      aPureSCH.setPhase (m_sPhase);
       aPureSCH.setErrorHandler (new WrappedCollectingPSErrorHandler (aErrorList));
-      // Don't cache to avoid that errors in the Schematron are hidden on
-      // consecutive calls!
+      aPureSCH.setUseCache (m_bCacheSchematron);
       return aPureSCH;
     }
 
+    // The ph-schematron global caches are never used, because single entries
+    // cannot be removed from them
+    final boolean bCache = m_bCacheSchematron;
+    final String sLanguageCode = aLocale != null && StringHelper.hasText (aLocale.getLanguage ()) ? aLocale.getLanguage ()
+                                                                                                  : null;
+    final String sCacheKey = _getCacheKey (aVT, aSCHRes, sLanguageCode);
+
     if (aVT == EValidationType.SCHEMATRON_SCH)
     {
-      final SchematronResourceSCH aSCHSCH = new SchematronResourceSCH (aSCHRes);
+      final SchematronResourceSCH aSCHSCH = new SchematronResourceSCH (aSCHRes)
+      {
+        @Override
+        public ISchematronXSLTBasedProvider getXSLTProvider ()
+        {
+          return bCache ? _getCachedXSLTProvider (sCacheKey, super::getXSLTProvider) : super.getXSLTProvider ();
+        }
+      };
+      aSCHSCH.setUseCache (false);
+      aSCHSCH.setPhase (m_sPhase);
       aSCHSCH.setErrorListener (new WrappedCollectingTransformErrorListener (aErrorList));
-      if (aLocale != null && StringHelper.hasText (aLocale.getLanguage ()))
-        aSCHSCH.setLanguageCode (aLocale.getLanguage ());
+      if (sLanguageCode != null)
+        aSCHSCH.setLanguageCode (sLanguageCode);
       return aSCHSCH;
     }
 
     if (aVT == EValidationType.SCHEMATRON_SCHXSLT)
     {
-      final SchematronResourceSchXslt_XSLT2 aSCHSCH = new SchematronResourceSchXslt_XSLT2 (aSCHRes);
+      final SchematronResourceSchXslt_XSLT2 aSCHSCH = new SchematronResourceSchXslt_XSLT2 (aSCHRes)
+      {
+        @Override
+        public ISchematronXSLTBasedProvider getXSLTProvider ()
+        {
+          return bCache ? _getCachedXSLTProvider (sCacheKey, super::getXSLTProvider) : super.getXSLTProvider ();
+        }
+      };
+      aSCHSCH.setUseCache (false);
+      aSCHSCH.setPhase (m_sPhase);
       aSCHSCH.setErrorListener (new WrappedCollectingTransformErrorListener (aErrorList));
-      if (aLocale != null && StringHelper.hasText (aLocale.getLanguage ()))
-        aSCHSCH.setLanguageCode (aLocale.getLanguage ());
+      if (sLanguageCode != null)
+        aSCHSCH.setLanguageCode (sLanguageCode);
       return aSCHSCH;
     }
 
-    if (aVT == EValidationType.SCHEMATRON_XSLT)
+    if (aVT == EValidationType.SCHEMATRON_XSLT || aVT == EValidationType.SCHEMATRON_OIOUBL)
     {
-      final SchematronResourceXSLT aSCHXSLT = new SchematronResourceXSLT (aSCHRes);
-      aSCHXSLT.setErrorListener (new WrappedCollectingTransformErrorListener (aErrorList));
-      return aSCHXSLT;
-    }
-
-    if (aVT == EValidationType.SCHEMATRON_OIOUBL)
-    {
-      final SchematronResourceXSLT aSCHXSLT = new SchematronResourceXSLT (aSCHRes);
+      final SchematronResourceXSLT aSCHXSLT = new SchematronResourceXSLT (aSCHRes)
+      {
+        @Override
+        public ISchematronXSLTBasedProvider getXSLTProvider ()
+        {
+          return bCache ? _getCachedXSLTProvider (sCacheKey, super::getXSLTProvider) : super.getXSLTProvider ();
+        }
+      };
+      aSCHXSLT.setUseCache (false);
       aSCHXSLT.setErrorListener (new WrappedCollectingTransformErrorListener (aErrorList));
-      // Special output layout
-      aSpecialOutputHdl.accept (ESchematronOutput.OIOUBL);
+      if (aVT == EValidationType.SCHEMATRON_OIOUBL)
+      {
+        // Special output layout
+        aSpecialOutputHdl.accept (ESchematronOutput.OIOUBL);
+      }
       return aSCHXSLT;
     }
 
     throw new IllegalStateException ("Unsupported Schematron validation type: " + aVT);
   }
 
+  private static void _applySchematronXSLT (@Nonnull final AbstractSchematronXSLTBasedResource <?> aSCH,
+                                            @Nonnull final Transformer aTransformer,
+                                            @Nonnull final Source aSource,
+                                            @Nonnull final Result aResult) throws TransformerException
+  {
+    // Same settings as in AbstractSchematronXSLTBasedResource
+    final ErrorListener aErrorListener = aSCH.getErrorListener ();
+    aTransformer.setErrorListener (aErrorListener != null ? aErrorListener
+                                                          : new LoggingTransformErrorListener (Locale.US));
+    if (aSCH.getURIResolver () != null)
+      aTransformer.setURIResolver (aSCH.getURIResolver ());
+    for (final Map.Entry <String, Object> aEntry : aSCH.parameters ().entrySet ())
+      aTransformer.setParameter (aEntry.getKey (), aEntry.getValue ());
+    aTransformer.transform (aSource, aResult);
+  }
+
+  @Nonnull
+  private static Document _applySchematronOnCompactTree (@Nonnull final AbstractSchematronXSLTBasedResource <?> aSCH,
+                                                         @Nonnull final Transformer aTransformer,
+                                                         @Nonnull final NodeInfo aNode) throws TransformerException
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    _applySchematronXSLT (aSCH, aTransformer, aNode, new DOMResult (aDoc));
+    return aDoc;
+  }
+
   @Nonnull
   public ValidationResult applyValidation (@Nonnull final IValidationSourceXML aSource, @Nullable final Locale aLocale)
+  {
+    return _applyValidation (aSource, aLocale, false);
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * For XSLT based Schematrons creating SVRL, the transformation is terminated
+   * at the first failed assert or successful report with an error level (after
+   * applying the custom error levels). No SVRL document and no error objects
+   * are created in this case. Pure Schematron and OIOUBL Schematrons use the
+   * full validation.
+   *
+   * @since 7.2.2
+   */
+  @Override
+  public boolean isValid (@Nonnull final IValidationSourceXML aSource)
+  {
+    return !_applyValidation (aSource, null, true).isFailure ();
+  }
+
+  @Nonnull
+  private ValidationResult _applyValidation (@Nonnull final IValidationSourceXML aSource,
+                                             @Nullable final Locale aLocale,
+                                             final boolean bStopAtFirstError)
   {
     ValueEnforcer.notNull (aSource, "Source");
 
     final IValidationArtefact aArtefact = getValidationArtefact ();
 
-    // Get source as XML DOM Node
+    // Create the Schematron resource upfront
+    final ErrorList aErrorList = new ErrorList ();
+    final Wrapper <ESchematronOutput> aOutput = new Wrapper <> (ESchematronOutput.SVRL);
+    final AbstractSchematronResource aSCH = _createSchematronResource (aLocale, aErrorList, aOutput::set);
+
+    // Try to use the compact tree
+    final Source aTransformSource = aSource.getAsTransformSource ();
+    Transformer aCompactTransformer = null;
+    Configuration aCompactConfig = null;
+    if (m_bUseCompactTree &&
+        aSCH instanceof AbstractSchematronXSLTBasedResource <?> &&
+        SaxonTinyTreeHelper.isSupportedSource (aTransformSource))
+    {
+      try
+      {
+        final ISchematronXSLTBasedProvider aXSLTProvider = ((AbstractSchematronXSLTBasedResource <?>) aSCH).getXSLTProvider ();
+        if (aXSLTProvider != null && aXSLTProvider.isValidSchematron ())
+        {
+          aCompactTransformer = aXSLTProvider.getXSLTTransformer ();
+          aCompactConfig = SaxonTinyTreeHelper.getSaxonConfiguration (aCompactTransformer);
+        }
+      }
+      catch (final TransformerConfigurationException ex)
+      {
+        LOGGER.warn ("Failed to create XSLT transformer - falling back to DOM: " + ex.getMessage ());
+      }
+      if (aCompactConfig == null && LOGGER.isDebugEnabled ())
+        LOGGER.debug ("The compact tree cannot be used for validation artefact " + aArtefact.getRuleResourcePath ());
+    }
+
+    // Get source as compact tree or as XML DOM Node
+    NodeInfo aCompactNode = null;
     Node aNode = null;
     try
     {
-      aNode = SchematronResourceHelper.getNodeOfSource (aSource.getAsTransformSource (),
-                                                        new DOMReaderSettings ().setFeatureValues (EXMLParserFeature.AVOID_XML_ATTACKS));
+      if (aCompactConfig != null)
+        aCompactNode = SaxonTinyTreeHelper.buildTinyTree (aCompactConfig, aTransformSource);
+      else
+        aNode = SchematronResourceHelper.getNodeOfSource (aTransformSource,
+                                                          new DOMReaderSettings ().setFeatureValues (EXMLParserFeature.AVOID_XML_ATTACKS));
     }
     catch (final Exception ex)
     {
@@ -261,15 +798,21 @@ public class ValidationExecutorSchematron extends
 
       // Check if the artefact can be applied on the given document by
       // checking the prerequisite XPath
-      final XPath aXPathContext = XPathHelper.createNewXPath ();
-      if (m_aNamespaceContext != null)
-        aXPathContext.setNamespaceContext (m_aNamespaceContext);
-
       try
       {
-        final Boolean aResult = XPathExpressionHelper.evalXPathToBoolean (aXPathContext,
-                                                                          m_sPrerequisiteXPath,
-                                                                          XMLHelper.getOwnerDocument (aNode));
+        final Boolean aResult;
+        if (aCompactNode != null)
+          aResult = Boolean.valueOf (SaxonTinyTreeHelper.evalXPathToBoolean (_getCompiledPrerequisite (aCompactConfig),
+                                                                             aCompactNode));
+        else
+        {
+          final XPath aXPathContext = XPathHelper.createNewXPath ();
+          if (m_aNamespaceContext != null)
+            aXPathContext.setNamespaceContext (m_aNamespaceContext);
+          aResult = XPathExpressionHelper.evalXPathToBoolean (aXPathContext,
+                                                              m_sPrerequisiteXPath,
+                                                              XMLHelper.getOwnerDocument (aNode));
+        }
         if (aResult != null && !aResult.booleanValue ())
         {
           if (LOGGER.isInfoEnabled ())
@@ -299,19 +842,49 @@ public class ValidationExecutorSchematron extends
       }
     }
 
-    // No prerequisite or prerequisite matched
-    final ErrorList aErrorList = new ErrorList ();
-    final Wrapper <ESchematronOutput> aOutput = new Wrapper <> (ESchematronOutput.SVRL);
-    final AbstractSchematronResource aSCH = _createSchematronResource (aLocale, aErrorList, aOutput::set);
-
-    // Don't cache to avoid that errors in the Schematron are hidden on
-    // consecutive calls!
-    aSCH.setUseCache (m_bCacheSchematron);
+    if (bStopAtFirstError &&
+        aOutput.get () == ESchematronOutput.SVRL &&
+        aSCH instanceof AbstractSchematronXSLTBasedResource <?>)
+    {
+      final AbstractSchematronXSLTBasedResource <?> aXSLTSCH = (AbstractSchematronXSLTBasedResource <?>) aSCH;
+      final ISchematronXSLTBasedProvider aXSLTProvider = aXSLTSCH.getXSLTProvider ();
+      if (aXSLTProvider != null && aXSLTProvider.isValidSchematron ())
+      {
+        // Stream the SVRL into a handler that stops at the first error
+        final SVRLFirstErrorHandler aHandler = new SVRLFirstErrorHandler (aSource.getSystemID (),
+                                                                          this::_getEffectiveErrorLevel);
+        try
+        {
+          _applySchematronXSLT (aXSLTSCH,
+                                aCompactTransformer != null ? aCompactTransformer : aXSLTProvider.getXSLTTransformer (),
+                                aCompactNode != null ? aCompactNode : new DOMSource (aNode),
+                                new SAXResult (aHandler));
+        }
+        catch (final TransformerException ex)
+        {
+          if (aHandler.getFirstError () == null)
+            aErrorList.add (SingleError.builderError ()
+                                       .errorLocation (aArtefact.getRuleResourcePath ())
+                                       .errorText (ex.getMessage ())
+                                       .linkedException (ex)
+                                       .build ());
+        }
+        if (aHandler.getFirstError () != null)
+          aErrorList.add (aHandler.getFirstError ());
+        return new ValidationResult (aArtefact, aErrorList);
+      }
+    }
 
     try
     {
       // Main application of Schematron
-      final Document aDoc = aSCH.applySchematronValidation (new DOMSource (aNode));
+      final Document aDoc;
+      if (aCompactNode != null)
+        aDoc = _applySchematronOnCompactTree ((AbstractSchematronXSLTBasedResource <?>) aSCH,
+                                              aCompactTransformer,
+                                              aCompactNode);
+      else
+        aDoc = aSCH.applySchematronValidation (new DOMSource (aNode));
 
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("SVRL: " + XMLWriter.getNodeAsString (aDoc));
@@ -329,9 +902,9 @@ public class ValidationExecutorSchematron extends
 
             // Convert failed asserts and successful reports to error objects
             for (final SVRLFailedAssert aFailedAssert : SVRLHelper.getAllFailedAssertions (aSVRL))
-              aErrorList.add (aFailedAssert.getAsResourceError (aSource.getSystemID ()));
+              _addSVRLError (aErrorList, aFailedAssert, aSource.getSystemID ());
             for (final SVRLSuccessfulReport aSuccessfulReport : SVRLHelper.getAllSuccessfulReports (aSVRL))
-              aErrorList.add (aSuccessfulReport.getAsResourceError (aSource.getSystemID ()));
+              _addSVRLError (aErrorList, aSuccessfulReport, aSource.getSystemID ());
           }
           else
           {
@@ -371,10 +944,16 @@ public class ValidationExecutorSchematron extends
               final String sDescription = XMLHelper.getFirstChildElementOfName (eError, "Description")
                                                    .getTextContent ();
               final String sXPath = XMLHelper.getFirstChildElementOfName (eError, "Xpath").getTextContent ();
-              aErrorList.add (new SVRLErrorBuilder (sPattern).errorLocation (new SimpleLocation (aSource.getSystemID ()))
-                                                             .errorText (sDescription)
-                                                             .errorFieldName (sXPath)
-                                                             .build ());
+              // Apply custom levels based on the rule ID from the description
+              final String sErrorID = _getOIOUBLErrorID (sDescription);
+              final IErrorLevel aErrorLevel = _getEffectiveErrorLevel (sErrorID, EErrorLevel.ERROR);
+              if (aErrorLevel != null)
+                aErrorList.add (new SVRLErrorBuilder (sPattern).errorLevel (aErrorLevel)
+                                                               .errorID (sErrorID)
+                                                               .errorLocation (new SimpleLocation (aSource.getSystemID ()))
+                                                               .errorText (sDescription)
+                                                               .errorFieldName (sXPath)
+                                                               .build ());
             }
           }
           else
@@ -403,38 +982,6 @@ public class ValidationExecutorSchematron extends
                                  .build ());
     }
 
-    // Apply custom levels
-    if (m_aCustomErrorLevels != null && aErrorList.isNotEmpty ())
-    {
-      final ErrorList aOldErrorList = aErrorList.getClone ();
-      aErrorList.clear ();
-
-      for (final IError aCurError : aOldErrorList)
-      {
-        final String sErrorID = aCurError.getErrorID ();
-        final IErrorLevel aCustomLevel = m_aCustomErrorLevels.get (sErrorID);
-        if (aCustomLevel != null)
-        {
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Changing error level of '" +
-                          sErrorID +
-                          "' from " +
-                          aCurError.getErrorLevel ().getNumericLevel () +
-                          " to " +
-                          aCustomLevel +
-                          " (" +
-                          aCustomLevel.getNumericLevel () +
-                          ")");
-          aErrorList.add (SingleError.builder (aCurError).errorLevel (aCustomLevel).build ());
-        }
-        else
-        {
-          // No change
-          aErrorList.add (aCurError);
-        }
-      }
-    }
-
     return new ValidationResult (aArtefact, aErrorList);
   }
 
@@ -447,6 +994,12 @@ public class ValidationExecutorSchematron extends
       return false;
     final ValidationExecutorSchematron rhs = (ValidationExecutorSchematron) o;
     return m_bCacheSchematron == rhs.m_bCacheSchematron &&
+           m_bUseCompactTree == rhs.m_bUseCompactTree &&
+           EqualsHelper.equals (m_sPhase, rhs.m_sPhase) &&
+           EqualsHelper.equals (m_aPatternIDs, rhs.m_aPatternIDs) &&
+           EqualsHelper.equals (m_aCustomErrorLevels, rhs.m_aCustomErrorLevels) &&
+           EqualsHelper.equals (m_aDroppedErrorIDs, rhs.m_aDroppedErrorIDs) &&
+           m_bUseCompactErrors == rhs.m_bUseCompactErrors &&
            EqualsHelper.equals (m_sPrerequisiteXPath, rhs.m_sPrerequisiteXPath) &&
            EqualsHelper.equals (m_aNamespaceContext, rhs.m_aNamespaceContext);
   }
@@ -456,6 +1009,12 @@ public class ValidationExecutorSchematron extends
   {
     return HashCodeGenerator.getDerived (super.hashCode ())
                             .append (m_bCacheSchematron)
+                            .append (m_bUseCompactTree)
+                            .append (m_sPhase)
+                            .append (m_aPatternIDs)
+                            .append (m_aCustomErrorLevels)
+                            .append (m_aDroppedErrorIDs)
+                            .append (m_bUseCompactErrors)
                             .append (m_sPrerequisiteXPath)
                             .append (m_aNamespaceContext)
                             .getHashCode ();
@@ -466,6 +1025,12 @@ public class ValidationExecutorSchematron extends
   {
     return ToStringGenerator.getDerived (super.toString ())
                             .append ("CacheSchematron", m_bCacheSchematron)
+                            .append ("UseCompactTree", m_bUseCompactTree)
+                            .appendIfNotNull ("Phase", m_sPhase)
+                            .appendIfNotNull ("PatternIDs", m_aPatternIDs)
+                            .appendIfNotNull ("CustomErrorLevels", m_aCustomErrorLevels)
+                            .appendIfNotNull ("DroppedErrorIDs", m_aDroppedErrorIDs)
+                            .append ("UseCompactErrors", m_bUseCompactErrors)
                             .appendIfNotNull ("PrerequisiteXPath", m_sPrerequisiteXPath)
                             .appendIfNotNull ("NamespaceContext", m_aNamespaceContext)
                             .getToString ();
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.source;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.xml.EXMLParserFeature;
+import com.helger.xml.serialize.read.SAXReaderFactory;
+
+/**
+ * Helper methods for validation sources.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+public final class ValidationSourceHelper
+{
+  private ValidationSourceHelper ()
+  {}
+
+  /**
+   * Convert the provided stream or SAX source into a SAX source that uses an
+   * XML reader that is secured against XML attacks. If the provided source is
+   * a SAX source with an existing XML reader, it is returned unchanged.
+   *
+   * @param aSource
+   *        The source to convert. Must be a stream or SAX source. May not be
+   *        <code>null</code>.
+   * @return Never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If the source cannot be converted to an input source (e.g. a DOM
+   *         source)
+   */
+  @Nonnull
+  public static SAXSource getAsSecureSAXSource (@Nonnull final Source aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+
+    if (aSource instanceof SAXSource && ((SAXSource) aSource).getXMLReader () != null)
+      return (SAXSource) aSource;
+
+    final InputSource aInputSource = SAXSource.sourceToInputSource (aSource);
+    if (aInputSource == null)
+      throw new IllegalArgumentException ("The source " + aSource + " cannot be converted to a SAXSource");
+
+    final XMLReader aReader = SAXReaderFactory.createXMLReader ();
+    for (final Map.Entry <EXMLParserFeature, Boolean> aEntry : EXMLParserFeature.AVOID_XML_ATTACKS.entrySet ())
+      aEntry.getKey ().applyTo (aReader, aEntry.getValue ().booleanValue ());
+
+    final SAXSource ret = new SAXSource (aReader, aInputSource);
+    ret.setSystemId (aSource.getSystemId ());
+    return ret;
+  }
+}
@@ -16,15 +16,19 @@
  */
 package com.helger.phive.engine.source;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.xml.transform.Source;
 
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.io.resource.IReadableResource;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.xml.XMLHelper;
@@ -32,17 +36,22 @@ import com.helger.xml.serialize.read.DOMReader;
 import com.helger.xml.transform.TransformSourceFactory;
 
 /**
- * Default implementation of {@link IValidationSourceXML}.
+ * Default implementation of {@link IValidationSourceXML}. The node factory is
+ * invoked at most once, even if multiple threads access the node concurrently.
  *
  * @author Philip Helger
  */
+@ThreadSafe
 public class ValidationSourceXML implements IValidationSourceXML
 {
   private final String m_sSystemID;
   private final Supplier <Node> m_aNodeFactory;
   private final boolean m_bPartialSource;
   // Status vars
-  private Node m_aNode;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private volatile Node m_aNode;
+  // Separate flag, because the factory may return null
+  private volatile boolean m_bNodeMaterialized = false;
 
   public ValidationSourceXML (@Nullable final String sSystemID,
                               @Nonnull final Node aFixedNode,
@@ -50,6 +59,7 @@ public class ValidationSourceXML implements IValidationSourceXML
   {
     this (sSystemID, () -> aFixedNode, bPartialSource);
     m_aNode = aFixedNode;
+    m_bNodeMaterialized = true;
   }
 
   public ValidationSourceXML (@Nullable final String sSystemID,
@@ -71,13 +81,63 @@ public class ValidationSourceXML implements IValidationSourceXML
   @Nullable
   public Node getNode ()
   {
-    Node ret = m_aNode;
-    if (ret == null)
+    if (!m_bNodeMaterialized)
     {
-      // Invoke only if necessary
-      ret = m_aNode = m_aNodeFactory.get ();
+      m_aLock.locked ( () -> {
+        // Check again inside the lock
+        if (!m_bNodeMaterialized)
+        {
+          // Invoke only if necessary
+          m_aNode = m_aNodeFactory.get ();
+          m_bNodeMaterialized = true;
+        }
+      });
     }
-    return ret;
+    return m_aNode;
+  }
+
+  /**
+   * @return <code>true</code> if the node factory was already invoked (or a
+   *         fixed node was provided), <code>false</code> if not.
+   * @since 7.2.2
+   */
+  public boolean isNodeMaterialized ()
+  {
+    return m_bNodeMaterialized;
+  }
+
+  /**
+   * Materialize the node in the calling thread, if this did not happen
+   * already.
+   *
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public ValidationSourceXML prefetch ()
+  {
+    getNode ();
+    return this;
+  }
+
+  /**
+   * Materialize the node asynchronously in the provided executor, if this did
+   * not happen already. This can e.g. be used to parse the document on an I/O
+   * thread before the CPU bound validation starts.
+   *
+   * @param aExecutor
+   *        The executor to parse the document in. May not be
+   *        <code>null</code>.
+   * @return The future that completes with the node. Never <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public CompletableFuture <Node> prefetch (@Nonnull final Executor aExecutor)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    if (m_bNodeMaterialized)
+      return CompletableFuture.completedFuture (m_aNode);
+    return CompletableFuture.supplyAsync (this::getNode, aExecutor);
   }
 
   public boolean isPartialSource ()
@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.transform.Source;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.stream.ByteBufferInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xml.transform.TransformSourceFactory;
+
+/**
+ * Special {@link ValidationSourceXML} that reads the underlying bytes exactly
+ * once and keeps them in a read-only buffer. Files are memory mapped, streams
+ * and channels are spooled into memory and - if they exceed a configurable
+ * threshold - into a temporary file that is memory mapped as well. Each call
+ * to {@link #getAsTransformSource()} returns a new streaming view on the
+ * buffer (e.g. for XSD validation) and the DOM node is only parsed on demand
+ * (e.g. for Schematron validation) from the same buffer.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+public class ValidationSourceXMLSpooled extends ValidationSourceXML implements IHasInputStream
+{
+  /**
+   * The default maximum number of bytes kept on the heap when spooling a
+   * stream or a channel. Everything larger is spooled to a temporary file.
+   */
+  public static final long DEFAULT_MAX_IN_MEMORY_BYTES = 16L * CGlobal.BYTES_PER_MEGABYTE;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ValidationSourceXMLSpooled.class);
+  private static final int CHUNK_SIZE = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private final ByteBuffer m_aBuffer;
+
+  /**
+   * Constructor
+   *
+   * @param sSystemID
+   *        System ID to use. May be <code>null</code>.
+   * @param aBuffer
+   *        The buffer containing the complete XML document. Everything between
+   *        position and limit is used. The buffer is never modified by this
+   *        class and must not be modified by the caller afterwards. May not be
+   *        <code>null</code>.
+   */
+  public ValidationSourceXMLSpooled (@Nullable final String sSystemID, @Nonnull final ByteBuffer aBuffer)
+  {
+    // Parse on demand only, and always from a fresh view on the buffer
+    super (sSystemID, () -> DOMReader.readXMLDOM (aBuffer.duplicate ()), false);
+    m_aBuffer = aBuffer;
+  }
+
+  /**
+   * @return The number of bytes of the spooled XML document.
+   */
+  @Nonnegative
+  public int getSize ()
+  {
+    return m_aBuffer.remaining ();
+  }
+
+  /**
+   * @return A new read-only view on the spooled bytes. Never <code>null</code>.
+   */
+  @Nonnull
+  public ByteBuffer getAsByteBuffer ()
+  {
+    return m_aBuffer.asReadOnlyBuffer ();
+  }
+
+  /**
+   * @return A new input stream on the spooled bytes. Never <code>null</code>.
+   */
+  @Nonnull
+  public InputStream getInputStream ()
+  {
+    return new ByteBufferInputStream (getAsByteBuffer ());
+  }
+
+  public final boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Override
+  @Nonnull
+  public Source getAsTransformSource ()
+  {
+    // Stream from the spooled bytes to get error line and column
+    final Source ret = TransformSourceFactory.create (getAsByteBuffer ());
+    ret.setSystemId (getSystemID ());
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ()).append ("Size", getSize ()).getToString ();
+  }
+
+  @Nonnull
+  private static ByteBuffer _mapReadOnly (@Nonnull final Path aPath) throws IOException
+  {
+    try (final FileChannel aFC = FileChannel.open (aPath, StandardOpenOption.READ))
+    {
+      return aFC.map (FileChannel.MapMode.READ_ONLY, 0, aFC.size ());
+    }
+  }
+
+  private static void _writeFully (@Nonnull final FileChannel aFC, @Nonnull final ByteBuffer aBuffer) throws IOException
+  {
+    while (aBuffer.hasRemaining ())
+      aFC.write (aBuffer);
+  }
+
+  @Nonnull
+  private static ByteBuffer _spoolToTempFile (@Nonnull final NonBlockingByteArrayOutputStream aAlreadyRead,
+                                              @Nonnull final ReadableByteChannel aChannel,
+                                              @Nonnull final ByteBuffer aChunk) throws IOException
+  {
+    final Path aTempFile = Files.createTempFile ("phive-", ".xml");
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Spooling validation source to temporary file '" + aTempFile + "'");
+    try
+    {
+      try (final FileChannel aFC = FileChannel.open (aTempFile, StandardOpenOption.WRITE))
+      {
+        _writeFully (aFC, ByteBuffer.wrap (aAlreadyRead.directGetBuffer (), 0, aAlreadyRead.size ()));
+        // The Buffer casts avoid the covariant ByteBuffer methods of Java 9+
+        ((Buffer) aChunk).clear ();
+        while (aChannel.read (aChunk) >= 0)
+        {
+          ((Buffer) aChunk).flip ();
+          _writeFully (aFC, aChunk);
+          ((Buffer) aChunk).clear ();
+        }
+      }
+      return _mapReadOnly (aTempFile);
+    }
+    finally
+    {
+      try
+      {
+        // Works on most platforms even if the file is still mapped
+        Files.delete (aTempFile);
+      }
+      catch (final IOException ex)
+      {
+        aTempFile.toFile ().deleteOnExit ();
+      }
+    }
+  }
+
+  @Nonnull
+  private static ByteBuffer _spool (@Nonnull final ReadableByteChannel aChannel,
+                                    final long nMaxInMemoryBytes) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (CHUNK_SIZE);
+    final ByteBuffer aChunk = ByteBuffer.allocate (CHUNK_SIZE);
+    while (aChannel.read (aChunk) >= 0)
+    {
+      aBAOS.write (aChunk.array (), 0, aChunk.position ());
+      // Cast for Java 8 binary compatibility
+      ((Buffer) aChunk).clear ();
+      if (aBAOS.size () > nMaxInMemoryBytes)
+        return _spoolToTempFile (aBAOS, aChannel, aChunk);
+    }
+    return ByteBuffer.wrap (aBAOS.directGetBuffer (), 0, aBAOS.size ()).slice ();
+  }
+
+  /**
+   * Create a validation source from a file. The file is memory mapped and
+   * therefore read only on demand and only once.
+   *
+   * @param aPath
+   *        The path of the file to use. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If the file cannot be mapped.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nonnull final Path aPath)
+  {
+    ValueEnforcer.notNull (aPath, "Path");
+    return create (aPath.toString (), aPath);
+  }
+
+  /**
+   * Create a validation source from a file. The file is memory mapped and
+   * therefore read only on demand and only once.
+   *
+   * @param sSystemID
+   *        System ID to use. May be <code>null</code>.
+   * @param aPath
+   *        The path of the file to use. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If the file cannot be mapped.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nullable final String sSystemID, @Nonnull final Path aPath)
+  {
+    ValueEnforcer.notNull (aPath, "Path");
+    try
+    {
+      return new ValidationSourceXMLSpooled (sSystemID, _mapReadOnly (aPath));
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to map '" + aPath + "'", ex);
+    }
+  }
+
+  /**
+   * Create a validation source from a channel. The channel is read completely
+   * but not closed.
+   *
+   * @param sSystemID
+   *        System ID to use. May be <code>null</code>.
+   * @param aChannel
+   *        The channel to read from. May not be <code>null</code>.
+   * @param nMaxInMemoryBytes
+   *        The maximum number of bytes to keep on the heap. Larger inputs are
+   *        spooled to a temporary file. Must be &ge; 0.
+   * @return Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If reading or spooling fails.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nullable final String sSystemID,
+                                                  @Nonnull final ReadableByteChannel aChannel,
+                                                  @Nonnegative final long nMaxInMemoryBytes)
+  {
+    ValueEnforcer.notNull (aChannel, "Channel");
+    ValueEnforcer.isGE0 (nMaxInMemoryBytes, "MaxInMemoryBytes");
+    try
+    {
+      return new ValidationSourceXMLSpooled (sSystemID, _spool (aChannel, nMaxInMemoryBytes).asReadOnlyBuffer ());
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to spool '" + sSystemID + "'", ex);
+    }
+  }
+
+  /**
+   * Create a validation source from a channel using
+   * {@link #DEFAULT_MAX_IN_MEMORY_BYTES}. The channel is read completely but
+   * not closed.
+   *
+   * @param sSystemID
+   *        System ID to use. May be <code>null</code>.
+   * @param aChannel
+   *        The channel to read from. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If reading or spooling fails.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nullable final String sSystemID,
+                                                  @Nonnull final ReadableByteChannel aChannel)
+  {
+    return create (sSystemID, aChannel, DEFAULT_MAX_IN_MEMORY_BYTES);
+  }
+
+  /**
+   * Create a validation source from an input stream provider. The input stream
+   * is opened exactly once and closed afterwards.
+   *
+   * @param sSystemID
+   *        System ID to use. May be <code>null</code>.
+   * @param aISP
+   *        The input stream provider to use. May not be <code>null</code>.
+   * @param nMaxInMemoryBytes
+   *        The maximum number of bytes to keep on the heap. Larger inputs are
+   *        spooled to a temporary file. Must be &ge; 0.
+   * @return Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If no input stream can be opened or reading or spooling fails.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nullable final String sSystemID,
+                                                  @Nonnull final IHasInputStream aISP,
+                                                  @Nonnegative final long nMaxInMemoryBytes)
+  {
+    ValueEnforcer.notNull (aISP, "InputStreamProvider");
+    final InputStream aIS = aISP.getInputStream ();
+    if (aIS == null)
+      throw new UncheckedIOException (new IOException ("Failed to open input stream for '" + sSystemID + "'"));
+    try (final ReadableByteChannel aChannel = Channels.newChannel (aIS))
+    {
+      return create (sSystemID, aChannel, nMaxInMemoryBytes);
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to close '" + sSystemID + "'", ex);
+    }
+  }
+
+  /**
+   * Create a validation source from an input stream provider using
+   * {@link #DEFAULT_MAX_IN_MEMORY_BYTES}. The input stream is opened exactly
+   * once and closed afterwards.
+   *
+   * @param sSystemID
+   *        System ID to use. May be <code>null</code>.
+   * @param aISP
+   *        The input stream provider to use. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If no input stream can be opened or reading or spooling fails.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nullable final String sSystemID, @Nonnull final IHasInputStream aISP)
+  {
+    return create (sSystemID, aISP, DEFAULT_MAX_IN_MEMORY_BYTES);
+  }
+
+  /**
+   * Create a validation source from a resource. File system resources are
+   * memory mapped, all other resources are spooled.
+   *
+   * @param aResource
+   *        The original resource. May not be <code>null</code>.
+   * @return The validation source to be used. Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If reading, mapping or spooling fails.
+   */
+  @Nonnull
+  public static ValidationSourceXMLSpooled create (@Nonnull final IReadableResource aResource)
+  {
+    ValueEnforcer.notNull (aResource, "Resource");
+    if (aResource instanceof FileSystemResource)
+      return create (aResource.getPath (), ((FileSystemResource) aResource).getAsFile ().toPath ());
+    return create (aResource.getPath (), aResource);
+  }
+}
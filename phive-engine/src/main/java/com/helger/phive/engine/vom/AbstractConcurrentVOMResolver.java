@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.traits.IGenericImplTrait;
+
+/**
+ * Abstract thread-safe base class for the concurrent VOM resolvers. Each ID
+ * is either mapped to a value directly or to a loader, that is invoked on the
+ * first request of the ID. The loaded value is kept, so each loader is invoked
+ * at most once (concurrent requests for the same ID wait for the first
+ * invocation). Reading already present values is lock-free.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The resolved value type
+ * @param <IMPLTYPE>
+ *        Implementation type
+ * @since 7.2.2
+ */
+@ThreadSafe
+public abstract class AbstractConcurrentVOMResolver <T, IMPLTYPE extends AbstractConcurrentVOMResolver <T, IMPLTYPE>>
+                                                    implements
+                                                    IGenericImplTrait <IMPLTYPE>
+{
+  /**
+   * A single mapping with an optional loader and the memoised value.
+   *
+   * @author Philip Helger
+   */
+  private final class Entry
+  {
+    private final Supplier <? extends T> m_aLoader;
+    private volatile T m_aValue;
+
+    Entry (@Nullable final Supplier <? extends T> aLoader, @Nullable final T aValue)
+    {
+      m_aLoader = aLoader;
+      m_aValue = aValue;
+    }
+
+    @Nullable
+    T get ()
+    {
+      T ret = m_aValue;
+      if (ret == null && m_aLoader != null)
+      {
+        synchronized (this)
+        {
+          ret = m_aValue;
+          if (ret == null)
+          {
+            ret = m_aLoader.get ();
+            m_aValue = ret;
+            if (ret != null)
+              m_aLoadCount.incrementAndGet ();
+          }
+        }
+      }
+      return ret;
+    }
+
+    @Nullable
+    T getIfPresent ()
+    {
+      return m_aValue;
+    }
+
+    boolean evict ()
+    {
+      // Values without a loader cannot be loaded again
+      if (m_aLoader == null)
+        return false;
+      synchronized (this)
+      {
+        final boolean ret = m_aValue != null;
+        m_aValue = null;
+        return ret;
+      }
+    }
+  }
+
+  private final String m_sValueName;
+  private final Map <String, Entry> m_aMap = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aLoadCount = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param sValueName
+   *        The name of the value type for error messages. May neither be
+   *        <code>null</code> nor empty.
+   */
+  protected AbstractConcurrentVOMResolver (@Nonnull @Nonempty final String sValueName)
+  {
+    ValueEnforcer.notEmpty (sValueName, "ValueName");
+    m_sValueName = sValueName;
+  }
+
+  /**
+   * Get the value with the provided ID, invoking the loader if necessary.
+   *
+   * @param sID
+   *        The ID to search. May be <code>null</code>.
+   * @return The found value or <code>null</code>.
+   */
+  @Nullable
+  protected final T getOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    final Entry aEntry = m_aMap.get (sID);
+    return aEntry == null ? null : aEntry.get ();
+  }
+
+  private void _addEntry (@Nonnull @Nonempty final String sID, @Nonnull final Entry aEntry, final boolean bAllowOverride)
+  {
+    ValueEnforcer.notEmpty (sID, "ID");
+    if (bAllowOverride)
+      m_aMap.put (sID, aEntry);
+    else
+      if (m_aMap.putIfAbsent (sID, aEntry) != null)
+        throw new IllegalStateException ("Another mapping for ID '" + sID + "' is already present");
+  }
+
+  /**
+   * Add a new mapping. Fails if a mapping for the ID is already present.
+   *
+   * @param sID
+   *        The ID. May neither be <code>null</code> nor empty.
+   * @param aValue
+   *        The value. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final IMPLTYPE addMapping (@Nonnull @Nonempty final String sID, @Nonnull final T aValue)
+  {
+    ValueEnforcer.notNull (aValue, m_sValueName);
+    _addEntry (sID, new Entry (null, aValue), false);
+    return thisAsT ();
+  }
+
+  /**
+   * Add or replace a mapping.
+   *
+   * @param sID
+   *        The ID. May neither be <code>null</code> nor empty.
+   * @param aValue
+   *        The value. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final IMPLTYPE setMapping (@Nonnull @Nonempty final String sID, @Nonnull final T aValue)
+  {
+    ValueEnforcer.notNull (aValue, m_sValueName);
+    _addEntry (sID, new Entry (null, aValue), true);
+    return thisAsT ();
+  }
+
+  /**
+   * Add a new loader that is invoked on the first request of the ID. Fails if
+   * a mapping for the ID is already present.
+   *
+   * @param sID
+   *        The ID. May neither be <code>null</code> nor empty.
+   * @param aLoader
+   *        The loader. May not be <code>null</code>. It may return
+   *        <code>null</code> if the value cannot be loaded, in which case it
+   *        is invoked again on the next request.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final IMPLTYPE addLoader (@Nonnull @Nonempty final String sID, @Nonnull final Supplier <? extends T> aLoader)
+  {
+    ValueEnforcer.notNull (aLoader, "Loader");
+    _addEntry (sID, new Entry (aLoader, null), false);
+    return thisAsT ();
+  }
+
+  /**
+   * Add or replace a loader that is invoked on the first request of the ID.
+   *
+   * @param sID
+   *        The ID. May neither be <code>null</code> nor empty.
+   * @param aLoader
+   *        The loader. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final IMPLTYPE setLoader (@Nonnull @Nonempty final String sID, @Nonnull final Supplier <? extends T> aLoader)
+  {
+    ValueEnforcer.notNull (aLoader, "Loader");
+    _addEntry (sID, new Entry (aLoader, null), true);
+    return thisAsT ();
+  }
+
+  /**
+   * @param sID
+   *        The ID to check. May be <code>null</code>.
+   * @return <code>true</code> if a value or a loader is registered for the ID.
+   */
+  public final boolean containsID (@Nullable final String sID)
+  {
+    return sID != null && m_aMap.containsKey (sID);
+  }
+
+  /**
+   * @return A copy of all registered IDs, including the ones that were not
+   *         loaded yet. Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsSet <String> getAllIDs ()
+  {
+    return new CommonsHashSet <> (m_aMap.keySet ());
+  }
+
+  /**
+   * @return A copy of all mappings with a present value. Loaders that were not
+   *         invoked yet are not contained. Never <code>null</code> but maybe
+   *         empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsMap <String, T> getAllMappings ()
+  {
+    final ICommonsMap <String, T> ret = new CommonsHashMap <> ();
+    for (final Map.Entry <String, Entry> aEntry : m_aMap.entrySet ())
+    {
+      final T aValue = aEntry.getValue ().getIfPresent ();
+      if (aValue != null)
+        ret.put (aEntry.getKey (), aValue);
+    }
+    return ret;
+  }
+
+  /**
+   * @param sID
+   *        The ID to check. May be <code>null</code>.
+   * @return <code>true</code> if a value is present for the ID, either
+   *         because it was mapped directly or because the loader was already
+   *         invoked.
+   */
+  public final boolean isLoaded (@Nullable final String sID)
+  {
+    if (sID == null)
+      return false;
+    final Entry aEntry = m_aMap.get (sID);
+    return aEntry != null && aEntry.getIfPresent () != null;
+  }
+
+  /**
+   * Evict the loaded value of the provided ID, so that the loader is invoked
+   * again on the next request. Directly mapped values cannot be evicted. Note:
+   * objects created with the evicted value (e.g. validation executors) keep
+   * referencing it.
+   *
+   * @param sID
+   *        The ID to evict. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if a loaded value was evicted.
+   */
+  @Nonnull
+  public final EChange evict (@Nullable final String sID)
+  {
+    if (sID == null)
+      return EChange.UNCHANGED;
+    final Entry aEntry = m_aMap.get (sID);
+    return EChange.valueOf (aEntry != null && aEntry.evict ());
+  }
+
+  /**
+   * Evict all loaded values, so that all loaders are invoked again on the next
+   * request.
+   *
+   * @return {@link EChange#CHANGED} if at least one loaded value was evicted.
+   */
+  @Nonnull
+  public final EChange evictAll ()
+  {
+    EChange ret = EChange.UNCHANGED;
+    for (final Entry aEntry : m_aMap.values ())
+      ret = ret.or (aEntry.evict ());
+    return ret;
+  }
+
+  /**
+   * @return The number of loader invocations that returned a value.
+   */
+  @Nonnegative
+  public final long getLoadCount ()
+  {
+    return m_aLoadCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("IDs", m_aMap.keySet ()).append ("LoadCount", getLoadCount ()).getToString ();
+  }
+}
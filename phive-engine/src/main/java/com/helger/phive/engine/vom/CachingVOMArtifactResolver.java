@@ -0,0 +1,437 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.wrapped.AbstractWrappedReadableResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.executorset.VESID;
+
+/**
+ * A caching {@link IVOMArtifactResolver} that wraps another resolver (e.g.
+ * {@link MavenLayoutVOMArtifactResolver}):
+ * <ul>
+ * <li>Each VESID is resolved only once via the wrapped resolver.</li>
+ * <li>Artifacts are identified by the SHA-256 hash of their content and all
+ * VESIDs with the same content share one {@link IReadableResource} instance,
+ * so that downstream caches keyed by the resource (e.g. the XML Schema cache)
+ * hit.</li>
+ * <li>The content is kept in a size-bounded in-memory LRU cache.</li>
+ * <li>Optionally the content is stored in a directory, named by the content
+ * hash, so that content evicted from memory does not need to be read from
+ * the wrapped resource again.</li>
+ * <li>Content read again from the disk cache or the wrapped resource is
+ * verified against the hash. A corrupt disk cache file is a miss and content
+ * of the wrapped resource that changed without {@link #evict(VESID)} is not
+ * returned.</li>
+ * </ul>
+ * The shared resource keeps the path and URL of the first resolved resource,
+ * so that relative references (e.g. XML Schema imports) are still resolved
+ * against the original location. The content hash is appended to its resource
+ * ID as a fragment, so that caches keyed by the resource ID (e.g. the
+ * Schematron cache) compile changed content under the same path again instead
+ * of returning the previous result.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class CachingVOMArtifactResolver implements IVOMArtifactResolver
+{
+  /** The default maximum number of content bytes kept in memory: 64 MB */
+  public static final long DEFAULT_MAX_MEMORY_BYTES = 64L * 1024 * 1024;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (CachingVOMArtifactResolver.class);
+
+  /**
+   * The shared resource per content hash.
+   *
+   * @author Philip Helger
+   */
+  private final class ContentAddressedResource extends AbstractWrappedReadableResource
+  {
+    private final String m_sHash;
+
+    ContentAddressedResource (@Nonnull final IReadableResource aBaseResource, @Nonnull final String sHash)
+    {
+      super (aBaseResource);
+      m_sHash = sHash;
+    }
+
+    @Override
+    @Nonnull
+    public String getResourceID ()
+    {
+      // A fragment does not change the resolution of relative references
+      return super.getResourceID () + "#sha256=" + m_sHash;
+    }
+
+    @Nullable
+    public InputStream getInputStream ()
+    {
+      final byte [] aBytes = _getContent (m_sHash, getWrappedReadableResource ());
+      return aBytes == null ? null : new NonBlockingByteArrayInputStream (aBytes);
+    }
+
+    public boolean isReadMultiple ()
+    {
+      return true;
+    }
+
+    @Nonnull
+    public IReadableResource getReadableCloneForPath (@Nonnull final String sPath)
+    {
+      // Relative resources are not cached
+      return getWrappedReadableResource ().getReadableCloneForPath (sPath);
+    }
+
+    @Override
+    public String toString ()
+    {
+      return ToStringGenerator.getDerived (super.toString ()).append ("Hash", m_sHash).getToString ();
+    }
+  }
+
+  private final IVOMArtifactResolver m_aResolver;
+  private final long m_nMaxMemoryBytes;
+  private final File m_aDiskCacheDir;
+
+  private final Map <VESID, ContentAddressedResource> m_aByID = new ConcurrentHashMap <> ();
+  private final Map <String, ContentAddressedResource> m_aByHash = new ConcurrentHashMap <> ();
+  private final SimpleLock m_aMemoryLock = new SimpleLock ();
+  @GuardedBy ("m_aMemoryLock")
+  private final LinkedHashMap <String, byte []> m_aMemory = new LinkedHashMap <> (16, 0.75f, true);
+  @GuardedBy ("m_aMemoryLock")
+  private long m_nMemoryBytes = 0;
+
+  private final AtomicLong m_aResolveCount = new AtomicLong ();
+  private final AtomicLong m_aSharedCount = new AtomicLong ();
+  private final AtomicLong m_aMemoryHitCount = new AtomicLong ();
+  private final AtomicLong m_aDiskHitCount = new AtomicLong ();
+
+  public CachingVOMArtifactResolver (@Nonnull final IVOMArtifactResolver aResolver)
+  {
+    this (aResolver, DEFAULT_MAX_MEMORY_BYTES, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aResolver
+   *        The resolver to wrap. May not be <code>null</code>.
+   * @param nMaxMemoryBytes
+   *        The maximum number of content bytes kept in memory. Must be &ge; 0.
+   * @param aDiskCacheDir
+   *        The directory to store the content by hash. May be
+   *        <code>null</code> to disable the disk cache.
+   */
+  public CachingVOMArtifactResolver (@Nonnull final IVOMArtifactResolver aResolver,
+                                     @Nonnegative final long nMaxMemoryBytes,
+                                     @Nullable final File aDiskCacheDir)
+  {
+    ValueEnforcer.notNull (aResolver, "Resolver");
+    ValueEnforcer.isGE0 (nMaxMemoryBytes, "MaxMemoryBytes");
+    m_aResolver = aResolver;
+    m_nMaxMemoryBytes = nMaxMemoryBytes;
+    m_aDiskCacheDir = aDiskCacheDir;
+    if (aDiskCacheDir != null && !aDiskCacheDir.isDirectory () && !aDiskCacheDir.mkdirs ())
+      throw new IllegalArgumentException ("Failed to create the disk cache directory " + aDiskCacheDir);
+  }
+
+  @Nonnull
+  private static String _getHash (@Nonnull final byte [] aBytes)
+  {
+    try
+    {
+      return StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aBytes));
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("SHA-256 is not supported", ex);
+    }
+  }
+
+  private void _putInMemory (@Nonnull final String sHash, @Nonnull final byte [] aBytes)
+  {
+    if (aBytes.length > m_nMaxMemoryBytes)
+      return;
+
+    m_aMemoryLock.locked ( () -> {
+      final byte [] aOld = m_aMemory.put (sHash, aBytes);
+      if (aOld != null)
+        m_nMemoryBytes -= aOld.length;
+      m_nMemoryBytes += aBytes.length;
+
+      // Evict the least recently used content
+      final Iterator <byte []> it = m_aMemory.values ().iterator ();
+      while (m_nMemoryBytes > m_nMaxMemoryBytes && it.hasNext ())
+      {
+        m_nMemoryBytes -= it.next ().length;
+        it.remove ();
+      }
+    });
+  }
+
+  @Nonnull
+  private File _getDiskCacheFile (@Nonnull final String sHash)
+  {
+    return new File (m_aDiskCacheDir, sHash);
+  }
+
+  private void _putOnDisk (@Nonnull final String sHash, @Nonnull final byte [] aBytes)
+  {
+    final File aFile = _getDiskCacheFile (sHash);
+    if (aFile.exists ())
+      return;
+    File aTmp = null;
+    try
+    {
+      // Write to a temporary file first, so that no partial file is visible
+      aTmp = File.createTempFile (sHash, ".tmp", m_aDiskCacheDir);
+      SimpleFileIO.writeFile (aTmp, aBytes);
+      Files.move (aTmp.toPath (), aFile.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Failed to store artifact " + sHash + " in the disk cache: " + ex.getMessage ());
+    }
+    finally
+    {
+      // Don't leave the temporary file behind if writing or moving failed
+      if (aTmp != null && aTmp.exists () && !aTmp.delete ())
+        LOGGER.warn ("Failed to delete the temporary file " + aTmp.getAbsolutePath ());
+    }
+  }
+
+  @Nullable
+  private byte [] _getContent (@Nonnull final String sHash, @Nonnull final IReadableResource aBaseResource)
+  {
+    byte [] ret = m_aMemoryLock.lockedGet ( () -> m_aMemory.get (sHash));
+    if (ret != null)
+    {
+      m_aMemoryHitCount.incrementAndGet ();
+      return ret;
+    }
+
+    if (m_aDiskCacheDir != null)
+    {
+      final File aFile = _getDiskCacheFile (sHash);
+      ret = SimpleFileIO.getAllFileBytes (aFile);
+      if (ret != null)
+      {
+        if (sHash.equals (_getHash (ret)))
+          m_aDiskHitCount.incrementAndGet ();
+        else
+        {
+          // Corrupt file - treat as a miss
+          LOGGER.warn ("The disk cache file of artifact " + sHash + " has a different content hash and is ignored");
+          if (!aFile.delete ())
+            LOGGER.warn ("Failed to delete the disk cache file " + aFile.getAbsolutePath ());
+          ret = null;
+        }
+      }
+    }
+    if (ret == null)
+    {
+      ret = StreamHelper.getAllBytes (aBaseResource);
+      if (ret == null)
+        return null;
+      if (!sHash.equals (_getHash (ret)))
+      {
+        // The content changed since it was resolved - it must be evicted first
+        LOGGER.warn ("The content of artifact " +
+                     aBaseResource.getPath () +
+                     " no longer matches the hash " +
+                     sHash +
+                     " and is ignored");
+        return null;
+      }
+      if (m_aDiskCacheDir != null)
+        _putOnDisk (sHash, ret);
+    }
+    _putInMemory (sHash, ret);
+    return ret;
+  }
+
+  @Nullable
+  private ContentAddressedResource _resolve (@Nonnull final VESID aVESID)
+  {
+    final IReadableResource aRes = m_aResolver.getArtifactOfID (aVESID);
+    if (aRes == null)
+      return null;
+    final byte [] aBytes = StreamHelper.getAllBytes (aRes);
+    if (aBytes == null)
+      return null;
+
+    m_aResolveCount.incrementAndGet ();
+    final String sHash = _getHash (aBytes);
+    final ContentAddressedResource aNew = new ContentAddressedResource (aRes, sHash);
+    final ContentAddressedResource aExisting = m_aByHash.putIfAbsent (sHash, aNew);
+    if (aExisting != null)
+    {
+      m_aSharedCount.incrementAndGet ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Artifact '" + aVESID.getAsSingleID () + "' has the same content as " + aExisting.getPath ());
+      return aExisting;
+    }
+
+    _putInMemory (sHash, aBytes);
+    if (m_aDiskCacheDir != null)
+      _putOnDisk (sHash, aBytes);
+    return aNew;
+  }
+
+  @Nullable
+  public IReadableResource getArtifactOfID (@Nullable final VESID aVESID)
+  {
+    if (aVESID == null)
+      return null;
+
+    ContentAddressedResource ret = m_aByID.get (aVESID);
+    if (ret == null)
+    {
+      // Unresolvable artifacts are not cached
+      ret = _resolve (aVESID);
+      if (ret != null)
+      {
+        final ContentAddressedResource aOld = m_aByID.putIfAbsent (aVESID, ret);
+        if (aOld != null)
+          ret = aOld;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Evict the artifact with the provided ID, so that it is resolved via the
+   * wrapped resolver again on the next usage. Use this if the content of the
+   * artifact changed. If no other artifact has the same content, the shared
+   * resource of the content is released as well.
+   *
+   * @param aVESID
+   *        The ID of the artifact to evict. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the artifact was resolved before.
+   */
+  @Nonnull
+  public EChange evict (@Nullable final VESID aVESID)
+  {
+    if (aVESID == null)
+      return EChange.UNCHANGED;
+
+    final ContentAddressedResource aOld = m_aByID.remove (aVESID);
+    if (aOld == null)
+      return EChange.UNCHANGED;
+
+    // Release the shared resource if no other artifact references it
+    m_aByHash.computeIfPresent (aOld.m_sHash, (k, v) -> v == aOld && !m_aByID.containsValue (v) ? null : v);
+    return EChange.CHANGED;
+  }
+
+  /**
+   * @return The number of distinct artifact contents currently referenced.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public int getContentCount ()
+  {
+    return m_aByHash.size ();
+  }
+
+  /**
+   * @return The number of artifacts resolved via the wrapped resolver.
+   */
+  @Nonnegative
+  public long getResolveCount ()
+  {
+    return m_aResolveCount.get ();
+  }
+
+  /**
+   * @return The number of resolved artifacts that share the content with a
+   *         previously resolved artifact.
+   */
+  @Nonnegative
+  public long getSharedCount ()
+  {
+    return m_aSharedCount.get ();
+  }
+
+  /**
+   * @return The number of content reads served from memory.
+   */
+  @Nonnegative
+  public long getMemoryHitCount ()
+  {
+    return m_aMemoryHitCount.get ();
+  }
+
+  /**
+   * @return The number of content reads served from the disk cache.
+   */
+  @Nonnegative
+  public long getDiskHitCount ()
+  {
+    return m_aDiskHitCount.get ();
+  }
+
+  /**
+   * @return The number of content bytes currently kept in memory.
+   */
+  @Nonnegative
+  public long getMemoryBytes ()
+  {
+    return m_aMemoryLock.lockedLong ( () -> m_nMemoryBytes);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Resolver", m_aResolver)
+                                       .append ("MaxMemoryBytes", m_nMaxMemoryBytes)
+                                       .append ("DiskCacheDir", m_aDiskCacheDir)
+                                       .getToString ();
+  }
+}
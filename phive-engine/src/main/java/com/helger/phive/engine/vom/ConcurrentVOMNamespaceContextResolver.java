@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+
+/**
+ * A thread-safe implementation of {@link IVOMNamespaceContextResolver} that supports
+ * direct mappings as well as loaders, that are invoked on the first request
+ * of an ID. Use this instead of {@link MapBasedVOMNamespaceContextResolver} if VOMs are
+ * converted concurrently or mappings are added while conversion runs.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class ConcurrentVOMNamespaceContextResolver extends AbstractConcurrentVOMResolver <MapBasedNamespaceContext, ConcurrentVOMNamespaceContextResolver>
+                                                   implements IVOMNamespaceContextResolver
+{
+  public ConcurrentVOMNamespaceContextResolver ()
+  {
+    super ("NSCtx");
+  }
+
+  @Nullable
+  public MapBasedNamespaceContext getNamespaceContextOfID (@Nullable final String sID)
+  {
+    return getOfID (sID);
+  }
+}
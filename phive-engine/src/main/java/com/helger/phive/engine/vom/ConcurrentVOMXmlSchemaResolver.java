@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.xml.schema.XMLSchemaCache;
+import com.helger.xml.transform.TransformSourceFactory;
+
+/**
+ * A thread-safe implementation of {@link IVOMXmlSchemaResolver} that supports
+ * direct mappings as well as loaders, that are invoked on the first request
+ * of an ID. Use {@link #addXSDLoader(String, IReadableResource...)} to compile
+ * built-in XML Schemas only when they are referenced. Use this instead of
+ * {@link MapBasedVOMXmlSchemaResolver} if VOMs are converted concurrently or
+ * mappings are added while conversion runs.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class ConcurrentVOMXmlSchemaResolver extends AbstractConcurrentVOMResolver <Schema, ConcurrentVOMXmlSchemaResolver>
+                                            implements IVOMXmlSchemaResolver
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (ConcurrentVOMXmlSchemaResolver.class);
+
+  public ConcurrentVOMXmlSchemaResolver ()
+  {
+    super ("Schema");
+  }
+
+  /**
+   * Add a new loader that compiles the provided XML Schema resources on the
+   * first request of the ID. The compiled schema is not put into the global
+   * XML Schema cache, so that it is released when evicted from this resolver.
+   *
+   * @param sID
+   *        The ID. May neither be <code>null</code> nor empty.
+   * @param aResources
+   *        The XML Schema resources to compile. May neither be
+   *        <code>null</code> nor empty.
+   * @return this for chaining
+   * @see #evict(String)
+   */
+  @Nonnull
+  public final ConcurrentVOMXmlSchemaResolver addXSDLoader (@Nonnull @Nonempty final String sID,
+                                                            @Nonnull @Nonempty final IReadableResource... aResources)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aResources, "Resources");
+    final IReadableResource [] aResourcesCopy = aResources.clone ();
+    return addLoader (sID, () -> {
+      LOGGER.info ("Compiling built-in XML Schema '" + sID + "'");
+      final Source [] aSources = new Source [aResourcesCopy.length];
+      for (int i = 0; i < aResourcesCopy.length; ++i)
+        aSources[i] = TransformSourceFactory.create (aResourcesCopy[i]);
+      try
+      {
+        return XMLSchemaCache.createXSDSchemaFactory ().newSchema (aSources);
+      }
+      catch (final SAXException ex)
+      {
+        throw new IllegalStateException ("Failed to compile built-in XML Schema '" + sID + "'", ex);
+      }
+    });
+  }
+
+  @Nullable
+  public Schema getXmlSchemaOfID (@Nullable final String sID)
+  {
+    return getOfID (sID);
+  }
+}
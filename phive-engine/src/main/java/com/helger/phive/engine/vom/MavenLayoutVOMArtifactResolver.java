@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import java.io.File;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.executorset.VESID;
+
+/**
+ * An implementation of {@link IVOMArtifactResolver} that resolves artifacts
+ * from a local directory using the Maven repository layout:
+ * <code>groupID/as/path/artifactID/version/artifactID-version[-classifier].ext</code>.
+ * The provided file extensions are tried in order.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@Immutable
+public class MavenLayoutVOMArtifactResolver implements IVOMArtifactResolver
+{
+  /** The default file extensions to try */
+  public static final List <String> DEFAULT_EXTENSIONS = new CommonsArrayList <> ("xsd", "sch", "xslt", "xsl").getAsUnmodifiable ();
+
+  private final File m_aBaseDir;
+  private final ICommonsList <String> m_aExtensions;
+
+  public MavenLayoutVOMArtifactResolver (@Nonnull final File aBaseDir)
+  {
+    this (aBaseDir, DEFAULT_EXTENSIONS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aBaseDir
+   *        The repository base directory. May not be <code>null</code>.
+   * @param aExtensions
+   *        The file extensions to try, without the leading dot. May neither be
+   *        <code>null</code> nor empty.
+   */
+  public MavenLayoutVOMArtifactResolver (@Nonnull final File aBaseDir, @Nonnull @Nonempty final Iterable <String> aExtensions)
+  {
+    ValueEnforcer.notNull (aBaseDir, "BaseDir");
+    ValueEnforcer.notNull (aExtensions, "Extensions");
+    m_aBaseDir = aBaseDir;
+    m_aExtensions = new CommonsArrayList <> (aExtensions);
+    ValueEnforcer.notEmptyNoNullValue (m_aExtensions, "Extensions");
+  }
+
+  /**
+   * @return The repository base directory. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getBaseDir ()
+  {
+    return m_aBaseDir;
+  }
+
+  /**
+   * @return The file extensions to try. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  @ReturnsMutableCopy
+  public final ICommonsList <String> getAllExtensions ()
+  {
+    return m_aExtensions.getClone ();
+  }
+
+  /**
+   * Get the file of the provided artifact and extension. The file is not
+   * checked for existence.
+   *
+   * @param aVESID
+   *        The artifact ID. May not be <code>null</code>.
+   * @param sExtension
+   *        The file extension without the leading dot. May neither be
+   *        <code>null</code> nor empty.
+   * @return The file. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getArtifactFile (@Nonnull final VESID aVESID, @Nonnull @Nonempty final String sExtension)
+  {
+    ValueEnforcer.notNull (aVESID, "VESID");
+    ValueEnforcer.notEmpty (sExtension, "Extension");
+
+    final String sDir = StringHelper.replaceAll (aVESID.getGroupID (), '.', '/') +
+                        '/' +
+                        aVESID.getArtifactID () +
+                        '/' +
+                        aVESID.getVersion ();
+    String sFilename = aVESID.getArtifactID () + '-' + aVESID.getVersion ();
+    if (aVESID.hasClassifier ())
+      sFilename += '-' + aVESID.getClassifier ();
+    sFilename += '.' + sExtension;
+    return new File (new File (m_aBaseDir, sDir), sFilename);
+  }
+
+  @Nullable
+  public IReadableResource getArtifactOfID (@Nullable final VESID aVESID)
+  {
+    if (aVESID == null)
+      return null;
+
+    for (final String sExtension : m_aExtensions)
+    {
+      final File aFile = getArtifactFile (aVESID, sExtension);
+      if (aFile.isFile ())
+        return new FileSystemResource (aFile);
+    }
+    return null;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BaseDir", m_aBaseDir).append ("Extensions", m_aExtensions).getToString ();
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.executorset.LazyValidationExecutorSetRegistry;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.vom.v10.VOMType;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.serialize.MicroReader;
+
+/**
+ * A precompiled bundle of VOMs as created by {@link VOM1BundleWriter}. The
+ * bundle is a ZIP archive containing an index, the VOMs and the pre-generated
+ * XSLT of all Schematrons. Entries are read on demand via random access, so
+ * the bundle must stay open as long as VES may be created from it.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public final class VOM1Bundle implements Closeable
+{
+  /** The bundle format version */
+  public static final int FORMAT_VERSION = 1;
+  /** The name of the index entry inside the bundle */
+  public static final String INDEX_ENTRY_NAME = "META-INF/phive-bundle.xml";
+  /** The group ID of the VESIDs used to reference bundled artefacts */
+  public static final String ARTEFACT_GROUP_ID = "com.helger.phive.bundle";
+
+  static final String ELEMENT_ROOT = "bundle";
+  static final String ELEMENT_VES = "ves";
+  static final String ELEMENT_ARTEFACT = "artefact";
+  static final String ATTR_VERSION = "version";
+  static final String ATTR_ID = "id";
+  static final String ATTR_ENTRY = "entry";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (VOM1Bundle.class);
+
+  private final File m_aFile;
+  private final ZipFile m_aZipFile;
+  private final ICommonsOrderedMap <VESID, String> m_aVOMEntries;
+  private final ICommonsMap <VESID, String> m_aArtefactEntries;
+
+  private VOM1Bundle (@Nonnull final File aFile,
+                      @Nonnull final ZipFile aZipFile,
+                      @Nonnull final ICommonsOrderedMap <VESID, String> aVOMEntries,
+                      @Nonnull final ICommonsMap <VESID, String> aArtefactEntries)
+  {
+    m_aFile = aFile;
+    m_aZipFile = aZipFile;
+    m_aVOMEntries = aVOMEntries;
+    m_aArtefactEntries = aArtefactEntries;
+  }
+
+  /**
+   * @return The bundle file. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return The IDs of all VES contained in the bundle in the order they were
+   *         added. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <VESID> getAllVESIDs ()
+  {
+    return m_aVOMEntries.copyOfKeySet ().getCopyAsList ();
+  }
+
+  @Nonnull
+  private byte [] _readEntry (@Nonnull final String sEntryName)
+  {
+    final ZipEntry aEntry = m_aZipFile.getEntry (sEntryName);
+    if (aEntry == null)
+      throw new IllegalStateException ("The bundle " + m_aFile + " does not contain the entry '" + sEntryName + "'");
+    try (final InputStream aIS = m_aZipFile.getInputStream (aEntry))
+    {
+      return StreamHelper.getAllBytes (aIS);
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to read entry '" + sEntryName + "' from bundle " + m_aFile, ex);
+    }
+  }
+
+  /**
+   * Read the VOM of the VES with the provided ID.
+   *
+   * @param aVESID
+   *        The VES ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such VES is contained.
+   */
+  @Nullable
+  public VOMType readVOM (@Nullable final VESID aVESID)
+  {
+    final String sEntryName = m_aVOMEntries.get (aVESID);
+    if (sEntryName == null)
+      return null;
+    final VOMType ret = new VOM1Marshaller ().read (_readEntry (sEntryName));
+    if (ret == null)
+      throw new IllegalStateException ("Failed to read the VOM '" + sEntryName + "' from bundle " + m_aFile);
+    return ret;
+  }
+
+  /**
+   * Get a bundled artefact.
+   *
+   * @param aVESID
+   *        The artefact ID as referenced in the bundled VOMs. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if no such artefact is contained.
+   */
+  @Nullable
+  public IReadableResource getArtefactOfID (@Nullable final VESID aVESID)
+  {
+    final String sEntryName = m_aArtefactEntries.get (aVESID);
+    if (sEntryName == null)
+      return null;
+    // The resource ID is used as the cache key for the compiled artefacts
+    return new ReadableResourceByteArray (m_aFile.getAbsolutePath () + '!' + sEntryName, _readEntry (sEntryName));
+  }
+
+  /**
+   * Register all VES of this bundle into the provided registry. If the
+   * registry is a {@link LazyValidationExecutorSetRegistry}, only descriptors
+   * are registered and the VOMs are read and converted on first usage.
+   * Otherwise all VOMs are converted immediately. In both cases compilation of
+   * the artefacts happens upon first usage.
+   *
+   * @param aConverter
+   *        The converter to be used. It must be able to resolve all built-in
+   *        and external references that are not contained in the bundle (e.g.
+   *        XML Schemas). May not be <code>null</code>.
+   * @param aRegistry
+   *        The registry to register to. May not be <code>null</code>.
+   * @return The list of all registered VES IDs. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If a VOM cannot be converted or if a VES with the same ID is
+   *         already registered.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <VESID> registerAll (@Nonnull final VOM1Converter aConverter,
+                                           @Nonnull final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry)
+  {
+    ValueEnforcer.notNull (aConverter, "Converter");
+    ValueEnforcer.notNull (aRegistry, "Registry");
+
+    // Resolve the bundled artefacts first
+    final IVOMArtifactResolver aBaseResolver = aConverter.getArtifactResolver ();
+    final VOM1Converter aBundleConverter = aConverter.getCopy (aVESID -> {
+      final IReadableResource ret = getArtefactOfID (aVESID);
+      return ret != null ? ret : aBaseResolver.getArtifactOfID (aVESID);
+    });
+
+    final ICommonsList <VESID> ret = getAllVESIDs ();
+    for (final VESID aVESID : ret)
+    {
+      if (aRegistry instanceof LazyValidationExecutorSetRegistry <?>)
+        ((LazyValidationExecutorSetRegistry <IValidationSourceXML>) aRegistry).registerLazyValidationExecutorSet (aVESID,
+                                                                                                                 () -> _convert (aBundleConverter,
+                                                                                                                                 aVESID));
+      else
+        aRegistry.registerValidationExecutorSet (_convert (aBundleConverter, aVESID));
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Registered " + ret.size () + " VES from bundle " + m_aFile);
+    return ret;
+  }
+
+  @Nonnull
+  private ValidationExecutorSet <IValidationSourceXML> _convert (@Nonnull final VOM1Converter aConverter,
+                                                                 @Nonnull final VESID aVESID)
+  {
+    final ErrorList aErrorList = new ErrorList ();
+    final ValidationExecutorSet <IValidationSourceXML> ret = aConverter.convertToVES_XML (readVOM (aVESID), aErrorList);
+    if (ret == null)
+      throw new IllegalStateException ("Failed to convert the VOM '" +
+                                       aVESID.getAsSingleID () +
+                                       "' from bundle " +
+                                       m_aFile +
+                                       ": " +
+                                       aErrorList.getAllErrors ());
+    return ret;
+  }
+
+  public void close () throws IOException
+  {
+    m_aZipFile.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("File", m_aFile)
+                                       .append ("VOMEntries", m_aVOMEntries)
+                                       .append ("ArtefactEntries", m_aArtefactEntries)
+                                       .getToString ();
+  }
+
+  /**
+   * Open a bundle file. Only the index is read.
+   *
+   * @param aFile
+   *        The bundle file to open. May not be <code>null</code>.
+   * @return The opened bundle. Never <code>null</code>. Must be closed by the
+   *         caller.
+   * @throws IOException
+   *         If the file cannot be opened or if it is not a valid bundle.
+   */
+  @Nonnull
+  public static VOM1Bundle open (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+
+    final ZipFile aZipFile = new ZipFile (aFile);
+    try
+    {
+      final ZipEntry aIndexEntry = aZipFile.getEntry (INDEX_ENTRY_NAME);
+      if (aIndexEntry == null)
+        throw new IOException ("The file " + aFile + " is not a VOM bundle");
+
+      final IMicroDocument aIndex;
+      try (final InputStream aIS = aZipFile.getInputStream (aIndexEntry))
+      {
+        aIndex = MicroReader.readMicroXML (aIS);
+      }
+      if (aIndex == null || aIndex.getDocumentElement () == null)
+        throw new IOException ("The index of the VOM bundle " + aFile + " cannot be read");
+
+      final IMicroElement eRoot = aIndex.getDocumentElement ();
+      final int nVersion = StringParser.parseInt (eRoot.getAttributeValue (ATTR_VERSION), -1);
+      if (nVersion != FORMAT_VERSION)
+        throw new IOException ("The VOM bundle " + aFile + " has the unsupported format version " + nVersion);
+
+      final ICommonsOrderedMap <VESID, String> aVOMEntries = new CommonsLinkedHashMap <> ();
+      for (final IMicroElement eVES : eRoot.getAllChildElements (ELEMENT_VES))
+        aVOMEntries.put (VESID.parseID (eVES.getAttributeValue (ATTR_ID)), eVES.getAttributeValue (ATTR_ENTRY));
+
+      final ICommonsMap <VESID, String> aArtefactEntries = new CommonsHashMap <> ();
+      for (final IMicroElement eArtefact : eRoot.getAllChildElements (ELEMENT_ARTEFACT))
+        aArtefactEntries.put (VESID.parseID (eArtefact.getAttributeValue (ATTR_ID)),
+                              eArtefact.getAttributeValue (ATTR_ENTRY));
+
+      return new VOM1Bundle (aFile, aZipFile, aVOMEntries, aArtefactEntries);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      aZipFile.close ();
+      throw ex;
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.regex.RegExHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.engine.schematron.SchematronPatternSubsetResource;
+import com.helger.phive.engine.vom.v10.VOMCoordinatesType;
+import com.helger.phive.engine.vom.v10.VOMOptionType;
+import com.helger.phive.engine.vom.v10.VOMSchematronType;
+import com.helger.phive.engine.vom.v10.VOMType;
+import com.helger.schematron.api.xslt.AbstractSchematronXSLTBasedResource;
+import com.helger.schematron.api.xslt.ISchematronXSLTBasedProvider;
+import com.helger.schematron.sch.SchematronResourceSCH;
+import com.helger.schematron.schxslt.xslt2.SchematronResourceSchXslt_XSLT2;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroWriter;
+import com.helger.xml.transform.XMLTransformerFactory;
+
+/**
+ * A build-time tool that writes a set of VOMs into a {@link VOM1Bundle}. For
+ * all Schematrons of type <code>sch</code>, <code>schxslt</code> and
+ * <code>xslt</code> the (pre-generated) XSLT is stored in the bundle and the
+ * bundled VOM references it as an XSLT Schematron, so that no Schematron to
+ * XSLT conversion is needed at runtime. The Schematron options
+ * {@link VOM1Converter#SCHEMATRON_OPTION_PHASE} and
+ * {@link VOM1Converter#SCHEMATRON_OPTION_PATTERNS} are applied upon
+ * pre-generation. Pure and OIOUBL Schematrons as well as all XML Schemas are
+ * kept as references that need to be resolved at runtime.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@NotThreadSafe
+public class VOM1BundleWriter
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (VOM1BundleWriter.class);
+
+  private IVOMResourceResolver m_aResourceResolver = x -> null;
+  private IVOMArtifactResolver m_aArtifactResolver = x -> null;
+  private final ICommonsOrderedMap <VESID, VOMType> m_aVOMs = new CommonsLinkedHashMap <> ();
+
+  public VOM1BundleWriter ()
+  {}
+
+  @Nonnull
+  public VOM1BundleWriter resourceResolver (@Nonnull final IVOMResourceResolver a)
+  {
+    ValueEnforcer.notNull (a, "ResourceResolver");
+    m_aResourceResolver = a;
+    return this;
+  }
+
+  @Nonnull
+  public VOM1BundleWriter artifactResolver (@Nonnull final IVOMArtifactResolver a)
+  {
+    ValueEnforcer.notNull (a, "ArtifactResolver");
+    m_aArtifactResolver = a;
+    return this;
+  }
+
+  /**
+   * Add a VOM to the bundle.
+   *
+   * @param aVOM
+   *        The VOM to add. May not be <code>null</code>.
+   * @return this for chaining
+   * @throws IllegalStateException
+   *         If another VOM with the same ID was already added.
+   */
+  @Nonnull
+  public VOM1BundleWriter addVOM (@Nonnull final VOMType aVOM)
+  {
+    ValueEnforcer.notNull (aVOM, "VOM");
+    final VOMCoordinatesType aID = aVOM.getId ();
+    final VESID aVESID = new VESID (aID.getGroupId (), aID.getArtifactId (), aID.getVersion (), aID.getClassifier ());
+    if (m_aVOMs.containsKey (aVESID))
+      throw new IllegalStateException ("Another VOM with the ID '" + aVESID.getAsSingleID () + "' was already added");
+    m_aVOMs.put (aVESID, aVOM);
+    return this;
+  }
+
+  @Nullable
+  private static String _getOptionValue (@Nonnull final VOMSchematronType aSchematron, @Nonnull final String sName)
+  {
+    for (final VOMOptionType aOption : aSchematron.getOption ())
+      if (sName.equals (aOption.getName ()))
+        return aOption.getValue ();
+    return null;
+  }
+
+  @Nonnull
+  private IReadableResource _resolve (@Nonnull final VOMSchematronType aSchematron)
+  {
+    final String sBuiltIn = aSchematron.getBuiltIn ();
+    if (StringHelper.hasText (sBuiltIn))
+    {
+      final IReadableResource ret = m_aResourceResolver.getResourceOfID (sBuiltIn);
+      if (ret == null)
+        throw new IllegalStateException ("Failed to resolve built-in Schematron artifact '" + sBuiltIn + "'");
+      return ret;
+    }
+
+    final VOMCoordinatesType aRes = aSchematron.getResource ();
+    final VESID aVESID = new VESID (aRes.getGroupId (), aRes.getArtifactId (), aRes.getVersion (), aRes.getClassifier ());
+    final IReadableResource ret = m_aArtifactResolver.getArtifactOfID (aVESID);
+    if (ret == null)
+      throw new IllegalStateException ("Failed to resolve Schematron artifact with ID '" + aVESID.getAsSingleID () + "'");
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _createXSLT (@Nonnull final IReadableResource aRes,
+                                      @Nonnull final String sType,
+                                      @Nullable final String sPhase,
+                                      @Nullable final String sPatterns)
+  {
+    if ("xslt".equals (sType))
+      return StreamHelper.getAllBytes (aRes);
+
+    IReadableResource aSCHRes = aRes;
+    if (StringHelper.hasText (sPatterns))
+    {
+      final ICommonsSortedSet <String> aPatternIDs = new CommonsTreeSet <> ();
+      for (final String sPatternID : RegExHelper.getSplitToArray (StringHelper.trim (sPatterns), "[\\s,]+"))
+        if (StringHelper.hasText (sPatternID))
+          aPatternIDs.add (sPatternID);
+      aSCHRes = new SchematronPatternSubsetResource (aRes, aPatternIDs);
+    }
+
+    final AbstractSchematronXSLTBasedResource <?> aSCH;
+    if ("schxslt".equals (sType))
+    {
+      final SchematronResourceSchXslt_XSLT2 aSchXslt = new SchematronResourceSchXslt_XSLT2 (aSCHRes);
+      aSchXslt.setPhase (sPhase);
+      aSCH = aSchXslt;
+    }
+    else
+    {
+      final SchematronResourceSCH aSchSch = new SchematronResourceSCH (aSCHRes);
+      aSchSch.setPhase (sPhase);
+      aSCH = aSchSch;
+    }
+    // Don't pollute the runtime cache
+    aSCH.setUseCache (false);
+
+    final ISchematronXSLTBasedProvider aProvider = aSCH.getXSLTProvider ();
+    if (aProvider == null || !aProvider.isValidSchematron ())
+      throw new IllegalStateException ("Failed to create the XSLT for Schematron " + aRes.getPath ());
+
+    // Use an identity transformation to keep all namespace declarations as they
+    // may be referenced from XPath expressions
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try
+    {
+      final Transformer aTransformer = XMLTransformerFactory.newTransformer ();
+      if (aTransformer == null)
+        throw new IllegalStateException ("Failed to create an identity transformer");
+      aTransformer.transform (new DOMSource (aProvider.getXSLTDocument ()), new StreamResult (aBAOS));
+    }
+    catch (final TransformerException ex)
+    {
+      throw new IllegalStateException ("Failed to serialize the XSLT for Schematron " + aRes.getPath (), ex);
+    }
+    return aBAOS.toByteArray ();
+  }
+
+  /**
+   * Write the bundle to the provided output stream. All Schematrons are
+   * converted to XSLT during this call.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   * @throws IllegalStateException
+   *         If an artefact cannot be resolved or converted.
+   */
+  public void write (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    final VOM1Marshaller aMarshaller = new VOM1Marshaller ();
+    final MicroDocument aIndex = new MicroDocument ();
+    final IMicroElement eRoot = aIndex.appendElement (VOM1Bundle.ELEMENT_ROOT);
+    eRoot.setAttribute (VOM1Bundle.ATTR_VERSION, VOM1Bundle.FORMAT_VERSION);
+
+    // Key: resource ID, type, phase and patterns
+    final ICommonsOrderedMap <String, VESID> aArtefacts = new CommonsLinkedHashMap <> ();
+
+    final ZipOutputStream aZOS = new ZipOutputStream (StreamHelper.getBuffered (aOS));
+    int nVOMIndex = 0;
+    for (final VOMType aOrigVOM : m_aVOMs.values ())
+    {
+      // Don't modify the original
+      final VOMType aVOM = aOrigVOM.clone ();
+      for (final VOMSchematronType aSchematron : aVOM.getValidation ().getSchematron ())
+      {
+        final String sType = StringHelper.getNotNull (aSchematron.getType (), "sch");
+        if (!"sch".equals (sType) && !"schxslt".equals (sType) && !"xslt".equals (sType))
+          continue;
+
+        final IReadableResource aRes = _resolve (aSchematron);
+        final String sPhase = _getOptionValue (aSchematron, VOM1Converter.SCHEMATRON_OPTION_PHASE);
+        final String sPatterns = _getOptionValue (aSchematron, VOM1Converter.SCHEMATRON_OPTION_PATTERNS);
+        final String sKey = aRes.getResourceID () + '\n' + sType + '\n' + sPhase + '\n' + sPatterns;
+
+        VESID aArtefactID = aArtefacts.get (sKey);
+        if (aArtefactID == null)
+        {
+          aArtefactID = new VESID (VOM1Bundle.ARTEFACT_GROUP_ID, "artefact-" + aArtefacts.size (), "1");
+          final String sEntryName = "xslt/" + aArtefactID.getArtifactID () + ".xslt";
+          aZOS.putNextEntry (new ZipEntry (sEntryName));
+          aZOS.write (_createXSLT (aRes, sType, sPhase, sPatterns));
+          aZOS.closeEntry ();
+          aArtefacts.put (sKey, aArtefactID);
+
+          final IMicroElement eArtefact = eRoot.appendElement (VOM1Bundle.ELEMENT_ARTEFACT);
+          eArtefact.setAttribute (VOM1Bundle.ATTR_ID, aArtefactID.getAsSingleID ());
+          eArtefact.setAttribute (VOM1Bundle.ATTR_ENTRY, sEntryName);
+        }
+
+        // Reference the pre-generated XSLT
+        final VOMCoordinatesType aCoords = new VOMCoordinatesType ();
+        aCoords.setGroupId (aArtefactID.getGroupID ());
+        aCoords.setArtifactId (aArtefactID.getArtifactID ());
+        aCoords.setVersion (aArtefactID.getVersion ());
+        aSchematron.setBuiltIn (null);
+        aSchematron.setResource (aCoords);
+        aSchematron.setType ("xslt");
+        aSchematron.getOption ()
+                   .removeIf (x -> VOM1Converter.SCHEMATRON_OPTION_PHASE.equals (x.getName ()) ||
+                                   VOM1Converter.SCHEMATRON_OPTION_PATTERNS.equals (x.getName ()));
+      }
+
+      final NonBlockingByteArrayOutputStream aVOMBytes = new NonBlockingByteArrayOutputStream ();
+      if (aMarshaller.write (aVOM, aVOMBytes).isFailure ())
+        throw new IllegalStateException ("Failed to serialize VOM " + aVOM.getId ());
+
+      final String sEntryName = "vom/" + nVOMIndex++ + ".xml";
+      aZOS.putNextEntry (new ZipEntry (sEntryName));
+      aVOMBytes.writeTo (aZOS);
+      aZOS.closeEntry ();
+
+      final IMicroElement eVES = eRoot.appendElement (VOM1Bundle.ELEMENT_VES);
+      final VOMCoordinatesType aID = aVOM.getId ();
+      eVES.setAttribute (VOM1Bundle.ATTR_ID,
+                         new VESID (aID.getGroupId (), aID.getArtifactId (), aID.getVersion (), aID.getClassifier ()).getAsSingleID ());
+      eVES.setAttribute (VOM1Bundle.ATTR_ENTRY, sEntryName);
+    }
+
+    aZOS.putNextEntry (new ZipEntry (VOM1Bundle.INDEX_ENTRY_NAME));
+    aZOS.write (MicroWriter.getNodeAsBytes (aIndex));
+    aZOS.closeEntry ();
+    aZOS.finish ();
+    aZOS.flush ();
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Wrote a VOM bundle with " + m_aVOMs.size () + " VOMs and " + aArtefacts.size () + " artefacts");
+  }
+
+  /**
+   * Write the bundle to the provided file.
+   *
+   * @param aFile
+   *        The file to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   * @throws IllegalStateException
+   *         If an artefact cannot be resolved or converted.
+   * @see #write(OutputStream)
+   */
+  public void write (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    try (final OutputStream aOS = FileHelper.getOutputStream (aFile))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open " + aFile + " for writing");
+      write (aOS);
+    }
+  }
+}
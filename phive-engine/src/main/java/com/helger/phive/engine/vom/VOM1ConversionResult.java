@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.vom.v10.VOMType;
+
+/**
+ * The result of converting a single VOM as part of a bulk conversion.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ * @see VOM1Converter#convertAllToVES_XML(Iterable, java.util.concurrent.ForkJoinPool)
+ */
+@NotThreadSafe
+public final class VOM1ConversionResult
+{
+  private final VOMType m_aVOM;
+  private final ValidationExecutorSet <IValidationSourceXML> m_aVES;
+  private final ErrorList m_aErrorList;
+
+  public VOM1ConversionResult (@Nonnull final VOMType aVOM,
+                               @Nullable final ValidationExecutorSet <IValidationSourceXML> aVES,
+                               @Nonnull final ErrorList aErrorList)
+  {
+    ValueEnforcer.notNull (aVOM, "VOM");
+    ValueEnforcer.notNull (aErrorList, "ErrorList");
+    m_aVOM = aVOM;
+    m_aVES = aVES;
+    m_aErrorList = aErrorList;
+  }
+
+  /**
+   * @return The source VOM. Never <code>null</code>.
+   */
+  @Nonnull
+  public VOMType getVOM ()
+  {
+    return m_aVOM;
+  }
+
+  /**
+   * @return The created VES or <code>null</code> if the conversion failed.
+   */
+  @Nullable
+  public ValidationExecutorSet <IValidationSourceXML> getVES ()
+  {
+    return m_aVES;
+  }
+
+  /**
+   * @return The errors of validating, converting and compiling this VOM. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  public ErrorList getErrorList ()
+  {
+    return m_aErrorList;
+  }
+
+  /**
+   * @return <code>true</code> if a VES was created and no error occurred.
+   */
+  public boolean isSuccess ()
+  {
+    return m_aVES != null && !m_aErrorList.containsAtLeastOneError ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("VOM", m_aVOM.getId ())
+                                       .append ("VES", m_aVES)
+                                       .append ("ErrorList", m_aErrorList)
+                                       .getToString ();
+  }
+}
@@ -16,6 +16,12 @@
  */
 package com.helger.phive.engine.vom;
 
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -25,12 +31,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.ArrayHelper;
 import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.error.SingleError;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.io.resource.IReadableResource;
 import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.regex.RegExHelper;
 import com.helger.commons.string.StringHelper;
 import com.helger.phive.api.EValidationType;
 import com.helger.phive.api.artefact.ValidationArtefact;
@@ -51,6 +64,7 @@ import com.helger.phive.engine.vom.v10.VOMSchematronType;
 import com.helger.phive.engine.vom.v10.VOMType;
 import com.helger.phive.engine.vom.v10.VOMXSDType;
 import com.helger.phive.engine.xsd.ValidationExecutorXSD;
+import com.helger.phive.engine.xsd.XSDClosureSchemaCache;
 import com.helger.xml.namespace.MapBasedNamespaceContext;
 
 /**
@@ -62,12 +76,27 @@ import com.helger.xml.namespace.MapBasedNamespaceContext;
 @NotThreadSafe
 public class VOM1Converter
 {
+  /**
+   * Schematron option to select the phase to be used.
+   *
+   * @since 7.2.2
+   */
+  public static final String SCHEMATRON_OPTION_PHASE = "phase";
+  /**
+   * Schematron option to select the IDs of the patterns to be applied. Multiple
+   * IDs are separated by whitespaces or commas.
+   *
+   * @since 7.2.2
+   */
+  public static final String SCHEMATRON_OPTION_PATTERNS = "patterns";
+
   private static final Logger LOGGER = LoggerFactory.getLogger (VOM1Converter.class);
 
   private IVOMXmlSchemaResolver m_aXmlSchemaResolver = x -> null;
   private IVOMNamespaceContextResolver m_aNamespaceContextResolver = x -> null;
   private IVOMResourceResolver m_aResourceResolver = x -> null;
   private IVOMArtifactResolver m_aArtifactResolver = x -> null;
+  private XSDClosureSchemaCache m_aXSDSchemaCache;
   private boolean m_bPerformValidation = true;
   private VOM1ComplianceSettings m_aComplianceSettings = VOM1ComplianceSettings.builder ().allowEdifact (false).build ();
 
@@ -106,6 +135,23 @@ public class VOM1Converter
     return this;
   }
 
+  /**
+   * Set the cache to be used for compiling XML Schemas referenced by VESID. If
+   * set, all XML Schemas with an identical XML Schema closure share the same
+   * compiled schema. If not set, the default XML Schema cache is used.
+   *
+   * @param a
+   *        The cache to use. May be <code>null</code>.
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public VOM1Converter xsdSchemaCache (@Nullable final XSDClosureSchemaCache a)
+  {
+    m_aXSDSchemaCache = a;
+    return this;
+  }
+
   @Nonnull
   public VOM1Converter validationEnabled (final boolean b)
   {
@@ -172,13 +218,29 @@ public class VOM1Converter
       if (aRes == null)
         throw new IllegalStateException ("Failed to resolve XSD artifact with ID '" + aVESID.getAsSingleID () + "'");
 
-      ret = ValidationExecutorXSD.create (aRes);
+      final XSDClosureSchemaCache aSchemaCache = m_aXSDSchemaCache;
+      if (aSchemaCache != null)
+        ret = ValidationExecutorXSD.create (aSchemaCache, aRes);
+      else
+        ret = ValidationExecutorXSD.create (aRes);
     }
     if (aXsd.hasOptionEntries ())
       LOGGER.warn ("Ignoring all XSD options");
     return ret;
   }
 
+  /**
+   * Convert a VOM error level to an error level.
+   *
+   * @param level
+   *        The VOM error level. May not be <code>null</code> and may not be
+   *        {@link VOMErrorLevel#DROP}, as there is no error level for dropped
+   *        errors. Callers must handle {@link VOMErrorLevel#DROP} before (see
+   *        {@link ValidationExecutorSchematron#addDroppedErrorID(String)}).
+   * @return The matching error level. Never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         for {@link VOMErrorLevel#DROP}
+   */
   @Nonnull
   public static EErrorLevel getAsErrorLevel (@Nonnull final VOMErrorLevel level)
   {
@@ -190,6 +252,8 @@ public class VOM1Converter
         return EErrorLevel.WARN;
       case ERROR:
         return EErrorLevel.ERROR;
+      case DROP:
+        throw new IllegalArgumentException ("The VOM error level '" + level.value () + "' has no error level - the error must be dropped");
       default:
         throw new IllegalStateException ("Unsupported error level in VOM: " + level);
     }
@@ -282,10 +346,36 @@ public class VOM1Converter
 
     // Custom errors afterwards (optional)
     for (final VOMCustomError aCE : aSchematron.getCustomError ())
-      ret.addCustomErrorLevel (aCE.getId (), getAsErrorLevel (aCE.getLevel ()));
+      if (aCE.getLevel () == VOMErrorLevel.DROP)
+        ret.addDroppedErrorID (aCE.getId ());
+      else
+        ret.addCustomErrorLevel (aCE.getId (), getAsErrorLevel (aCE.getLevel ()));
 
-    if (aSchematron.hasOptionEntries ())
-      LOGGER.warn ("Ignoring all Schematron options");
+    for (final VOMOptionType aOption : aSchematron.getOption ())
+    {
+      final String sName = aOption.getName ();
+      final String sValue = aOption.getValue ();
+      try
+      {
+        if (SCHEMATRON_OPTION_PHASE.equals (sName))
+          ret.setPhase (sValue);
+        else
+          if (SCHEMATRON_OPTION_PATTERNS.equals (sName))
+          {
+            final ICommonsList <String> aPatternIDs = new CommonsArrayList <> ();
+            for (final String sPatternID : RegExHelper.getSplitToArray (StringHelper.trim (sValue), "[\\s,]+"))
+              if (StringHelper.hasText (sPatternID))
+                aPatternIDs.add (sPatternID);
+            ret.setPatternIDs (aPatternIDs);
+          }
+          else
+            LOGGER.warn ("Ignoring unsupported Schematron option '" + sName + "'");
+      }
+      catch (final IllegalArgumentException ex)
+      {
+        throw new IllegalStateException ("Schematron option '" + sName + "' cannot be applied to " + eValidationType, ex);
+      }
+    }
 
     return ret;
   }
@@ -335,4 +425,193 @@ public class VOM1Converter
 
     return ret;
   }
+
+  /**
+   * @return The artifact resolver in use. Never <code>null</code>.
+   */
+  @Nonnull
+  final IVOMArtifactResolver getArtifactResolver ()
+  {
+    return m_aArtifactResolver;
+  }
+
+  /**
+   * @return The resource resolver in use. Never <code>null</code>.
+   */
+  @Nonnull
+  final IVOMResourceResolver getResourceResolver ()
+  {
+    return m_aResourceResolver;
+  }
+
+  /**
+   * Create a copy of this converter using a different artifact resolver.
+   */
+  @Nonnull
+  final VOM1Converter getCopy (@Nonnull final IVOMArtifactResolver aArtifactResolver)
+  {
+    return getCopy (aArtifactResolver, m_aResourceResolver);
+  }
+
+  /**
+   * Create a copy of this converter using a different artifact resolver and a
+   * different resource resolver.
+   */
+  @Nonnull
+  final VOM1Converter getCopy (@Nonnull final IVOMArtifactResolver aArtifactResolver,
+                               @Nonnull final IVOMResourceResolver aResourceResolver)
+  {
+    return new VOM1Converter ().xmlSchemaResolver (m_aXmlSchemaResolver)
+                               .namespaceContextResolver (m_aNamespaceContextResolver)
+                               .resourceResolver (aResourceResolver)
+                               .artifactResolver (aArtifactResolver)
+                               .xsdSchemaCache (m_aXSDSchemaCache)
+                               .validationEnabled (m_bPerformValidation)
+                               .complianceSettings (m_aComplianceSettings);
+  }
+
+  /**
+   * Convert many VOMs at once. The VOMs are converted concurrently in the
+   * provided pool, so all configured resolvers must be thread-safe. Each
+   * artifact referenced by VESID is resolved only once, even if it is
+   * referenced by multiple VOMs. Afterwards all distinct artefacts of the
+   * created executors are compiled concurrently (XML Schemas are loaded into
+   * their cache and Schematrons supporting caching are put into the cache), so
+   * that identical artefacts used by multiple VOMs are compiled only once.
+   * Artefacts that fail to compile (including invalid Schematrons) are
+   * reported as errors of all VOMs using them.<br>
+   * An error in one VOM does not influence the conversion of the other VOMs.
+   *
+   * @param aVOMs
+   *        The VOMs to convert. May not be <code>null</code>.
+   * @param aPool
+   *        The pool to be used for conversion and compilation. May not be
+   *        <code>null</code>.
+   * @return One result per provided VOM in the same order. Never
+   *         <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <VOM1ConversionResult> convertAllToVES_XML (@Nonnull final Iterable <? extends VOMType> aVOMs,
+                                                                  @Nonnull final ForkJoinPool aPool)
+  {
+    ValueEnforcer.notNull (aVOMs, "VOMs");
+    ValueEnforcer.notNull (aPool, "Pool");
+
+    // Resolve each artifact only once
+    final IVOMArtifactResolver aBaseResolver = m_aArtifactResolver;
+    final Map <VESID, CompletableFuture <IReadableResource>> aResolved = new ConcurrentHashMap <> ();
+    final VOM1Converter aConverter = getCopy (aVESID -> {
+      if (aVESID == null)
+        return aBaseResolver.getArtifactOfID (null);
+
+      final CompletableFuture <IReadableResource> aNew = new CompletableFuture <> ();
+      final CompletableFuture <IReadableResource> aExisting = aResolved.putIfAbsent (aVESID, aNew);
+      if (aExisting != null)
+        return aExisting.join ();
+      try
+      {
+        aNew.complete (aBaseResolver.getArtifactOfID (aVESID));
+      }
+      catch (final RuntimeException ex)
+      {
+        aNew.completeExceptionally (ex);
+      }
+      return aNew.join ();
+    });
+
+    // Convert all VOMs concurrently
+    final ICommonsList <CompletableFuture <VOM1ConversionResult>> aConversions = new CommonsArrayList <> ();
+    for (final VOMType aVOM : aVOMs)
+    {
+      ValueEnforcer.notNull (aVOM, "VOM");
+      aConversions.add (CompletableFuture.supplyAsync ( () -> {
+        final ErrorList aErrorList = new ErrorList ();
+        ValidationExecutorSet <IValidationSourceXML> aVES = null;
+        try
+        {
+          aVES = aConverter.convertToVES_XML (aVOM, aErrorList);
+        }
+        catch (final RuntimeException ex)
+        {
+          aErrorList.add (SingleError.builderError ()
+                                     .errorText ("Failed to convert VOM: " + ex.getMessage ())
+                                     .linkedException (ex)
+                                     .build ());
+        }
+        return new VOM1ConversionResult (aVOM, aVES, aErrorList);
+      }, aPool));
+    }
+    final ICommonsList <VOM1ConversionResult> ret = new CommonsArrayList <> (aConversions.size ());
+    for (final CompletableFuture <VOM1ConversionResult> aConversion : aConversions)
+      ret.add (aConversion.join ());
+
+    // Determine all distinct executors that can be compiled upfront
+    final ICommonsOrderedMap <IValidationExecutor <IValidationSourceXML>, ICommonsList <VOM1ConversionResult>> aDistinct = new CommonsLinkedHashMap <> ();
+    for (final VOM1ConversionResult aResult : ret)
+      if (aResult.getVES () != null)
+        for (final IValidationExecutor <IValidationSourceXML> aExecutor : aResult.getVES ().getAllExecutors ())
+          if (aExecutor instanceof IValidationExecutor.ICacheSupport)
+          {
+            final ICommonsList <VOM1ConversionResult> aUsers = aDistinct.computeIfAbsent (aExecutor,
+                                                                                          k -> new CommonsArrayList <> ());
+            if (!aUsers.contains (aResult))
+              aUsers.add (aResult);
+          }
+
+    // Compile them concurrently
+    final ICommonsList <CompletableFuture <RuntimeException>> aCompilations = new CommonsArrayList <> (aDistinct.size ());
+    for (final IValidationExecutor <IValidationSourceXML> aExecutor : aDistinct.keySet ())
+      aCompilations.add (CompletableFuture.supplyAsync ( () -> {
+        try
+        {
+          if (aExecutor instanceof ValidationExecutorSchematron)
+          {
+            // An invalid Schematron is not an exception
+            final ErrorList aCompileErrors = new ErrorList ();
+            if (((ValidationExecutorSchematron) aExecutor).compileSchematron (aCompileErrors).isFailure ())
+            {
+              String sMsg = "Invalid Schematron";
+              if (aCompileErrors.isNotEmpty ())
+                sMsg += ": " + StringHelper.getImplodedMapped ("; ", aCompileErrors, x -> x.getErrorText (Locale.US));
+              return new IllegalStateException (sMsg);
+            }
+          }
+          else
+            ((IValidationExecutor.ICacheSupport) aExecutor).ensureItemIsInCache ();
+          return null;
+        }
+        catch (final RuntimeException ex)
+        {
+          return ex;
+        }
+      }, aPool));
+
+    int nIndex = 0;
+    for (final Map.Entry <IValidationExecutor <IValidationSourceXML>, ICommonsList <VOM1ConversionResult>> aEntry : aDistinct.entrySet ())
+    {
+      final RuntimeException ex = aCompilations.get (nIndex++).join ();
+      if (ex != null)
+        for (final VOM1ConversionResult aResult : aEntry.getValue ())
+          aResult.getErrorList ()
+                 .add (SingleError.builderError ()
+                                  .errorText ("Failed to compile validation artefact " +
+                                              aEntry.getKey ().getValidationArtefact ().getRuleResourcePath () +
+                                              ": " +
+                                              ex.getMessage ())
+                                  .linkedException (ex)
+                                  .build ());
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Converted " +
+                    ret.size () +
+                    " VOMs with " +
+                    aResolved.size () +
+                    " distinct artifacts and " +
+                    aDistinct.size () +
+                    " distinct compiled artefacts");
+    return ret;
+  }
 }
@@ -0,0 +1,529 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.error.SingleError;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.wrapped.AbstractWrappedReadableResource;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.vom.v10.VOMCoordinatesType;
+import com.helger.phive.engine.vom.v10.VOMSchematronType;
+import com.helger.phive.engine.vom.v10.VOMType;
+import com.helger.phive.engine.vom.v10.VOMXSDType;
+import com.helger.phive.engine.xsd.XSDClosureSchemaCache;
+
+/**
+ * Incrementally converts VOMs to VES and keeps them registered in a
+ * {@link ValidationExecutorSetRegistry}. For each VOM the dependencies on
+ * artifacts (by VESID) and on built-in XML Schemas, resources and namespace
+ * contexts (by ID) are tracked. If a dependency changes, only the VES that
+ * depend on it are re-converted and replaced in the registry - all other VES
+ * are left untouched.<br>
+ * Artifacts and built-in resources that changed are handed to the converter
+ * with a new resource ID, so that the compiled Schematron and XML Schema
+ * caches keyed by the resource compile the changed content instead of
+ * returning the previous result. The {@link XSDClosureSchemaCache} hashes the
+ * content and compiles changed XML Schemas independent of the resource ID. The cache entries of the previous generation
+ * are removed when the rebuilt VES replaces the previous one in the registry
+ * (see
+ * {@link ValidationExecutorSetRegistry#replaceValidationExecutorSet(IValidationExecutorSet)})
+ * and when a VES is removed. Caches inside the resolvers (e.g.
+ * {@link CachingVOMArtifactResolver#evict(VESID)}) must be invalidated by the
+ * caller before.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class VOM1IncrementalBuilder
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (VOM1IncrementalBuilder.class);
+
+  private static final String PREFIX_ARTIFACT = "artifact:";
+  private static final String PREFIX_BUILT_IN_XSD = "built-in-xsd:";
+  private static final String PREFIX_BUILT_IN_RESOURCE = "built-in-resource:";
+  private static final String PREFIX_BUILT_IN_NAMESPACES = "built-in-namespaces:";
+
+  /**
+   * A resource with the same content as the wrapped resource but a resource
+   * ID that is unique per generation. The URL is the one of the wrapped
+   * resource, so that relative imports can still be resolved. Caches keyed by
+   * URL must therefore not be used for changed content - the
+   * {@link XSDClosureSchemaCache} is keyed by the content hash.
+   *
+   * @author Philip Helger
+   */
+  private static final class GenerationResource extends AbstractWrappedReadableResource
+  {
+    private final long m_nGeneration;
+
+    GenerationResource (@Nonnull final IReadableResource aBaseResource, final long nGeneration)
+    {
+      super (aBaseResource);
+      m_nGeneration = nGeneration;
+    }
+
+    @Override
+    @Nonnull
+    public String getResourceID ()
+    {
+      return super.getResourceID () + "#generation-" + m_nGeneration;
+    }
+
+    @Nullable
+    public InputStream getInputStream ()
+    {
+      return getWrappedReadableResource ().getInputStream ();
+    }
+
+    public boolean isReadMultiple ()
+    {
+      return getWrappedReadableResource ().isReadMultiple ();
+    }
+
+    @Nonnull
+    public IReadableResource getReadableCloneForPath (@Nonnull final String sPath)
+    {
+      return getWrappedReadableResource ().getReadableCloneForPath (sPath);
+    }
+  }
+
+  private final VOM1Converter m_aConverter;
+  private final ValidationExecutorSetRegistry <IValidationSourceXML> m_aRegistry;
+  /** Dependency key to generation - only for changed dependencies */
+  private final Map <String, Long> m_aGenerations = new ConcurrentHashMap <> ();
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <VESID, VOMType> m_aVOMs = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <VESID, ICommonsOrderedSet <String>> m_aDependencies = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, ICommonsOrderedSet <VESID>> m_aDependents = new CommonsHashMap <> ();
+
+  private final AtomicLong m_aConversionCount = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param aConverter
+   *        The converter with the resolvers to be used. May not be
+   *        <code>null</code>. Later modifications of the converter are not
+   *        considered.
+   * @param aRegistry
+   *        The registry to keep up to date. May not be <code>null</code>.
+   */
+  public VOM1IncrementalBuilder (@Nonnull final VOM1Converter aConverter,
+                                 @Nonnull final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry)
+  {
+    ValueEnforcer.notNull (aConverter, "Converter");
+    ValueEnforcer.notNull (aRegistry, "Registry");
+
+    final IVOMArtifactResolver aArtifactResolver = aConverter.getArtifactResolver ();
+    final IVOMResourceResolver aResourceResolver = aConverter.getResourceResolver ();
+    m_aConverter = aConverter.getCopy (aVESID -> aVESID == null ? null
+                                                                : _withGeneration (aArtifactResolver.getArtifactOfID (aVESID),
+                                                                                   getArtifactDependencyKey (aVESID)),
+                                       sID -> sID == null ? null
+                                                          : _withGeneration (aResourceResolver.getResourceOfID (sID),
+                                                                             getBuiltInResourceDependencyKey (sID)));
+    m_aRegistry = aRegistry;
+  }
+
+  @Nullable
+  private IReadableResource _withGeneration (@Nullable final IReadableResource aRes, @Nonnull final String sDependencyKey)
+  {
+    if (aRes == null)
+      return null;
+    final Long aGeneration = m_aGenerations.get (sDependencyKey);
+    return aGeneration == null ? aRes : new GenerationResource (aRes, aGeneration.longValue ());
+  }
+
+  /**
+   * Get the dependency key of an artifact referenced by VESID.
+   *
+   * @param aVESID
+   *        The artifact ID. May not be <code>null</code>.
+   * @return The dependency key. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getArtifactDependencyKey (@Nonnull final VESID aVESID)
+  {
+    ValueEnforcer.notNull (aVESID, "VESID");
+    return PREFIX_ARTIFACT + aVESID.getAsSingleID ();
+  }
+
+  /**
+   * Get the dependency key of a built-in XML Schema.
+   *
+   * @param sID
+   *        The built-in ID. May not be <code>null</code>.
+   * @return The dependency key. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getBuiltInXSDDependencyKey (@Nonnull final String sID)
+  {
+    ValueEnforcer.notNull (sID, "ID");
+    return PREFIX_BUILT_IN_XSD + sID;
+  }
+
+  /**
+   * Get the dependency key of a built-in resource (e.g. a Schematron).
+   *
+   * @param sID
+   *        The built-in ID. May not be <code>null</code>.
+   * @return The dependency key. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getBuiltInResourceDependencyKey (@Nonnull final String sID)
+  {
+    ValueEnforcer.notNull (sID, "ID");
+    return PREFIX_BUILT_IN_RESOURCE + sID;
+  }
+
+  /**
+   * Get the dependency key of a built-in namespace context.
+   *
+   * @param sID
+   *        The built-in ID. May not be <code>null</code>.
+   * @return The dependency key. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getBuiltInNamespacesDependencyKey (@Nonnull final String sID)
+  {
+    ValueEnforcer.notNull (sID, "ID");
+    return PREFIX_BUILT_IN_NAMESPACES + sID;
+  }
+
+  @Nonnull
+  private static VESID _createVESID (@Nonnull final VOMCoordinatesType a)
+  {
+    return new VESID (a.getGroupId (), a.getArtifactId (), a.getVersion (), a.getClassifier ());
+  }
+
+  /**
+   * Get all dependency keys of the provided VOM.
+   *
+   * @param aVOM
+   *        The VOM to analyze. May not be <code>null</code>.
+   * @return The ordered set of all dependency keys. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsOrderedSet <String> getAllDependencyKeys (@Nonnull final VOMType aVOM)
+  {
+    ValueEnforcer.notNull (aVOM, "VOM");
+
+    final ICommonsOrderedSet <String> ret = new CommonsLinkedHashSet <> ();
+    if (aVOM.getValidation () != null)
+    {
+      for (final VOMXSDType aXsd : aVOM.getValidation ().getXsd ())
+      {
+        if (StringHelper.hasText (aXsd.getBuiltIn ()))
+          ret.add (getBuiltInXSDDependencyKey (aXsd.getBuiltIn ()));
+        else
+          if (aXsd.getResource () != null)
+            ret.add (getArtifactDependencyKey (_createVESID (aXsd.getResource ())));
+      }
+      for (final VOMSchematronType aSchematron : aVOM.getValidation ().getSchematron ())
+      {
+        if (StringHelper.hasText (aSchematron.getBuiltIn ()))
+          ret.add (getBuiltInResourceDependencyKey (aSchematron.getBuiltIn ()));
+        else
+          if (aSchematron.getResource () != null)
+            ret.add (getArtifactDependencyKey (_createVESID (aSchematron.getResource ())));
+        if (aSchematron.getNamespaces () != null && aSchematron.getNamespaces ().getBuiltIn () != null)
+          ret.add (getBuiltInNamespacesDependencyKey (aSchematron.getNamespaces ().getBuiltIn ()));
+      }
+    }
+    return ret;
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _unlink (@Nonnull final VESID aVESID)
+  {
+    final ICommonsOrderedSet <String> aOldKeys = m_aDependencies.remove (aVESID);
+    if (aOldKeys != null)
+      for (final String sKey : aOldKeys)
+      {
+        final ICommonsOrderedSet <VESID> aDependents = m_aDependents.get (sKey);
+        if (aDependents != null)
+        {
+          aDependents.remove (aVESID);
+          if (aDependents.isEmpty ())
+            m_aDependents.remove (sKey);
+        }
+      }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _link (@Nonnull final VESID aVESID, @Nonnull final ICommonsOrderedSet <String> aKeys)
+  {
+    m_aDependencies.put (aVESID, aKeys);
+    for (final String sKey : aKeys)
+      m_aDependents.computeIfAbsent (sKey, k -> new CommonsLinkedHashSet <> ()).add (aVESID);
+  }
+
+  @Nonnull
+  private VOM1ConversionResult _convertAndRegister (@Nonnull final VOMType aVOM)
+  {
+    final ErrorList aErrorList = new ErrorList ();
+    ValidationExecutorSet <IValidationSourceXML> aVES = null;
+    try
+    {
+      aVES = m_aConverter.convertToVES_XML (aVOM, aErrorList);
+    }
+    catch (final RuntimeException ex)
+    {
+      aErrorList.add (SingleError.builderError ()
+                                 .errorText ("Failed to convert VOM: " + ex.getMessage ())
+                                 .linkedException (ex)
+                                 .build ());
+    }
+    m_aConversionCount.incrementAndGet ();
+
+    if (aVES != null && !aErrorList.containsAtLeastOneError ())
+    {
+      m_aRegistry.replaceValidationExecutorSet (aVES);
+      return new VOM1ConversionResult (aVOM, aVES, aErrorList);
+    }
+    return new VOM1ConversionResult (aVOM, null, aErrorList);
+  }
+
+  /**
+   * Convert the provided VOM and register the created VES, replacing a
+   * previous VES with the same ID. The dependencies of the VOM are recorded.
+   * If the conversion fails, nothing is changed.
+   *
+   * @param aVOM
+   *        The VOM to add. May not be <code>null</code>.
+   * @return The conversion result. Never <code>null</code>.
+   */
+  @Nonnull
+  public VOM1ConversionResult add (@Nonnull final VOMType aVOM)
+  {
+    ValueEnforcer.notNull (aVOM, "VOM");
+    ValueEnforcer.notNull (aVOM.getId (), "VOM.ID");
+
+    final VOMType aVOMCopy = aVOM.clone ();
+    final VESID aVESID = _createVESID (aVOMCopy.getId ());
+    return m_aRWLock.writeLockedGet ( () -> {
+      final VOM1ConversionResult ret = _convertAndRegister (aVOMCopy);
+      if (ret.isSuccess ())
+      {
+        _unlink (aVESID);
+        _link (aVESID, getAllDependencyKeys (aVOMCopy));
+        m_aVOMs.put (aVESID, aVOMCopy);
+      }
+      return ret;
+    });
+  }
+
+  /**
+   * Remove the VES with the provided ID from this builder and from the
+   * registry.
+   *
+   * @param aVESID
+   *        The ID of the VES to remove. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the VES was added via this builder.
+   */
+  @Nonnull
+  public EChange remove (@Nullable final VESID aVESID)
+  {
+    if (aVESID == null)
+      return EChange.UNCHANGED;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      if (m_aVOMs.remove (aVESID) == null)
+        return EChange.UNCHANGED;
+      _unlink (aVESID);
+      final IValidationExecutorSet <IValidationSourceXML> aOld = m_aRegistry.getOfID (aVESID);
+      m_aRegistry.unregisterValidationExecutorSet (aVESID);
+      if (aOld != null)
+        ValidationExecutorSetRegistry.removeFromCache (aOld);
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * @return The IDs of all VES added via this builder. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <VESID> getAllVESIDs ()
+  {
+    return m_aRWLock.readLockedGet (m_aVOMs::copyOfKeySet);
+  }
+
+  /**
+   * Get all dependency keys of the VES with the provided ID.
+   *
+   * @param aVESID
+   *        The ID of the VES. May be <code>null</code>.
+   * @return The ordered set of dependency keys. Never <code>null</code> but
+   *         maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <String> getAllDependencyKeys (@Nullable final VESID aVESID)
+  {
+    return m_aRWLock.readLockedGet ( () -> {
+      final ICommonsOrderedSet <String> ret = m_aDependencies.get (aVESID);
+      return ret == null ? new CommonsLinkedHashSet <> () : ret.getClone ();
+    });
+  }
+
+  /**
+   * Get the IDs of all VES that depend on the provided dependency key.
+   *
+   * @param sDependencyKey
+   *        The dependency key. May be <code>null</code>.
+   * @return The ordered set of VES IDs. Never <code>null</code> but maybe
+   *         empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <VESID> getAllDependentVESIDs (@Nullable final String sDependencyKey)
+  {
+    return m_aRWLock.readLockedGet ( () -> {
+      final ICommonsOrderedSet <VESID> ret = m_aDependents.get (sDependencyKey);
+      return ret == null ? new CommonsLinkedHashSet <> () : ret.getClone ();
+    });
+  }
+
+  /**
+   * Notify that the provided dependencies changed. All VES depending on at
+   * least one of them are converted again (each one only once) and replaced in
+   * the registry. If the conversion of a VES fails, the previous VES stays
+   * registered.
+   *
+   * @param aDependencyKeys
+   *        The keys of the changed dependencies. May not be <code>null</code>.
+   * @return The conversion results of all affected VES. Never
+   *         <code>null</code>.
+   * @see #getArtifactDependencyKey(VESID)
+   * @see #getBuiltInXSDDependencyKey(String)
+   * @see #getBuiltInResourceDependencyKey(String)
+   * @see #getBuiltInNamespacesDependencyKey(String)
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <VOM1ConversionResult> dependenciesChanged (@Nonnull final Iterable <String> aDependencyKeys)
+  {
+    ValueEnforcer.notNull (aDependencyKeys, "DependencyKeys");
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final ICommonsOrderedSet <VESID> aAffected = new CommonsLinkedHashSet <> ();
+      final ICommonsSet <String> aKeys = new CommonsHashSet <> ();
+      for (final String sKey : aDependencyKeys)
+        if (aKeys.add (sKey))
+        {
+          // Ensure that the changed content gets a new cache key
+          m_aGenerations.merge (sKey, Long.valueOf (1), (a, b) -> Long.valueOf (a.longValue () + 1));
+          final ICommonsOrderedSet <VESID> aDependents = m_aDependents.get (sKey);
+          if (aDependents != null)
+            aAffected.addAll (aDependents);
+        }
+
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Dependencies " + aKeys + " changed - rebuilding " + aAffected.size () + " of " + m_aVOMs.size () + " VES");
+
+      final ICommonsList <VOM1ConversionResult> ret = new CommonsArrayList <> ();
+      for (final VESID aVESID : aAffected)
+      {
+        final VOMType aVOM = m_aVOMs.get (aVESID);
+        final VOM1ConversionResult aResult = _convertAndRegister (aVOM);
+        if (!aResult.isSuccess ())
+          LOGGER.warn ("Failed to rebuild VES '" + aVESID.getAsSingleID () + "' - keeping the previous version");
+        ret.add (aResult);
+      }
+      return ret;
+    });
+  }
+
+  /**
+   * Notify that the provided artifacts changed.
+   *
+   * @param aVESIDs
+   *        The IDs of the changed artifacts. May not be <code>null</code>.
+   * @return The conversion results of all affected VES. Never
+   *         <code>null</code>.
+   * @see #dependenciesChanged(Iterable)
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <VOM1ConversionResult> artifactsChanged (@Nonnull final VESID... aVESIDs)
+  {
+    ValueEnforcer.notNullNoNullValue (aVESIDs, "VESIDs");
+    return dependenciesChanged (new CommonsArrayList <> (aVESIDs, VOM1IncrementalBuilder::getArtifactDependencyKey));
+  }
+
+  /**
+   * @return The total number of VOM conversions performed.
+   */
+  @Nonnegative
+  public long getConversionCount ()
+  {
+    return m_aConversionCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Registry", m_aRegistry)
+                                       .append ("ConversionCount", getConversionCount ())
+                                       .getToString ();
+  }
+}
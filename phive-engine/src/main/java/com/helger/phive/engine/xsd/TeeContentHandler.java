@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.xsd;
+
+import javax.annotation.Nonnull;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * A SAX {@link ContentHandler} that passes all events of a single parse to
+ * two handlers. Lexical events (comments, CDATA sections etc.) are only passed
+ * to the second handler, if it is a {@link LexicalHandler}.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+final class TeeContentHandler implements ContentHandler, LexicalHandler
+{
+  private final ContentHandler m_aFirst;
+  private final ContentHandler m_aSecond;
+  private final LexicalHandler m_aSecondLexical;
+
+  TeeContentHandler (@Nonnull final ContentHandler aFirst, @Nonnull final ContentHandler aSecond)
+  {
+    m_aFirst = aFirst;
+    m_aSecond = aSecond;
+    m_aSecondLexical = aSecond instanceof LexicalHandler ? (LexicalHandler) aSecond : null;
+  }
+
+  public void setDocumentLocator (final Locator aLocator)
+  {
+    m_aFirst.setDocumentLocator (aLocator);
+    m_aSecond.setDocumentLocator (aLocator);
+  }
+
+  public void startDocument () throws SAXException
+  {
+    m_aFirst.startDocument ();
+    m_aSecond.startDocument ();
+  }
+
+  public void endDocument () throws SAXException
+  {
+    m_aFirst.endDocument ();
+    m_aSecond.endDocument ();
+  }
+
+  public void startPrefixMapping (final String sPrefix, final String sURI) throws SAXException
+  {
+    m_aFirst.startPrefixMapping (sPrefix, sURI);
+    m_aSecond.startPrefixMapping (sPrefix, sURI);
+  }
+
+  public void endPrefixMapping (final String sPrefix) throws SAXException
+  {
+    m_aFirst.endPrefixMapping (sPrefix);
+    m_aSecond.endPrefixMapping (sPrefix);
+  }
+
+  public void startElement (final String sURI,
+                            final String sLocalName,
+                            final String sQName,
+                            final Attributes aAttrs) throws SAXException
+  {
+    m_aFirst.startElement (sURI, sLocalName, sQName, aAttrs);
+    m_aSecond.startElement (sURI, sLocalName, sQName, aAttrs);
+  }
+
+  public void endElement (final String sURI, final String sLocalName, final String sQName) throws SAXException
+  {
+    m_aFirst.endElement (sURI, sLocalName, sQName);
+    m_aSecond.endElement (sURI, sLocalName, sQName);
+  }
+
+  public void characters (final char [] aChars, final int nStart, final int nLength) throws SAXException
+  {
+    m_aFirst.characters (aChars, nStart, nLength);
+    m_aSecond.characters (aChars, nStart, nLength);
+  }
+
+  public void ignorableWhitespace (final char [] aChars, final int nStart, final int nLength) throws SAXException
+  {
+    m_aFirst.ignorableWhitespace (aChars, nStart, nLength);
+    m_aSecond.ignorableWhitespace (aChars, nStart, nLength);
+  }
+
+  public void processingInstruction (final String sTarget, final String sData) throws SAXException
+  {
+    m_aFirst.processingInstruction (sTarget, sData);
+    m_aSecond.processingInstruction (sTarget, sData);
+  }
+
+  public void skippedEntity (final String sName) throws SAXException
+  {
+    m_aFirst.skippedEntity (sName);
+    m_aSecond.skippedEntity (sName);
+  }
+
+  public void startDTD (final String sName, final String sPublicId, final String sSystemId) throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.startDTD (sName, sPublicId, sSystemId);
+  }
+
+  public void endDTD () throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.endDTD ();
+  }
+
+  public void startEntity (final String sName) throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.startEntity (sName);
+  }
+
+  public void endEntity (final String sName) throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.endEntity (sName);
+  }
+
+  public void startCDATA () throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.startCDATA ();
+  }
+
+  public void endCDATA () throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.endCDATA ();
+  }
+
+  public void comment (final char [] aChars, final int nStart, final int nLength) throws SAXException
+  {
+    if (m_aSecondLexical != null)
+      m_aSecondLexical.comment (aChars, nStart, nLength);
+  }
+}
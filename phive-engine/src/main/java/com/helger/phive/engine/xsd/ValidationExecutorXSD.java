@@ -16,19 +16,41 @@
  */
 package com.helger.phive.engine.xsd;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.SingleError;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.error.list.ErrorList;
@@ -40,11 +62,18 @@ import com.helger.phive.api.EValidationType;
 import com.helger.phive.api.artefact.IValidationArtefact;
 import com.helger.phive.api.artefact.ValidationArtefact;
 import com.helger.phive.api.execute.AbstractValidationExecutor;
+import com.helger.phive.api.execute.IValidationExecutor;
 import com.helger.phive.api.result.ValidationResult;
 import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceHelper;
+import com.helger.phive.engine.source.ValidationSourceXML;
+import com.helger.xml.EXMLParserProperty;
+import com.helger.xml.XMLFactory;
 import com.helger.xml.sax.AbstractSAXErrorHandler;
+import com.helger.xml.sax.WrappedCollectingSAXErrorHandler;
 import com.helger.xml.schema.XMLSchemaCache;
 import com.helger.xml.schema.XMLSchemaValidationHelper;
+import com.helger.xml.transform.XMLTransformerFactory;
 
 /**
  * Implementation of {@link AbstractValidationExecutor} for XML Schema
@@ -52,17 +81,35 @@ import com.helger.xml.schema.XMLSchemaValidationHelper;
  *
  * @author Philip Helger
  */
-public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidationSourceXML, ValidationExecutorXSD>
+public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidationSourceXML, ValidationExecutorXSD> implements
+                                   IValidationExecutor.ICacheSupport,
+                                   IValidationExecutor.IPipelineSupport <IValidationSourceXML>
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (ValidationExecutorXSD.class);
+  private static final String PROPERTY_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
   private final Supplier <? extends Schema> m_aSchemaProvider;
+  // Removes the XML Schema from the cache of the provider - null if the
+  // provider is unknown
+  private final Runnable m_aCacheRemover;
+  private volatile boolean m_bCacheSchema = ICacheSupport.DEFAULT_CACHE;
+  private volatile Schema m_aCachedSchema;
 
   public ValidationExecutorXSD (@Nonnull final IValidationArtefact aValidationArtefact,
                                 @Nonnull final Supplier <? extends Schema> aSchemaProvider)
+  {
+    this (aValidationArtefact, aSchemaProvider, null);
+  }
+
+  private ValidationExecutorXSD (@Nonnull final IValidationArtefact aValidationArtefact,
+                                 @Nonnull final Supplier <? extends Schema> aSchemaProvider,
+                                 @Nullable final Runnable aCacheRemover)
   {
     super (aValidationArtefact);
     ValueEnforcer.isTrue (aValidationArtefact.getValidationArtefactType ().isXSD (), "Artifact is not an XSD");
     ValueEnforcer.notNull (aSchemaProvider, "SchemaProvider");
     m_aSchemaProvider = aSchemaProvider;
+    m_aCacheRemover = aCacheRemover;
   }
 
   @Nonnull
@@ -71,6 +118,100 @@ public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidati
     return m_aSchemaProvider;
   }
 
+  /**
+   * @return <code>true</code> if the XML Schema retrieved from the schema
+   *         provider is kept in this executor, <code>false</code> if the
+   *         schema provider is queried for every validation.
+   * @since 7.2.2
+   */
+  public final boolean isCacheArtefact ()
+  {
+    return m_bCacheSchema;
+  }
+
+  /**
+   * Enable or disable keeping the XML Schema retrieved from the schema
+   * provider in this executor. This does not affect any caching of the schema
+   * provider itself.
+   *
+   * @param bCacheArtefact
+   *        <code>true</code> to enable caching, <code>false</code> to disable
+   *        it.
+   * @return this for chaining
+   * @since 7.2.2
+   */
+  @Nonnull
+  public final ValidationExecutorXSD setCacheArtefact (final boolean bCacheArtefact)
+  {
+    m_bCacheSchema = bCacheArtefact;
+    if (!bCacheArtefact)
+      m_aCachedSchema = null;
+    return this;
+  }
+
+  @Nonnull
+  private Schema _getSchema ()
+  {
+    if (!m_bCacheSchema)
+      return m_aSchemaProvider.get ();
+
+    Schema ret = m_aCachedSchema;
+    if (ret == null)
+    {
+      // Concurrent first calls may both query the provider - that's okay
+      ret = m_aSchemaProvider.get ();
+      m_aCachedSchema = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 7.2.2
+   */
+  public void ensureItemIsInCache ()
+  {
+    if (m_bCacheSchema)
+      _getSchema ();
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * If this executor was created with one of the <code>create</code> methods
+   * using the {@link XMLSchemaCache}, the XML Schema is removed from there. If
+   * it was created with an {@link XSDClosureSchemaCache}, this executor is
+   * released as a holder of the XML Schema. This executor keeps using the XML
+   * Schema it already retrieved.
+   *
+   * @since 7.2.2
+   */
+  @Override
+  public void removeItemFromCache ()
+  {
+    if (m_aCacheRemover != null)
+      m_aCacheRemover.run ();
+  }
+
+  private void _addNotXMLError (@Nonnull final ErrorList aErrorList,
+                                @Nullable final Throwable aCause,
+                                @Nonnull final Exception ex)
+  {
+    // Happens when non-XML document is trying to be parsed
+    if (aCause instanceof SAXParseException)
+    {
+      aErrorList.add (AbstractSAXErrorHandler.getSaxParseError (EErrorLevel.FATAL_ERROR, (SAXParseException) aCause));
+    }
+    else
+    {
+      aErrorList.add (SingleError.builderFatalError ()
+                                 .errorLocation (new SimpleLocation (getValidationArtefact ().getRuleResourcePath ()))
+                                 .errorText ("The document to be validated is not an XML document")
+                                 .linkedException (ex)
+                                 .build ());
+    }
+  }
+
   @Nonnull
   public ValidationResult applyValidation (@Nonnull final IValidationSourceXML aSource, @Nullable final Locale aLocale)
   {
@@ -79,7 +220,7 @@ public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidati
 
     // Find the XML schema required for validation
     // as we don't have a node, we need to trust the implementation class
-    final Schema aSchema = m_aSchemaProvider.get ();
+    final Schema aSchema = _getSchema ();
     assert aSchema != null;
 
     final ErrorList aErrorList = new ErrorList ();
@@ -90,19 +231,138 @@ public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidati
     }
     catch (final IllegalArgumentException ex)
     {
-      // Happens when non-XML document is trying to be parsed
-      if (ex.getCause () instanceof SAXParseException)
+      _addNotXMLError (aErrorList, ex.getCause (), ex);
+    }
+
+    // Build result object
+    return new ValidationResult (aVA, aErrorList.getAllFailures ());
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * The XML Schema validation is aborted at the first error. Warnings are
+   * ignored.
+   *
+   * @since 7.2.2
+   */
+  @Override
+  public boolean isValid (@Nonnull final IValidationSourceXML aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+
+    final Schema aSchema = _getSchema ();
+    assert aSchema != null;
+
+    final Validator aValidator = aSchema.newValidator ();
+    aValidator.setErrorHandler (new DefaultHandler ()
+    {
+      @Override
+      public void error (final SAXParseException ex) throws SAXException
+      {
+        // Stop at the first error
+        throw ex;
+      }
+
+      @Override
+      public void fatalError (final SAXParseException ex) throws SAXException
+      {
+        throw ex;
+      }
+    });
+    try
+    {
+      aValidator.validate (aSource.getAsTransformSource ());
+      return true;
+    }
+    catch (final SAXException | IOException ex)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * The source is parsed only once with SAX and the raw event stream of the
+   * parser is passed both to the XML Schema validator and to a DOM builder.
+   * The resulting DOM is provided as the source for all following executors,
+   * so that e.g. the Schematron validation does not need to parse the document
+   * again. As the DOM builder does not receive the output of the validator, the
+   * DOM is identical to the one parsed without validation (e.g. no default
+   * attributes of the XML Schema are added and comments are kept). If the
+   * source is partial or already a DOM source, this is identical to
+   * {@link #applyValidation(IValidationSourceXML, Locale)}.
+   *
+   * @since 7.2.2
+   */
+  @Nonnull
+  public ValidationResult applyValidationInPipeline (@Nonnull final IValidationSourceXML aSource,
+                                                     @Nullable final Locale aLocale,
+                                                     @Nonnull final Consumer <? super IValidationSourceXML> aNextSourceConsumer)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    ValueEnforcer.notNull (aNextSourceConsumer, "NextSourceConsumer");
+
+    final Source aTransformSource = aSource.getAsTransformSource ();
+    final TransformerFactory aTF = XMLTransformerFactory.getDefaultTransformerFactory ();
+    if (aSource.isPartialSource () ||
+        !(aTransformSource instanceof StreamSource || aTransformSource instanceof SAXSource) ||
+        !(aTF instanceof SAXTransformerFactory))
+    {
+      // Nothing to gain
+      return applyValidation (aSource, aLocale);
+    }
+
+    final IValidationArtefact aVA = getValidationArtefact ();
+    final Schema aSchema = _getSchema ();
+    assert aSchema != null;
+
+    final ErrorList aErrorList = new ErrorList ();
+    try
+    {
+      // The DOM builder receives the raw parser events, not the (augmented)
+      // output of the validator
+      final Document aDoc = XMLFactory.newDocument ();
+      final TransformerHandler aDOMBuilder = ((SAXTransformerFactory) aTF).newTransformerHandler ();
+      aDOMBuilder.setResult (new DOMResult (aDoc));
+
+      final ValidatorHandler aValidatorHandler = aSchema.newValidatorHandler ();
+      if (aLocale != null)
+        try
+        {
+          aValidatorHandler.setProperty (EXMLParserProperty.GENERAL_LOCALE.getName (), aLocale);
+        }
+        catch (final SAXNotRecognizedException | SAXNotSupportedException ex)
+        {
+          LOGGER.warn ("Failed to set the locale on the XML Schema validator: " + ex.getMessage ());
+        }
+      aValidatorHandler.setErrorHandler (new WrappedCollectingSAXErrorHandler (aErrorList));
+
+      final SAXSource aSAXSource = ValidationSourceHelper.getAsSecureSAXSource (aTransformSource);
+      final XMLReader aReader = aSAXSource.getXMLReader ();
+      final TeeContentHandler aTee = new TeeContentHandler (aValidatorHandler, aDOMBuilder);
+      aReader.setContentHandler (aTee);
+      try
       {
-        aErrorList.add (AbstractSAXErrorHandler.getSaxParseError (EErrorLevel.FATAL_ERROR, (SAXParseException) ex.getCause ()));
+        aReader.setProperty (PROPERTY_LEXICAL_HANDLER, aTee);
       }
-      else
+      catch (final SAXNotRecognizedException | SAXNotSupportedException ex)
       {
-        aErrorList.add (SingleError.builderFatalError ()
-                                   .errorLocation (new SimpleLocation (aVA.getRuleResourcePath ()))
-                                   .errorText ("The document to be validated is not an XML document")
-                                   .linkedException (ex)
-                                   .build ());
+        // Comments are not part of the DOM
       }
+      aReader.parse (aSAXSource.getInputSource ());
+
+      // Parsing succeeded - use the DOM for all following executors
+      aNextSourceConsumer.accept (ValidationSourceXML.create (aSource.getSystemID (), aDoc));
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      // Should not happen for the identity transformation
+      LOGGER.warn ("Failed to create DOM builder - not using the pipeline: " + ex.getMessage ());
+      return applyValidation (aSource, aLocale);
+    }
+    catch (final SAXException | IOException ex)
+    {
+      _addNotXMLError (aErrorList, ex, ex);
     }
 
     // Build result object
@@ -160,8 +420,10 @@ public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidati
   public static ValidationExecutorXSD create (@Nonnull final IReadableResource aXSDRes)
   {
     ValueEnforcer.notNull (aXSDRes, "XSDRes");
+    final ICommonsList <IReadableResource> aCacheKey = new CommonsArrayList <> (aXSDRes);
     return new ValidationExecutorXSD (new ValidationArtefact (EValidationType.XSD, aXSDRes),
-                                      () -> XMLSchemaCache.getInstance ().getSchema (aXSDRes));
+                                      () -> XMLSchemaCache.getInstance ().getSchema (aXSDRes),
+                                      () -> XMLSchemaCache.getInstance ().removeFromCache (aCacheKey));
   }
 
   /**
@@ -180,8 +442,10 @@ public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidati
     ValueEnforcer.notEmptyNoNullValue (aXSDRes, "XSDRes");
 
     // The last one is the important one for the name
+    final ICommonsList <IReadableResource> aCacheKey = new CommonsArrayList <> (aXSDRes);
     return new ValidationExecutorXSD (new ValidationArtefact (EValidationType.XSD, ArrayHelper.getLast (aXSDRes)),
-                                      () -> XMLSchemaCache.getInstance ().getSchema (aXSDRes));
+                                      () -> XMLSchemaCache.getInstance ().getSchema (aXSDRes),
+                                      () -> XMLSchemaCache.getInstance ().removeFromCache (aCacheKey));
   }
 
   /**
@@ -200,7 +464,37 @@ public class ValidationExecutorXSD extends AbstractValidationExecutor <IValidati
     ValueEnforcer.notEmptyNoNullValue (aXSDRes, "XSDRes");
 
     // The last one is the important one for the name
+    final ICommonsList <IReadableResource> aCacheKey = new CommonsArrayList <> (aXSDRes);
     return new ValidationExecutorXSD (new ValidationArtefact (EValidationType.XSD, aXSDRes.get (aXSDRes.size () - 1)),
-                                      () -> XMLSchemaCache.getInstance ().getSchema (aXSDRes));
+                                      () -> XMLSchemaCache.getInstance ().getSchema (aXSDRes),
+                                      () -> XMLSchemaCache.getInstance ().removeFromCache (aCacheKey));
+  }
+
+  /**
+   * Create a new instance based on one or more XSDs that are compiled with the
+   * provided {@link XSDClosureSchemaCache}. The executor is a holder of the
+   * compiled XML Schema, so that {@link #removeItemFromCache()} releases it
+   * from the cache.
+   *
+   * @param aSchemaCache
+   *        The XML Schema closure cache to use. May not be <code>null</code>.
+   * @param aXSDRes
+   *        The XSD resources to use. May neither be <code>null</code> nor
+   *        empty.
+   * @return A new validator that uses the last resource for the filename.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public static ValidationExecutorXSD create (@Nonnull final XSDClosureSchemaCache aSchemaCache,
+                                              @Nonnull @Nonempty final IReadableResource... aXSDRes)
+  {
+    ValueEnforcer.notNull (aSchemaCache, "SchemaCache");
+    ValueEnforcer.notEmptyNoNullValue (aXSDRes, "XSDRes");
+
+    // Each executor is a separate holder
+    final Object aHolder = new Object ();
+    return new ValidationExecutorXSD (new ValidationArtefact (EValidationType.XSD, ArrayHelper.getLast (aXSDRes)),
+                                      () -> aSchemaCache.getSchema (aHolder, aXSDRes),
+                                      () -> aSchemaCache.release (aHolder));
   }
 }
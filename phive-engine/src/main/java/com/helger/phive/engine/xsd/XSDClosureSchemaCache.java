@@ -0,0 +1,444 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.xsd;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.URLResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.schema.XMLSchemaCache;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xml.transform.TransformSourceFactory;
+
+/**
+ * A cache for compiled XML Schemas that is keyed by the SHA-256 hash of the
+ * complete XML Schema closure - that is the main XML Schemas together with all
+ * transitively imported, included, redefined and overridden XML Schemas. So
+ * identical XML Schema sets that are reached via different resources (e.g.
+ * the same UBL 2.1 XML Schemas referenced from multiple VOMs) are compiled
+ * only once and share a single {@link Schema} object.<br>
+ * Resources referenced via <code>schemaLocation</code> are resolved relative
+ * to the URL of the referencing resource. References that cannot be resolved
+ * are not part of the closure hash and are left to the schema factory. The
+ * closure is read and hashed on every request, so that changed content at the
+ * same URL is always compiled again.<br>
+ * A compiled XML Schema can be requested on behalf of a holder object (e.g. an
+ * executor). It is removed from the cache, as soon as all its holders were
+ * released (see {@link #release(Object)}). XML Schemas requested without a
+ * holder stay in the cache until {@link #clearCache()} is called.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class XSDClosureSchemaCache
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (XSDClosureSchemaCache.class);
+
+  /**
+   * A single compiled XML Schema closure.
+   *
+   * @author Philip Helger
+   */
+  private static final class Entry
+  {
+    // The closure locations the XML Schema was compiled from
+    private final String m_sLocationKey;
+    private final CompletableFuture <Schema> m_aFuture = new CompletableFuture <> ();
+    private int m_nHolderCount = 0;
+
+    Entry (@Nonnull final String sLocationKey)
+    {
+      m_sLocationKey = sLocationKey;
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  /** Closure hash to compiled schema */
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, Entry> m_aByClosureHash = new CommonsHashMap <> ();
+  /** Holder to closure hash */
+  @GuardedBy ("m_aLock")
+  private final Map <Object, String> m_aHolders = new IdentityHashMap <> ();
+
+  private final AtomicLong m_aCompiledCount = new AtomicLong ();
+  private final AtomicLong m_aSharedCount = new AtomicLong ();
+  private final AtomicLong m_aSavedBytes = new AtomicLong ();
+
+  public XSDClosureSchemaCache ()
+  {}
+
+  @Nonnull
+  private static String _getResourceKey (@Nonnull final IReadableResource [] aResources)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (final IReadableResource aRes : aResources)
+      aSB.append (aRes.getResourceID ()).append ('\n');
+    return aSB.toString ();
+  }
+
+  @Nullable
+  private static IReadableResource _resolve (@Nonnull final IReadableResource aBase, @Nonnull final String sLocation)
+  {
+    try
+    {
+      final URL aBaseURL = aBase.getAsURL ();
+      return new URLResource (aBaseURL == null ? new URL (sLocation) : new URL (aBaseURL, sLocation));
+    }
+    catch (final MalformedURLException ex)
+    {
+      return null;
+    }
+  }
+
+  private static void _addToClosure (@Nonnull final IReadableResource aRes,
+                                     @Nonnull final Set <String> aVisited,
+                                     @Nonnull final ICommonsOrderedMap <String, byte []> aClosure)
+  {
+    final URL aURL = aRes.getAsURL ();
+    // Resources without URL are distinguished by identity
+    final String sKey = aURL != null ? aURL.toExternalForm ()
+                                     : aRes.getResourceID () + "@" + Integer.toHexString (System.identityHashCode (aRes));
+    if (!aVisited.add (sKey))
+      return;
+
+    final byte [] aBytes = StreamHelper.getAllBytes (aRes);
+    if (aBytes == null)
+    {
+      // Unresolvable reference - left to the schema factory
+      return;
+    }
+    aClosure.put (sKey, aBytes);
+
+    final Document aDoc = DOMReader.readXMLDOM (aBytes);
+    if (aDoc == null)
+      return;
+
+    for (final Element eChild : XMLHelper.getChildElementIteratorNS (aDoc.getDocumentElement (),
+                                                                     XMLConstants.W3C_XML_SCHEMA_NS_URI))
+    {
+      final String sLocalName = eChild.getLocalName ();
+      if ("import".equals (sLocalName) ||
+          "include".equals (sLocalName) ||
+          "redefine".equals (sLocalName) ||
+          "override".equals (sLocalName))
+      {
+        final String sLocation = eChild.getAttribute ("schemaLocation");
+        if (StringHelper.hasText (sLocation))
+        {
+          final IReadableResource aRef = _resolve (aRes, sLocation);
+          if (aRef != null)
+            _addToClosure (aRef, aVisited, aClosure);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the SHA-256 hash of the complete closure of the provided XML Schemas.
+   * The closure is traversed in a deterministic order.
+   *
+   * @param aClosure
+   *        The ordered closure to hash. May not be <code>null</code>.
+   * @return The hex encoded hash. Never <code>null</code>.
+   */
+  @Nonnull
+  private static String _getClosureHash (@Nonnull final ICommonsOrderedMap <String, byte []> aClosure)
+  {
+    try
+    {
+      final MessageDigest aMD = MessageDigest.getInstance ("SHA-256");
+      for (final byte [] aBytes : aClosure.values ())
+      {
+        // Length prefix to avoid ambiguities at the boundaries
+        final int nLen = aBytes.length;
+        aMD.update (new byte [] { (byte) (nLen >>> 24), (byte) (nLen >>> 16), (byte) (nLen >>> 8), (byte) nLen });
+        aMD.update (aBytes);
+      }
+      return StringHelper.getHexEncoded (aMD.digest ());
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("SHA-256 is not supported", ex);
+    }
+  }
+
+  @Nonnull
+  private static Schema _compile (@Nonnull final IReadableResource [] aResources)
+  {
+    final Source [] aSources = new Source [aResources.length];
+    for (int i = 0; i < aResources.length; ++i)
+      aSources[i] = TransformSourceFactory.create (aResources[i]);
+    try
+    {
+      return XMLSchemaCache.createXSDSchemaFactory ().newSchema (aSources);
+    }
+    catch (final SAXException ex)
+    {
+      throw new IllegalStateException ("Failed to compile XML Schema " + _getResourceKey (aResources).trim (), ex);
+    }
+  }
+
+  /**
+   * Get the compiled XML Schema for the provided resources. If another set of
+   * resources with the identical XML Schema closure was already compiled, the
+   * existing {@link Schema} is returned.
+   *
+   * @param aResources
+   *        The main XML Schema resources. May neither be <code>null</code> nor
+   *        empty.
+   * @return The compiled schema. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XML Schema could not be compiled
+   */
+  @Nonnull
+  public Schema getSchema (@Nonnull @Nonempty final IReadableResource... aResources)
+  {
+    return getSchema (null, aResources);
+  }
+
+  /**
+   * Get the compiled XML Schema for the provided resources on behalf of the
+   * provided holder. If another set of resources with the identical XML Schema
+   * closure was already compiled, the existing {@link Schema} is returned. A
+   * holder holds at most one XML Schema - if the closure of a holder changed,
+   * the previous XML Schema is released.
+   *
+   * @param aHolder
+   *        The object that holds the XML Schema until it is released with
+   *        {@link #release(Object)}. Holders are compared by identity. May be
+   *        <code>null</code>.
+   * @param aResources
+   *        The main XML Schema resources. May neither be <code>null</code> nor
+   *        empty.
+   * @return The compiled schema. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XML Schema could not be compiled
+   */
+  @Nonnull
+  public Schema getSchema (@Nullable final Object aHolder, @Nonnull @Nonempty final IReadableResource... aResources)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aResources, "Resources");
+
+    final Set <String> aVisited = new CommonsHashSet <> ();
+    final ICommonsOrderedMap <String, byte []> aClosure = new CommonsLinkedHashMap <> ();
+    for (final IReadableResource aRes : aResources)
+      _addToClosure (aRes, aVisited, aClosure);
+    final String sHash = _getClosureHash (aClosure);
+
+    // Only register the entry in the map - compile outside of the lock
+    // The locations of the closure - requests for the same locations are not
+    // counted as shared
+    final String sLocationKey = StringHelper.getImploded ('\n', aClosure.keySet ());
+    final Entry aNewEntry = new Entry (sLocationKey);
+    final Entry aOldEntry = m_aLock.lockedGet ( () -> m_aByClosureHash.putIfAbsent (sHash, aNewEntry));
+    final Schema ret;
+    if (aOldEntry == null)
+    {
+      try
+      {
+        ret = _compile (aResources);
+      }
+      catch (final RuntimeException ex)
+      {
+        m_aLock.locked ( () -> m_aByClosureHash.remove (sHash, aNewEntry));
+        aNewEntry.m_aFuture.completeExceptionally (ex);
+        throw ex;
+      }
+      aNewEntry.m_aFuture.complete (ret);
+      m_aCompiledCount.incrementAndGet ();
+      LOGGER.info ("Compiled XML Schema closure " + sHash + " with " + aClosure.size () + " document(s)");
+    }
+    else
+    {
+      try
+      {
+        ret = aOldEntry.m_aFuture.join ();
+      }
+      catch (final CompletionException ex)
+      {
+        if (ex.getCause () instanceof RuntimeException)
+          throw (RuntimeException) ex.getCause ();
+        throw ex;
+      }
+      if (!sLocationKey.equals (aOldEntry.m_sLocationKey))
+      {
+        long nBytes = 0;
+        for (final byte [] aBytes : aClosure.values ())
+          nBytes += aBytes.length;
+        m_aSharedCount.incrementAndGet ();
+        m_aSavedBytes.addAndGet (nBytes);
+        LOGGER.info ("Sharing compiled XML Schema closure " + sHash + " for " + _getResourceKey (aResources).trim ());
+      }
+    }
+
+    if (aHolder != null)
+      m_aLock.locked ( () -> _addHolder (aHolder, sHash));
+    return ret;
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _addHolder (@Nonnull final Object aHolder, @Nonnull final String sHash)
+  {
+    final Entry aEntry = m_aByClosureHash.get (sHash);
+    if (aEntry == null)
+    {
+      // Cleared in the meantime
+      return;
+    }
+    final String sOldHash = m_aHolders.put (aHolder, sHash);
+    if (!sHash.equals (sOldHash))
+    {
+      aEntry.m_nHolderCount++;
+      if (sOldHash != null)
+        _releaseHash (sOldHash);
+    }
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _releaseHash (@Nonnull final String sHash)
+  {
+    final Entry aEntry = m_aByClosureHash.get (sHash);
+    if (aEntry != null && --aEntry.m_nHolderCount <= 0)
+    {
+      m_aByClosureHash.remove (sHash);
+      LOGGER.info ("Released compiled XML Schema closure " + sHash);
+    }
+  }
+
+  /**
+   * Release the XML Schema of the provided holder. If it was the last holder,
+   * the compiled XML Schema is removed from the cache. Users of the XML Schema
+   * can continue to use it.
+   *
+   * @param aHolder
+   *        The holder that was passed to
+   *        {@link #getSchema(Object, IReadableResource...)}. May be
+   *        <code>null</code>.
+   * @return {@link EChange#CHANGED} if the holder was known.
+   */
+  @Nonnull
+  public EChange release (@Nullable final Object aHolder)
+  {
+    if (aHolder == null)
+      return EChange.UNCHANGED;
+
+    return m_aLock.lockedGet ( () -> {
+      final String sHash = m_aHolders.remove (aHolder);
+      if (sHash == null)
+        return EChange.UNCHANGED;
+      _releaseHash (sHash);
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * @return The number of compiled XML Schema closures currently in the cache.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public int getCachedCount ()
+  {
+    return m_aLock.lockedInt (m_aByClosureHash::size);
+  }
+
+  /**
+   * @return The number of distinct XML Schema closures that were compiled.
+   */
+  public long getCompiledCount ()
+  {
+    return m_aCompiledCount.get ();
+  }
+
+  /**
+   * @return The number of times an already compiled XML Schema was shared for
+   *         a different set of resources instead of compiling it again.
+   */
+  public long getSharedCount ()
+  {
+    return m_aSharedCount.get ();
+  }
+
+  /**
+   * @return The total number of XML Schema source bytes, that did not need to
+   *         be compiled again because of sharing. This is an indicator for the
+   *         memory saved, as the size of a compiled XML Schema is roughly
+   *         proportional to the size of its sources.
+   */
+  public long getSavedSourceBytes ()
+  {
+    return m_aSavedBytes.get ();
+  }
+
+  /**
+   * Remove all compiled XML Schemas and all holders from the cache. The
+   * statistics are not reset.
+   */
+  public void clearCache ()
+  {
+    m_aLock.locked ( () -> {
+      m_aByClosureHash.clear ();
+      m_aHolders.clear ();
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("CompiledCount", getCompiledCount ())
+                                       .append ("SharedCount", getSharedCount ())
+                                       .append ("SavedSourceBytes", getSavedSourceBytes ())
+                                       .getToString ();
+  }
+}
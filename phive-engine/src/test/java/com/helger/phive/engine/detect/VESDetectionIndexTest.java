@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.detect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.string.StringHelper;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.engine.schematron.ValidationExecutorSchematron;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+import com.helger.phive.engine.xsd.ValidationExecutorXSD;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link VESDetectionIndex}.
+ *
+ * @author Philip Helger
+ */
+public final class VESDetectionIndexTest
+{
+  private static final String NS_INVOICE = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2";
+  private static final String NS_CBC = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
+  private static final String XSD_INVOICE = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='" +
+                                            NS_INVOICE +
+                                            "'><xs:element name='Invoice' type='xs:anyType' /></xs:schema>";
+
+  private static final VESID VESID_A_1 = new VESID ("com.helger", "a", "1.0.0");
+  private static final VESID VESID_A_2 = new VESID ("com.helger", "a", "1.10.0");
+  private static final VESID VESID_B = new VESID ("com.helger", "b", "1.0.0");
+  private static final VESID VESID_C = new VESID ("com.helger", "c", "1.0.0");
+
+  @Nonnull
+  private static ValidationExecutorXSD _xsdInvoice ()
+  {
+    return ValidationExecutorXSD.create (new ReadableResourceByteArray (XSD_INVOICE.getBytes (StandardCharsets.UTF_8)));
+  }
+
+  @Nonnull
+  private static ValidationExecutorSchematron _sch (@Nonnull final String sPrerequisite)
+  {
+    return ValidationExecutorSchematron.createXSLT (new ClassPathResource ("schematron/test.sch"), sPrerequisite, null);
+  }
+
+  @Nonnull
+  private static IValidationSourceXML _ubl (@Nonnull final String sCustomizationID,
+                                            @Nonnull final String sProfileID,
+                                            @Nonnull final String sPrefix)
+  {
+    final String sXML = "<?xml version='1.0' encoding='UTF-8'?>" +
+                        "<Invoice xmlns='" +
+                        NS_INVOICE +
+                        "' xmlns:cbc='" +
+                        NS_CBC +
+                        "'>" +
+                        sPrefix +
+                        "<cbc:CustomizationID>" +
+                        sCustomizationID +
+                        "</cbc:CustomizationID><cbc:ProfileID>" +
+                        sProfileID +
+                        "</cbc:ProfileID><cbc:ID>1</cbc:ID></Invoice>";
+    return new ValidationSourceXMLSpooled ("ubl", ByteBuffer.wrap (sXML.getBytes (StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testDerivedFromRegistry ()
+  {
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    final String sPrereqA = "/ubl:Invoice/cbc:CustomizationID = 'urn:cust:a' and /ubl:Invoice/cbc:ProfileID = \"urn:prof:1\"";
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_A_1, "A 1", false, _xsdInvoice (), _sch (sPrereqA)));
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_A_2, "A 2", false, _xsdInvoice (), _sch (sPrereqA)));
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_B,
+                                                                           "B",
+                                                                           false,
+                                                                           _xsdInvoice (),
+                                                                           _sch ("cbc:CustomizationID eq 'urn:cust:b'")));
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_C,
+                                                                           "C",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ClassPathResource ("mini.xsd"))));
+
+    final VESDetectionIndex aIndex = new VESDetectionIndex ();
+    // A (two versions), B and C
+    assertEquals (4, aIndex.addAllFromRegistry (aRegistry));
+    assertEquals (3, aIndex.getKeyCount ());
+
+    // Exact match - latest version
+    IValidationSourceXML aSource = _ubl ("urn:cust:a", "urn:prof:1", "");
+    final VESDetectionKey aKey = aIndex.getDocumentKey (aSource);
+    assertEquals (new VESDetectionKey (NS_INVOICE, "Invoice", "urn:cust:a", "urn:prof:1"), aKey);
+    assertEquals (2, aIndex.getAllCandidateVESIDs (aKey).size ());
+    assertEquals (VESID_A_2, aIndex.detectVESID (aSource));
+    assertSame (aRegistry.getOfID (VESID_A_2), aIndex.detectVES (aSource, aRegistry));
+
+    // Fallback to the customization ID only
+    assertEquals (VESID_B, aIndex.detectVESID (_ubl ("urn:cust:b", "urn:prof:2", "")));
+
+    // Unknown customization ID and no root only mapping
+    assertNull (aIndex.detectVESID (_ubl ("urn:cust:x", "urn:prof:1", "")));
+
+    // Root element only
+    assertEquals (VESID_C,
+                  aIndex.detectVESID (new ValidationSourceXMLSpooled ("c", ByteBuffer.wrap ("<a xmlns='urn:a'>x</a>".getBytes (StandardCharsets.UTF_8)))));
+
+    // The customization ID is beyond the peeked bytes but directly follows
+    final String sPadding = StringHelper.getRepeated ('x', VESDetectionIndex.DEFAULT_PEEK_BYTES);
+    aSource = _ubl ("urn:cust:a", "urn:prof:1", "<!--" + sPadding + "-->");
+    assertEquals (VESID_A_2, aIndex.detectVESID (aSource));
+
+    // The customization ID follows a large extension element
+    aSource = _ubl ("urn:cust:a",
+                    "urn:prof:1",
+                    "<ext:UBLExtensions xmlns:ext='urn:ext'><ext:UBLExtension><ext:Content><x>" +
+                                  sPadding +
+                                  "</x></ext:Content></ext:UBLExtension></ext:UBLExtensions><cbc:UBLVersionID>2.1</cbc:UBLVersionID>");
+    assertEquals (new VESDetectionKey (NS_INVOICE, "Invoice", "urn:cust:a", "urn:prof:1"), aIndex.getDocumentKey (aSource));
+    assertEquals (VESID_A_2, aIndex.detectVESID (aSource));
+
+    // The customization ID follows another element with element content
+    aSource = _ubl ("urn:cust:a", "urn:prof:1", "<!--" + sPadding + "--><cac:Party xmlns:cac='urn:cac'><cac:Name>n</cac:Name></cac:Party>");
+    assertEquals (new VESDetectionKey (NS_INVOICE, "Invoice", null, null), aIndex.getDocumentKey (aSource));
+    assertNull (aIndex.detectVESID (aSource));
+    assertTrue (aIndex.addMapping (new VESDetectionKey (NS_INVOICE, "Invoice", null, null), VESID_B).isChanged ());
+    assertEquals (VESID_B, aIndex.detectVESID (aSource));
+    aIndex.setPeekBytes (2 * VESDetectionIndex.DEFAULT_PEEK_BYTES);
+    assertEquals (VESID_A_2, aIndex.detectVESID (aSource));
+
+    // Ambiguous
+    assertTrue (aIndex.addMapping (new VESDetectionKey (NS_INVOICE, "Invoice", "urn:cust:b", null), VESID_C).isChanged ());
+    assertNull (aIndex.detectVESID (_ubl ("urn:cust:b", "urn:prof:2", "")));
+
+    assertTrue (aIndex.removeAllMappings (VESID_C).isChanged ());
+    assertEquals (VESID_B, aIndex.detectVESID (_ubl ("urn:cust:b", "urn:prof:2", "")));
+  }
+
+  @Test
+  public void testCII ()
+  {
+    final String sXML = "<rsm:CrossIndustryInvoice xmlns:rsm='urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100'" +
+                        " xmlns:ram='urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100'>" +
+                        "<rsm:ExchangedDocumentContext>" +
+                        "<ram:BusinessProcessSpecifiedDocumentContextParameter><ram:ID>urn:prof</ram:ID></ram:BusinessProcessSpecifiedDocumentContextParameter>" +
+                        "<ram:GuidelineSpecifiedDocumentContextParameter><ram:ID>urn:cust</ram:ID></ram:GuidelineSpecifiedDocumentContextParameter>" +
+                        "</rsm:ExchangedDocumentContext>" +
+                        "</rsm:CrossIndustryInvoice>";
+    final VESDetectionKey aExpected = new VESDetectionKey ("urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100",
+                                                           "CrossIndustryInvoice",
+                                                           "urn:cust",
+                                                           "urn:prof");
+    final VESDetectionIndex aIndex = new VESDetectionIndex ();
+
+    // Streaming
+    assertEquals (aExpected,
+                  aIndex.getDocumentKey (new ValidationSourceXMLSpooled ("cii", ByteBuffer.wrap (sXML.getBytes (StandardCharsets.UTF_8)))));
+
+    // DOM
+    final IValidationSourceXML aDOMSource = ValidationSourceXML.create ("cii", DOMReader.readXMLDOM (sXML));
+    assertNotNull (aDOMSource.getNode ());
+    assertEquals (aExpected, aIndex.getDocumentKey (aDOMSource));
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.helger.commons.error.level.EErrorLevel;
+
+/**
+ * Test class for class {@link SchematronRuleTable}.
+ *
+ * @author Philip Helger
+ */
+public final class SchematronRuleTableTest
+{
+  @Test
+  public void testLRU ()
+  {
+    final SchematronRuleTable aTable = new SchematronRuleTable (3);
+    final SchematronRuleInfo aStatic = aTable.getInterned ("R1", EErrorLevel.ERROR, "test", "Static text");
+    assertSame (aStatic, aTable.getInterned ("R1", EErrorLevel.ERROR, "test", "Static text"));
+
+    // Dynamic texts do not prevent the interning of new entries
+    for (int i = 0; i < 10; ++i)
+    {
+      assertSame (aStatic, aTable.getInterned ("R1", EErrorLevel.ERROR, "test", "Static text"));
+      final SchematronRuleInfo aDynamic = aTable.getInterned ("R2", EErrorLevel.ERROR, "test", "Dynamic text " + i);
+      assertSame (aDynamic, aTable.getInterned ("R2", EErrorLevel.ERROR, "test", "Dynamic text " + i));
+    }
+    assertEquals (3, aTable.getSize ());
+
+    // The least recently used entry was dropped
+    final SchematronRuleInfo aOld = aTable.getInterned ("R2", EErrorLevel.ERROR, "test", "Dynamic text 0");
+    assertSame (aOld, aTable.getInterned ("R2", EErrorLevel.ERROR, "test", "Dynamic text 0"));
+    assertEquals (3, aTable.getSize ());
+
+    aTable.clear ();
+    assertEquals (0, aTable.getSize ());
+
+    // No interning at all
+    final SchematronRuleTable aEmpty = new SchematronRuleTable (0);
+    assertNotSame (aEmpty.getInterned ("R1", EErrorLevel.ERROR, "test", "Static text"),
+                   aEmpty.getInterned ("R1", EErrorLevel.ERROR, "test", "Static text"));
+    assertEquals (0, aEmpty.getSize ());
+  }
+}
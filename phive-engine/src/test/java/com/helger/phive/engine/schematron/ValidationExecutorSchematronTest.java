@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.schematron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.error.IError;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+import com.helger.schematron.pure.bound.PSBoundSchemaCache;
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+
+/**
+ * Test class for class {@link ValidationExecutorSchematron}.
+ *
+ * @author Philip Helger
+ */
+public final class ValidationExecutorSchematronTest
+{
+  private static final IReadableResource SCH = new ClassPathResource ("schematron/test.sch");
+  private static final IReadableResource XML_BAD = new ClassPathResource ("schematron/test-bad.xml");
+  private static final IReadableResource XML_GOOD = new ClassPathResource ("schematron/test-good.xml");
+
+  @Nonnull
+  private static ICommonsSortedSet <String> _getErrorIDs (@Nonnull final ValidationResult aResult)
+  {
+    final ICommonsSortedSet <String> ret = new CommonsTreeSet <> ();
+    for (final IError aError : aResult.getErrorList ())
+      ret.add (aError.getErrorID ());
+    return ret;
+  }
+
+  @Nonnull
+  private static ValidationResult _validate (@Nonnull final ValidationExecutorSchematron aExecutor,
+                                             @Nonnull final IValidationSourceXML aSource)
+  {
+    final ValidationResult ret = aExecutor.applyValidation (aSource, Locale.US);
+    assertNotNull (ret);
+    return ret;
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createSCH (SCH, null);
+    assertEquals ("[I-001, R-001, R-002]", _getErrorIDs (_validate (aExecutor, ValidationSourceXML.create (XML_BAD))).toString ());
+    assertTrue (_validate (aExecutor, ValidationSourceXML.create (XML_GOOD)).getErrorList ().isEmpty ());
+  }
+
+  @Test
+  public void testCompactTree ()
+  {
+    final ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createSCH (SCH, null)
+                                                                               .setUseCompactTree (true);
+    assertTrue (aExecutor.isUseCompactTree ());
+    for (final IValidationSourceXML aSource : new IValidationSourceXML [] { ValidationSourceXML.create (XML_BAD),
+                                                                           ValidationSourceXMLSpooled.create (XML_BAD) })
+    {
+      final ValidationResult aResult = _validate (aExecutor, aSource);
+      assertEquals ("[I-001, R-001, R-002]", _getErrorIDs (aResult).toString ());
+    }
+    assertTrue (_validate (aExecutor, ValidationSourceXMLSpooled.create (XML_GOOD)).getErrorList ().isEmpty ());
+  }
+
+  @Test
+  public void testCompactTreePrerequisite ()
+  {
+    final MapBasedNamespaceContext aNsCtx = new MapBasedNamespaceContext ().addMapping ("t", "urn:phive:test");
+    for (final boolean bCompact : new boolean [] { false, true })
+    {
+      // Prerequisite matches
+      ValidationExecutorSchematron aExecutor = new ValidationExecutorSchematron (ValidationExecutorSchematron.createSCH (SCH,
+                                                                                                                        null)
+                                                                                                             .getValidationArtefact (),
+                                                                                 "/t:root/t:note",
+                                                                                 aNsCtx).setUseCompactTree (bCompact);
+      assertEquals (3, _validate (aExecutor, ValidationSourceXMLSpooled.create (XML_BAD)).getErrorList ().size ());
+      // Again, with the compiled prerequisite
+      assertEquals (3, _validate (aExecutor, ValidationSourceXMLSpooled.create (XML_BAD)).getErrorList ().size ());
+
+      // Prerequisite does not match
+      aExecutor = new ValidationExecutorSchematron (aExecutor.getValidationArtefact (), "/t:other", aNsCtx)
+                                                                                                   .setUseCompactTree (bCompact);
+      assertTrue (_validate (aExecutor, ValidationSourceXMLSpooled.create (XML_BAD)).isIgnored ());
+      assertTrue (_validate (aExecutor, ValidationSourceXMLSpooled.create (XML_BAD)).isIgnored ());
+    }
+  }
+
+  @Test
+  public void testPhaseAndPatterns ()
+  {
+    for (final ValidationExecutorSchematron aExecutor : new ValidationExecutorSchematron [] { ValidationExecutorSchematron.createSCH (SCH,
+                                                                                                                                     null),
+                                                                                              ValidationExecutorSchematron.createPure (SCH,
+                                                                                                                                      null) })
+    {
+      aExecutor.setPhase ("phase-root");
+      assertEquals ("phase-root", aExecutor.getPhase ());
+      assertEquals ("[R-001, R-002]", _getErrorIDs (_validate (aExecutor, ValidationSourceXML.create (XML_BAD))).toString ());
+
+      aExecutor.setPhase (null).setPatternIDs (new CommonsArrayList <> ("p-item"));
+      assertEquals ("[I-001]", _getErrorIDs (_validate (aExecutor, ValidationSourceXML.create (XML_BAD))).toString ());
+
+      aExecutor.setPatternIDs (null);
+      assertEquals ("[I-001, R-001, R-002]", _getErrorIDs (_validate (aExecutor, ValidationSourceXML.create (XML_BAD))).toString ());
+    }
+  }
+
+  @Test
+  public void testPurePatternsCached ()
+  {
+    final ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createPure (SCH, null)
+                                                                               .setPatternIDs (new CommonsArrayList <> ("p-item"));
+    final PSBoundSchemaCache aCache = PSBoundSchemaCache.getInstance ();
+    final int nSizeBefore = aCache.size ();
+    assertEquals ("[I-001]", _getErrorIDs (_validate (aExecutor, ValidationSourceXML.create (XML_BAD))).toString ());
+    assertEquals ("[I-001]", _getErrorIDs (_validate (aExecutor, ValidationSourceXML.create (XML_BAD))).toString ());
+    // Only one cache entry for both validations
+    assertEquals (nSizeBefore + 1, aCache.size ());
+
+    aExecutor.removeItemFromCache ();
+    assertEquals (nSizeBefore, aCache.size ());
+  }
+
+  @Test
+  public void testPatternSubsetResourceEquals ()
+  {
+    final SchematronPatternSubsetResource aRes = new SchematronPatternSubsetResource (SCH, new CommonsArrayList <> ("p-item"));
+    final SchematronPatternSubsetResource aRes2 = new SchematronPatternSubsetResource (new ClassPathResource ("schematron/test.sch"),
+                                                                                      new CommonsArrayList <> ("p-item"));
+    assertEquals (aRes, aRes2);
+    assertEquals (aRes.hashCode (), aRes2.hashCode ());
+    assertFalse (aRes.equals (new SchematronPatternSubsetResource (SCH, new CommonsArrayList <> ("p-root"))));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testPhaseOnXSLT ()
+  {
+    ValidationExecutorSchematron.createXSLT (SCH, null).setPhase ("phase-root");
+  }
+
+  @Test
+  public void testCustomErrorLevels ()
+  {
+    final ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createSCH (SCH, null)
+                                                                               .addCustomErrorLevel ("R-001", EErrorLevel.WARN)
+                                                                               .addDroppedErrorID ("R-002");
+    final ValidationResult aResult = _validate (aExecutor, ValidationSourceXML.create (XML_BAD));
+    assertEquals ("[I-001, R-001]", _getErrorIDs (aResult).toString ());
+    for (final IError aError : aResult.getErrorList ())
+      if (aError.getErrorID ().equals ("R-001"))
+        assertEquals (EErrorLevel.WARN, aError.getErrorLevel ());
+      else
+        assertTrue (aError.isError ());
+  }
+
+  @Test
+  public void testCustomErrorLevelsOIOUBL ()
+  {
+    final ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createOIOUBL (new ClassPathResource ("schematron/test-oioubl.xslt"),
+                                                                                             null)
+                                                                               .addCustomErrorLevel ("F-TEST001", EErrorLevel.WARN)
+                                                                               .addDroppedErrorID ("F-TEST002");
+    final ValidationResult aResult = _validate (aExecutor, ValidationSourceXML.create (XML_BAD));
+    assertEquals ("[F-TEST001, F-TEST003]", _getErrorIDs (aResult).toString ());
+    for (final IError aError : aResult.getErrorList ())
+      if (aError.getErrorID ().equals ("F-TEST001"))
+        assertEquals (EErrorLevel.WARN, aError.getErrorLevel ());
+      else
+        assertTrue (aError.isError ());
+  }
+
+  @Test
+  public void testIsValid ()
+  {
+    for (final boolean bCompact : new boolean [] { false, true })
+    {
+      ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createSCH (SCH, null)
+                                                                           .setUseCompactTree (bCompact);
+      assertFalse (aExecutor.isValid (ValidationSourceXMLSpooled.create (XML_BAD)));
+      assertTrue (aExecutor.isValid (ValidationSourceXMLSpooled.create (XML_GOOD)));
+
+      // Only the warning remains
+      aExecutor = ValidationExecutorSchematron.createSCH (SCH, null)
+                                              .setUseCompactTree (bCompact)
+                                              .addDroppedErrorID ("I-001")
+                                              .addCustomErrorLevel ("R-001", EErrorLevel.INFO);
+      assertTrue (aExecutor.isValid (ValidationSourceXMLSpooled.create (XML_BAD)));
+    }
+
+    // Pure Schematron uses the full validation
+    assertFalse (ValidationExecutorSchematron.createPure (SCH, null).isValid (ValidationSourceXML.create (XML_BAD)));
+  }
+
+  @Test
+  public void testCompactErrors ()
+  {
+    final ValidationExecutorSchematron aExecutor = ValidationExecutorSchematron.createSCH (SCH, null)
+                                                                               .addCustomErrorLevel ("R-001", EErrorLevel.WARN)
+                                                                               .setUseCompactErrors (true);
+    assertTrue (aExecutor.isUseCompactErrors ());
+    final ValidationResult aResult1 = _validate (aExecutor, ValidationSourceXML.create (XML_BAD));
+    final ValidationResult aResult2 = _validate (aExecutor, ValidationSourceXML.create (XML_BAD));
+    assertEquals ("[I-001, R-001, R-002]", _getErrorIDs (aResult1).toString ());
+    assertEquals (3, aExecutor.getRuleTable ().getSize ());
+
+    for (int i = 0; i < 3; ++i)
+    {
+      final SchematronCompactError aError1 = (SchematronCompactError) aResult1.getErrorList ().get (i);
+      final SchematronCompactError aError2 = (SchematronCompactError) aResult2.getErrorList ().get (i);
+      // Rule information is shared
+      assertSame (aError1.getRule (), aError2.getRule ());
+      assertEquals (aError1, aError2);
+      assertNotNull (aError1.getTest ());
+      assertNotNull (aError1.getErrorText (Locale.US));
+      assertTrue (aError1.hasErrorLocation ());
+      if (aError1.getErrorID ().equals ("R-001"))
+        assertEquals (EErrorLevel.WARN, aError1.getErrorLevel ());
+    }
+  }
+
+  @Test
+  public void testRemoveItemFromCache ()
+  {
+    SchematronXSLTProviderCache.clearCache ();
+    final ValidationExecutorSchematron aExecutor1 = ValidationExecutorSchematron.createSCH (SCH, null);
+    aExecutor1.ensureItemIsInCache ();
+    assertEquals (1, SchematronXSLTProviderCache.getSize ());
+
+    // The compiled Schematron is shared with other executors
+    final ValidationExecutorSchematron aExecutor2 = ValidationExecutorSchematron.createSCH (SCH, null);
+    aExecutor2.ensureItemIsInCache ();
+    assertEquals (1, SchematronXSLTProviderCache.getSize ());
+
+    aExecutor1.removeItemFromCache ();
+    assertEquals (0, SchematronXSLTProviderCache.getSize ());
+
+    // Both executors can still be used
+    assertEquals ("[I-001, R-001, R-002]", _getErrorIDs (_validate (aExecutor1, ValidationSourceXML.create (XML_BAD))).toString ());
+    assertEquals ("[I-001, R-001, R-002]", _getErrorIDs (_validate (aExecutor2, ValidationSourceXML.create (XML_BAD))).toString ());
+
+    // Caching disabled
+    SchematronXSLTProviderCache.clearCache ();
+    final ValidationExecutorSchematron aExecutor3 = ValidationExecutorSchematron.createSCH (SCH, null)
+                                                                                .setCacheArtefact (false);
+    assertTrue (_validate (aExecutor3, ValidationSourceXML.create (XML_GOOD)).getErrorList ().isEmpty ());
+    assertEquals (0, SchematronXSLTProviderCache.getSize ());
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link ValidationSourceXMLSpooled}.
+ *
+ * @author Philip Helger
+ */
+public final class ValidationSourceXMLSpooledTest
+{
+  private static final byte [] XML = ("<?xml version='1.0'?><root xmlns='urn:test'><child>" +
+                                      StringHelper.getRepeated ('x', 1000) +
+                                      "</child></root>").getBytes (StandardCharsets.UTF_8);
+
+  private static void _assertContent (final ValidationSourceXMLSpooled aSource)
+  {
+    assertEquals (XML.length, aSource.getSize ());
+    assertArrayEquals (XML, StreamHelper.getAllBytes (aSource));
+    assertNotNull (aSource.getAsTransformSource ());
+    final Document aDoc = (Document) aSource.getNode ();
+    assertNotNull (aDoc);
+    assertEquals ("root", aDoc.getDocumentElement ().getLocalName ());
+    // Parsed only once
+    assertSame (aDoc, aSource.getNode ());
+  }
+
+  @Test
+  public void testInputStreamReadOnlyOnce ()
+  {
+    final AtomicInteger aOpenCount = new AtomicInteger (0);
+    final IHasInputStream aISP = new IHasInputStream ()
+    {
+      public InputStream getInputStream ()
+      {
+        aOpenCount.incrementAndGet ();
+        return new NonBlockingByteArrayInputStream (XML);
+      }
+
+      public boolean isReadMultiple ()
+      {
+        return true;
+      }
+    };
+
+    // In memory
+    ValidationSourceXMLSpooled aSource = ValidationSourceXMLSpooled.create ("test", aISP);
+    _assertContent (aSource);
+    _assertContent (aSource);
+    assertEquals (1, aOpenCount.get ());
+
+    // Spooled to a temporary file
+    aSource = ValidationSourceXMLSpooled.create ("test", aISP, 10);
+    _assertContent (aSource);
+    assertEquals (2, aOpenCount.get ());
+  }
+
+  @Test
+  public void testChannel ()
+  {
+    final ValidationSourceXMLSpooled aSource = ValidationSourceXMLSpooled.create ("test",
+                                                                                  Channels.newChannel (new NonBlockingByteArrayInputStream (XML)));
+    _assertContent (aSource);
+  }
+
+  @Test
+  public void testPath ()
+  {
+    final ValidationSourceXMLSpooled aSource = ValidationSourceXMLSpooled.create (Paths.get ("src/test/resources/mini.xsd"));
+    assertNotNull (aSource.getNode ());
+    assertEquals ("schema", ((Document) aSource.getNode ()).getDocumentElement ().getLocalName ());
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link ValidationSourceXML}.
+ *
+ * @author Philip Helger
+ */
+public final class ValidationSourceXMLTest
+{
+  @Test
+  public void testNodeFactoryInvokedOnce () throws Exception
+  {
+    final AtomicInteger aCount = new AtomicInteger (0);
+    final ValidationSourceXML aSource = new ValidationSourceXML ("test", () -> {
+      aCount.incrementAndGet ();
+      final Document aDoc = XMLFactory.newDocument ();
+      aDoc.appendChild (aDoc.createElement ("root"));
+      return aDoc;
+    }, false);
+    assertFalse (aSource.isNodeMaterialized ());
+
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    final Node [] aNodes = new Node [100];
+    for (int i = 0; i < aNodes.length; ++i)
+    {
+      final int nIndex = i;
+      aES.submit ( () -> aNodes[nIndex] = aSource.getNode ());
+    }
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+
+    assertTrue (aSource.isNodeMaterialized ());
+    assertEquals (1, aCount.get ());
+    for (final Node aNode : aNodes)
+      assertSame (aSource.getNode (), aNode);
+  }
+
+  @Test
+  public void testPrefetch () throws Exception
+  {
+    final AtomicInteger aCount = new AtomicInteger (0);
+    final ValidationSourceXML aSource = new ValidationSourceXML ("test", () -> {
+      aCount.incrementAndGet ();
+      return null;
+    }, false);
+
+    final ExecutorService aES = Executors.newSingleThreadExecutor ();
+    try
+    {
+      assertNull (aSource.prefetch (aES).get (10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+    assertTrue (aSource.isNodeMaterialized ());
+    // A null result is memoized as well
+    assertNull (aSource.prefetch ().getNode ());
+    assertEquals (1, aCount.get ());
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phive.api.executorset.VESID;
+
+/**
+ * Test class for class {@link CachingVOMArtifactResolver}.
+ *
+ * @author Philip Helger
+ */
+public final class CachingVOMArtifactResolverTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final File aBaseDir = new File ("target/test-maven-repo");
+    final File aDiskCacheDir = new File ("target/test-artifact-cache");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aBaseDir);
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDiskCacheDir);
+
+    final byte [] aXSD = StreamHelper.getAllBytes (new ClassPathResource ("schematron/test.xsd"));
+    final byte [] aSCH = StreamHelper.getAllBytes (new ClassPathResource ("schematron/test.sch"));
+    final MavenLayoutVOMArtifactResolver aMavenResolver = new MavenLayoutVOMArtifactResolver (aBaseDir);
+    final VESID aID1 = new VESID ("com.helger.test", "xsd", "1.0");
+    final VESID aID2 = new VESID ("com.helger.test", "xsd-copy", "1.0", "cl");
+    final VESID aID3 = new VESID ("com.helger.test", "sch", "1.0");
+    for (final Object [] aEntry : new Object [] [] { { aID1, "xsd", aXSD }, { aID2, "xsd", aXSD }, { aID3, "sch", aSCH } })
+    {
+      final File aFile = aMavenResolver.getArtifactFile ((VESID) aEntry[0], (String) aEntry[1]);
+      assertTrue (aFile.getParentFile ().mkdirs ());
+      SimpleFileIO.writeFile (aFile, (byte []) aEntry[2]);
+    }
+    assertTrue (aMavenResolver.getArtifactFile (aID2, "xsd").getPath ().endsWith ("xsd-copy-1.0-cl.xsd"));
+
+    // Nothing fits into memory
+    final CachingVOMArtifactResolver aResolver = new CachingVOMArtifactResolver (aMavenResolver, 0, aDiskCacheDir);
+    final IReadableResource aRes1 = aResolver.getArtifactOfID (aID1);
+    assertNotNull (aRes1);
+    assertSame (aRes1, aResolver.getArtifactOfID (aID1));
+    // Same content - same resource
+    assertSame (aRes1, aResolver.getArtifactOfID (aID2));
+    final IReadableResource aRes3 = aResolver.getArtifactOfID (aID3);
+    assertNotSame (aRes1, aRes3);
+    assertNull (aResolver.getArtifactOfID (new VESID ("com.helger.test", "xsd", "2.0")));
+    assertEquals (3, aResolver.getResolveCount ());
+    assertEquals (1, aResolver.getSharedCount ());
+    assertEquals (0, aResolver.getMemoryBytes ());
+
+    // Read from the disk cache
+    assertArrayEquals (aXSD, StreamHelper.getAllBytes (aRes1));
+    assertArrayEquals (aSCH, StreamHelper.getAllBytes (aRes3));
+    assertEquals (2, aResolver.getDiskHitCount ());
+
+    // Read from memory
+    final CachingVOMArtifactResolver aResolver2 = new CachingVOMArtifactResolver (aMavenResolver);
+    assertArrayEquals (aXSD, StreamHelper.getAllBytes (aResolver2.getArtifactOfID (aID1)));
+    assertEquals (1, aResolver2.getMemoryHitCount ());
+    assertEquals (aXSD.length, aResolver2.getMemoryBytes ());
+
+    // No temporary files are left in the disk cache
+    assertEquals (2, aDiskCacheDir.listFiles ().length);
+    for (final File aFile : aDiskCacheDir.listFiles ())
+      assertFalse (aFile.getName ().endsWith (".tmp"));
+
+    // Changed content under the same path gets a new resource ID
+    final byte [] aXSDChanged = ArrayHelper.getConcatenated (aXSD, "<!-- changed -->".getBytes (StandardCharsets.UTF_8));
+    SimpleFileIO.writeFile (aMavenResolver.getArtifactFile (aID1, "xsd"), aXSDChanged);
+    assertTrue (aResolver.evict (aID1).isChanged ());
+    final IReadableResource aRes1b = aResolver.getArtifactOfID (aID1);
+    assertEquals (aRes1.getPath (), aRes1b.getPath ());
+    assertNotEquals (aRes1.getResourceID (), aRes1b.getResourceID ());
+    assertArrayEquals (aXSDChanged, StreamHelper.getAllBytes (aRes1b));
+  }
+
+  @Test
+  public void testVerifyContent ()
+  {
+    final File aBaseDir = new File ("target/test-maven-repo-verify");
+    final File aDiskCacheDir = new File ("target/test-artifact-cache-verify");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aBaseDir);
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDiskCacheDir);
+
+    final byte [] aXSD = StreamHelper.getAllBytes (new ClassPathResource ("schematron/test.xsd"));
+    final MavenLayoutVOMArtifactResolver aMavenResolver = new MavenLayoutVOMArtifactResolver (aBaseDir);
+    final VESID aID = new VESID ("com.helger.test", "xsd", "1.0");
+    final File aArtifactFile = aMavenResolver.getArtifactFile (aID, "xsd");
+    assertTrue (aArtifactFile.getParentFile ().mkdirs ());
+    SimpleFileIO.writeFile (aArtifactFile, aXSD);
+
+    // Nothing fits into memory
+    final CachingVOMArtifactResolver aResolver = new CachingVOMArtifactResolver (aMavenResolver, 0, aDiskCacheDir);
+    final IReadableResource aRes = aResolver.getArtifactOfID (aID);
+    assertNotNull (aRes);
+    assertEquals (1, aDiskCacheDir.listFiles ().length);
+    final File aCacheFile = aDiskCacheDir.listFiles ()[0];
+
+    // A corrupt disk cache file is a miss
+    SimpleFileIO.writeFile (aCacheFile, "corrupt".getBytes (StandardCharsets.UTF_8));
+    assertArrayEquals (aXSD, StreamHelper.getAllBytes (aRes));
+    assertEquals (0, aResolver.getDiskHitCount ());
+    // And is replaced with the verified content
+    assertArrayEquals (aXSD, SimpleFileIO.getAllFileBytes (aCacheFile));
+    assertArrayEquals (aXSD, StreamHelper.getAllBytes (aRes));
+    assertEquals (1, aResolver.getDiskHitCount ());
+
+    // Changed content of the wrapped resource is not returned for the old hash
+    SimpleFileIO.writeFile (aArtifactFile, "<changed/>".getBytes (StandardCharsets.UTF_8));
+    assertTrue (aCacheFile.delete ());
+    assertNull (StreamHelper.getAllBytes (aRes));
+  }
+
+  @Test
+  public void testEvictReleasesContent ()
+  {
+    final byte [] aXSD = StreamHelper.getAllBytes (new ClassPathResource ("schematron/test.xsd"));
+    final VESID aID1 = new VESID ("com.helger.test", "xsd", "1.0");
+    final VESID aID2 = new VESID ("com.helger.test", "xsd-copy", "1.0");
+    final CachingVOMArtifactResolver aResolver = new CachingVOMArtifactResolver (x -> new ReadableResourceByteArray (aXSD));
+    final IReadableResource aRes1 = aResolver.getArtifactOfID (aID1);
+    assertSame (aRes1, aResolver.getArtifactOfID (aID2));
+    assertEquals (1, aResolver.getContentCount ());
+
+    // Still referenced by the second artifact
+    assertTrue (aResolver.evict (aID1).isChanged ());
+    assertFalse (aResolver.evict (aID1).isChanged ());
+    assertEquals (1, aResolver.getContentCount ());
+    assertSame (aRes1, aResolver.getArtifactOfID (aID1));
+
+    assertTrue (aResolver.evict (aID1).isChanged ());
+    assertTrue (aResolver.evict (aID2).isChanged ());
+    assertEquals (0, aResolver.getContentCount ());
+    assertNotSame (aRes1, aResolver.getArtifactOfID (aID1));
+  }
+}
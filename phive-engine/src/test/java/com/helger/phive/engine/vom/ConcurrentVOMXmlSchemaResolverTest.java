@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.validation.Schema;
+
+import org.junit.Test;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.xml.schema.XMLSchemaCache;
+
+/**
+ * Test class for class {@link ConcurrentVOMXmlSchemaResolver}.
+ *
+ * @author Philip Helger
+ */
+public final class ConcurrentVOMXmlSchemaResolverTest
+{
+  @Test
+  public void testConcurrentLoader () throws InterruptedException
+  {
+    final AtomicInteger aLoadCount = new AtomicInteger (0);
+    final ConcurrentVOMXmlSchemaResolver aResolver = new ConcurrentVOMXmlSchemaResolver ().addLoader ("test", () -> {
+      aLoadCount.incrementAndGet ();
+      return XMLSchemaCache.getInstance ().getSchema (new ClassPathResource ("schematron/test.xsd"));
+    });
+    assertTrue (aResolver.containsID ("test"));
+    assertFalse (aResolver.containsID ("other"));
+    assertTrue (aResolver.getAllMappings ().isEmpty ());
+    assertNull (aResolver.getXmlSchemaOfID ("other"));
+    assertNull (aResolver.getXmlSchemaOfID (null));
+
+    final Schema [] aResults = new Schema [100];
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    for (int i = 0; i < aResults.length; ++i)
+    {
+      final int nIndex = i;
+      aES.submit ( () -> {
+        aResults[nIndex] = aResolver.getXmlSchemaOfID ("test");
+      });
+    }
+    aES.shutdown ();
+    assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+
+    assertEquals (1, aLoadCount.get ());
+    assertNotNull (aResults[0]);
+    for (final Schema aSchema : aResults)
+      assertSame (aResults[0], aSchema);
+    assertEquals (1, aResolver.getAllMappings ().size ());
+
+    try
+    {
+      aResolver.addMapping ("test", aResults[0]);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    aResolver.setMapping ("test", aResults[0]);
+  }
+
+  @Test
+  public void testXSDLoaderAndEvict ()
+  {
+    final ConcurrentVOMXmlSchemaResolver aResolver = new ConcurrentVOMXmlSchemaResolver ().addXSDLoader ("test",
+                                                                                                       new ClassPathResource ("schematron/test.xsd"))
+                                                                                         .addXSDLoader ("mini",
+                                                                                                       new ClassPathResource ("mini.xsd"));
+    assertEquals (0, aResolver.getLoadCount ());
+    assertFalse (aResolver.isLoaded ("test"));
+
+    final Schema aSchema = aResolver.getXmlSchemaOfID ("test");
+    assertNotNull (aSchema);
+    assertSame (aSchema, aResolver.getXmlSchemaOfID ("test"));
+    assertTrue (aResolver.isLoaded ("test"));
+    assertFalse (aResolver.isLoaded ("mini"));
+    assertEquals (1, aResolver.getLoadCount ());
+
+    assertTrue (aResolver.evict ("test").isChanged ());
+    assertFalse (aResolver.evict ("test").isChanged ());
+    assertFalse (aResolver.isLoaded ("test"));
+    assertNotSame (aSchema, aResolver.getXmlSchemaOfID ("test"));
+    assertEquals (2, aResolver.getLoadCount ());
+
+    // Direct mappings cannot be evicted
+    aResolver.setMapping ("test", aSchema);
+    assertTrue (aResolver.evictAll ().isUnchanged ());
+    assertSame (aSchema, aResolver.getXmlSchemaOfID ("test"));
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.LazyValidationExecutorSetRegistry;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+import com.helger.phive.engine.vom.v10.VOMType;
+
+/**
+ * Test class for class {@link VOM1Bundle} and {@link VOM1BundleWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class VOM1BundleTest
+{
+  private static final VESID XSD_ID = new VESID ("com.helger", "test-xsd", "1.0");
+  private static final String VOM = "<ves xmlns='urn:com:helger:phive:vom:v1.0'>" +
+                                    "<id><groupId>com.helger</groupId><artifactId>bundle-test</artifactId><version>1.0</version></id>" +
+                                    "<name>Bundle test</name>" +
+                                    "<validation>" +
+                                    "<xsd><resource><groupId>com.helger</groupId><artifactId>test-xsd</artifactId><version>1.0</version></resource></xsd>" +
+                                    "<schematron><builtIn>test</builtIn>" +
+                                    "<option><name>phase</name><value>phase-root</value></option></schematron>" +
+                                    "<schematron><builtIn>test</builtIn></schematron>" +
+                                    "</validation>" +
+                                    "</ves>";
+
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final VOMType aVOM = new VOM1Marshaller ().read (VOM.getBytes (StandardCharsets.UTF_8));
+    assertNotNull (aVOM);
+
+    final IVOMResourceResolver aResourceResolver = new MapBasedVOMResourceResolver ().addMapping ("test",
+                                                                                                  new ClassPathResource ("schematron/test.sch"));
+    final IVOMArtifactResolver aArtifactResolver = x -> XSD_ID.equals (x) ? new ClassPathResource ("schematron/test.xsd")
+                                                                         : null;
+    final VOM1Converter aConverter = new VOM1Converter ().resourceResolver (aResourceResolver)
+                                                         .artifactResolver (aArtifactResolver);
+
+    // Reference result
+    final ValidationExecutorSet <IValidationSourceXML> aOrigVES = aConverter.convertToVES_XML (aVOM, new ErrorList ());
+    assertNotNull (aOrigVES);
+
+    final File aFile = new File ("target/vom-bundle-test.zip");
+    new VOM1BundleWriter ().resourceResolver (aResourceResolver).artifactResolver (aArtifactResolver).addVOM (aVOM).write (aFile);
+
+    try (final VOM1Bundle aBundle = VOM1Bundle.open (aFile))
+    {
+      assertEquals (1, aBundle.getAllVESIDs ().size ());
+      assertEquals (aOrigVES.getID (), aBundle.getAllVESIDs ().getFirst ());
+
+      final LazyValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new LazyValidationExecutorSetRegistry <> ();
+      aBundle.registerAll (aConverter, aRegistry);
+      assertEquals (0, aRegistry.getCompilationCount ());
+
+      final IValidationExecutorSet <IValidationSourceXML> aBundleVES = aRegistry.getOfID (aOrigVES.getID ());
+      assertNotNull (aBundleVES);
+      assertEquals (3, aBundleVES.getCount ());
+
+      for (final String sFile : new String [] { "schematron/test-good.xml", "schematron/test-bad.xml" })
+      {
+        final ValidationResultList aOrigResults = ValidationExecutionManager.executeValidation (aOrigVES,
+                                                                                                 ValidationSourceXMLSpooled.create (new ClassPathResource (sFile)),
+                                                                                                 Locale.US);
+        final ValidationResultList aBundleResults = ValidationExecutionManager.executeValidation (aBundleVES,
+                                                                                                   ValidationSourceXMLSpooled.create (new ClassPathResource (sFile)),
+                                                                                                   Locale.US);
+        assertEquals (aOrigResults.getAllCount (null), aBundleResults.getAllCount (null));
+        assertEquals (aOrigResults.getAllErrorCount (), aBundleResults.getAllErrorCount ());
+      }
+    }
+    assertTrue (aFile.delete ());
+  }
+}
@@ -16,11 +16,21 @@
  */
 package com.helger.phive.engine.vom;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.xml.validation.Schema;
 
 import org.junit.Test;
@@ -28,16 +38,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.io.file.FileSystemIterator;
 import com.helger.commons.io.file.IFileFilter;
+import com.helger.commons.io.resource.ClassPathResource;
 import com.helger.commons.io.resource.IReadableResource;
 import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.api.executorset.LazyValidationExecutorSetRegistry;
+import com.helger.phive.api.executorset.VESID;
 import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.result.ValidationResultList;
 import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
 import com.helger.phive.engine.vom.VOM1ComplianceSettings.IEdifactValidationExecutorProviderXML;
+import com.helger.phive.engine.vom.v10.VOMErrorLevel;
 import com.helger.phive.engine.vom.v10.VOMType;
 import com.helger.phive.engine.xsd.ValidationExecutorXSD;
+import com.helger.phive.engine.xsd.XSDClosureSchemaCache;
 import com.helger.xml.namespace.MapBasedNamespaceContext;
 import com.helger.xml.schema.XMLSchemaCache;
 
@@ -50,6 +71,54 @@ public final class VOM1ConverterTest
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (VOM1ConverterTest.class);
 
+  @Nonnull
+  private static VOM1Converter _createConverter (@Nonnull final IVOMArtifactResolver aAR)
+  {
+    final IReadableResource aFakeXSD = new ReadableResourceByteArray ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns=\"urn:1\" targetNamespace=\"urn:a\" version=\"1.0\"><xs:element name=\"a\" type=\"xs:string\" /></xs:schema>".getBytes (StandardCharsets.ISO_8859_1));
+    final Schema aFakeSchema = XMLSchemaCache.getInstance ().getSchema (aFakeXSD);
+
+    final IVOMXmlSchemaResolver aXmlSchemaResolver = new MapBasedVOMXmlSchemaResolver ().addMapping ("ubl21-invoice", aFakeSchema);
+    final IVOMNamespaceContextResolver aNamespaceContextResolver = new MapBasedVOMNamespaceContextResolver ().addMapping ("ubl21",
+                                                                                                                          new MapBasedNamespaceContext ().addMapping ("a",
+                                                                                                                                                                      "urn:a"));
+    final IVOMResourceResolver aResourceResolver = new MapBasedVOMResourceResolver ().addMapping ("cius-pt-200",
+                                                                                                  new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
+                                                                                     .addMapping ("cius-pt-201",
+                                                                                                  new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
+                                                                                     .addMapping ("atnat-invoice-6",
+                                                                                                  new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
+                                                                                     .addMapping ("xrechnung-ublinv-200",
+                                                                                                  new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
+                                                                                     .addMapping ("en16931-ublinv-132",
+                                                                                                  new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY));
+    final IEdifactValidationExecutorProviderXML aEdifactProvider = (sDirectory, sMessage, aOptions) -> {
+      if (sDirectory.equals ("d01b") && sMessage.equals ("DESADV"))
+        return ValidationExecutorXSD.create (aFakeXSD);
+      return null;
+    };
+    final VOM1ComplianceSettings aSettings = VOM1ComplianceSettings.builder ()
+                                                                   .allowEdifact (true)
+                                                                   .edifactValidationExecutorProviderXML (aEdifactProvider)
+                                                                   .build ();
+    return new VOM1Converter ().xmlSchemaResolver (aXmlSchemaResolver)
+                               .namespaceContextResolver (aNamespaceContextResolver)
+                               .resourceResolver (aResourceResolver)
+                               .complianceSettings (aSettings)
+                               .artifactResolver (aAR)
+                               .validationEnabled (true);
+  }
+
+  @Nullable
+  private static IReadableResource _resolveArtifact (@Nonnull final VESID aVESID)
+  {
+    switch (aVESID.getAsSingleID ())
+    {
+      case "com.helger:test-special:1.5.678":
+        return new ReadableResourceByteArray ("crap".getBytes (StandardCharsets.ISO_8859_1));
+    }
+    return null;
+  }
+
   @Test
   public void testReadGoodExamples ()
   {
@@ -60,49 +129,122 @@ public final class VOM1ConverterTest
       final VOMType aVOM = m.read (f);
       assertNotNull (aVOM);
 
-      final IReadableResource aFakeXSD = new ReadableResourceByteArray ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns=\"urn:1\" targetNamespace=\"urn:a\" version=\"1.0\"><xs:element name=\"a\" type=\"xs:string\" /></xs:schema>".getBytes (StandardCharsets.ISO_8859_1));
-      final Schema aFakeSchema = XMLSchemaCache.getInstance ().getSchema (aFakeXSD);
-
-      final IVOMXmlSchemaResolver aXmlSchemaResolver = new MapBasedVOMXmlSchemaResolver ().addMapping ("ubl21-invoice", aFakeSchema);
-      final IVOMNamespaceContextResolver aNamespaceContextResolver = new MapBasedVOMNamespaceContextResolver ().addMapping ("ubl21",
-                                                                                                                            new MapBasedNamespaceContext ().addMapping ("a",
-                                                                                                                                                                        "urn:a"));
-      final IVOMResourceResolver aResourceResolver = new MapBasedVOMResourceResolver ().addMapping ("cius-pt-200",
-                                                                                                    new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
-                                                                                       .addMapping ("cius-pt-201",
-                                                                                                    new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
-                                                                                       .addMapping ("atnat-invoice-6",
-                                                                                                    new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
-                                                                                       .addMapping ("xrechnung-ublinv-200",
-                                                                                                    new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY))
-                                                                                       .addMapping ("en16931-ublinv-132",
-                                                                                                    new ReadableResourceByteArray (ArrayHelper.EMPTY_BYTE_ARRAY));
-      final IVOMArtifactResolver aAR = aVESID -> {
-        switch (aVESID.getAsSingleID ())
-        {
-          case "com.helger:test-special:1.5.678":
-            return new ReadableResourceByteArray ("crap".getBytes (StandardCharsets.ISO_8859_1));
-        }
-        return null;
-      };
-      final IEdifactValidationExecutorProviderXML aEdifactProvider = (sDirectory, sMessage, aOptions) -> {
-        if (sDirectory.equals ("d01b") && sMessage.equals ("DESADV"))
-          return ValidationExecutorXSD.create (aFakeXSD);
-        return null;
-      };
-      final VOM1ComplianceSettings aSettings = VOM1ComplianceSettings.builder ()
-                                                                     .allowEdifact (true)
-                                                                     .edifactValidationExecutorProviderXML (aEdifactProvider)
-                                                                     .build ();
       final ErrorList aErrorList = new ErrorList ();
-      final VOM1Converter aConverter1 = new VOM1Converter ().xmlSchemaResolver (aXmlSchemaResolver)
-                                                            .namespaceContextResolver (aNamespaceContextResolver)
-                                                            .resourceResolver (aResourceResolver)
-                                                            .complianceSettings (aSettings)
-                                                            .artifactResolver (aAR)
-                                                            .validationEnabled (true);
+      final VOM1Converter aConverter1 = _createConverter (VOM1ConverterTest::_resolveArtifact);
       final ValidationExecutorSet <IValidationSourceXML> aVES = aConverter1.convertToVES_XML (aVOM, aErrorList);
       assertNotNull (aErrorList.toString (), aVES);
     }
   }
+
+  @Test
+  public void testConvertAll ()
+  {
+    final VOM1Marshaller m = new VOM1Marshaller ();
+    final ICommonsList <VOMType> aVOMs = new CommonsArrayList <> ();
+    for (final File f : new FileSystemIterator (new File ("src/test/resources/vom/good")).withFilter (IFileFilter.filenameEndsWith (".xml")))
+    {
+      final VOMType aVOM = m.read (f);
+      assertNotNull (aVOM);
+      // Add each VOM twice, to ensure artifacts are resolved only once
+      aVOMs.add (aVOM);
+      aVOMs.add (aVOM);
+    }
+
+    final AtomicInteger aResolveCount = new AtomicInteger (0);
+    final ICommonsList <VOM1ConversionResult> aResults = _createConverter (aVESID -> {
+      aResolveCount.incrementAndGet ();
+      return _resolveArtifact (aVESID);
+    }).convertAllToVES_XML (aVOMs, ForkJoinPool.commonPool ());
+    assertEquals (aVOMs.size (), aResults.size ());
+    for (int i = 0; i < aVOMs.size (); ++i)
+    {
+      final VOM1ConversionResult aResult = aResults.get (i);
+      assertSame (aVOMs.get (i), aResult.getVOM ());
+      assertNotNull (aResult.getErrorList ().toString (), aResult.getVES ());
+    }
+    assertEquals (1, aResolveCount.get ());
+  }
+
+  @Test
+  public void testGetAsErrorLevel ()
+  {
+    assertSame (EErrorLevel.INFO, VOM1Converter.getAsErrorLevel (VOMErrorLevel.INFO));
+    assertSame (EErrorLevel.WARN, VOM1Converter.getAsErrorLevel (VOMErrorLevel.WARN));
+    assertSame (EErrorLevel.ERROR, VOM1Converter.getAsErrorLevel (VOMErrorLevel.ERROR));
+    try
+    {
+      // Must be handled by the caller
+      VOM1Converter.getAsErrorLevel (VOMErrorLevel.DROP);
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testXSDSchemaCacheEviction ()
+  {
+    final VESID aXSDID = new VESID ("com.helger", "test-xsd", "1.0");
+    final VESID aVESID = new VESID ("com.helger", "ves-evict", "1.0");
+    final String sVOM = "<ves xmlns='urn:com:helger:phive:vom:v1.0'>" +
+                        "<id><groupId>com.helger</groupId><artifactId>ves-evict</artifactId><version>1.0</version></id>" +
+                        "<name>Eviction test</name>" +
+                        "<validation>" +
+                        "<xsd><resource><groupId>com.helger</groupId><artifactId>test-xsd</artifactId><version>1.0</version></resource></xsd>" +
+                        "</validation>" +
+                        "</ves>";
+    final VOMType aVOM = new VOM1Marshaller ().read (sVOM.getBytes (StandardCharsets.UTF_8));
+    assertNotNull (aVOM);
+
+    final XSDClosureSchemaCache aSchemaCache = new XSDClosureSchemaCache ();
+    final VOM1Converter aConverter = new VOM1Converter ().artifactResolver (x -> aXSDID.equals (x) ? new ClassPathResource ("schematron/test.xsd")
+                                                                                                  : null)
+                                                         .xsdSchemaCache (aSchemaCache);
+    final LazyValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new LazyValidationExecutorSetRegistry <> ();
+    aRegistry.registerLazyValidationExecutorSet (aVESID, () -> aConverter.convertToVES_XML (aVOM, new ErrorList ()));
+
+    // The XML Schema is compiled on first usage
+    final ValidationResultList aResult = ValidationExecutionManager.executeValidation (aRegistry.getOfID (aVESID),
+                                                                                       ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-good.xml")),
+                                                                                       Locale.US);
+    assertEquals (0, aResult.getAllErrorCount ());
+    assertEquals (1, aSchemaCache.getCachedCount ());
+
+    // Evicting the VES releases the XML Schema
+    assertTrue (aRegistry.evict (aVESID).isChanged ());
+    assertEquals (0, aSchemaCache.getCachedCount ());
+  }
+
+  @Test
+  public void testConvertAllInvalidSchematron ()
+  {
+    final String sVOM = "<ves xmlns='urn:com:helger:phive:vom:v1.0'>" +
+                        "<id><groupId>com.helger</groupId><artifactId>ves-invalid-sch</artifactId><version>1.0</version></id>" +
+                        "<name>Invalid Schematron</name>" +
+                        "<validation>" +
+                        "<schematron><builtIn>invalid</builtIn></schematron>" +
+                        "</validation>" +
+                        "</ves>";
+    final VOMType aVOM = new VOM1Marshaller ().read (sVOM.getBytes (StandardCharsets.UTF_8));
+    assertNotNull (aVOM);
+
+    final String sSCH = "<schema xmlns='http://purl.oclc.org/dsdl/schematron'>" +
+                        "<pattern><rule context='/'><assert test='((('>broken</assert></rule></pattern>" +
+                        "</schema>";
+    final VOM1Converter aConverter = new VOM1Converter ().resourceResolver (new MapBasedVOMResourceResolver ().addMapping ("invalid",
+                                                                                                                        new ReadableResourceByteArray ("invalid-sch-" +
+                                                                                                                                                       VOM1ConverterTest.class.getName (),
+                                                                                                                                                       sSCH.getBytes (StandardCharsets.UTF_8))));
+    final ICommonsList <VOM1ConversionResult> aResults = aConverter.convertAllToVES_XML (new CommonsArrayList <> (aVOM),
+                                                                                         ForkJoinPool.commonPool ());
+    assertEquals (1, aResults.size ());
+    final VOM1ConversionResult aResult = aResults.getFirst ();
+    // The VES was created, but the broken Schematron is reported
+    assertNotNull (aResult.getVES ());
+    assertFalse (aResult.isSuccess ());
+    assertTrue (aResult.getErrorList ().toString (),
+                aResult.getErrorList ().containsAny (x -> x.getErrorText (Locale.US).contains ("Invalid Schematron")));
+  }
 }
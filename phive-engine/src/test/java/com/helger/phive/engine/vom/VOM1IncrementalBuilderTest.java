@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.vom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.schematron.SchematronXSLTProviderCache;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+import com.helger.phive.engine.vom.v10.VOMType;
+import com.helger.phive.engine.xsd.XSDClosureSchemaCache;
+
+/**
+ * Test class for class {@link VOM1IncrementalBuilder}.
+ *
+ * @author Philip Helger
+ */
+public final class VOM1IncrementalBuilderTest
+{
+  private static final VESID XSD_ID_A = new VESID ("com.helger", "test-xsd-a", "1.0");
+  private static final VESID XSD_ID_B = new VESID ("com.helger", "test-xsd-b", "1.0");
+
+  @Nonnull
+  private static VOMType _createVOM (@Nonnull final String sArtifactID, @Nonnull final VESID aXSDID)
+  {
+    final String sVOM = "<ves xmlns='urn:com:helger:phive:vom:v1.0'>" +
+                        "<id><groupId>com.helger</groupId><artifactId>" +
+                        sArtifactID +
+                        "</artifactId><version>1.0</version></id>" +
+                        "<name>Incremental test</name>" +
+                        "<validation>" +
+                        "<xsd><resource><groupId>com.helger</groupId><artifactId>" +
+                        aXSDID.getArtifactID () +
+                        "</artifactId><version>1.0</version></resource></xsd>" +
+                        "<schematron><builtIn>test</builtIn></schematron>" +
+                        "</validation>" +
+                        "</ves>";
+    final VOMType ret = new VOM1Marshaller ().read (sVOM.getBytes (StandardCharsets.UTF_8));
+    assertNotNull (ret);
+    return ret;
+  }
+
+  private static int _getErrorCount (@Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES)
+  {
+    return ValidationExecutionManager.executeValidation (aVES,
+                                                         ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-good.xml")),
+                                                         Locale.US)
+                                     .getAllErrorCount ();
+  }
+
+  private static boolean _containsSchematronWithoutGeneration ()
+  {
+    return SchematronXSLTProviderCache.getAllCacheKeys ()
+                                      .containsAny (x -> x.contains ("schematron/test.sch") && !x.contains ("#generation-"));
+  }
+
+  @Test
+  public void testArtifactChanged ()
+  {
+    SchematronXSLTProviderCache.clearCache ();
+    final AtomicReference <String> aXSDPathA = new AtomicReference <> ("schematron/test.xsd");
+    final IVOMResourceResolver aResourceResolver = new MapBasedVOMResourceResolver ().addMapping ("test",
+                                                                                                  new ClassPathResource ("schematron/test.sch"));
+    final IVOMArtifactResolver aArtifactResolver = x -> XSD_ID_A.equals (x) ? new ClassPathResource (aXSDPathA.get ())
+                                                                           : XSD_ID_B.equals (x) ? new ClassPathResource ("schematron/test.xsd")
+                                                                                                 : null;
+    final VOM1Converter aConverter = new VOM1Converter ().resourceResolver (aResourceResolver)
+                                                         .artifactResolver (aArtifactResolver);
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    final VOM1IncrementalBuilder aBuilder = new VOM1IncrementalBuilder (aConverter, aRegistry);
+
+    final VOMType aVOMA = _createVOM ("ves-a", XSD_ID_A);
+    final VOMType aVOMB = _createVOM ("ves-b", XSD_ID_B);
+    final VESID aIDA = new VESID ("com.helger", "ves-a", "1.0");
+    final VESID aIDB = new VESID ("com.helger", "ves-b", "1.0");
+    assertTrue (aBuilder.add (aVOMA).isSuccess ());
+    assertTrue (aBuilder.add (aVOMB).isSuccess ());
+    assertEquals (2, aBuilder.getConversionCount ());
+    assertEquals (2, aBuilder.getAllDependencyKeys (aIDA).size ());
+    assertEquals (2, aBuilder.getAllDependentVESIDs (VOM1IncrementalBuilder.getBuiltInResourceDependencyKey ("test")).size ());
+    assertEquals (1, aBuilder.getAllDependentVESIDs (VOM1IncrementalBuilder.getArtifactDependencyKey (XSD_ID_A)).size ());
+
+    final IValidationExecutorSet <IValidationSourceXML> aVESA = aRegistry.getOfID (aIDA);
+    final IValidationExecutorSet <IValidationSourceXML> aVESB = aRegistry.getOfID (aIDB);
+    assertNotNull (aVESA);
+    assertNotNull (aVESB);
+    final int nErrorsBefore = _getErrorCount (aVESA);
+
+    // Change the content of artifact A - only VES A is rebuilt
+    aXSDPathA.set ("mini.xsd");
+    final ICommonsList <VOM1ConversionResult> aResults = aBuilder.artifactsChanged (XSD_ID_A);
+    assertEquals (1, aResults.size ());
+    assertTrue (aResults.getFirst ().isSuccess ());
+    assertEquals (3, aBuilder.getConversionCount ());
+    assertNotSame (aVESA, aRegistry.getOfID (aIDA));
+    assertSame (aVESB, aRegistry.getOfID (aIDB));
+
+    // The changed XML Schema is used and not the previously cached one
+    assertNotEquals (nErrorsBefore, _getErrorCount (aRegistry.getOfID (aIDA)));
+    assertEquals (nErrorsBefore, _getErrorCount (aVESB));
+
+    // A change of the shared Schematron rebuilds both
+    assertTrue (_containsSchematronWithoutGeneration ());
+    assertEquals (2, aBuilder.dependenciesChanged (aBuilder.getAllDependencyKeys (aIDB)).size ());
+    assertEquals (5, aBuilder.getConversionCount ());
+    // The previous generation is no longer cached
+    assertFalse (_containsSchematronWithoutGeneration ());
+    assertEquals (0, _getErrorCount (aRegistry.getOfID (aIDB)));
+    assertTrue (SchematronXSLTProviderCache.getSize () > 0);
+
+    assertTrue (aBuilder.remove (aIDA).isChanged ());
+    assertEquals (0, aBuilder.getAllDependentVESIDs (VOM1IncrementalBuilder.getArtifactDependencyKey (XSD_ID_A)).size ());
+    assertNull (aRegistry.getOfID (aIDA));
+  }
+
+  @Test
+  public void testXSDChangedOnDisk ()
+  {
+    final File aDir = new File ("target/test-incremental-xsd");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    FileOperationManager.INSTANCE.createDirRecursive (aDir);
+    final File aXSDFile = new File (aDir, "test.xsd");
+    final String sXSD = StreamHelper.getAllBytesAsString (new ClassPathResource ("schematron/test.xsd"),
+                                                          StandardCharsets.UTF_8);
+    SimpleFileIO.writeFile (aXSDFile, sXSD, StandardCharsets.UTF_8);
+
+    final XSDClosureSchemaCache aSchemaCache = new XSDClosureSchemaCache ();
+    final IVOMResourceResolver aResourceResolver = new MapBasedVOMResourceResolver ().addMapping ("test",
+                                                                                                  new ClassPathResource ("schematron/test.sch"));
+    final IVOMArtifactResolver aArtifactResolver = x -> XSD_ID_A.equals (x) ? new FileSystemResource (aXSDFile) : null;
+    final VOM1Converter aConverter = new VOM1Converter ().resourceResolver (aResourceResolver)
+                                                         .artifactResolver (aArtifactResolver)
+                                                         .xsdSchemaCache (aSchemaCache);
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    final VOM1IncrementalBuilder aBuilder = new VOM1IncrementalBuilder (aConverter, aRegistry);
+    final VESID aIDA = new VESID ("com.helger", "ves-a", "1.0");
+    assertTrue (aBuilder.add (_createVOM ("ves-a", XSD_ID_A)).isSuccess ());
+
+    // The old XML Schema accepts the document
+    assertEquals (0, _getErrorCount (aRegistry.getOfID (aIDA)));
+    assertEquals (1, aSchemaCache.getCachedCount ());
+
+    // Change the XML Schema at the same location, so that the document is
+    // rejected
+    SimpleFileIO.writeFile (aXSDFile, sXSD.replace ("name=\"id\"", "name=\"identifier\""), StandardCharsets.UTF_8);
+    assertTrue (aBuilder.artifactsChanged (XSD_ID_A).getFirst ().isSuccess ());
+    assertTrue (_getErrorCount (aRegistry.getOfID (aIDA)) > 0);
+    assertEquals (2, aSchemaCache.getCompiledCount ());
+    // The XML Schema of the replaced VES was released
+    assertEquals (1, aSchemaCache.getCachedCount ());
+
+    assertTrue (aBuilder.remove (aIDA).isChanged ());
+    assertEquals (0, aSchemaCache.getCachedCount ());
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.xsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.state.EValidity;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.phive.engine.schematron.ValidationExecutorSchematron;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+
+/**
+ * Test class for class {@link ValidationExecutorXSD}.
+ *
+ * @author Philip Helger
+ */
+public final class ValidationExecutorXSDTest
+{
+  private static final IReadableResource XSD = new ClassPathResource ("schematron/test.xsd");
+  private static final IReadableResource SCH = new ClassPathResource ("schematron/test.sch");
+
+  private static ValidationExecutionManager <IValidationSourceXML> _createManager (final boolean bUsePipeline)
+  {
+    return new ValidationExecutionManager <IValidationSourceXML> ().addExecutor (ValidationExecutorXSD.create (XSD)
+                                                                                                     .setStopValidationOnError (true))
+                                                                  .addExecutor (ValidationExecutorSchematron.createSCH (SCH,
+                                                                                                                        null))
+                                                                  .setUsePipeline (bUsePipeline);
+  }
+
+  @Test
+  public void testPipeline ()
+  {
+    for (final boolean bUsePipeline : new boolean [] { false, true })
+    {
+      final ValidationExecutionManager <IValidationSourceXML> aMgr = _createManager (bUsePipeline);
+      assertEquals (bUsePipeline, aMgr.isUsePipeline ());
+
+      // XSD valid, Schematron errors
+      ValidationSourceXMLSpooled aSource = ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-bad.xml"));
+      ValidationResultList aResults = aMgr.executeValidation (aSource, Locale.US);
+      assertEquals (2, aResults.size ());
+      assertTrue (aResults.get (0).isSuccess ());
+      assertEquals (3, aResults.get (1).getErrorList ().size ());
+      // The lazy DOM of the source is never created
+      assertFalse (aSource.isNodeMaterialized ());
+
+      // XSD invalid, Schematron ignored
+      aSource = ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-bad-xsd.xml"));
+      aResults = aMgr.executeValidation (aSource, Locale.US);
+      assertTrue (aResults.get (0).isFailure ());
+      assertTrue (aResults.get (1).isIgnored ());
+      assertFalse (aSource.isNodeMaterialized ());
+
+      // Not XML at all
+      aSource = new ValidationSourceXMLSpooled ("no-xml", ByteBuffer.wrap ("no XML".getBytes (StandardCharsets.UTF_8)));
+      aResults = aMgr.executeValidation (aSource, Locale.US);
+      assertTrue (aResults.get (0).isFailure ());
+      assertTrue (aResults.get (1).isIgnored ());
+    }
+  }
+
+  @Test
+  public void testIsValid ()
+  {
+    final ValidationExecutorXSD aExecutor = ValidationExecutorXSD.create (XSD);
+    assertTrue (aExecutor.isValid (ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-bad.xml"))));
+    assertFalse (aExecutor.isValid (ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-bad-xsd.xml"))));
+    assertFalse (aExecutor.isValid (new ValidationSourceXMLSpooled ("no-xml",
+                                                                    ByteBuffer.wrap ("no XML".getBytes (StandardCharsets.UTF_8)))));
+
+    // XSD valid but Schematron invalid
+    assertEquals (EValidity.INVALID,
+                  _createManager (false).executeFastValidation (ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-bad.xml"))));
+    assertEquals (EValidity.VALID,
+                  _createManager (false).executeFastValidation (ValidationSourceXMLSpooled.create (new ClassPathResource ("schematron/test-good.xml"))));
+  }
+
+  @Test
+  public void testPipelineUsesRawParserEvents ()
+  {
+    final String sXSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>" +
+                        "<xs:element name='root'><xs:complexType><xs:simpleContent><xs:extension base='xs:string'>" +
+                        "<xs:attribute name='a' type='xs:string' default='x' />" +
+                        "</xs:extension></xs:simpleContent></xs:complexType></xs:element>" +
+                        "</xs:schema>";
+    final ValidationExecutorXSD aExecutor = ValidationExecutorXSD.create (new ReadableResourceByteArray ("pipeline.xsd",
+                                                                                                         sXSD.getBytes (StandardCharsets.UTF_8)));
+    final Wrapper <IValidationSourceXML> aNext = new Wrapper <> ();
+    final ValidationResult aResult = aExecutor.applyValidationInPipeline (new ValidationSourceXMLSpooled ("pipeline",
+                                                                                                         ByteBuffer.wrap ("<root><!--c-->text</root>".getBytes (StandardCharsets.UTF_8))),
+                                                                         Locale.US,
+                                                                         aNext::set);
+    assertTrue (aResult.isSuccess ());
+    assertNotNull (aNext.get ());
+
+    final Element eRoot = ((Document) aNext.get ().getNode ()).getDocumentElement ();
+    // The default attribute of the XML Schema is not added
+    assertFalse (eRoot.hasAttribute ("a"));
+    // Comments are kept
+    assertTrue (eRoot.getFirstChild () instanceof Comment);
+    assertEquals ("text", eRoot.getTextContent ());
+  }
+}
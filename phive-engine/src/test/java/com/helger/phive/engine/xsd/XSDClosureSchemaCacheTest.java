@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.engine.xsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+
+/**
+ * Test class for class {@link XSDClosureSchemaCache}.
+ *
+ * @author Philip Helger
+ */
+public final class XSDClosureSchemaCacheTest
+{
+  private static final String MAIN_XSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:c='urn:common' targetNamespace='urn:main'>" +
+                                         "<xs:import namespace='urn:common' schemaLocation='common/common.xsd'/>" +
+                                         "<xs:element name='root' type='c:CommonType'/>" +
+                                         "</xs:schema>";
+
+  @Nonnull
+  private static File _writeSet (@Nonnull final File aDir, @Nonnull final String sCommonType)
+  {
+    final File aMain = new File (aDir, "main.xsd");
+    final File aCommon = new File (aDir, "common/common.xsd");
+    assertTrue (aCommon.getParentFile ().mkdirs ());
+    SimpleFileIO.writeFile (aMain, MAIN_XSD, StandardCharsets.UTF_8);
+    SimpleFileIO.writeFile (aCommon,
+                            "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:common'>" +
+                                     "<xs:simpleType name='CommonType'><xs:restriction base='xs:" +
+                                     sCommonType +
+                                     "'/></xs:simpleType>" +
+                                     "</xs:schema>",
+                            StandardCharsets.UTF_8);
+    return aMain;
+  }
+
+  @Test
+  public void testSharing ()
+  {
+    final File aBaseDir = new File ("target/test-xsd-closure");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aBaseDir);
+
+    final File aMain1 = _writeSet (new File (aBaseDir, "a"), "string");
+    final File aMain2 = _writeSet (new File (aBaseDir, "b"), "string");
+    // Same main XSD but different imported XSD
+    final File aMain3 = _writeSet (new File (aBaseDir, "c"), "int");
+
+    final XSDClosureSchemaCache aCache = new XSDClosureSchemaCache ();
+    final Schema aSchema1 = aCache.getSchema (new FileSystemResource (aMain1));
+    assertSame (aSchema1, aCache.getSchema (new FileSystemResource (aMain1)));
+    assertEquals (1, aCache.getCompiledCount ());
+    assertEquals (0, aCache.getSharedCount ());
+
+    // Identical closure at a different location
+    assertSame (aSchema1, aCache.getSchema (new FileSystemResource (aMain2)));
+    assertEquals (1, aCache.getCompiledCount ());
+    assertEquals (1, aCache.getSharedCount ());
+    assertEquals (aMain2.length () + new File (aMain2.getParentFile (), "common/common.xsd").length (),
+                  aCache.getSavedSourceBytes ());
+
+    // Different closure
+    assertNotSame (aSchema1, aCache.getSchema (new FileSystemResource (aMain3)));
+    assertEquals (2, aCache.getCompiledCount ());
+    assertEquals (1, aCache.getSharedCount ());
+
+    aCache.clearCache ();
+    assertNotSame (aSchema1, aCache.getSchema (new FileSystemResource (aMain1)));
+    assertEquals (3, aCache.getCompiledCount ());
+  }
+
+  @Test
+  public void testSameResourceIDDifferentContent () throws Exception
+  {
+    final XSDClosureSchemaCache aCache = new XSDClosureSchemaCache ();
+    // Both in-memory resources have the same resource ID
+    final IReadableResource aRes1 = new ReadableResourceByteArray ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element name='a' type='xs:string'/></xs:schema>".getBytes (StandardCharsets.UTF_8));
+    final IReadableResource aRes2 = new ReadableResourceByteArray ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element name='b' type='xs:string'/></xs:schema>".getBytes (StandardCharsets.UTF_8));
+    assertEquals (aRes1.getResourceID (), aRes2.getResourceID ());
+
+    final Schema aSchema1 = aCache.getSchema (aRes1);
+    final Schema aSchema2 = aCache.getSchema (aRes2);
+    assertNotSame (aSchema1, aSchema2);
+    assertEquals (2, aCache.getCompiledCount ());
+    aSchema2.newValidator ().validate (new StreamSource (new StringReader ("<b>x</b>")));
+
+    // Identical content is still shared
+    assertSame (aSchema1,
+                aCache.getSchema (new ReadableResourceByteArray ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element name='a' type='xs:string'/></xs:schema>".getBytes (StandardCharsets.UTF_8))));
+    assertEquals (1, aCache.getSharedCount ());
+  }
+
+  @Test
+  public void testChangedContentSameURL ()
+  {
+    final File aBaseDir = new File ("target/test-xsd-closure-changed");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aBaseDir);
+
+    final XSDClosureSchemaCache aCache = new XSDClosureSchemaCache ();
+    final File aMain = _writeSet (aBaseDir, "string");
+    final Schema aSchema1 = aCache.getSchema (new FileSystemResource (aMain));
+
+    // Change only the imported XML Schema at the same URL
+    FileOperationManager.INSTANCE.deleteDirRecursive (aBaseDir);
+    _writeSet (aBaseDir, "int");
+    final Schema aSchema2 = aCache.getSchema (new FileSystemResource (aMain));
+    assertNotSame (aSchema1, aSchema2);
+    assertEquals (2, aCache.getCompiledCount ());
+    assertEquals (0, aCache.getSharedCount ());
+  }
+
+  @Test
+  public void testRelease ()
+  {
+    final XSDClosureSchemaCache aCache = new XSDClosureSchemaCache ();
+    final IReadableResource aRes = new ReadableResourceByteArray ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element name='a' type='xs:string'/></xs:schema>".getBytes (StandardCharsets.UTF_8));
+    final Object aHolder1 = new Object ();
+    final Object aHolder2 = new Object ();
+    final Schema aSchema = aCache.getSchema (aHolder1, aRes);
+    assertSame (aSchema, aCache.getSchema (aHolder2, aRes));
+    // Requesting again for the same holder doesn't count twice
+    assertSame (aSchema, aCache.getSchema (aHolder2, aRes));
+    assertEquals (1, aCache.getCachedCount ());
+
+    assertTrue (aCache.release (aHolder1).isChanged ());
+    assertFalse (aCache.release (aHolder1).isChanged ());
+    assertEquals (1, aCache.getCachedCount ());
+
+    // Last holder released
+    assertTrue (aCache.release (aHolder2).isChanged ());
+    assertEquals (0, aCache.getCachedCount ());
+    assertNotSame (aSchema, aCache.getSchema (aRes));
+    assertEquals (2, aCache.getCompiledCount ());
+  }
+}
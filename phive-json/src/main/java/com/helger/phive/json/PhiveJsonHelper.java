@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.SingleError;
 import com.helger.commons.error.level.EErrorLevel;
@@ -61,9 +62,11 @@ import com.helger.phive.api.artefact.ValidationArtefact;
 import com.helger.phive.api.executorset.IValidationExecutorSet;
 import com.helger.phive.api.executorset.VESID;
 import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.api.result.ValidationErrorGroup;
 import com.helger.phive.api.result.ValidationResult;
 import com.helger.phive.api.result.ValidationResultList;
 import com.helger.phive.api.source.IValidationSource;
+import com.helger.phive.engine.schematron.SchematronCompactError;
 import com.helger.schematron.svrl.SVRLResourceError;
 
 /**
@@ -117,6 +120,8 @@ public final class PhiveJsonHelper
   public static final String JSON_RESULTS = "results";
   public static final String JSON_DURATION_MS = "durationMS";
   public static final String JSON_VES = "ves";
+  public static final String JSON_HIT_COUNT = "hitCount";
+  public static final String JSON_LOCATIONS = "locations";
 
   public static final String ARTFACT_TYPE_INPUT_PARAMETER = "input-parameter";
   public static final String ARTIFACT_PATH_NONE = "none";
@@ -334,6 +339,16 @@ public final class PhiveJsonHelper
                             .addIfNotNull (JSON_EXCEPTION, getJsonStackTrace (t));
   }
 
+  @Nullable
+  private static String _getTest (@Nonnull final IError aError)
+  {
+    if (aError instanceof SVRLResourceError)
+      return ((SVRLResourceError) aError).getTest ();
+    if (aError instanceof SchematronCompactError)
+      return ((SchematronCompactError) aError).getTest ();
+    return null;
+  }
+
   /**
    * Get the JSON representation of an error.<br>
    *
@@ -370,7 +385,7 @@ public final class PhiveJsonHelper
                          aError.getErrorID (),
                          aError.getErrorFieldName (),
                          aError.hasErrorLocation () ? aError.getErrorLocation () : null,
-                         aError instanceof SVRLResourceError ? ((SVRLResourceError) aError).getTest () : null,
+                         _getTest (aError),
                          aError.getErrorText (aDisplayLocale),
                          aError.getLinkedException ());
   }
@@ -560,11 +575,142 @@ public final class PhiveJsonHelper
                                                 @Nonnegative final long nDurationMilliseconds,
                                                 @Nullable final MutableInt aWarningCount,
                                                 @Nullable final MutableInt aErrorCount)
+  {
+    ValueEnforcer.notNull (aDisplayLocale, "DisplayLocale");
+
+    _applyValidationResultList (aResponse,
+                                aVES,
+                                aValidationResultList,
+                                nDurationMilliseconds,
+                                aWarningCount,
+                                aErrorCount,
+                                aVR -> {
+                                  final IJsonArray aItemArray = new JsonArray ();
+                                  for (final IError aError : aVR.getErrorList ())
+                                    aItemArray.add (getJsonError (aError, aDisplayLocale));
+                                  return aItemArray;
+                                });
+  }
+
+  /**
+   * Get the JSON representation of a group of identical errors. This is the
+   * error structure of the first error of the group, extended by the number of
+   * hits and the locations of the first hits.<br>
+   *
+   * <pre>
+   * {
+   *   error structure as in {@link #getJsonError(IError, Locale)}
+   *   "hitCount" : number,
+   *   "locations" : array {
+   *     "errorFieldName" : string?,
+   *     "errorLocationObj" : object?
+   *   }
+   * }
+   * </pre>
+   *
+   * @param aErrorGroup
+   *        The error group. May not be <code>null</code>.
+   * @param aDisplayLocale
+   *        The display locale to resolve the error text. May not be
+   *        <code>null</code>.
+   * @return The JSON object with the error group. Never <code>null</code>.
+   * @since 7.2.2
+   */
+  @Nonnull
+  public static IJsonObject getJsonErrorGroup (@Nonnull final ValidationErrorGroup aErrorGroup,
+                                               @Nonnull final Locale aDisplayLocale)
+  {
+    ValueEnforcer.notNull (aErrorGroup, "ErrorGroup");
+    ValueEnforcer.notNull (aDisplayLocale, "DisplayLocale");
+
+    final IJsonArray aLocations = new JsonArray ();
+    for (final IError aError : aErrorGroup.getAllSampleErrors ())
+      aLocations.add (new JsonObject ().addIfNotNull (JSON_ERROR_FIELD_NAME, aError.getErrorFieldName ())
+                                       .addIfNotNull (JSON_ERROR_LOCATION_OBJ,
+                                                      getJsonErrorLocation (aError.hasErrorLocation () ? aError.getErrorLocation ()
+                                                                                                      : null)));
+
+    final IError aFirstError = aErrorGroup.getFirstError ();
+    return getJsonError (aFirstError.getErrorLevel (),
+                         aFirstError.getErrorID (),
+                         null,
+                         null,
+                         _getTest (aFirstError),
+                         StringHelper.getNotNull (aErrorGroup.getErrorText ()),
+                         null).add (JSON_HIT_COUNT, aErrorGroup.getHitCount ()).addJson (JSON_LOCATIONS, aLocations);
+  }
+
+  /**
+   * Apply the results of a full validation onto a JSON object, grouping
+   * identical errors. The layout of the response object is identical to the
+   * one of
+   * {@link #applyValidationResultList(IJsonObject, IValidationExecutorSet, List, Locale, long, MutableInt, MutableInt)},
+   * except that each item has the structure defined by
+   * {@link #getJsonErrorGroup(ValidationErrorGroup, Locale)}. Errors are
+   * identical if they have the same error ID, error level and error text. The
+   * warning and error counts consider all hits.
+   *
+   * @param aResponse
+   *        The response JSON object to add to. May not be <code>null</code>.
+   * @param aVES
+   *        The Validation executor set that was used to perform validation. May
+   *        not be <code>null</code>.
+   * @param aValidationResultList
+   *        The validation result list containing the validation results per
+   *        layer. May not be <code>null</code>.
+   * @param aDisplayLocale
+   *        The display locale to be used. May not be <code>null</code>.
+   * @param nDurationMilliseconds
+   *        The duration of the validation in milliseconds. Must be &ge; 0.
+   * @param aWarningCount
+   *        Optional callback value to store the overall warnings. If not
+   *        <code>null</code> if will contain a &ge; 0 value afterwards.
+   * @param aErrorCount
+   *        Optional callback value to store the overall errors. If not
+   *        <code>null</code> if will contain a &ge; 0 value afterwards.
+   * @param nMaxLocations
+   *        The maximum number of locations to emit per group. Must be &gt; 0.
+   * @since 7.2.2
+   */
+  public static void applyValidationResultListGrouped (@Nonnull final IJsonObject aResponse,
+                                                       @Nonnull final IValidationExecutorSet <?> aVES,
+                                                       @Nonnull final List <? extends ValidationResult> aValidationResultList,
+                                                       @Nonnull final Locale aDisplayLocale,
+                                                       @Nonnegative final long nDurationMilliseconds,
+                                                       @Nullable final MutableInt aWarningCount,
+                                                       @Nullable final MutableInt aErrorCount,
+                                                       @Nonnegative final int nMaxLocations)
+  {
+    ValueEnforcer.notNull (aDisplayLocale, "DisplayLocale");
+    ValueEnforcer.isGT0 (nMaxLocations, "MaxLocations");
+
+    _applyValidationResultList (aResponse,
+                                aVES,
+                                aValidationResultList,
+                                nDurationMilliseconds,
+                                aWarningCount,
+                                aErrorCount,
+                                aVR -> {
+                                  final IJsonArray aItemArray = new JsonArray ();
+                                  for (final ValidationErrorGroup aGroup : ValidationErrorGroup.createGroups (new CommonsArrayList <> (aVR),
+                                                                                                              aDisplayLocale,
+                                                                                                              nMaxLocations))
+                                    aItemArray.add (getJsonErrorGroup (aGroup, aDisplayLocale));
+                                  return aItemArray;
+                                });
+  }
+
+  private static void _applyValidationResultList (@Nonnull final IJsonObject aResponse,
+                                                  @Nonnull final IValidationExecutorSet <?> aVES,
+                                                  @Nonnull final List <? extends ValidationResult> aValidationResultList,
+                                                  @Nonnegative final long nDurationMilliseconds,
+                                                  @Nullable final MutableInt aWarningCount,
+                                                  @Nullable final MutableInt aErrorCount,
+                                                  @Nonnull final Function <ValidationResult, IJsonArray> aItemArrayProvider)
   {
     ValueEnforcer.notNull (aResponse, "Response");
     ValueEnforcer.notNull (aVES, "VES");
     ValueEnforcer.notNull (aValidationResultList, "ValidationResultList");
-    ValueEnforcer.notNull (aDisplayLocale, "DisplayLocale");
     ValueEnforcer.isGE0 (nDurationMilliseconds, "DurationMilliseconds");
 
     aResponse.addJson (JSON_VES, getJsonVES (aVES));
@@ -590,7 +736,6 @@ public final class PhiveJsonHelper
       aVRT.add (JSON_ARTIFACT_PATH_TYPE, getArtifactPathType (aVR.getValidationArtefact ().getRuleResource ()));
       aVRT.add (JSON_ARTIFACT_PATH, aVR.getValidationArtefact ().getRuleResourcePath ());
 
-      final IJsonArray aItemArray = new JsonArray ();
       for (final IError aError : aVR.getErrorList ())
       {
         if (aError.getErrorLevel ().isGT (aMostSevere))
@@ -601,10 +746,8 @@ public final class PhiveJsonHelper
         else
           if (_isConsideredWarning (aError.getErrorLevel ()))
             nWarnings++;
-
-        aItemArray.add (getJsonError (aError, aDisplayLocale));
       }
-      aVRT.addJson (JSON_ITEMS, aItemArray);
+      aVRT.addJson (JSON_ITEMS, aItemArrayProvider.apply (aVR));
       aResultArray.add (aVRT);
     }
     // Success if the worst that happened is a warning
@@ -29,17 +29,23 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.SingleError;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.error.text.ConstantHasErrorText;
 import com.helger.commons.io.resource.ClassPathResource;
 import com.helger.commons.location.SimpleLocation;
 import com.helger.commons.mock.CommonsTestHelper;
+import com.helger.commons.mutable.MutableInt;
+import com.helger.json.IJsonArray;
 import com.helger.json.IJsonObject;
 import com.helger.json.JsonObject;
+import com.helger.phive.api.EValidationType;
+import com.helger.phive.api.artefact.ValidationArtefact;
 import com.helger.phive.api.execute.ValidationExecutionManager;
 import com.helger.phive.api.executorset.IValidationExecutorSet;
 import com.helger.phive.api.executorset.VESID;
 import com.helger.phive.api.executorset.ValidationExecutorSet;
 import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.api.result.ValidationResult;
 import com.helger.phive.api.result.ValidationResultList;
 import com.helger.phive.engine.source.IValidationSourceXML;
 import com.helger.phive.engine.source.ValidationSourceXML;
@@ -124,6 +130,40 @@ public final class PhiveJsonHelperTest
     CommonsTestHelper.testDefaultImplementationWithEqualContentObject (aObj, aObj2);
   }
 
+  @Test
+  public void testValidationResultsGrouped ()
+  {
+    final VESID aVESID = new VESID ("group", "art", "1.0");
+    final ValidationExecutorSet <IValidationSourceXML> aVES = new ValidationExecutorSet <> (aVESID, "name", false);
+    final ValidationArtefact aVA = new ValidationArtefact (EValidationType.SCHEMATRON_SCH, new ClassPathResource ("x.sch"));
+    final ErrorList aErrorList = new ErrorList ();
+    for (int i = 0; i < 10; ++i)
+      aErrorList.add (new SVRLResourceError (EErrorLevel.ERROR,
+                                             "id1",
+                                             "/root/item[" + i + "]",
+                                             new SimpleLocation ("res"),
+                                             new ConstantHasErrorText ("bla failed"),
+                                             null,
+                                             "test"));
+    aErrorList.add (SingleError.builderWarn ().errorID ("id2").errorText ("warn").build ());
+    final ValidationResultList aVRL = new ValidationResultList ();
+    aVRL.add (new ValidationResult (aVA, aErrorList));
+
+    final IJsonObject aObj = new JsonObject ();
+    final MutableInt aErrorCount = new MutableInt (0);
+    PhiveJsonHelper.applyValidationResultListGrouped (aObj, aVES, aVRL, Locale.US, 123, null, aErrorCount, 3);
+    assertEquals (10, aErrorCount.intValue ());
+
+    final IJsonArray aItems = aObj.getAsArray (PhiveJsonHelper.JSON_RESULTS).getObjectAtIndex (0).getAsArray (PhiveJsonHelper.JSON_ITEMS);
+    assertEquals (2, aItems.size ());
+    final IJsonObject aGroup = aItems.getObjectAtIndex (0);
+    assertEquals ("id1", aGroup.getAsString (PhiveJsonHelper.JSON_ERROR_ID));
+    assertEquals ("test", aGroup.getAsString (PhiveJsonHelper.JSON_TEST));
+    assertEquals (10, aGroup.getAsInt (PhiveJsonHelper.JSON_HIT_COUNT));
+    assertEquals (3, aGroup.getAsArray (PhiveJsonHelper.JSON_LOCATIONS).size ());
+    assertEquals (1, aItems.getObjectAtIndex (1).getAsInt (PhiveJsonHelper.JSON_HIT_COUNT));
+  }
+
   @Test
   public void testException ()
   {
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * A minimal streaming reader for <code>multipart/form-data</code> and
+ * <code>multipart/mixed</code> request bodies. The parts are read one after
+ * the other, so that processing of a part can start before the next part was
+ * received.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@NotThreadSafe
+final class MultipartReader
+{
+  /**
+   * A single part of a multipart body.
+   *
+   * @author Philip Helger
+   */
+  static final class Part
+  {
+    private final String m_sName;
+    private final byte [] m_aContent;
+
+    Part (@Nullable final String sName, @Nonnull final byte [] aContent)
+    {
+      m_sName = sName;
+      m_aContent = aContent;
+    }
+
+    /**
+     * @return The file name of the part or - if not present - the field name.
+     *         May be <code>null</code>.
+     */
+    @Nullable
+    String getName ()
+    {
+      return m_sName;
+    }
+
+    @Nonnull
+    byte [] getContent ()
+    {
+      return m_aContent;
+    }
+  }
+
+  private static final Pattern BOUNDARY = Pattern.compile ("(?i)(?:^|;)\\s*boundary=(?:\"([^\"]+)\"|([^;\\s]+))");
+  private static final Pattern FIELD_NAME = Pattern.compile ("(?i)(?:^|;)\\s*name=\"([^\"]*)\"");
+  private static final Pattern FILE_NAME = Pattern.compile ("(?i)(?:^|;)\\s*filename=\"([^\"]*)\"");
+
+  private final InputStream m_aIS;
+  private final byte [] m_aDelimiter;
+  private final String m_sFirstDelimiter;
+  private boolean m_bStarted = false;
+  private boolean m_bFinished = false;
+
+  MultipartReader (@Nonnull final InputStream aIS, @Nonnull @Nonempty final String sBoundary)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notEmpty (sBoundary, "Boundary");
+    m_aIS = new BufferedInputStream (aIS);
+    m_aDelimiter = ("\r\n--" + sBoundary).getBytes (StandardCharsets.ISO_8859_1);
+    m_sFirstDelimiter = "--" + sBoundary;
+  }
+
+  /**
+   * Extract the boundary from a multipart content type.
+   *
+   * @param sContentType
+   *        The content type header value. May be <code>null</code>.
+   * @return <code>null</code> if no boundary is present.
+   */
+  @Nullable
+  static String getBoundary (@Nullable final String sContentType)
+  {
+    if (sContentType == null)
+      return null;
+    final Matcher aMatcher = BOUNDARY.matcher (sContentType);
+    if (!aMatcher.find ())
+      return null;
+    return aMatcher.group (1) != null ? aMatcher.group (1) : aMatcher.group (2);
+  }
+
+  @Nullable
+  private String _readLine () throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    int n;
+    while ((n = m_aIS.read ()) >= 0 && n != '\n')
+      aBAOS.write (n);
+    if (n < 0 && aBAOS.size () == 0)
+      return null;
+    final String ret = aBAOS.getAsString (StandardCharsets.UTF_8);
+    return ret.endsWith ("\r") ? ret.substring (0, ret.length () - 1) : ret;
+  }
+
+  private boolean _endsWithDelimiter (@Nonnull final byte [] aBuf, final int nLen)
+  {
+    final int nDelimLen = m_aDelimiter.length;
+    if (nLen < nDelimLen)
+      return false;
+    final int nOffset = nLen - nDelimLen;
+    for (int i = 0; i < nDelimLen; ++i)
+      if (aBuf[nOffset + i] != m_aDelimiter[i])
+        return false;
+    return true;
+  }
+
+  /**
+   * Read the next part.
+   *
+   * @return <code>null</code> if there are no more parts.
+   * @throws IOException
+   *         On read error or if the body is malformed.
+   */
+  @Nullable
+  Part readNextPart () throws IOException
+  {
+    if (m_bFinished)
+      return null;
+
+    if (!m_bStarted)
+    {
+      // Skip the preamble
+      String sLine;
+      while ((sLine = _readLine ()) != null && !sLine.startsWith (m_sFirstDelimiter))
+      {}
+      if (sLine == null)
+        throw new IOException ("Multipart boundary not found");
+      m_bStarted = true;
+      if (sLine.startsWith (m_sFirstDelimiter + "--"))
+      {
+        m_bFinished = true;
+        return null;
+      }
+    }
+
+    // Part headers
+    String sName = null;
+    String sLine;
+    while ((sLine = _readLine ()) != null && sLine.length () > 0)
+    {
+      final int nColon = sLine.indexOf (':');
+      if (nColon > 0 && sLine.substring (0, nColon).trim ().equalsIgnoreCase ("Content-Disposition"))
+      {
+        final String sValue = sLine.substring (nColon + 1);
+        Matcher aMatcher = FILE_NAME.matcher (sValue);
+        if (aMatcher.find ())
+          sName = aMatcher.group (1);
+        else
+        {
+          aMatcher = FIELD_NAME.matcher (sValue);
+          if (aMatcher.find ())
+            sName = aMatcher.group (1);
+        }
+      }
+    }
+    if (sLine == null)
+      throw new IOException ("Unexpected end of multipart body in part headers");
+
+    // Part content up to the next delimiter
+    final byte nLastDelimiterByte = m_aDelimiter[m_aDelimiter.length - 1];
+    byte [] aBuf = new byte [8192];
+    int nLen = 0;
+    while (true)
+    {
+      final int n = m_aIS.read ();
+      if (n < 0)
+        throw new IOException ("Unexpected end of multipart body in part content");
+      if (nLen == aBuf.length)
+      {
+        final byte [] aNewBuf = new byte [aBuf.length * 2];
+        System.arraycopy (aBuf, 0, aNewBuf, 0, nLen);
+        aBuf = aNewBuf;
+      }
+      aBuf[nLen++] = (byte) n;
+      if (n == (nLastDelimiterByte & 0xff) && _endsWithDelimiter (aBuf, nLen))
+        break;
+    }
+    final byte [] aContent = new byte [nLen - m_aDelimiter.length];
+    System.arraycopy (aBuf, 0, aContent, 0, aContent.length);
+
+    // Either "--" for the end or the line break before the next part headers
+    final String sRest = _readLine ();
+    if (sRest == null || sRest.startsWith ("--"))
+      m_bFinished = true;
+    return new Part (StringHelper.hasText (sName) ? sName : null, aContent);
+  }
+}
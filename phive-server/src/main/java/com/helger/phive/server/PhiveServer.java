@@ -0,0 +1,982 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.state.EValidity;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.timing.StopWatch;
+import com.helger.json.IJson;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonArray;
+import com.helger.json.JsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.helger.json.serialize.JsonWriter;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.phive.engine.detect.VESDetectionIndex;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.source.ValidationSourceXMLSpooled;
+import com.helger.phive.json.PhiveJsonHelper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server based on the JDK {@link HttpServer} that exposes a
+ * {@link ValidationExecutorSetRegistry} for XML validation. The following
+ * endpoints are available:
+ * <ul>
+ * <li><code>GET /ves</code> - list all registered VES</li>
+ * <li><code>GET /status</code> - the server statistics</li>
+ * <li><code>POST /validate/{vesid}</code> - full validation of the XML request
+ * body. The response is the JSON structure of
+ * {@link PhiveJsonHelper#applyValidationResultList(IJsonObject, IValidationExecutorSet, java.util.List, Locale, long, com.helger.commons.mutable.MutableInt, com.helger.commons.mutable.MutableInt)}.</li>
+ * <li><code>POST /validate-fast/{vesid}</code> - fast validation that stops at
+ * the first error. The response only contains the success flag and the
+ * duration.</li>
+ * <li><code>POST /validate-multi/{vesid}</code> - full validation of multiple
+ * documents, either as <code>multipart/form-data</code> (one document per part)
+ * or as NDJSON (one JSON object with the fields <code>id</code>,
+ * <code>content</code> and optionally <code>vesid</code> per line). The VESID
+ * in the path is optional for NDJSON. The response headers are sent before
+ * the request body is read. The documents are validated in parallel while the
+ * request is read and the response is an NDJSON stream with one result per
+ * document in the order of completion. Each result contains the
+ * <code>id</code> of the document. Errors while reading the request body (e.g.
+ * the size limit) are reported as a last line with a global error. As results
+ * are written while the request is still being sent, clients sending large
+ * batches should read the response concurrently.</li>
+ * </ul>
+ * If a detection index is set (see
+ * {@link #detectionIndex(VESDetectionIndex)}), the VESID may be omitted and the
+ * VES is detected per document instead.<br>
+ * Request bodies are streamed and spooled (see
+ * {@link ValidationSourceXMLSpooled}) and limited in size. Validations run in a
+ * bounded worker pool: single validations are rejected with HTTP 503 if the
+ * pool is saturated, multi document requests validate on the connection thread
+ * instead (back pressure). If all connection threads are busy, new requests
+ * are answered with HTTP 503 by a separate thread, so that the thread
+ * accepting connections is never blocked. Responses are written directly to
+ * the connection.<br>
+ * The JDK {@link HttpServer} enables Nagle's algorithm by default, so small
+ * responses wait for the delayed TCP ACK of the client (about 40ms per
+ * request). As the switch is the JVM-wide system property
+ * {@link #SYSPROP_HTTPSERVER_NODELAY} that is read only once per JVM, the
+ * server does not change it. Applications should set it to <code>true</code>
+ * on the command line (<code>-Dsun.net.httpserver.nodelay=true</code>) or in
+ * their <code>main</code> method before the first server is started.
+ *
+ * @author Philip Helger
+ * @since 7.2.2
+ */
+@ThreadSafe
+public class PhiveServer implements Closeable
+{
+  public static final int DEFAULT_PORT = 8080;
+  public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime ().availableProcessors ();
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+  public static final long DEFAULT_MAX_REQUEST_BYTES = 64L * CGlobal.BYTES_PER_MEGABYTE;
+  public static final Locale DEFAULT_DISPLAY_LOCALE = Locale.US;
+
+  public static final String PATH_VES = "/ves";
+  public static final String PATH_STATUS = "/status";
+  public static final String PATH_VALIDATE = "/validate/";
+  public static final String PATH_VALIDATE_FAST = "/validate-fast/";
+  public static final String PATH_VALIDATE_MULTI = "/validate-multi/";
+
+  public static final String JSON_ID = "id";
+  public static final String JSON_CONTENT = "content";
+  public static final String JSON_REQUEST_COUNT = "requestCount";
+  public static final String JSON_DOCUMENT_COUNT = "documentCount";
+  public static final String JSON_REJECTED_COUNT = "rejectedCount";
+  public static final String JSON_VALIDATION_MS = "validationMS";
+
+  /**
+   * The JVM-wide system property of the JDK {@link HttpServer} to disable
+   * Nagle's algorithm. The server does not set it - see the class
+   * documentation.
+   */
+  public static final String SYSPROP_HTTPSERVER_NODELAY = "sun.net.httpserver.nodelay";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PhiveServer.class);
+  private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+  private static final String CONTENT_TYPE_NDJSON = "application/x-ndjson; charset=UTF-8";
+
+  /**
+   * Thrown if the request body exceeds the configured maximum size.
+   *
+   * @author Philip Helger
+   */
+  private static final class RequestTooLargeException extends IOException
+  {
+    RequestTooLargeException (final long nMaxBytes)
+    {
+      super ("The request body exceeds the maximum size of " + nMaxBytes + " bytes");
+    }
+  }
+
+  /**
+   * An input stream that fails if more than the maximum number of bytes is
+   * read.
+   *
+   * @author Philip Helger
+   */
+  private static final class LimitedInputStream extends FilterInputStream
+  {
+    private final long m_nMaxBytes;
+    private long m_nRead = 0;
+
+    LimitedInputStream (@Nonnull final InputStream aIS, final long nMaxBytes)
+    {
+      super (aIS);
+      m_nMaxBytes = nMaxBytes;
+    }
+
+    private void _count (final long n) throws RequestTooLargeException
+    {
+      if (n > 0)
+      {
+        m_nRead += n;
+        if (m_nRead > m_nMaxBytes)
+          throw new RequestTooLargeException (m_nMaxBytes);
+      }
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final int ret = super.read ();
+      if (ret >= 0)
+        _count (1);
+      return ret;
+    }
+
+    @Override
+    public int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      final int ret = super.read (aBuf, nOfs, nLen);
+      _count (ret);
+      return ret;
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      final long ret = super.skip (n);
+      _count (ret);
+      return ret;
+    }
+  }
+
+  private final ValidationExecutorSetRegistry <IValidationSourceXML> m_aRegistry;
+  private InetSocketAddress m_aAddress = new InetSocketAddress (DEFAULT_PORT);
+  private int m_nWorkerThreads = DEFAULT_WORKER_THREADS;
+  private int m_nQueueSize = DEFAULT_QUEUE_SIZE;
+  private long m_nMaxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+  private Locale m_aDisplayLocale = DEFAULT_DISPLAY_LOCALE;
+  private boolean m_bUsePipeline = ValidationExecutionManager.DEFAULT_USE_PIPELINE;
+  private VESDetectionIndex m_aDetectionIndex;
+
+  @GuardedBy ("this")
+  private HttpServer m_aServer;
+  @GuardedBy ("this")
+  private ExecutorService m_aConnectionPool;
+  @GuardedBy ("this")
+  private ExecutorService m_aRejectPool;
+  private volatile ThreadPoolExecutor m_aWorkerPool;
+  // Marks the requests that are run by the reject pool
+  private final ThreadLocal <Boolean> m_aRejecting = new ThreadLocal <> ();
+
+  private final AtomicLong m_aRequestCount = new AtomicLong ();
+  private final AtomicLong m_aDocumentCount = new AtomicLong ();
+  private final AtomicLong m_aRejectedCount = new AtomicLong ();
+  private final AtomicLong m_aValidationMillis = new AtomicLong ();
+
+  public PhiveServer (@Nonnull final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry)
+  {
+    ValueEnforcer.notNull (aRegistry, "Registry");
+    m_aRegistry = aRegistry;
+  }
+
+  private void _checkNotStarted ()
+  {
+    if (m_aServer != null)
+      throw new IllegalStateException ("The server was already started");
+  }
+
+  /**
+   * @param aAddress
+   *        The address to bind to. Use port 0 for an ephemeral port. May not be
+   *        <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer bindAddress (@Nonnull final InetSocketAddress aAddress)
+  {
+    ValueEnforcer.notNull (aAddress, "Address");
+    _checkNotStarted ();
+    m_aAddress = aAddress;
+    return this;
+  }
+
+  /**
+   * @param nWorkerThreads
+   *        The number of threads performing validations. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer workerThreads (@Nonnegative final int nWorkerThreads)
+  {
+    ValueEnforcer.isGT0 (nWorkerThreads, "WorkerThreads");
+    _checkNotStarted ();
+    m_nWorkerThreads = nWorkerThreads;
+    return this;
+  }
+
+  /**
+   * @param nQueueSize
+   *        The maximum number of validations waiting for a worker thread. Must
+   *        be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer queueSize (@Nonnegative final int nQueueSize)
+  {
+    ValueEnforcer.isGT0 (nQueueSize, "QueueSize");
+    _checkNotStarted ();
+    m_nQueueSize = nQueueSize;
+    return this;
+  }
+
+  /**
+   * @param nMaxRequestBytes
+   *        The maximum size of a request body in bytes. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer maxRequestBytes (@Nonnegative final long nMaxRequestBytes)
+  {
+    ValueEnforcer.isGT0 (nMaxRequestBytes, "MaxRequestBytes");
+    _checkNotStarted ();
+    m_nMaxRequestBytes = nMaxRequestBytes;
+    return this;
+  }
+
+  /**
+   * @param aDisplayLocale
+   *        The locale for the error texts. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer displayLocale (@Nonnull final Locale aDisplayLocale)
+  {
+    ValueEnforcer.notNull (aDisplayLocale, "DisplayLocale");
+    _checkNotStarted ();
+    m_aDisplayLocale = aDisplayLocale;
+    return this;
+  }
+
+  /**
+   * @param bUsePipeline
+   *        <code>true</code> to use the pipeline mode of
+   *        {@link ValidationExecutionManager} for full validations.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer usePipeline (final boolean bUsePipeline)
+  {
+    _checkNotStarted ();
+    m_bUsePipeline = bUsePipeline;
+    return this;
+  }
+
+  /**
+   * @param aDetectionIndex
+   *        The index to detect the VES of documents for which no VESID is
+   *        provided. May be <code>null</code> to require a VESID.
+   * @return this for chaining
+   */
+  @Nonnull
+  public synchronized PhiveServer detectionIndex (@Nullable final VESDetectionIndex aDetectionIndex)
+  {
+    _checkNotStarted ();
+    m_aDetectionIndex = aDetectionIndex;
+    return this;
+  }
+
+  /**
+   * Start the server.
+   *
+   * @return this for chaining
+   * @throws IOException
+   *         If the server cannot be bound.
+   */
+  @Nonnull
+  public synchronized PhiveServer start () throws IOException
+  {
+    _checkNotStarted ();
+
+    m_aWorkerPool = new ThreadPoolExecutor (m_nWorkerThreads,
+                                            m_nWorkerThreads,
+                                            0L,
+                                            TimeUnit.MILLISECONDS,
+                                            new ArrayBlockingQueue <> (m_nQueueSize),
+                                            new BasicThreadFactory.Builder ().namingPattern ("phive-worker-%d")
+                                                                             .daemon (true)
+                                                                             .build (),
+                                            new ThreadPoolExecutor.AbortPolicy ());
+    // Requests that find all connection threads busy are answered with HTTP
+    // 503 by this pool, so that the dispatcher thread of the HttpServer is
+    // never blocked. If this pool is saturated as well, the HttpServer closes
+    // the connection.
+    final ExecutorService aRejectPool = new ThreadPoolExecutor (1,
+                                                                1,
+                                                                0L,
+                                                                TimeUnit.MILLISECONDS,
+                                                                new ArrayBlockingQueue <> (m_nQueueSize),
+                                                                new BasicThreadFactory.Builder ().namingPattern ("phive-reject-%d")
+                                                                                                 .daemon (true)
+                                                                                                 .build (),
+                                                                new ThreadPoolExecutor.AbortPolicy ());
+    m_aRejectPool = aRejectPool;
+    // Connection threads mostly wait for I/O and for the workers.
+    final int nConnectionThreads = m_nWorkerThreads * 2;
+    m_aConnectionPool = new ThreadPoolExecutor (nConnectionThreads,
+                                                nConnectionThreads,
+                                                0L,
+                                                TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue <> (m_nQueueSize),
+                                                new BasicThreadFactory.Builder ().namingPattern ("phive-connection-%d")
+                                                                                 .daemon (true)
+                                                                                 .build (),
+                                                (aRunnable, aExecutor) -> aRejectPool.execute ( () -> {
+                                                  m_aRejecting.set (Boolean.TRUE);
+                                                  try
+                                                  {
+                                                    aRunnable.run ();
+                                                  }
+                                                  finally
+                                                  {
+                                                    m_aRejecting.remove ();
+                                                  }
+                                                }));
+
+    if (!"true".equals (System.getProperty (SYSPROP_HTTPSERVER_NODELAY)))
+      LOGGER.info ("The system property '" +
+                   SYSPROP_HTTPSERVER_NODELAY +
+                   "' is not set to 'true' - small responses may be delayed by the TCP ACK of the client");
+
+    final HttpServer aServer = HttpServer.create (m_aAddress, m_nQueueSize);
+    aServer.setExecutor (m_aConnectionPool);
+    aServer.createContext (PATH_VES, x -> _handle (x, this::_handleListVES));
+    aServer.createContext (PATH_STATUS, x -> _handle (x, this::_handleStatus));
+    aServer.createContext (PATH_VALIDATE, x -> _handle (x, y -> _handleValidate (y, false)));
+    aServer.createContext (PATH_VALIDATE_FAST, x -> _handle (x, y -> _handleValidate (y, true)));
+    aServer.createContext (PATH_VALIDATE_MULTI, x -> _handle (x, this::_handleValidateMulti));
+    aServer.start ();
+    m_aServer = aServer;
+    LOGGER.info ("phive server started on " + aServer.getAddress () + " with " + m_nWorkerThreads + " worker threads");
+    return this;
+  }
+
+  /**
+   * @return The port the server is bound to.
+   * @throws IllegalStateException
+   *         If the server is not started
+   */
+  public synchronized int getPort ()
+  {
+    if (m_aServer == null)
+      throw new IllegalStateException ("The server is not started");
+    return m_aServer.getAddress ().getPort ();
+  }
+
+  /**
+   * Stop the server. Running requests are given one second to finish.
+   */
+  public synchronized void close ()
+  {
+    if (m_aServer != null)
+    {
+      m_aServer.stop (1);
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aConnectionPool);
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aRejectPool);
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aWorkerPool);
+      m_aServer = null;
+      m_aConnectionPool = null;
+      m_aRejectPool = null;
+      m_aWorkerPool = null;
+      LOGGER.info ("phive server stopped");
+    }
+  }
+
+  /**
+   * @return The number of handled requests.
+   */
+  @Nonnegative
+  public long getRequestCount ()
+  {
+    return m_aRequestCount.get ();
+  }
+
+  /**
+   * @return The number of validated documents.
+   */
+  @Nonnegative
+  public long getDocumentCount ()
+  {
+    return m_aDocumentCount.get ();
+  }
+
+  /**
+   * @return The number of requests rejected because the worker pool or the
+   *         connection pool was saturated.
+   */
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejectedCount.get ();
+  }
+
+  /**
+   * @return The summed up validation duration of all documents in
+   *         milliseconds.
+   */
+  @Nonnegative
+  public long getValidationMillis ()
+  {
+    return m_aValidationMillis.get ();
+  }
+
+  @FunctionalInterface
+  private interface IHandler
+  {
+    void handle (@Nonnull HttpExchange aExchange) throws IOException;
+  }
+
+  private void _handle (@Nonnull final HttpExchange aExchange, @Nonnull final IHandler aHandler)
+  {
+    m_aRequestCount.incrementAndGet ();
+    try
+    {
+      if (m_aRejecting.get () != null)
+      {
+        // All connection threads are busy
+        m_aRejectedCount.incrementAndGet ();
+        _sendBusy (aExchange);
+      }
+      else
+        aHandler.handle (aExchange);
+    }
+    catch (final IOException ex)
+    {
+      // Most likely the client closed the connection
+      LOGGER.warn ("Error handling request " + aExchange.getRequestURI () + ": " + ex.getMessage ());
+    }
+    catch (final RuntimeException ex)
+    {
+      LOGGER.error ("Internal error handling request " + aExchange.getRequestURI (), ex);
+      try
+      {
+        _sendError (aExchange, 500, "Internal error: " + ex.getMessage ());
+      }
+      catch (final IOException ex2)
+      {
+        // Ignore - the response headers may have already been sent
+      }
+    }
+    finally
+    {
+      aExchange.close ();
+    }
+  }
+
+  private static void _sendJson (@Nonnull final HttpExchange aExchange, final int nStatus, @Nonnull final IJson aJson) throws IOException
+  {
+    aExchange.getResponseHeaders ().set ("Content-Type", CONTENT_TYPE_JSON);
+    // Chunked response - the JSON is written directly to the connection
+    aExchange.sendResponseHeaders (nStatus, 0);
+    try (final Writer aWriter = new OutputStreamWriter (aExchange.getResponseBody (), StandardCharsets.UTF_8))
+    {
+      new JsonWriter ().writeToWriter (aJson, aWriter);
+    }
+  }
+
+  private static void _sendError (@Nonnull final HttpExchange aExchange, final int nStatus, @Nonnull final String sErrorMsg) throws IOException
+  {
+    final IJsonObject aResponse = new JsonObject ();
+    PhiveJsonHelper.applyGlobalError (aResponse, sErrorMsg, 0);
+    _sendJson (aExchange, nStatus, aResponse);
+  }
+
+  private static boolean _checkMethod (@Nonnull final HttpExchange aExchange, @Nonnull final String sMethod) throws IOException
+  {
+    if (sMethod.equals (aExchange.getRequestMethod ()))
+      return true;
+    aExchange.getResponseHeaders ().set ("Allow", sMethod);
+    _sendError (aExchange, 405, "Only " + sMethod + " is supported");
+    return false;
+  }
+
+  private void _handleListVES (@Nonnull final HttpExchange aExchange) throws IOException
+  {
+    if (!_checkMethod (aExchange, "GET"))
+      return;
+    final IJsonArray ret = new JsonArray ();
+    for (final IValidationExecutorSet <IValidationSourceXML> aVES : m_aRegistry.getAll ())
+      ret.add (PhiveJsonHelper.getJsonVES (aVES));
+    _sendJson (aExchange, 200, ret);
+  }
+
+  private void _handleStatus (@Nonnull final HttpExchange aExchange) throws IOException
+  {
+    if (!_checkMethod (aExchange, "GET"))
+      return;
+    final IJsonObject ret = new JsonObject ();
+    ret.add (JSON_REQUEST_COUNT, getRequestCount ());
+    ret.add (JSON_DOCUMENT_COUNT, getDocumentCount ());
+    ret.add (JSON_REJECTED_COUNT, getRejectedCount ());
+    ret.add (JSON_VALIDATION_MS, getValidationMillis ());
+    _sendJson (aExchange, 200, ret);
+  }
+
+  @Nullable
+  private IValidationExecutorSet <IValidationSourceXML> _getVES (@Nullable final String sVESID)
+  {
+    if (StringHelper.hasNoText (sVESID))
+      return null;
+    final VESID aVESID = VESID.parseIDOrNull (sVESID);
+    return aVESID == null ? null : m_aRegistry.getOfID (aVESID);
+  }
+
+  @Nullable
+  private IValidationExecutorSet <IValidationSourceXML> _detectVES (@Nonnull final IValidationSourceXML aSource)
+  {
+    return m_aDetectionIndex == null ? null : m_aDetectionIndex.detectVES (aSource, m_aRegistry);
+  }
+
+  @Nonnull
+  private static String _getPathRest (@Nonnull final HttpExchange aExchange)
+  {
+    final String sPath = aExchange.getRequestURI ().getPath ();
+    final String sContext = aExchange.getHttpContext ().getPath ();
+    return sPath.length () > sContext.length () ? sPath.substring (sContext.length ()) : "";
+  }
+
+  @Nonnull
+  private ValidationResultList _validate (@Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES,
+                                          @Nonnull final IValidationSourceXML aSource)
+  {
+    final ValidationResultList ret = new ValidationResultList ();
+    new ValidationExecutionManager <> (aVES).setUsePipeline (m_bUsePipeline).executeValidation (aSource, ret, m_aDisplayLocale);
+    return ret;
+  }
+
+  @Nonnull
+  private IJsonObject _validateToJson (@Nullable final String sID,
+                                       @Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES,
+                                       @Nonnull final IValidationSourceXML aSource)
+  {
+    final IJsonObject ret = new JsonObject ();
+    if (sID != null)
+      ret.add (JSON_ID, sID);
+    final StopWatch aSW = StopWatch.createdStarted ();
+    try
+    {
+      final ValidationResultList aResults = _validate (aVES, aSource);
+      aSW.stop ();
+      PhiveJsonHelper.applyValidationResultList (ret, aVES, aResults, m_aDisplayLocale, aSW.getMillis (), null, null);
+    }
+    catch (final RuntimeException ex)
+    {
+      aSW.stop ();
+      LOGGER.warn ("Failed to validate " + (sID != null ? "'" + sID + "'" : "document") + ": " + ex.getMessage ());
+      PhiveJsonHelper.applyGlobalError (ret, "Failed to validate: " + ex.getMessage (), aSW.getMillis ());
+    }
+    m_aDocumentCount.incrementAndGet ();
+    m_aValidationMillis.addAndGet (aSW.getMillis ());
+    return ret;
+  }
+
+  @Nullable
+  private <T> Future <T> _submit (@Nonnull final Callable <T> aCallable)
+  {
+    final ThreadPoolExecutor aPool = m_aWorkerPool;
+    try
+    {
+      if (aPool != null)
+        return aPool.submit (aCallable);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // fall through
+    }
+    m_aRejectedCount.incrementAndGet ();
+    return null;
+  }
+
+  @Nullable
+  private static <T> T _get (@Nonnull final Future <T> aFuture) throws IOException
+  {
+    try
+    {
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IOException ("Interrupted while waiting for the validation", ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      throw new IllegalStateException ("Validation failed", aCause);
+    }
+  }
+
+  private void _handleValidate (@Nonnull final HttpExchange aExchange, final boolean bFast) throws IOException
+  {
+    if (!_checkMethod (aExchange, "POST"))
+      return;
+
+    final String sVESID = _getPathRest (aExchange);
+    final boolean bDetect = StringHelper.hasNoText (sVESID) && m_aDetectionIndex != null;
+    IValidationExecutorSet <IValidationSourceXML> aVES = _getVES (sVESID);
+    if (aVES == null && !bDetect)
+    {
+      _sendError (aExchange, 404, "No VES with ID '" + sVESID + "' is registered");
+      return;
+    }
+
+    final ValidationSourceXMLSpooled aSource;
+    try
+    {
+      aSource = ValidationSourceXMLSpooled.create ("request",
+                                                   Channels.newChannel (new LimitedInputStream (aExchange.getRequestBody (),
+                                                                                                m_nMaxRequestBytes)));
+    }
+    catch (final UncheckedIOException ex)
+    {
+      if (ex.getCause () instanceof RequestTooLargeException)
+        _sendError (aExchange, 413, ex.getCause ().getMessage ());
+      else
+        _sendError (aExchange, 400, "Failed to read the request body: " + ex.getMessage ());
+      return;
+    }
+
+    if (bDetect)
+    {
+      aVES = _detectVES (aSource);
+      if (aVES == null)
+      {
+        _sendError (aExchange, 404, "No matching VES could be detected");
+        return;
+      }
+    }
+    final IValidationExecutorSet <IValidationSourceXML> aEffectiveVES = aVES;
+
+    final IJsonObject aResponse;
+    if (bFast)
+    {
+      final Future <IJsonObject> aFuture = _submit ( () -> {
+        final StopWatch aSW = StopWatch.createdStarted ();
+        final EValidity eValidity = ValidationExecutionManager.executeFastValidation (aEffectiveVES, aSource);
+        aSW.stop ();
+        m_aDocumentCount.incrementAndGet ();
+        m_aValidationMillis.addAndGet (aSW.getMillis ());
+        return new JsonObject ().add (PhiveJsonHelper.JSON_SUCCESS, eValidity.isValid ())
+                                .add (PhiveJsonHelper.JSON_DURATION_MS, aSW.getMillis ());
+      });
+      if (aFuture == null)
+      {
+        _sendBusy (aExchange);
+        return;
+      }
+      aResponse = _get (aFuture);
+    }
+    else
+    {
+      final Future <IJsonObject> aFuture = _submit ( () -> _validateToJson (null, aEffectiveVES, aSource));
+      if (aFuture == null)
+      {
+        _sendBusy (aExchange);
+        return;
+      }
+      aResponse = _get (aFuture);
+    }
+    _sendJson (aExchange, 200, aResponse);
+  }
+
+  private static void _sendBusy (@Nonnull final HttpExchange aExchange) throws IOException
+  {
+    aExchange.getResponseHeaders ().set ("Retry-After", "1");
+    _sendError (aExchange, 503, "The server is busy - please try again later");
+  }
+
+  @Nonnull
+  private Future <?> _submitOrRun (@Nonnull final Callable <?> aCallable)
+  {
+    final Future <?> ret = _submit (aCallable);
+    if (ret != null)
+      return ret;
+    // Back pressure: validate in the connection thread
+    final FutureTask <?> aTask = new FutureTask <> (aCallable);
+    aTask.run ();
+    return aTask;
+  }
+
+  /**
+   * Writes the NDJSON lines of a multi document response. Lines are written
+   * by the worker threads as soon as a result is available. After the first
+   * write error (most likely the client closed the connection) all further
+   * lines are discarded.
+   *
+   * @author Philip Helger
+   */
+  private static final class NDJsonResponseWriter implements Closeable
+  {
+    private final Writer m_aWriter;
+    private final JsonWriter m_aJsonWriter = new JsonWriter ();
+    @GuardedBy ("this")
+    private boolean m_bFailed = false;
+
+    NDJsonResponseWriter (@Nonnull final OutputStream aOS)
+    {
+      m_aWriter = new OutputStreamWriter (aOS, StandardCharsets.UTF_8);
+    }
+
+    synchronized void write (@Nonnull final IJsonObject aObj)
+    {
+      if (!m_bFailed)
+        try
+        {
+          m_aJsonWriter.writeToWriter (aObj, m_aWriter);
+          m_aWriter.write ('\n');
+          m_aWriter.flush ();
+        }
+        catch (final IOException ex)
+        {
+          m_bFailed = true;
+          LOGGER.warn ("Failed to write the multi document response: " + ex.getMessage ());
+        }
+    }
+
+    public synchronized void close () throws IOException
+    {
+      m_aWriter.close ();
+    }
+  }
+
+  private void _handleValidateMulti (@Nonnull final HttpExchange aExchange) throws IOException
+  {
+    if (!_checkMethod (aExchange, "POST"))
+      return;
+
+    final String sVESID = _getPathRest (aExchange);
+    final IValidationExecutorSet <IValidationSourceXML> aPathVES = _getVES (sVESID);
+    if (aPathVES == null && StringHelper.hasText (sVESID))
+    {
+      _sendError (aExchange, 404, "No VES with ID '" + sVESID + "' is registered");
+      return;
+    }
+
+    final String sContentType = aExchange.getRequestHeaders ().getFirst ("Content-Type");
+    final String sBoundary = MultipartReader.getBoundary (sContentType);
+    if (sBoundary != null && aPathVES == null && m_aDetectionIndex == null)
+    {
+      _sendError (aExchange, 404, "A VESID must be provided in the path for multipart requests");
+      return;
+    }
+
+    // Send the headers before the request body is read, so that the results
+    // can be streamed back as they complete
+    aExchange.getResponseHeaders ().set ("Content-Type", CONTENT_TYPE_NDJSON);
+    aExchange.sendResponseHeaders (200, 0);
+
+    final InputStream aIS = new LimitedInputStream (aExchange.getRequestBody (), m_nMaxRequestBytes);
+    final ICommonsList <Future <?>> aPending = new CommonsArrayList <> ();
+    final AtomicBoolean aAborted = new AtomicBoolean (false);
+    try (final NDJsonResponseWriter aOut = new NDJsonResponseWriter (aExchange.getResponseBody ()))
+    {
+      try
+      {
+        if (sBoundary != null)
+        {
+          final MultipartReader aReader = new MultipartReader (aIS, sBoundary);
+          MultipartReader.Part aPart;
+          int nIndex = 0;
+          while ((aPart = aReader.readNextPart ()) != null)
+          {
+            final String sID = aPart.getName () != null ? aPart.getName () : Integer.toString (nIndex);
+            final ValidationSourceXMLSpooled aSource = new ValidationSourceXMLSpooled (sID, ByteBuffer.wrap (aPart.getContent ()));
+            final IValidationExecutorSet <IValidationSourceXML> aVES = aPathVES != null ? aPathVES : _detectVES (aSource);
+            if (aVES == null)
+              aOut.write (_createErrorJson (sID, "No matching VES could be detected"));
+            else
+              aPending.add (_submitDocument (aOut, aAborted, sID, aVES, aSource));
+            nIndex++;
+          }
+        }
+        else
+        {
+          // NDJSON
+          final BufferedReader aReader = new BufferedReader (new InputStreamReader (aIS, StandardCharsets.UTF_8));
+          String sLine;
+          int nIndex = 0;
+          while ((sLine = aReader.readLine ()) != null)
+          {
+            if (StringHelper.hasNoText (sLine))
+              continue;
+            final String sDefaultID = Integer.toString (nIndex++);
+            final IJson aJson = JsonReader.readFromString (sLine);
+            if (aJson == null || !aJson.isObject ())
+            {
+              aOut.write (_createErrorJson (sDefaultID, "Line is not a JSON object"));
+              continue;
+            }
+            final IJsonObject aObj = (IJsonObject) aJson;
+            final String sID = StringHelper.hasText (aObj.getAsString (JSON_ID)) ? aObj.getAsString (JSON_ID) : sDefaultID;
+            final String sLineVESID = aObj.getAsString (PhiveJsonHelper.JSON_VESID);
+            final IValidationExecutorSet <IValidationSourceXML> aLineVES = StringHelper.hasText (sLineVESID) ? _getVES (sLineVESID)
+                                                                                                            : aPathVES;
+            final boolean bDetect = StringHelper.hasNoText (sLineVESID) && StringHelper.hasNoText (sVESID) && m_aDetectionIndex != null;
+            final String sContent = aObj.getAsString (JSON_CONTENT);
+            if (aLineVES == null && !bDetect)
+              aOut.write (_createErrorJson (sID, "No VES with ID '" + StringHelper.getNotNull (sLineVESID, sVESID) + "' is registered"));
+            else
+              if (sContent == null)
+                aOut.write (_createErrorJson (sID, "The field '" + JSON_CONTENT + "' is missing"));
+              else
+              {
+                final ValidationSourceXMLSpooled aSource = new ValidationSourceXMLSpooled (sID,
+                                                                                           ByteBuffer.wrap (sContent.getBytes (StandardCharsets.UTF_8)));
+                final IValidationExecutorSet <IValidationSourceXML> aVES = aLineVES != null ? aLineVES : _detectVES (aSource);
+                if (aVES == null)
+                  aOut.write (_createErrorJson (sID, "No matching VES could be detected"));
+                else
+                  aPending.add (_submitDocument (aOut, aAborted, sID, aVES, aSource));
+              }
+          }
+        }
+      }
+      catch (final IOException ex)
+      {
+        // The headers were already sent - skip the documents not yet
+        // validated and report the error as the last line
+        aAborted.set (true);
+        final String sErrorMsg = ex instanceof RequestTooLargeException ? ex.getMessage ()
+                                                                        : "Failed to read the request body: " + ex.getMessage ();
+        LOGGER.warn ("Error reading multi document request " + aExchange.getRequestURI () + ": " + ex.getMessage ());
+        _waitForAll (aPending);
+        final IJsonObject aError = new JsonObject ();
+        PhiveJsonHelper.applyGlobalError (aError, sErrorMsg, 0);
+        aOut.write (aError);
+        return;
+      }
+
+      // Wait until all results are written
+      _waitForAll (aPending);
+    }
+  }
+
+  @Nonnull
+  private Future <?> _submitDocument (@Nonnull final NDJsonResponseWriter aOut,
+                                      @Nonnull final AtomicBoolean aAborted,
+                                      @Nonnull final String sID,
+                                      @Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES,
+                                      @Nonnull final IValidationSourceXML aSource)
+  {
+    return _submitOrRun ( () -> {
+      if (!aAborted.get ())
+        aOut.write (_validateToJson (sID, aVES, aSource));
+      return null;
+    });
+  }
+
+  private static void _waitForAll (@Nonnull final Iterable <Future <?>> aFutures) throws IOException
+  {
+    for (final Future <?> aFuture : aFutures)
+      _get (aFuture);
+  }
+
+  @Nonnull
+  private static IJsonObject _createErrorJson (@Nonnull final String sID, @Nonnull final String sErrorMsg)
+  {
+    final IJsonObject ret = new JsonObject ().add (JSON_ID, sID);
+    PhiveJsonHelper.applyGlobalError (ret, sErrorMsg, 0);
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Address", m_aAddress)
+                                       .append ("WorkerThreads", m_nWorkerThreads)
+                                       .append ("QueueSize", m_nQueueSize)
+                                       .append ("MaxRequestBytes", m_nMaxRequestBytes)
+                                       .append ("UsePipeline", m_bUsePipeline)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2014-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phive.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.json.IJsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.engine.detect.VESDetectionIndex;
+import com.helger.phive.engine.source.IValidationSourceXML;
+import com.helger.phive.engine.xsd.ValidationExecutorXSD;
+import com.helger.phive.json.PhiveJsonHelper;
+
+/**
+ * Test class for class {@link PhiveServer}.
+ *
+ * @author Philip Helger
+ */
+public final class PhiveServerTest
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (PhiveServerTest.class);
+  private static final VESID VESID_XSD = new VESID ("com.helger", "phive-server-test", "1.0");
+  private static final String XML_VALID = "<Root xmlns='urn:com.helger/xml/ns/phive-json/1.0'><A1>a</A1></Root>";
+  private static final String XML_INVALID = "<Root xmlns='urn:com.helger/xml/ns/phive-json/1.0'><bla/></Root>";
+
+  private static final class Response
+  {
+    private final int m_nStatus;
+    private final String m_sBody;
+
+    Response (final int nStatus, final String sBody)
+    {
+      m_nStatus = nStatus;
+      m_sBody = sBody;
+    }
+  }
+
+  @Nonnull
+  private static Response _call (@Nonnull final String sURL, @Nonnull final String sContentType, @Nonnull final String sBody) throws IOException
+  {
+    final HttpURLConnection aConn = (HttpURLConnection) new URL (sURL).openConnection ();
+    aConn.setRequestMethod ("POST");
+    aConn.setDoOutput (true);
+    aConn.setRequestProperty ("Content-Type", sContentType);
+    try (final OutputStream aOS = aConn.getOutputStream ())
+    {
+      aOS.write (sBody.getBytes (StandardCharsets.UTF_8));
+    }
+    final int nStatus = aConn.getResponseCode ();
+    try (final InputStream aIS = nStatus < 400 ? aConn.getInputStream () : aConn.getErrorStream ())
+    {
+      return new Response (nStatus, StreamHelper.getAllBytesAsString (aIS, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Nonnull
+  private static String _getPart (@Nonnull final String sBoundary, @Nonnull final String sFilename, @Nonnull final String sContent)
+  {
+    return "--" +
+           sBoundary +
+           "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" +
+           sFilename +
+           "\"\r\nContent-Type: application/xml\r\n\r\n" +
+           sContent +
+           "\r\n";
+  }
+
+  @Nonnull
+  private static IJsonObject _readObject (@Nonnull final String sJson)
+  {
+    final IJsonObject ret = (IJsonObject) JsonReader.readFromString (sJson);
+    assertNotNull (sJson, ret);
+    return ret;
+  }
+
+  /**
+   * @param sBody
+   *        The NDJSON response body
+   * @return The result objects by their ID, as the results of a multi document
+   *         request are in the order of completion
+   */
+  @Nonnull
+  private static ICommonsMap <String, IJsonObject> _readLinesByID (@Nonnull final String sBody)
+  {
+    final ICommonsMap <String, IJsonObject> ret = new CommonsHashMap <> ();
+    for (final String sLine : StringHelper.getExploded ('\n', sBody.trim ()))
+    {
+      final IJsonObject aObj = _readObject (sLine);
+      assertNull (ret.put (aObj.getAsString (PhiveServer.JSON_ID), aObj));
+    }
+    return ret;
+  }
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    // Must be set before the first server is created
+    System.setProperty (PhiveServer.SYSPROP_HTTPSERVER_NODELAY, "true");
+  }
+
+  @Test
+  public void testEndpoints () throws IOException
+  {
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_XSD,
+                                                                           "Test XSD",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd"))));
+
+    try (final PhiveServer aServer = new PhiveServer (aRegistry).bindAddress (new InetSocketAddress ("localhost", 0))
+                                                                .workerThreads (2)
+                                                                .start ())
+    {
+      final String sBaseURL = "http://localhost:" + aServer.getPort ();
+      final String sVESID = VESID_XSD.getAsSingleID ();
+
+      // Single
+      Response aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE + sVESID, "application/xml", XML_VALID);
+      assertEquals (200, aResponse.m_nStatus);
+      assertTrue (_readObject (aResponse.m_sBody).getAsBoolean (PhiveJsonHelper.JSON_SUCCESS));
+
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE + sVESID, "application/xml", XML_INVALID);
+      assertEquals (200, aResponse.m_nStatus);
+      assertEquals (Boolean.FALSE, _readObject (aResponse.m_sBody).getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+
+      // Fast
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE_FAST + sVESID, "application/xml", XML_INVALID);
+      assertEquals (200, aResponse.m_nStatus);
+      assertEquals (Boolean.FALSE, _readObject (aResponse.m_sBody).getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+
+      // Unknown VES
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE + "a:b:c", "application/xml", XML_VALID);
+      assertEquals (404, aResponse.m_nStatus);
+
+      // Multi NDJSON
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE_MULTI + sVESID,
+                         "application/x-ndjson",
+                         "{\"id\":\"doc1\",\"content\":\"" +
+                                                XML_VALID +
+                                                "\"}\n{\"id\":\"doc2\",\"content\":\"" +
+                                                XML_INVALID +
+                                                "\"}\n{\"id\":\"doc3\",\"vesid\":\"a:b:c\",\"content\":\"\"}\n");
+      assertEquals (200, aResponse.m_nStatus);
+      ICommonsMap <String, IJsonObject> aResults = _readLinesByID (aResponse.m_sBody);
+      assertEquals (3, aResults.size ());
+      assertTrue (aResults.get ("doc1").getAsBoolean (PhiveJsonHelper.JSON_SUCCESS));
+      assertEquals (Boolean.FALSE, aResults.get ("doc2").getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+      assertEquals (Boolean.FALSE, aResults.get ("doc3").getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+
+      // Multi multipart
+      final String sBoundary = "phive-boundary";
+      final String sMultipart = _getPart (sBoundary, "a.xml", XML_INVALID) +
+                                _getPart (sBoundary, "b.xml", XML_VALID) +
+                                "--" +
+                                sBoundary +
+                                "--\r\n";
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE_MULTI + sVESID, "multipart/form-data; boundary=" + sBoundary, sMultipart);
+      assertEquals (200, aResponse.m_nStatus);
+      aResults = _readLinesByID (aResponse.m_sBody);
+      assertEquals (2, aResults.size ());
+      assertEquals (Boolean.FALSE, aResults.get ("a.xml").getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+      assertTrue (aResults.get ("b.xml").getAsBoolean (PhiveJsonHelper.JSON_SUCCESS));
+
+      assertEquals (7, aServer.getDocumentCount ());
+    }
+  }
+
+  @Test
+  public void testDetection () throws IOException
+  {
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_XSD,
+                                                                           "Test XSD",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd"))));
+    final VESDetectionIndex aIndex = new VESDetectionIndex ();
+    assertTrue (aIndex.addAllFromRegistry (aRegistry) > 0);
+
+    try (final PhiveServer aServer = new PhiveServer (aRegistry).bindAddress (new InetSocketAddress ("localhost", 0))
+                                                                .detectionIndex (aIndex)
+                                                                .start ())
+    {
+      final String sBaseURL = "http://localhost:" + aServer.getPort ();
+
+      // Single without VESID
+      Response aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE, "application/xml", XML_VALID);
+      assertEquals (200, aResponse.m_nStatus);
+      assertTrue (_readObject (aResponse.m_sBody).getAsBoolean (PhiveJsonHelper.JSON_SUCCESS));
+
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE, "application/xml", "<Other xmlns='urn:other'/>");
+      assertEquals (404, aResponse.m_nStatus);
+
+      // Multi NDJSON without VESID
+      aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE_MULTI,
+                         "application/x-ndjson",
+                         "{\"id\":\"doc1\",\"content\":\"" + XML_INVALID + "\"}\n{\"id\":\"doc2\",\"content\":\"<Other/>\"}\n");
+      assertEquals (200, aResponse.m_nStatus);
+      final ICommonsMap <String, IJsonObject> aResults = _readLinesByID (aResponse.m_sBody);
+      assertEquals (2, aResults.size ());
+      assertEquals (Boolean.FALSE, aResults.get ("doc1").getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+      assertEquals (VESID_XSD.getAsSingleID (),
+                    aResults.get ("doc1").getAsObject (PhiveJsonHelper.JSON_VES).getAsString (PhiveJsonHelper.JSON_VESID));
+      assertEquals (Boolean.FALSE, aResults.get ("doc2").getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+    }
+  }
+
+  @Test
+  public void testRequestTooLargeAfterHeaders () throws IOException
+  {
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_XSD,
+                                                                           "Test XSD",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd"))));
+
+    try (final PhiveServer aServer = new PhiveServer (aRegistry).bindAddress (new InetSocketAddress ("localhost", 0))
+                                                                .maxRequestBytes (1024)
+                                                                .start ())
+    {
+      final StringBuilder aSB = new StringBuilder ();
+      for (int i = 0; i < 50; ++i)
+        aSB.append ("{\"id\":\"doc" + i + "\",\"content\":\"" + XML_VALID + "\"}\n");
+      final Response aResponse = _call ("http://localhost:" + aServer.getPort () + PhiveServer.PATH_VALIDATE_MULTI + VESID_XSD.getAsSingleID (),
+                                        "application/x-ndjson",
+                                        aSB.toString ());
+      // The headers are sent before the body is read
+      assertEquals (200, aResponse.m_nStatus);
+      final ICommonsList <String> aLines = StringHelper.getExploded ('\n', aResponse.m_sBody.trim ());
+      assertTrue (aLines.size () < 50);
+      // The last line contains the error
+      final IJsonObject aLast = _readObject (aLines.getLast ());
+      assertNull (aLast.getAsString (PhiveServer.JSON_ID));
+      assertEquals (Boolean.FALSE, aLast.getAsBooleanObj (PhiveJsonHelper.JSON_SUCCESS));
+    }
+  }
+
+  /**
+   * Measures the throughput of single and multi document validations. The
+   * numbers are only logged, as they depend on the machine.
+   *
+   * @throws IOException
+   *         on error
+   */
+  @Test
+  public void testThroughput () throws IOException
+  {
+    final ValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = new ValidationExecutorSetRegistry <> ();
+    aRegistry.registerValidationExecutorSet (ValidationExecutorSet.create (VESID_XSD,
+                                                                           "Test XSD",
+                                                                           false,
+                                                                           ValidationExecutorXSD.create (new ClassPathResource ("test/schema1.xsd"))));
+
+    try (final PhiveServer aServer = new PhiveServer (aRegistry).bindAddress (new InetSocketAddress ("localhost", 0)).start ())
+    {
+      final String sBaseURL = "http://localhost:" + aServer.getPort ();
+      final String sVESID = VESID_XSD.getAsSingleID ();
+      final int nDocs = 2_000;
+
+      // Warm up
+      _call (sBaseURL + PhiveServer.PATH_VALIDATE + sVESID, "application/xml", XML_VALID);
+
+      // Single documents, one request each
+      StopWatch aSW = StopWatch.createdStarted ();
+      for (int i = 0; i < nDocs; ++i)
+        assertEquals (200, _call (sBaseURL + PhiveServer.PATH_VALIDATE + sVESID, "application/xml", XML_VALID).m_nStatus);
+      aSW.stop ();
+      LOGGER.info ("Single: " + nDocs + " documents in " + aSW.getMillis () + " ms = " + (nDocs * 1000L / Math.max (1, aSW.getMillis ())) + " documents/s");
+
+      // All documents in one multi request
+      final StringBuilder aSB = new StringBuilder ();
+      for (int i = 0; i < nDocs; ++i)
+        aSB.append ("{\"id\":\"doc" + i + "\",\"content\":\"" + (i % 2 == 0 ? XML_VALID : XML_INVALID) + "\"}\n");
+      aSW = StopWatch.createdStarted ();
+      final Response aResponse = _call (sBaseURL + PhiveServer.PATH_VALIDATE_MULTI + sVESID, "application/x-ndjson", aSB.toString ());
+      aSW.stop ();
+      assertEquals (200, aResponse.m_nStatus);
+      assertEquals (nDocs, _readLinesByID (aResponse.m_sBody).size ());
+      LOGGER.info ("Multi: " + nDocs + " documents in " + aSW.getMillis () + " ms = " + (nDocs * 1000L / Math.max (1, aSW.getMillis ())) + " documents/s");
+    }
+  }
+}